@@ -52,8 +52,11 @@ import org.codehaus.plexus.util.DirectoryScanner;
 import org.eclipse.osgi.util.ManifestElement;
 import org.jahia.utils.maven.plugin.AetherAwareMojo;
 import org.jahia.utils.maven.plugin.SLF4JLoggerToMojoLogBridge;
+import org.jahia.utils.maven.plugin.osgi.framework.models.PackageVersionTable;
+import org.jahia.utils.maven.plugin.osgi.framework.scanner.JarPackageIndex;
 import org.jahia.utils.osgi.ManifestValueClause;
 import org.jahia.utils.osgi.ManifestValueParser;
+import org.jahia.utils.osgi.VersionNormalizer;
 import org.jahia.utils.osgi.PropertyFileUtils;
 import org.osgi.framework.BundleException;
 
@@ -63,8 +66,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -88,17 +89,6 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
     public static final String VERSION_NUMBER_PATTERN_STRING = "([\\d\\.]*\\d)(.*)";
     //private static final Pattern VERSION_NUMBER_PATTERN = Pattern.compile(VERSION_NUMBER_PATTERN_STRING);
 
-    /**
-     * Clean up version parameters. Other builders use more fuzzy definitions of
-     * the version syntax. This method cleans up such a version to match an OSGi
-     * version.
-     *
-     * @param VERSION_STRING
-     * @return
-     */
-    static final Pattern FUZZY_VERSION = Pattern.compile("(\\d+)(\\.(\\d+)(\\.(\\d+))?)?([^a-zA-Z0-9](.*))?",
-            Pattern.DOTALL);
-
     /**
      * @parameter default-value="${project.build.directory}/classes/META-INF/MANIFEST.MF"
      */
@@ -188,43 +178,17 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
      */
     protected String propertyFileBootDelegationPropertyName = "org.osgi.framework.bootdelegation";
 
+    /**
+     * The directory of the persistent index of the scanned JARs, shared with the jahia-system-packages-check goal.
+     * Set to an empty value to always read the JARs.
+     * @parameter default-value="${user.home}/.m2/jar-package-index"
+     */
+    protected String jarPackageIndexDirectory;
+
+    private JarPackageIndex jarPackageIndex;
     private List<Pattern> artifactExclusionPatterns = new ArrayList<Pattern>();
     private List<Pattern> packageExclusionPatterns = new ArrayList<Pattern>();
 
-    private class VersionLocation {
-        private String location;
-        private String version;
-        private String specificationVersion;
-        private long counter = 0;
-
-        public VersionLocation(String location, String version, String specificationVersion) {
-            this.location = location;
-            this.version = version;
-            this.specificationVersion = specificationVersion;
-        }
-
-        @SuppressWarnings("unused")
-        public String getLocation() {
-            return location;
-        }
-
-        public String getVersion() {
-            return version;
-        }
-
-        public String getSpecificationVersion() {
-            return specificationVersion;
-        }
-
-        public void incrementCounter() {
-            counter++;
-        }
-
-        public long getCounter() {
-            return counter;
-        }
-    }
-
     public void setPackageExcludes(List<String> packageExcludes) {
         this.packageExcludes = packageExcludes;
     }
@@ -236,7 +200,7 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
 
         buildPackageExcludes();
 
-        Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts = new TreeMap<String, Map<String, Map<String, VersionLocation>>>();
+        PackageVersionTable packageVersionCounts = new PackageVersionTable();
         Map<String, Set<String>> packageVersions = new TreeMap<String, Set<String>>();
         String generatedPackageList = null;
 
@@ -407,7 +371,7 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
         return false;
     }
 
-    private void scanExistingExports(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts) {
+    private void scanExistingExports(PackageVersionTable packageVersionCounts) {
         if (!propertiesInputFile.exists()) {
             return;
         }
@@ -441,7 +405,7 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
         }
     }
 
-    private void scanExistingManifest(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts) throws IOException, Exception {
+    private void scanExistingManifest(PackageVersionTable packageVersionCounts) throws IOException, Exception {
         FileInputStream in = null;
         try {
             if (inputManifestFile.exists()) {
@@ -480,41 +444,32 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
         }
     }
 
-    private void resolveSplitPackages(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts, Map<String, Set<String>> packageVersions) {
-        for (Map.Entry<String, Map<String, Map<String, VersionLocation>>> resolvedPackageVersion : packageVersionCounts.entrySet()) {
-            boolean allVersionsEqual = true;
-            Set<String> previousVersions = null;
-            for (Map.Entry<String, Map<String, VersionLocation>> versionLocationEntry : resolvedPackageVersion.getValue().entrySet()) {
-                if (previousVersions != null && !previousVersions.equals(versionLocationEntry.getValue().keySet())) {
-                    allVersionsEqual = false;
-                    break;
-                }
-                previousVersions = versionLocationEntry.getValue().keySet();
-            }
-            if (resolvedPackageVersion.getValue().size() > 1 && !allVersionsEqual) {
-                getLog().warn("Split-package with different versions detected for package " + resolvedPackageVersion.getKey() + ":");
-            }
-            Set<String> versions = new HashSet<String>();
-            for (Map.Entry<String, Map<String, VersionLocation>> versionLocationEntry : resolvedPackageVersion.getValue().entrySet()) {
-                if (resolvedPackageVersion.getValue().size() > 1 && !allVersionsEqual) {
-                    for (Map.Entry<String, VersionLocation> versionLocationsEntry : versionLocationEntry.getValue().entrySet()) {
-                        getLog().warn("  - " + versionLocationEntry.getKey() + " v" + versionLocationsEntry.getValue().getVersion() + " count=" + versionLocationsEntry.getValue().getCounter() + " Specification-Version=" + versionLocationsEntry.getValue().getSpecificationVersion());
-                    }
-                }
-                if (versionLocationEntry.getValue() == null) {
-                    continue;
+    private void resolveSplitPackages(PackageVersionTable packageVersionCounts, Map<String, Set<String>> packageVersions) {
+        for (int packageId : packageVersionCounts.getSortedPackageIds()) {
+            String packageName = packageVersionCounts.getPackageName(packageId);
+            if (packageVersionCounts.getLocationCount(packageId) > 1 && !packageVersionCounts.hasSameVersionsAtAllLocations(packageId)) {
+                getLog().warn("Split-package with different versions detected for package " + packageName + ":");
+                Set<String> locations = new LinkedHashSet<String>();
+                for (int record = packageVersionCounts.getFirstRecord(packageId); record != -1; record = packageVersionCounts.getNextRecord(record)) {
+                    locations.add(packageVersionCounts.getLocation(record));
                 }
-                for (String version : versionLocationEntry.getValue().keySet()) {
-                    if (!versions.contains(version)) {
-                        versions.add(version);
+                for (String location : locations) {
+                    for (int record = packageVersionCounts.getFirstRecord(packageId); record != -1; record = packageVersionCounts.getNextRecord(record)) {
+                        if (location.equals(packageVersionCounts.getLocation(record))) {
+                            getLog().warn("  - " + location + " v" + cleanupVersion(packageVersionCounts.getVersion(record)) + " count=" + packageVersionCounts.getCounter(record) + " Specification-Version=" + packageVersionCounts.getSpecificationVersion(record));
+                        }
                     }
                 }
             }
-            packageVersions.put(resolvedPackageVersion.getKey(), versions);
+            Set<String> versions = new HashSet<String>();
+            for (int record = packageVersionCounts.getFirstRecord(packageId); record != -1; record = packageVersionCounts.getNextRecord(record)) {
+                versions.add(packageVersionCounts.getVersion(record));
+            }
+            packageVersions.put(packageName, versions);
         }
     }
 
-    private void scanClassesBuildDirectory(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts) throws IOException {
+    private void scanClassesBuildDirectory(PackageVersionTable packageVersionCounts) throws IOException {
         File outputDirectoryFile = new File(project.getBuild().getOutputDirectory());
         getLog().info("Scanning project build directory " + outputDirectoryFile.getCanonicalPath());
         DirectoryScanner ds = new DirectoryScanner();
@@ -543,7 +498,7 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
         }
     }
 
-    private void scanDependencies(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts) throws IOException {
+    private void scanDependencies(PackageVersionTable packageVersionCounts) throws IOException {
         getLog().info("Scanning project dependencies...");
         for (Artifact artifact : project.getArtifacts()) {
             String exclusionMatched = null;
@@ -572,9 +527,13 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
         }
     }
 
-    private void scanJar(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts, File jarFile, String defaultVersion) throws IOException {
-        JarInputStream jarInputStream = new JarInputStream(new FileInputStream(jarFile));
-        Manifest jarManifest = jarInputStream.getManifest();
+    private void scanJar(PackageVersionTable packageVersionCounts, File jarFile, String defaultVersion) throws IOException {
+        if (jarPackageIndex == null && StringUtils.isNotEmpty(jarPackageIndexDirectory)) {
+            jarPackageIndex = new JarPackageIndex(new File(jarPackageIndexDirectory), getLog());
+        }
+        JarPackageIndex.JarContents jarContents = jarPackageIndex != null ?
+                jarPackageIndex.getJarContents(jarFile) : JarPackageIndex.readJarContents(jarFile);
+        Manifest jarManifest = jarContents.getManifest();
         String specificationVersion = null;
         if (jarManifest == null) {
             getLog().warn("No MANIFEST.MF file found for dependency " + jarFile);
@@ -649,31 +608,23 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
                 }
             }
         }
-        JarEntry jarEntry = null;
-        // getLog().debug("Processing file " + artifact.getFile() + "...");
-        while ((jarEntry = jarInputStream.getNextJarEntry()) != null) {
-            if (!jarEntry.isDirectory()) {
-                String entryName = jarEntry.getName();
-                String entryPackage = "";
-                int lastSlash = entryName.lastIndexOf("/");
-                if (lastSlash > -1) {
-                    entryPackage = entryName.substring(0, lastSlash);
-                    entryPackage = entryPackage.replaceAll("/", ".");
-                    if (StringUtils.isNotEmpty(entryPackage) &&
-                            !entryPackage.startsWith("META-INF") &&
-                            !entryPackage.startsWith("OSGI-INF") &&
-                            !entryPackage.startsWith("OSGI-OPT") &&
-                            !entryPackage.startsWith("WEB-INF") &&
-                            !entryPackage.startsWith("org.osgi")) {
-                        updateVersionLocationCounts(packageVersionCounts, jarFile.getCanonicalPath(), defaultVersion, specificationVersion, entryPackage);
-                    }
+        String jarFileCanonicalPath = jarFile.getCanonicalPath();
+        for (Map.Entry<String, Integer> packageEntryCount : jarContents.getPackageEntryCounts().entrySet()) {
+            String entryPackage = packageEntryCount.getKey();
+            if (!entryPackage.startsWith("META-INF") &&
+                    !entryPackage.startsWith("OSGI-INF") &&
+                    !entryPackage.startsWith("OSGI-OPT") &&
+                    !entryPackage.startsWith("WEB-INF") &&
+                    !entryPackage.startsWith("org.osgi")) {
+                // the version location counters count the entries of each package
+                for (int i = 0; i < packageEntryCount.getValue(); i++) {
+                    updateVersionLocationCounts(packageVersionCounts, jarFileCanonicalPath, defaultVersion, specificationVersion, entryPackage);
                 }
             }
         }
-        jarInputStream.close();
     }
 
-    private void excludePackages(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts, String propertyFileExclusionPropertyName) throws IOException, MojoExecutionException {
+    private void excludePackages(PackageVersionTable packageVersionCounts, String propertyFileExclusionPropertyName) throws IOException, MojoExecutionException {
         if (!propertiesInputFile.exists()) {
             return;
         }
@@ -699,53 +650,34 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
                     }
                 }
             }
-            for (String pack : packageVersionCounts.keySet()) {
+            for (String pack : packageVersionCounts.getSortedPackageNames()) {
                 for (String pattern : excludedPatterns) {
                     if (pack.startsWith(pattern)) {
                         excludedPackages.add(pack);
                     }
                 }
             }
-            packageVersionCounts.keySet().removeAll(excludedPackages);
+            for (String excludedPackage : excludedPackages) {
+                packageVersionCounts.removePackage(excludedPackage);
+            }
         } finally {
             IOUtils.closeQuietly(fileInputStream);
         }
     }
 
-    private void excludeSystemPackages(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts) throws IOException, MojoExecutionException {
+    private void excludeSystemPackages(PackageVersionTable packageVersionCounts) throws IOException, MojoExecutionException {
         excludePackages(packageVersionCounts, propertyFileSystemPackagesPropertyName);
     }
 
-    private void updateVersionLocationCounts(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts,
+    private void updateVersionLocationCounts(PackageVersionTable packageVersionCounts,
                                              String originLocation,
                                              String newVersion,
                                              String specificationVersion,
                                              String packageName) throws IOException {
-        // first check if we've already processed this package
-        Map<String, Map<String, VersionLocation>> versionLocations = packageVersionCounts.get(packageName);
-        if (versionLocations == null) {
-            versionLocations = new HashMap<String, Map<String, VersionLocation>>();
-        }
-
-        Map<String, VersionLocation> existingVersionLocations = versionLocations.get(originLocation);
-        if (existingVersionLocations != null && existingVersionLocations.containsKey(newVersion)) {
-            VersionLocation existingVersionLocation = existingVersionLocations.get(newVersion);
-            existingVersionLocation.incrementCounter();
-            existingVersionLocations.put(newVersion, existingVersionLocation);
-        } else {
-            if (existingVersionLocations == null) {
-                existingVersionLocations = new HashMap<String, VersionLocation>();
-            }
-            VersionLocation existingVersionLocation = new VersionLocation(originLocation, cleanupVersion(newVersion), specificationVersion);
-            existingVersionLocation.incrementCounter();
-            existingVersionLocations.put(newVersion, existingVersionLocation);
-        }
-        versionLocations.put(originLocation, existingVersionLocations);
-
-        packageVersionCounts.put(packageName, versionLocations);
+        packageVersionCounts.increment(packageName, originLocation, newVersion, specificationVersion);
     }
 
-    private void scanJarDirectories(Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts) throws IOException, MojoExecutionException {
+    private void scanJarDirectories(PackageVersionTable packageVersionCounts) throws IOException, MojoExecutionException {
         if (jarDirectories == null || jarDirectories.size() == 0) {
             return;
         }
@@ -783,86 +715,11 @@ public class BuildFrameworkPackageListMojo extends AetherAwareMojo {
         }
     }
 
-
-
-
-
-    // The following code was copied from the Maven Bundle Plugin code.
-/*
- * Licensed to the Apache Software Foundation (ASF) under one
- * or more contributor license agreements.  See the NOTICE file
- * distributed with this work for additional information
- * regarding copyright ownership.  The ASF licenses this file
- * to you under the Apache License, Version 2.0 (the
- * "License"); you may not use this file except in compliance
- * with the License.  You may obtain a copy of the License at
- *
- *   http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- */
-
+    /**
+     * Clean up version parameters, see {@link VersionNormalizer#cleanupVersion(String)}.
+     */
     static public String cleanupVersion(String version) {
-        if (version != null) {
-            StringBuffer result = new StringBuffer();
-            Matcher m = FUZZY_VERSION.matcher(version);
-            if (m.matches()) {
-                String major = m.group(1);
-                String minor = m.group(3);
-                String micro = m.group(5);
-                String qualifier = m.group(7);
-
-                if (major != null) {
-                    result.append(major);
-                    if (minor != null) {
-                        result.append(".");
-                        result.append(minor);
-                        if (micro != null) {
-                            result.append(".");
-                            result.append(micro);
-                            if (qualifier != null) {
-                                result.append(".");
-                                cleanupModifier(result, qualifier);
-                            }
-                        } else if (qualifier != null) {
-                            result.append(".0.");
-                            cleanupModifier(result, qualifier);
-                        } else {
-                            result.append(".0");
-                        }
-                    } else if (qualifier != null) {
-                        result.append(".0.0.");
-                        cleanupModifier(result, qualifier);
-                    } else {
-                        result.append(".0.0");
-                    }
-                }
-            } else {
-                result.append("0.0.0.");
-                cleanupModifier(result, version);
-            }
-            return result.toString();
-        }
-
-        return null;
+        return VersionNormalizer.cleanupVersion(version);
     }
 
-    static void cleanupModifier(StringBuffer result, String modifier) {
-        for (int i = 0; i < modifier.length(); i++) {
-            char c = modifier.charAt(i);
-            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
-                    || c == '-')
-                result.append(c);
-            else
-                result.append('_');
-        }
-    }
-
-    // end of copied code.
-
 }
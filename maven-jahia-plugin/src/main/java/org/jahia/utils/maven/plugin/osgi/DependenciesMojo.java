@@ -45,6 +45,7 @@ package org.jahia.utils.maven.plugin.osgi;
 
 import aQute.bnd.header.Attrs;
 import aQute.bnd.osgi.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -63,6 +64,7 @@ import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.jahia.utils.maven.plugin.SLF4JLoggerToMojoLogBridge;
 import org.jahia.utils.maven.plugin.osgi.utils.CapabilityUtils;
+import org.jahia.utils.maven.plugin.osgi.utils.ChecksumUtils;
 import org.jahia.utils.maven.plugin.support.AetherHelper;
 import org.jahia.utils.maven.plugin.support.AetherHelperFactory;
 import org.jahia.utils.maven.plugin.support.ArtifactProcessor;
@@ -70,13 +72,17 @@ import org.jahia.utils.maven.plugin.support.MavenAetherHelperUtils;
 import org.jahia.utils.osgi.BundleUtils;
 import org.jahia.utils.osgi.ManifestValueClause;
 import org.jahia.utils.osgi.PropertyFileUtils;
+import org.jahia.utils.osgi.parsers.CndFileParser;
 import org.jahia.utils.osgi.parsers.PackageInfo;
 import org.jahia.utils.osgi.parsers.Parsers;
 import org.jahia.utils.osgi.parsers.ParsingContext;
+import org.jahia.utils.osgi.parsers.ParsingStatistics;
+import org.jahia.utils.osgi.parsers.cnd.CompiledDefinitionsCache;
 import org.slf4j.Logger;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.jar.*;
 import java.util.stream.Collectors;
 
@@ -187,6 +193,14 @@ public class DependenciesMojo extends BundlePlugin {
      */
     protected String dependencyParsingCacheDirectory = null;
 
+    /**
+     * Read-only dependency parsing cache directories, for example a pre-warmed cache shared between build agents
+     * (see the merge-dependency-cache goal). Their entries are only used if they match the artifact checksums.
+     *
+     * @parameter expression="${jahia.modules.sharedDependencyParsingCacheDirectories}"
+     */
+    protected List<String> sharedDependencyParsingCacheDirectories;
+
     /**
      * @parameter default-value="true"
      */
@@ -204,15 +218,64 @@ public class DependenciesMojo extends BundlePlugin {
      */
     protected boolean skipDependencies;
 
+    /**
+     * The number of threads used to scan the project dependencies. The dependencies are scanned serially by default,
+     * when set to 0 the number of available processors is used.
+     *
+     * @parameter default-value="1" expression="${jahia.modules.dependencyScanThreads}"
+     */
+    protected int dependencyScanThreads = 1;
+
+    /**
+     * If activated, the inputs of the analysis are fingerprinted and the results are stored in the build directory,
+     * so that the next executions can restore them without scanning anything if nothing changed.
+     *
+     * @parameter default-value="false" expression="${jahia.modules.incrementalDependencies}"
+     */
+    protected boolean incrementalDependencies;
+
+    /**
+     * @parameter expression="${plugin.version}"
+     * @readonly
+     */
+    protected String pluginVersion;
+
+    /**
+     * If activated, the time spent, the bytes read and allocated and the cache usage are recorded per phase, per
+     * dependency and per parser. The statistics are written in the build directory and the slowest dependencies and
+     * parsers are listed in the build log.
+     *
+     * @parameter default-value="false" expression="${jahia.modules.dependencyScanStatistics}"
+     */
+    protected boolean dependencyScanStatistics;
+
+    /**
+     * The number of dependencies and parsers listed in the build log when the statistics are activated.
+     *
+     * @parameter default-value="10" expression="${jahia.modules.dependencyScanStatisticsTopCount}"
+     */
+    protected int dependencyScanStatisticsTopCount = 10;
+
     protected Logger logger = new SLF4JLoggerToMojoLogBridge(getLog());
     protected ParsingContextCache parsingContextCache;
+    protected CompiledDefinitionsCache compiledDefinitionsCache;
+    /**
+     * true if the parsing context cache was opened for this execution only. The cache shared by the modules of a
+     * build session is closed when the session ends.
+     */
+    private boolean closeParsingContextCache;
     protected Collection<String> inlinedPaths = new LinkedHashSet<>();
     protected Collection<Artifact> embeddedArtifacts = new LinkedHashSet<>();
     protected ParsingContext projectParsingContext;
     protected Map<String, String> originalInstructions;
     protected List<PackageInfo> existingPackageImports;
     private AetherHelper aetherHelper;
+    private final Map<String, ParsingContext> embeddedJarParsingContexts = new ConcurrentHashMap<>();
     public static final String DEPENDENCY_PARSING_CACHE_DIRECTORY_VERSION = "_v2";
+    protected static final String DEPENDENCIES_STATE_FILE = "jahia-plugin/dependencies-state.properties";
+    protected static final String DEPENDENCIES_STATISTICS_FILE = "jahia-plugin/dependencies-statistics.json";
+    private ParsingStatistics statistics;
+    private final ThreadLocal<ParsingStatistics.Entry> currentArtifactStatistics = new ThreadLocal<>();
 
     protected static void addLocalPackages(File outputDirectory, Analyzer analyzer) throws IOException {
         Packages packages = new Packages();
@@ -315,6 +378,40 @@ public class DependenciesMojo extends BundlePlugin {
         }
 
         initialize();
+        if (scanDirectories.isEmpty()) {
+            scanDirectories.add(project.getBasedir() + "/src/main/resources");
+            scanDirectories.add(project.getBasedir() + "/src/main/import");
+            scanDirectories.add(project.getBasedir() + "/src/main/webapp");
+        }
+
+        File dependenciesStateFile = new File(projectBuildDirectory, DEPENDENCIES_STATE_FILE);
+        String inputFingerprint = null;
+        if (incrementalDependencies) {
+            inputFingerprint = computeInputFingerprint();
+            if (restoreDependenciesState(dependenciesStateFile, inputFingerprint)) {
+                getLog().info("Dependencies analysis is up to date, restored previous results in " + (System.currentTimeMillis() - startTime) + " ms");
+                return;
+            }
+        }
+
+        statistics = dependencyScanStatistics ? new ParsingStatistics() : null;
+        Parsers.getInstance().setStatistics(statistics);
+        try {
+            analyzeDependencies(dependenciesStateFile, inputFingerprint);
+        } finally {
+            // the parsers are shared by all the executions of the build, even a failed one must not leave them recording
+            Parsers.getInstance().setStatistics(null);
+        }
+        if (statistics != null) {
+            writeStatistics(new File(projectBuildDirectory, DEPENDENCIES_STATISTICS_FILE));
+        }
+        if (compiledDefinitionsCache != null) {
+            getLog().debug("Compiled CND definitions cache: " + compiledDefinitionsCache.getHits() + " hits, " + compiledDefinitionsCache.getMisses() + " misses");
+        }
+        getLog().info("Took " + (System.currentTimeMillis() - startTime) + " ms for the dependencies analysis");
+    }
+
+    private void analyzeDependencies(File dependenciesStateFile, String inputFingerprint) throws MojoExecutionException {
         getLog().debug("After init: " + projectParsingContext.getPackageImports().stream().map(packageInfo -> packageInfo.getName() + " from " + String.join(",", packageInfo.getSourceLocations())).collect(Collectors.joining(",\n")));
 
         projectParsingContext.addAllPackageImports(existingPackageImports);
@@ -322,14 +419,22 @@ public class DependenciesMojo extends BundlePlugin {
         getLog().debug("After addAll: " + projectParsingContext.getPackageImports().stream().map(packageInfo -> packageInfo.getName() + " from " + String.join(",", packageInfo.getSourceLocations())).collect(Collectors.joining(",\n")));
 
         long timer = System.currentTimeMillis();
+        long phaseStartNanos = System.nanoTime();
+        long phaseStartAllocatedBytes = ParsingStatistics.getCurrentThreadAllocatedBytes();
+        // only opened once the up to date check is done, a restored analysis does not need the cache
+        openParsingContextCache();
         try {
             scanClassesBuildDirectory(projectParsingContext);
+            recordPhase("classes", phaseStartNanos, phaseStartAllocatedBytes);
 
             getLog().info("Scanned classes directory in " + (System.currentTimeMillis() - timer) + " ms. Found " + projectParsingContext.getLocalPackages().size() + " project packages.");
             getLog().debug("After Scan dir: " + projectParsingContext.getPackageImports().stream().map(packageInfo -> packageInfo.getName() + " from " + String.join(",", packageInfo.getSourceLocations())).collect(Collectors.joining(",\n")));
             timer = System.currentTimeMillis();
+            phaseStartNanos = System.nanoTime();
+            phaseStartAllocatedBytes = ParsingStatistics.getCurrentThreadAllocatedBytes();
 
             int scanned = scanDependencies(projectParsingContext);
+            recordPhase("dependencies", phaseStartNanos, phaseStartAllocatedBytes);
 
             getLog().info("Scanned " + scanned + " project dependencies in " + (System.currentTimeMillis() - timer) + " ms. Currently we have " + projectParsingContext.getLocalPackages().size() + " project packages.");
             getLog().debug("After scan dep: " + projectParsingContext.getPackageImports().stream().map(packageInfo -> packageInfo.getName() + " from " + String.join(",", packageInfo.getSourceLocations())).collect(Collectors.joining(",\n")));
@@ -337,14 +442,13 @@ public class DependenciesMojo extends BundlePlugin {
             throw new MojoExecutionException("Error while scanning dependencies", e);
         } catch (DependencyResolutionRequiredException e) {
             throw new MojoExecutionException("Error while scanning dependencies", e);
+        } finally {
+            releaseParsingContextCache();
         }
         // Parsing TLD and specific files ( "jsp", "jspf", "tag", "tagf", "cnd", "drl", "xml", "groovy" )
-        if (scanDirectories.isEmpty()) {
-            scanDirectories.add(project.getBasedir() + "/src/main/resources");
-            scanDirectories.add(project.getBasedir() + "/src/main/import");
-            scanDirectories.add(project.getBasedir() + "/src/main/webapp");
-        }
         timer = System.currentTimeMillis();
+        phaseStartNanos = System.nanoTime();
+        phaseStartAllocatedBytes = ParsingStatistics.getCurrentThreadAllocatedBytes();
         for (String scanDirectory : scanDirectories) {
             File scanDirectoryFile = new File(scanDirectory);
             if (!scanDirectoryFile.exists()) {
@@ -360,6 +464,7 @@ public class DependenciesMojo extends BundlePlugin {
             }
         }
         getLog().info("Scanned resource directories in " + (System.currentTimeMillis() - timer) + " ms. Currently we have " + projectParsingContext.getLocalPackages().size() + " project packages.");
+        recordPhase("resources", phaseStartNanos, phaseStartAllocatedBytes);
         if (getLog().isDebugEnabled()) {
             getLog().debug("Found project packages (potential exports) :");
             for (PackageInfo projectPackage : projectParsingContext.getLocalPackages()) {
@@ -367,7 +472,10 @@ public class DependenciesMojo extends BundlePlugin {
             }
         }
         getLog().debug("Before post process: \n" + projectParsingContext.getPackageImports().stream().map(packageInfo -> packageInfo.getName() + " from " + String.join(",", packageInfo.getSourceLocations())).collect(Collectors.joining(",\n")));
+        phaseStartNanos = System.nanoTime();
+        phaseStartAllocatedBytes = ParsingStatistics.getCurrentThreadAllocatedBytes();
         projectParsingContext.postProcess();
+        recordPhase("postProcess", phaseStartNanos, phaseStartAllocatedBytes);
         getLog().debug("After post process: \n" + projectParsingContext.getPackageImports().stream().map(packageInfo -> packageInfo.getName() + " from " + String.join(",", packageInfo.getSourceLocations())).collect(Collectors.joining(",\n")));
 
         StringBuilder generatedPackageBuffer = new StringBuilder(256);
@@ -451,6 +559,71 @@ public class DependenciesMojo extends BundlePlugin {
         }
 
 
+        buildJahiaDependsCapabilities();
+
+        String generatedPackageList = generatedPackageBuffer.toString();
+        project.getProperties().put("jahia.plugin.projectPackageImport", generatedPackageList);
+        getLog().debug("Set project property jahia.plugin.projectPackageImport to package import list value: ");
+        getLog().debug(generatedPackageList);
+
+        updateSystemCapabilitiesFile(contentTypeDefinitionsBuffer.toString());
+
+        if (incrementalDependencies) {
+            saveDependenciesState(dependenciesStateFile, inputFingerprint, contentTypeDefinitionsBuffer.toString());
+        }
+    }
+
+    private void recordPhase(String phase, long startNanos, long startAllocatedBytes) {
+        if (statistics != null) {
+            statistics.getPhase(phase).record(startNanos, startAllocatedBytes);
+        }
+    }
+
+    private void recordJarEntry(long bytesRead) {
+        ParsingStatistics.Entry artifactStatistics = currentArtifactStatistics.get();
+        if (artifactStatistics != null) {
+            artifactStatistics.addEntriesInspected(1);
+            artifactStatistics.addBytesRead(bytesRead);
+        }
+    }
+
+    private void writeStatistics(File statisticsFile) {
+        statisticsFile.getParentFile().mkdirs();
+        try {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(statisticsFile, statistics);
+            getLog().info("Wrote dependencies analysis statistics to " + statisticsFile);
+        } catch (IOException e) {
+            getLog().warn("Error writing dependencies analysis statistics to " + statisticsFile + ", error: " + e.getMessage());
+        }
+        for (Map.Entry<String, ParsingStatistics.Entry> phase : statistics.getPhases().entrySet()) {
+            getLog().info("Phase " + phase.getKey() + ": " + formatStatistics(phase.getValue()));
+        }
+        getLog().info("Slowest dependencies:");
+        for (Map.Entry<String, ParsingStatistics.Entry> artifact : ParsingStatistics.getSlowest(statistics.getArtifacts(), dependencyScanStatisticsTopCount)) {
+            getLog().info("  " + artifact.getKey() + ": " + formatStatistics(artifact.getValue()));
+        }
+        getLog().info("Slowest parsers:");
+        for (Map.Entry<String, ParsingStatistics.Entry> parser : ParsingStatistics.getSlowest(statistics.getParsers(), dependencyScanStatisticsTopCount)) {
+            getLog().info("  " + parser.getKey() + ": " + formatStatistics(parser.getValue()));
+        }
+    }
+
+    private String formatStatistics(ParsingStatistics.Entry entry) {
+        StringBuilder formattedStatistics = new StringBuilder();
+        formattedStatistics.append(entry.getWallTimeNanos() / 1000000).append(" ms");
+        if (entry.getEntriesInspected() > 0) {
+            formattedStatistics.append(", ").append(entry.getEntriesInspected()).append(" entries, ").append(entry.getBytesRead()).append(" bytes read");
+        }
+        if (statistics.isAllocationSupported()) {
+            formattedStatistics.append(", ").append(entry.getAllocatedBytes()).append(" bytes allocated");
+        }
+        if (entry.getCacheHits() > 0 || entry.getCacheMisses() > 0) {
+            formattedStatistics.append(", ").append(entry.getCacheHits()).append(" cache hits, ").append(entry.getCacheMisses()).append(" cache misses");
+        }
+        return formattedStatistics.toString();
+    }
+
+    private void buildJahiaDependsCapabilities() {
         if (jahiaDependsCapabilitiesActivated) {
             getLog().info("Building OSGi capabilities for Jahia module dependencies...");
 
@@ -473,19 +646,16 @@ public class DependenciesMojo extends BundlePlugin {
             getLog().debug("Jahia-Depends Provides: " + project.getProperties().getProperty(
                     org.jahia.utils.maven.plugin.osgi.utils.Constants.PROVIDE_CAPABILITY_PROJECT_PROP_KEY));
         }
+    }
 
-        String generatedPackageList = generatedPackageBuffer.toString();
-        project.getProperties().put("jahia.plugin.projectPackageImport", generatedPackageList);
-        getLog().debug("Set project property jahia.plugin.projectPackageImport to package import list value: ");
-        getLog().debug(generatedPackageList);
-
+    private void updateSystemCapabilitiesFile(String contentTypeDefinitions) {
         if (propertiesOutputFile != null) {
             try {
                 if (!propertiesOutputFile.exists()) {
                     propertiesOutputFile.getParentFile().mkdirs();
                     propertiesOutputFile.createNewFile();
                 }
-                String[] extraCapabilitiesPropertyValue = new String[]{contentTypeDefinitionsBuffer.toString()};
+                String[] extraCapabilitiesPropertyValue = new String[]{contentTypeDefinitions};
                 PropertyFileUtils.updatePropertyFile(
                         propertiesInputFile,
                         propertiesOutputFile,
@@ -496,7 +666,99 @@ public class DependenciesMojo extends BundlePlugin {
                 getLog().warn("Error saving extra system capabilities to file " + propertiesOutputFile + " , error: " + e.getMessage());
             }
         }
-        getLog().info("Took " + (System.currentTimeMillis() - startTime) + " ms for the dependencies analysis");
+    }
+
+    /**
+     * Fingerprints everything the analysis depends on: the plugin version and configuration, the bundle plugin
+     * instructions, the scanned directories, the project classes and the resolved dependencies.
+     */
+    protected String computeInputFingerprint() {
+        InputFingerprint fingerprint = new InputFingerprint();
+        fingerprint.add("pluginVersion", pluginVersion)
+                .add("project", project.getId())
+                .add("instructions", new TreeMap<>(originalInstructions))
+                .add("excludeDependencies", excludeDependencies)
+                .add("existingImports", existingImports)
+                .add("existingImportsLegacy", existingImportsLegacy)
+                .add("excludeFromDirectoryScan", excludeFromDirectoryScan)
+                .add("contentDefinitionCapabilitiesActivated", contentDefinitionCapabilitiesActivated)
+                .add("jahiaDependsCapabilitiesActivated", jahiaDependsCapabilitiesActivated)
+                .add("jahiaDependsCapabilitiesPrefix", jahiaDependsCapabilitiesPrefix)
+                .add("systemExtraCapabilitiesPropertyName", systemExtraCapabilitiesPropertyName)
+                .add("propertiesOutputFile", propertiesOutputFile)
+                .addFile("propertiesInputFile", propertiesInputFile)
+                .addFile("projectOutputDirectory", new File(projectOutputDirectory));
+        for (String scanDirectory : scanDirectories) {
+            fingerprint.addFile("scanDirectory", new File(scanDirectory));
+        }
+        List<Artifact> artifacts = new ArrayList<>(project.getArtifacts());
+        artifacts.sort(Comparator.comparing(Artifact::getId));
+        for (Artifact artifact : artifacts) {
+            fingerprint.add("artifact", artifact.getId() + ":" + artifact.isOptional())
+                    .add("dependencyTrail", artifact.getDependencyTrail());
+            String checksum = getArtifactChecksum(artifact.getFile());
+            if (checksum != null) {
+                fingerprint.add("artifactChecksum", checksum);
+            } else {
+                fingerprint.addFile("artifactFile", artifact.getFile());
+            }
+        }
+        return fingerprint.getValue();
+    }
+
+    /**
+     * Returns the checksum stored by Maven next to an artifact file. Artifacts without one, like the reactor modules
+     * and directories, are fingerprinted by their path, size and modification date instead : computing their checksum
+     * would read every file on each build, which is what the fingerprint avoids.
+     */
+    private String getArtifactChecksum(File artifactFile) {
+        if (artifactFile == null || !artifactFile.isFile()) {
+            return null;
+        }
+        try {
+            return ChecksumUtils.readChecksumFile(artifactFile);
+        } catch (IOException e) {
+            getLog().debug("Error reading checksum file of " + artifactFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    protected boolean restoreDependenciesState(File dependenciesStateFile, String inputFingerprint) {
+        if (!dependenciesStateFile.exists()) {
+            return false;
+        }
+        Properties dependenciesState = new Properties();
+        try (InputStream inputStream = new FileInputStream(dependenciesStateFile)) {
+            dependenciesState.load(inputStream);
+        } catch (IOException e) {
+            getLog().warn("Error reading previous dependencies analysis state from " + dependenciesStateFile + ", error: " + e.getMessage());
+            return false;
+        }
+        if (!inputFingerprint.equals(dependenciesState.getProperty("inputFingerprint"))) {
+            getLog().debug("Inputs changed since the previous dependencies analysis");
+            return false;
+        }
+        for (String propertyName : new String[]{"jahia.plugin.projectPackageImport", "jahia.plugin.providedNodeTypes", "jahia.plugin.requiredNodeTypes"}) {
+            project.getProperties().put(propertyName, dependenciesState.getProperty(propertyName, ""));
+        }
+        buildJahiaDependsCapabilities();
+        updateSystemCapabilitiesFile(dependenciesState.getProperty("contentTypeDefinitions", ""));
+        return true;
+    }
+
+    protected void saveDependenciesState(File dependenciesStateFile, String inputFingerprint, String contentTypeDefinitions) {
+        Properties dependenciesState = new Properties();
+        dependenciesState.setProperty("inputFingerprint", inputFingerprint);
+        for (String propertyName : new String[]{"jahia.plugin.projectPackageImport", "jahia.plugin.providedNodeTypes", "jahia.plugin.requiredNodeTypes"}) {
+            dependenciesState.setProperty(propertyName, project.getProperties().getProperty(propertyName, ""));
+        }
+        dependenciesState.setProperty("contentTypeDefinitions", contentTypeDefinitions);
+        dependenciesStateFile.getParentFile().mkdirs();
+        try (OutputStream outputStream = new FileOutputStream(dependenciesStateFile)) {
+            dependenciesState.store(outputStream, "Results of the dependencies analysis");
+        } catch (IOException e) {
+            getLog().warn("Error saving dependencies analysis state to " + dependenciesStateFile + ", error: " + e.getMessage());
+        }
     }
 
     protected void initialize() throws MojoExecutionException {
@@ -504,12 +766,35 @@ public class DependenciesMojo extends BundlePlugin {
         setOutputDirectory(new File(projectOutputDirectory));
 
         projectParsingContext = new ParsingContext(MavenAetherHelperUtils.getCoords(project.getArtifact()), 0, 0, project.getArtifactId(), project.getBasedir().getPath(), project.getVersion(), null);
-        parsingContextCache = new ParsingContextCache(new File(dependencyParsingCacheDirectory + DEPENDENCY_PARSING_CACHE_DIRECTORY_VERSION), null);
 
         parseBundlePluginInstructions();
         parseExistingImportPackages(projectParsingContext);
     }
 
+    protected void openParsingContextCache() {
+        File parsingContextCacheLocation = new File(dependencyParsingCacheDirectory + DEPENDENCY_PARSING_CACHE_DIRECTORY_VERSION);
+        // the cache is shared by all the modules of the reactor build
+        closeParsingContextCache = mavenSession == null;
+        parsingContextCache = mavenSession != null ? ParsingContextCache.getSessionCache(mavenSession, parsingContextCacheLocation) : new ParsingContextCache(parsingContextCacheLocation, null);
+        if (sharedDependencyParsingCacheDirectories != null) {
+            for (String sharedDependencyParsingCacheDirectory : sharedDependencyParsingCacheDirectories) {
+                parsingContextCache.addSharedCacheLocation(new File(sharedDependencyParsingCacheDirectory));
+            }
+        }
+        // unchanged CND files are rebuilt from their compiled form instead of being parsed again
+        compiledDefinitionsCache = new CompiledDefinitionsCache(new File(parsingContextCacheLocation, "cnd"));
+        for (CndFileParser cndFileParser : Parsers.getInstance().getParsers(CndFileParser.class)) {
+            cndFileParser.setCompiledDefinitionsCache(compiledDefinitionsCache);
+            cndFileParser.getNodeTypeRegistry().setCompiledDefinitionsCache(compiledDefinitionsCache);
+        }
+    }
+
+    protected void releaseParsingContextCache() {
+        if (closeParsingContextCache) {
+            IOUtils.closeQuietly(parsingContextCache);
+        }
+    }
+
     protected void parseBundlePluginInstructions() throws MojoExecutionException {
         originalInstructions = new LinkedHashMap<>();
         if (project.getPlugin(MAVEN_BUNDLE_PLUGIN) != null) {
@@ -589,6 +874,11 @@ public class DependenciesMojo extends BundlePlugin {
 
         List<Artifact> directDependencies = project.getArtifacts().stream().filter(art -> art.getDependencyTrail().size() == 2).collect(Collectors.toList());
 
+        int scanThreads = dependencyScanThreads > 0 ? dependencyScanThreads : Runtime.getRuntime().availableProcessors();
+        if (scanThreads > 1) {
+            return scanDependenciesInParallel(getSelectedDependencies(directDependencies), scanThreads, projectParsingContext);
+        }
+
         for (Artifact artifact : getSelectedDependencies(directDependencies)) {
             if (artifact.isOptional()) {
                 getLog().info("Scanning optional dependency " + artifact + "...");
@@ -604,17 +894,7 @@ public class DependenciesMojo extends BundlePlugin {
 
                 @Override
                 public boolean isExternal(Artifact artifact) {
-                    for (String inlinedPath : inlinedPaths) {
-                        if (inlinedPath.startsWith(artifact.getFile().getPath())) {
-                            return false;
-                        }
-                    }
-                    for (Artifact embeddedArtifact : embeddedArtifacts) {
-                        if (artifact.equals(embeddedArtifact)) {
-                            return false;
-                        }
-                    }
-                    return true;
+                    return dependenciesMojo.isExternalArtifact(artifact);
                 }
 
                 @Override
@@ -640,22 +920,149 @@ public class DependenciesMojo extends BundlePlugin {
         return scanned;
     }
 
+    /**
+     * Scans the dependencies using a pool of threads. The dependency trees are first walked to record the order in
+     * which the artifacts are visited, and the scan of each artifact that is not in the cache is submitted to the
+     * executor. The recorded visits are then replayed in tree order, waiting for the scan results as needed, so that
+     * the parsing contexts are connected and merged exactly like in the serial mode.
+     */
+    private int scanDependenciesInParallel(Collection<Artifact> selectedDependencies, int scanThreads, ParsingContext projectParsingContext) throws IOException, MojoExecutionException {
+        getLog().debug("Scanning project dependencies using " + scanThreads + " threads");
+        ExecutorService scanExecutor = createDependencyScanExecutor(scanThreads);
+        Map<String, Future<ScannedArtifact>> pendingScans = new HashMap<>();
+        try {
+            List<List<ArtifactVisit>> dependencyVisits = new ArrayList<>();
+            for (Artifact artifact : selectedDependencies) {
+                if (!DEPENDENCIES_SCAN_PACKAGING.contains(artifact.getType()) || !DEPENDENCIES_SCAN_SCOPES.contains(artifact.getScope())) {
+                    dependencyVisits.add(null);
+                    continue;
+                }
+                dependencyVisits.add(collectArtifactVisits(artifact, scanExecutor, pendingScans, projectParsingContext));
+            }
+
+            int scanned = 0;
+            Iterator<List<ArtifactVisit>> dependencyVisitIterator = dependencyVisits.iterator();
+            for (Artifact artifact : selectedDependencies) {
+                if (artifact.isOptional()) {
+                    getLog().info("Scanning optional dependency " + artifact + "...");
+                }
+                List<ArtifactVisit> artifactVisits = dependencyVisitIterator.next();
+                if (artifactVisits == null) {
+                    continue;
+                }
+
+                Deque<ParsingContext> parsingContextStack = new LinkedList<>();
+                parsingContextStack.push(projectParsingContext);
+                for (ArtifactVisit artifactVisit : artifactVisits) {
+                    if (artifactVisit.enter) {
+                        parsingContextStack.push(startProcessingArtifact(scanned, artifactVisit.artifact, artifactVisit.external, artifactVisit.optional, parsingContextStack.peek(), artifactVisit.logPrefix, pendingScans));
+                    } else {
+                        endProcessingArtifact(artifactVisit.artifact, artifactVisit.logPrefix, parsingContextStack.pop());
+                    }
+                }
+
+                scanned++;
+            }
+
+            projectParsingContext.removeLocalPackagesFromImports();
+
+            return scanned;
+        } finally {
+            scanExecutor.shutdownNow();
+        }
+    }
+
+    private List<ArtifactVisit> collectArtifactVisits(Artifact artifact, final ExecutorService scanExecutor, final Map<String, Future<ScannedArtifact>> pendingScans, ParsingContext projectParsingContext) throws MojoExecutionException {
+        final List<ArtifactVisit> artifactVisits = new ArrayList<>();
+        final DependenciesMojo dependenciesMojo = this;
+        getAetherHelper().processArtifactAndDependencies(artifact, artifact.isOptional(), new ArtifactProcessor() {
+
+            @Override
+            public boolean isExternal(Artifact artifact) {
+                return dependenciesMojo.isExternalArtifact(artifact);
+            }
+
+            @Override
+            public ParsingContext enterArtifact(final Artifact artifact, boolean optional, final boolean external, ParsingContext parentParsingContext, final String logPrefix, int depth) {
+                artifactVisits.add(new ArtifactVisit(true, artifact, optional, external, logPrefix));
+                String scanKey = getScanKey(artifact);
+                if (!pendingScans.containsKey(scanKey) && parsingContextCache.get(artifact) == null) {
+                    pendingScans.put(scanKey, scanExecutor.submit(new Callable<ScannedArtifact>() {
+                        @Override
+                        public ScannedArtifact call() throws Exception {
+                            return dependenciesMojo.scanArtifact(artifact, external, logPrefix);
+                        }
+                    }));
+                }
+                return parentParsingContext;
+            }
+
+            @Override
+            public boolean exitArtifact(Artifact artifact, boolean optional, boolean external, String logPrefix, ParsingContext parsingContext, int depth) {
+                artifactVisits.add(new ArtifactVisit(false, artifact, optional, external, logPrefix));
+                return true;
+            }
+        }, artifact.getArtifactHandler(), projectParsingContext);
+        return artifactVisits;
+    }
+
+    private ExecutorService createDependencyScanExecutor(int scanThreads) {
+        ThreadFactory threadFactory;
+        try {
+            // use virtual threads when the JDK provides them
+            Object threadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+            threadFactory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(threadBuilder);
+        } catch (Exception e) {
+            threadFactory = Executors.defaultThreadFactory();
+        }
+        return Executors.newFixedThreadPool(scanThreads, threadFactory);
+    }
+
+    /**
+     * Like the parsing context cache, the scans are shared by all the visits of an artifact: the first visit scans it
+     * and the following ones use the cached result, whatever the external flag they have.
+     */
+    private static String getScanKey(Artifact artifact) {
+        return artifact.getFile().getPath() + "|" + artifact.getType() + "|" + artifact.getVersion();
+    }
+
+    protected boolean isExternalArtifact(Artifact artifact) {
+        for (String inlinedPath : inlinedPaths) {
+            if (inlinedPath.startsWith(artifact.getFile().getPath())) {
+                return false;
+            }
+        }
+        for (Artifact embeddedArtifact : embeddedArtifacts) {
+            if (artifact.equals(embeddedArtifact)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected ParsingContext startProcessingArtifact(int scanned, Artifact artifact, boolean externalDependency, boolean optional, ParsingContext parentParsingContext, String logPrefix) throws MojoExecutionException, IOException {
+        return startProcessingArtifact(scanned, artifact, externalDependency, optional, parentParsingContext, logPrefix, null);
+    }
+
+    private ParsingContext startProcessingArtifact(int scanned, Artifact artifact, boolean externalDependency, boolean optional, ParsingContext parentParsingContext, String logPrefix, Map<String, Future<ScannedArtifact>> pendingScans) throws MojoExecutionException, IOException {
         ParsingContext parsingContext = parsingContextCache.get(artifact);
+        if (statistics != null) {
+            if (parsingContext != null) {
+                statistics.getArtifact(artifact.getId()).recordCacheHit();
+            } else {
+                statistics.getArtifact(artifact.getId()).recordCacheMiss();
+            }
+        }
         if (parsingContext == null) {
-            parsingContext = new ParsingContext(MavenAetherHelperUtils.getCoords(artifact),
-                    artifact.getFile().lastModified(), artifact.getFile().length(), artifact.getFile().getName(), artifact.getFile().getPath(), artifact.getVersion(), parentParsingContext);
+            Future<ScannedArtifact> pendingScan = pendingScans != null ? pendingScans.remove(getScanKey(artifact)) : null;
+            ScannedArtifact scannedArtifact = pendingScan != null ? getScannedArtifact(artifact, pendingScan) : scanArtifact(artifact, externalDependency, logPrefix);
+            parsingContext = scannedArtifact.parsingContext;
+            parsingContext.setParentParsingContext(parentParsingContext);
 
-            long timer = System.currentTimeMillis();
-
-            int scannedInJar = scanJar(artifact.getFile(), externalDependency,
-                    "war".equals(artifact.getType()) ? "WEB-INF/classes/" : "", artifact.getVersion(), artifact.isOptional(), parsingContext, logPrefix);
-
-            long took = System.currentTimeMillis() - timer;
-            if (getLog().isInfoEnabled() && (scannedInJar > 0)) {
+            if (getLog().isInfoEnabled() && (scannedArtifact.scannedEntries > 0)) {
                 getLog().info(logPrefix +
-                        "Processed " + scannedInJar + ((scanned == 1) ? " entry" : " entries") + " in "
-                        + (externalDependency ? "external" : "") + "dependency " + artifact + " in " + took
+                        "Processed " + scannedArtifact.scannedEntries + ((scanned == 1) ? " entry" : " entries") + " in "
+                        + (externalDependency ? "external" : "") + "dependency " + artifact + " in " + scannedArtifact.took
                         + " ms");
             }
         }
@@ -667,6 +1074,51 @@ public class DependenciesMojo extends BundlePlugin {
         return parsingContext;
     }
 
+    private ScannedArtifact scanArtifact(Artifact artifact, boolean externalDependency, String logPrefix) throws IOException {
+        ParsingContext parsingContext = new ParsingContext(MavenAetherHelperUtils.getCoords(artifact),
+                artifact.getFile().lastModified(), artifact.getFile().length(), artifact.getFile().getName(), artifact.getFile().getPath(), artifact.getVersion(), null);
+
+        long timer = System.currentTimeMillis();
+        ParsingStatistics.Entry artifactStatistics = statistics != null ? statistics.getArtifact(artifact.getId()) : null;
+        long startNanos = System.nanoTime();
+        long startAllocatedBytes = artifactStatistics != null ? ParsingStatistics.getCurrentThreadAllocatedBytes() : -1;
+        currentArtifactStatistics.set(artifactStatistics);
+
+        int scannedInJar;
+        try {
+            scannedInJar = scanJar(artifact.getFile(), externalDependency,
+                    "war".equals(artifact.getType()) ? "WEB-INF/classes/" : "", artifact.getVersion(), artifact.isOptional(), parsingContext, logPrefix);
+        } finally {
+            currentArtifactStatistics.remove();
+            if (artifactStatistics != null) {
+                artifactStatistics.record(startNanos, startAllocatedBytes);
+            }
+        }
+
+        long took = System.currentTimeMillis() - timer;
+        if (getLog().isDebugEnabled()) {
+            getLog().debug(logPrefix + "Scanned dependency " + artifact + " in " + took + " ms on thread " + Thread.currentThread().getName());
+        }
+        return new ScannedArtifact(parsingContext, scannedInJar, took);
+    }
+
+    private ScannedArtifact getScannedArtifact(Artifact artifact, Future<ScannedArtifact> pendingScan) throws MojoExecutionException, IOException {
+        try {
+            return pendingScan.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while processing artifact " + artifact, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MojoExecutionException("Error processing artifact " + artifact, e.getCause());
+        }
+    }
+
     protected boolean endProcessingArtifact(Artifact artifact, String logPrefix, ParsingContext parsingContext) {
         if (artifact == null) {
             getLog().warn(logPrefix + ": Artifact is null, will not put parsed JAR context " + parsingContext + " in cache !");
@@ -683,7 +1135,7 @@ public class DependenciesMojo extends BundlePlugin {
         return true;
     }
 
-    private int scanJar(File jarFile, boolean externalDependency, String packageDirectory, String version, boolean optional, ParsingContext parsingContext, String logPrefix) throws IOException {
+    protected int scanJar(File jarFile, boolean externalDependency, String packageDirectory, String version, boolean optional, ParsingContext parsingContext, String logPrefix) throws IOException {
         int scanned = 0;
 
         if (jarFile.isDirectory()) {
@@ -693,17 +1145,16 @@ public class DependenciesMojo extends BundlePlugin {
             return scanned;
         }
 
-        try (JarInputStream jarInputStream = new JarInputStream(new FileInputStream(jarFile))) {
+        // signatures are not verified, we only need the entry names and the contents of the parsed entries
+        try (JarFile jar = new JarFile(jarFile, false)) {
             getLog().debug(logPrefix + "Processing JAR file " + jarFile + "...");
-            if (processJarManifest(jarFile, parsingContext, jarInputStream)) {
+            if (processJarManifest(jarFile, parsingContext, jar.getManifest())) {
                 getLog().debug(logPrefix + "Used OSGi bundle manifest information, but scanning for additional resources (taglibs, CNDs, etc)... ");
             }
-            scanned = processJarInputStream(jarFile.getPath(), externalDependency, packageDirectory, version, optional, parsingContext, logPrefix, scanned, jarInputStream);
-        }
+            scanned = processJarFile(jarFile.getPath(), externalDependency, packageDirectory, version, optional, parsingContext, logPrefix, scanned, jar);
 
-        if (!parsingContext.getBundleClassPath().isEmpty()) {
-            getLog().debug(logPrefix + "Processing embedded dependencies...");
-            try (JarFile jar = new JarFile(jarFile)) {
+            if (!parsingContext.getBundleClassPath().isEmpty()) {
+                getLog().debug(logPrefix + "Processing embedded dependencies...");
                 for (String embeddedJar : parsingContext.getBundleClassPath()) {
                     if (".".equals(embeddedJar)) {
                         continue;
@@ -711,23 +1162,15 @@ public class DependenciesMojo extends BundlePlugin {
                     JarEntry jarEntry = jar.getJarEntry(embeddedJar);
                     if (jarEntry != null) {
                         getLog().debug(logPrefix + "Processing embedded JAR..." + jarEntry);
-                        InputStream jarEntryInputStream = jar.getInputStream(jarEntry);
-                        ByteArrayOutputStream entryOutputStream = new ByteArrayOutputStream();
-                        IOUtils.copy(jarEntryInputStream, entryOutputStream);
-                        JarInputStream entryJarInputStream = new JarInputStream(new ByteArrayInputStream(entryOutputStream.toByteArray()));
-                        processJarInputStream(jarFile.getPath() + "!" + jarEntry, externalDependency, packageDirectory, version, optional, parsingContext, logPrefix, scanned, entryJarInputStream);
-                        IOUtils.closeQuietly(jarEntryInputStream);
-                        IOUtils.closeQuietly(entryJarInputStream);
+                        processEmbeddedJar(jar, jarEntry, jarFile.getPath() + "!" + jarEntry, externalDependency, packageDirectory, version, optional, parsingContext, logPrefix);
                     } else {
                         getLog().warn(logPrefix + "Couldn't find embedded JAR to parse " + embeddedJar + " in JAR " + jarFile);
                     }
                 }
             }
-        }
 
-        if (!parsingContext.getAdditionalFilesToParse().isEmpty()) {
-            getLog().debug(logPrefix + "Processing additional files to parse...");
-            try (JarFile jar = new JarFile(jarFile)) {
+            if (!parsingContext.getAdditionalFilesToParse().isEmpty()) {
+                getLog().debug(logPrefix + "Processing additional files to parse...");
                 for (String fileToParse : parsingContext.getAdditionalFilesToParse()) {
                     JarEntry jarEntry = jar.getJarEntry(fileToParse);
                     if (jarEntry != null) {
@@ -742,49 +1185,173 @@ public class DependenciesMojo extends BundlePlugin {
                         getLog().warn(logPrefix + "Couldn't find additional file to parse " + fileToParse + " in JAR " + jarFile);
                     }
                 }
+                parsingContext.clearAdditionalFilesToParse();
             }
-            parsingContext.clearAdditionalFilesToParse();
         }
 
         return scanned;
     }
 
+    /**
+     * Scans a JAR file using its central directory: the package membership is deduced from the entry names and only
+     * the entries that can be handled by one of the parsers are inflated.
+     */
+    private int processJarFile(String jarFilePath, boolean externalDependency, String packageDirectory, String version, boolean optional, ParsingContext parsingContext, String logPrefix, int scanned, JarFile jar) throws IOException {
+        Enumeration<JarEntry> jarEntries = jar.entries();
+        while (jarEntries.hasMoreElements()) {
+            JarEntry jarEntry = jarEntries.nextElement();
+            if (jarEntry.isDirectory()) {
+                continue;
+            }
+            processJarEntryName(jarFilePath, jarEntry.getName(), packageDirectory, version, optional, parsingContext);
+            if (isParsableJarEntry(jarEntry.getName())) {
+                byte[] entryContent;
+                try (InputStream jarEntryInputStream = jar.getInputStream(jarEntry)) {
+                    entryContent = IOUtils.toByteArray(jarEntryInputStream);
+                }
+                recordJarEntry(entryContent.length);
+                scanned = parseJarEntry(jarFilePath, jarEntry.getName(), entryContent, externalDependency, version, optional, parsingContext, logPrefix, scanned);
+            } else {
+                recordJarEntry(0);
+            }
+        }
+        return scanned;
+    }
+
+    /**
+     * Scans a JAR embedded in a bundle without copying it in memory: the entry is read directly from the outer JAR
+     * file, in place for stored entries and inflated on the fly for deflated ones. As the same libraries are often
+     * embedded in several bundles, the parsing context of an embedded JAR is cached using the CRC and size of its
+     * entry and then merged into the parsing context of the bundle.
+     */
+    private void processEmbeddedJar(JarFile jar, JarEntry jarEntry, String embeddedJarPath, boolean externalDependency, String packageDirectory, String version, boolean optional, ParsingContext parsingContext, String logPrefix) throws IOException {
+        String cacheKey = null;
+        if (jarEntry.getCrc() != -1 && jarEntry.getSize() != -1) {
+            cacheKey = Long.toHexString(jarEntry.getCrc()) + ":" + jarEntry.getSize() + ":" + packageDirectory + ":" + version + ":" + optional + ":" + externalDependency + ":" + parsingContext.isOsgiBundle();
+        }
+        ParsingContext embeddedParsingContext = cacheKey != null ? embeddedJarParsingContexts.get(cacheKey) : null;
+        if (embeddedParsingContext == null) {
+            embeddedParsingContext = new ParsingContext(null, jarEntry.getTime(), jarEntry.getSize(), jarEntry.getName(), embeddedJarPath, version, null);
+            embeddedParsingContext.setOsgiBundle(parsingContext.isOsgiBundle());
+            try (JarInputStream entryJarInputStream = new JarInputStream(new BufferedInputStream(jar.getInputStream(jarEntry), 64 * 1024), false)) {
+                processJarInputStream(embeddedJarPath, externalDependency, packageDirectory, version, optional, embeddedParsingContext, logPrefix, 0, entryJarInputStream);
+            }
+            if (cacheKey != null) {
+                embeddedJarParsingContexts.putIfAbsent(cacheKey, embeddedParsingContext);
+            }
+        } else {
+            getLog().debug(logPrefix + "Using cached parsing context for embedded JAR " + embeddedJarPath);
+        }
+        mergeEmbeddedParsingContext(embeddedParsingContext, embeddedJarPath, parsingContext);
+    }
+
+    /**
+     * Merges the parsing context of an embedded JAR into the one of the bundle, as if the embedded JAR had been scanned
+     * directly into it: the packages already local to the bundle are skipped, along with their exports.
+     */
+    private void mergeEmbeddedParsingContext(ParsingContext embeddedParsingContext, String embeddedJarPath, ParsingContext parsingContext) {
+        Set<String> alreadyLocalPackages = new HashSet<>();
+        for (PackageInfo localPackage : embeddedParsingContext.getLocalPackages()) {
+            if (!parsingContext.getLocalPackages().contains(new PackageInfo(localPackage.getName()))) {
+                parsingContext.addLocalPackage(copyEmbeddedPackageInfo(localPackage, embeddedParsingContext, embeddedJarPath, parsingContext));
+            } else {
+                alreadyLocalPackages.add(localPackage.getName());
+            }
+        }
+        for (PackageInfo packageExport : embeddedParsingContext.getPackageExports()) {
+            if (!alreadyLocalPackages.contains(packageExport.getName())) {
+                parsingContext.addPackageExport(copyEmbeddedPackageInfo(packageExport, embeddedParsingContext, embeddedJarPath, parsingContext));
+            }
+        }
+        for (PackageInfo splitPackage : embeddedParsingContext.getSplitPackages()) {
+            parsingContext.getSplitPackages().add(copyEmbeddedPackageInfo(splitPackage, embeddedParsingContext, embeddedJarPath, parsingContext));
+        }
+        for (PackageInfo packageIgnore : embeddedParsingContext.getPackageIgnores()) {
+            parsingContext.addPackageIgnore(copyEmbeddedPackageInfo(packageIgnore, embeddedParsingContext, embeddedJarPath, parsingContext));
+        }
+        for (PackageInfo packageImport : embeddedParsingContext.getPackageImports()) {
+            parsingContext.addPackageImport(copyEmbeddedPackageInfo(packageImport, embeddedParsingContext, embeddedJarPath, parsingContext));
+        }
+        for (Map.Entry<String, Set<PackageInfo>> taglibPackages : embeddedParsingContext.getTaglibPackages().entrySet()) {
+            Set<PackageInfo> packageInfos = new TreeSet<>();
+            for (PackageInfo packageInfo : taglibPackages.getValue()) {
+                packageInfos.add(copyEmbeddedPackageInfo(packageInfo, embeddedParsingContext, embeddedJarPath, parsingContext));
+            }
+            parsingContext.putTaglibPackages(taglibPackages.getKey(), packageInfos);
+        }
+        parsingContext.addAllTaglibUris(embeddedParsingContext.getTaglibUris());
+        parsingContext.getExternalTaglibs().putAll(embeddedParsingContext.getExternalTaglibs());
+        parsingContext.getUnresolvedTaglibUris().putAll(embeddedParsingContext.getUnresolvedTaglibUris());
+        parsingContext.addAllContentTypeDefinitions(embeddedParsingContext.getContentTypeDefinitions());
+        parsingContext.addAllContentTypeReferences(embeddedParsingContext.getContentTypeReferences());
+        for (String additionalFileToParse : embeddedParsingContext.getAdditionalFilesToParse()) {
+            parsingContext.addAdditionalFileToParse(additionalFileToParse);
+        }
+    }
+
+    private PackageInfo copyEmbeddedPackageInfo(PackageInfo packageInfo, ParsingContext embeddedParsingContext, String embeddedJarPath, ParsingContext parsingContext) {
+        // a cached embedded JAR may have been scanned from another bundle, we relocate the source locations
+        PackageInfo packageInfoCopy = new PackageInfo(packageInfo);
+        packageInfoCopy.getSourceLocations().clear();
+        for (String sourceLocation : packageInfo.getSourceLocations()) {
+            if (sourceLocation != null && sourceLocation.startsWith(embeddedParsingContext.getFilePath())) {
+                sourceLocation = embeddedJarPath + sourceLocation.substring(embeddedParsingContext.getFilePath().length());
+            }
+            packageInfoCopy.getSourceLocations().add(sourceLocation);
+        }
+        packageInfoCopy.setOrigin(parsingContext);
+        return packageInfoCopy;
+    }
+
     protected int processJarInputStream(String jarFilePath, boolean externalDependency, String packageDirectory, String version, boolean optional, ParsingContext parsingContext, String logPrefix, int scanned, JarInputStream jarInputStream) throws IOException {
         JarEntry jarEntry;
         while ((jarEntry = jarInputStream.getNextJarEntry()) != null) {
             if (jarEntry.isDirectory()) {
                 continue;
             }
-            String entryName = jarEntry.getName();
+            processJarEntryName(jarFilePath, jarEntry.getName(), packageDirectory, version, optional, parsingContext);
+            if (isParsableJarEntry(jarEntry.getName())) {
+                byte[] entryContent = IOUtils.toByteArray(jarInputStream);
+                recordJarEntry(entryContent.length);
+                scanned = parseJarEntry(jarFilePath, jarEntry.getName(), entryContent, externalDependency, version, optional, parsingContext, logPrefix, scanned);
+            } else {
+                recordJarEntry(0);
+            }
+        }
+        return scanned;
+    }
 
-            if (entryName.startsWith(packageDirectory)) {
-                String packageName = entryName.substring(packageDirectory.length());
-                if (!packageName.contains("/.")) {
-                    processLocalPackageEntry(packageName, "/", jarFilePath, version, optional, parsingContext);
-                }
+    private void processJarEntryName(String jarFilePath, String entryName, String packageDirectory, String version, boolean optional, ParsingContext parsingContext) {
+        if (entryName.startsWith(packageDirectory)) {
+            String packageName = entryName.substring(packageDirectory.length());
+            if (!packageName.contains("/.")) {
+                processLocalPackageEntry(packageName, "/", jarFilePath, version, optional, parsingContext);
             }
+        }
+    }
 
-            ByteArrayOutputStream entryOutputStream = new ByteArrayOutputStream();
-            IOUtils.copy(jarInputStream, entryOutputStream);
-            if (Parsers.getInstance().canParseForPhase(0, jarEntry.getName())) {
-                getLog().debug(logPrefix + "  scanning JAR entry: " + jarEntry.getName());
-                Parsers.getInstance().parse(0, jarEntry.getName(), new ByteArrayInputStream(entryOutputStream.toByteArray()), jarFilePath,
-                        externalDependency, optional, version, getLogger(), parsingContext);
+    private boolean isParsableJarEntry(String entryName) {
+        return Parsers.getInstance().canParseForPhase(0, entryName) || Parsers.getInstance().canParseForPhase(1, entryName);
+    }
+
+    private int parseJarEntry(String jarFilePath, String entryName, byte[] entryContent, boolean externalDependency, String version, boolean optional, ParsingContext parsingContext, String logPrefix, int scanned) throws IOException {
+        if (Parsers.getInstance().canParseForPhase(0, entryName)) {
+            getLog().debug(logPrefix + "  scanning JAR entry: " + entryName);
+            Parsers.getInstance().parse(0, entryName, new ByteArrayInputStream(entryContent), jarFilePath,
+                    externalDependency, optional, version, getLogger(), parsingContext);
+            scanned++;
+        }
+        if (Parsers.getInstance().canParseForPhase(1, entryName)) {
+            getLog().debug(logPrefix + "  scanning JAR entry: " + entryName);
+            if (processNonTldFile(entryName, new ByteArrayInputStream(entryContent), jarFilePath, optional, version, parsingContext)) {
                 scanned++;
             }
-            if (Parsers.getInstance().canParseForPhase(1, jarEntry.getName())) {
-                getLog().debug(logPrefix + "  scanning JAR entry: " + jarEntry.getName());
-                if (processNonTldFile(jarEntry.getName(), new ByteArrayInputStream(entryOutputStream.toByteArray()), jarFilePath, optional, version, parsingContext)) {
-                    scanned++;
-                }
-            }
         }
         return scanned;
     }
 
-    private boolean processJarManifest(File jarFile, ParsingContext parsingContext, JarInputStream jarInputStream) throws IOException {
+    private boolean processJarManifest(File jarFile, ParsingContext parsingContext, Manifest jarManifest) throws IOException {
         boolean processedBundleHeadersSuccessfully = false;
-        Manifest jarManifest = jarInputStream.getManifest();
         if (jarManifest != null && jarManifest.getMainAttributes() != null) {
             Attributes mainAttributes = jarManifest.getMainAttributes();
             String bundleSymbolicName = mainAttributes.getValue("Bundle-SymbolicName");
@@ -949,4 +1516,31 @@ public class DependenciesMojo extends BundlePlugin {
         return selectedDependencies;
     }
 
+    private static class ScannedArtifact {
+        private final ParsingContext parsingContext;
+        private final int scannedEntries;
+        private final long took;
+
+        private ScannedArtifact(ParsingContext parsingContext, int scannedEntries, long took) {
+            this.parsingContext = parsingContext;
+            this.scannedEntries = scannedEntries;
+            this.took = took;
+        }
+    }
+
+    private static class ArtifactVisit {
+        private final boolean enter;
+        private final Artifact artifact;
+        private final boolean optional;
+        private final boolean external;
+        private final String logPrefix;
+
+        private ArtifactVisit(boolean enter, Artifact artifact, boolean optional, boolean external, String logPrefix) {
+            this.enter = enter;
+            this.artifact = artifact;
+            this.optional = optional;
+            this.external = external;
+            this.logPrefix = logPrefix;
+        }
+    }
 }
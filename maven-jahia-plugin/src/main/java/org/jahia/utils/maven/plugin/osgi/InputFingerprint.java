@@ -0,0 +1,114 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Computes a fingerprint of the inputs of a goal execution, to detect whether anything changed since a previous
+ * execution. Files are fingerprinted using their path, size and modification time, directories using all the files
+ * they contain.
+ */
+class InputFingerprint {
+
+    private final MessageDigest messageDigest;
+
+    InputFingerprint() {
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+
+    InputFingerprint add(String name, Object value) {
+        update(name);
+        update(value != null ? value.toString() : "<null>");
+        return this;
+    }
+
+    InputFingerprint addFile(String name, File file) {
+        update(name);
+        if (file == null || !file.exists()) {
+            update("<missing>");
+        } else {
+            addFile(file, file.getPath());
+        }
+        return this;
+    }
+
+    private void addFile(File file, String path) {
+        if (file.isDirectory()) {
+            update(path + "/");
+            String[] childNames = file.list();
+            if (childNames == null) {
+                return;
+            }
+            Arrays.sort(childNames);
+            for (String childName : childNames) {
+                addFile(new File(file, childName), path + "/" + childName);
+            }
+        } else {
+            update(path);
+            update(file.length() + ":" + file.lastModified());
+        }
+    }
+
+    private void update(String value) {
+        messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+        messageDigest.update((byte) 0);
+    }
+
+    String getValue() {
+        StringBuilder value = new StringBuilder(64);
+        for (byte digestByte : messageDigest.digest()) {
+            value.append(Character.forDigit((digestByte >> 4) & 0xF, 16)).append(Character.forDigit(digestByte & 0xF, 16));
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges dependency parsing cache directories into a target cache, and optionally exports the result as JSON files
+ * using the artifact disk layout. The export can be used as a pre-warmed cache shared between build agents (see the
+ * sharedDependencyParsingCacheDirectories parameter of the dependencies goal) or packaged as dependencyCache/
+ * class loader resources.
+ *
+ * @goal merge-dependency-cache
+ * @requiresProject false
+ */
+public class MergeDependencyCacheMojo extends AbstractMojo {
+
+    /**
+     * The cache directories to merge, containing either a cache store or JSON files.
+     *
+     * @parameter expression="${jahia.modules.sourceCacheDirectories}"
+     */
+    protected List<String> sourceCacheDirectories = new ArrayList<String>();
+
+    /**
+     * @parameter expression="${jahia.modules.targetCacheDirectory}" default-value="${user.home}/.m2/dependency-cache"
+     */
+    protected String targetCacheDirectory;
+
+    /**
+     * If specified, all the entries of the target cache are exported as JSON files in this directory.
+     *
+     * @parameter expression="${jahia.modules.exportCacheDirectory}"
+     */
+    protected File exportCacheDirectory;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        File targetCacheLocation = new File(targetCacheDirectory + DependenciesMojo.DEPENDENCY_PARSING_CACHE_DIRECTORY_VERSION);
+        try (ParsingContextCache parsingContextCache = new ParsingContextCache(targetCacheLocation, null)) {
+            for (String sourceCacheDirectory : sourceCacheDirectories) {
+                File sourceCacheLocation = new File(sourceCacheDirectory);
+                if (!sourceCacheLocation.isDirectory()) {
+                    getLog().warn("Cache directory " + sourceCacheLocation + " doesn't exist, skipping it.");
+                    continue;
+                }
+                int merged = parsingContextCache.merge(sourceCacheLocation);
+                getLog().info("Merged " + merged + " entries from " + sourceCacheLocation + " into " + targetCacheLocation);
+            }
+            if (exportCacheDirectory != null) {
+                int exported = parsingContextCache.exportJSON(exportCacheDirectory);
+                getLog().info("Exported " + exported + " entries to " + exportCacheDirectory);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error merging dependency parsing caches", e);
+        }
+    }
+
+}
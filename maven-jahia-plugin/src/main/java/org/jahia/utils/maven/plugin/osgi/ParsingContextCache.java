@@ -46,27 +46,48 @@ package org.jahia.utils.maven.plugin.osgi;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.jahia.utils.maven.plugin.osgi.utils.ChecksumUtils;
 import org.jahia.utils.maven.plugin.support.MavenAetherHelperUtils;
 import org.jahia.utils.osgi.parsers.ParsingContext;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.net.URL;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A disk cache for ParsingContext instances, so that we don't have to calculate them on each build.
  * Also, this cache can load up pre-built instances from the class loader, to provide prepopulated cache entries
  * for JARs that contain errors or missing information (such as missing dependencies).
+ * <p/>
+ * The entries are stored in a single indexed binary file (see {@link ParsingContextStore}), the JSON files using the
+ * artifact disk layout remain supported as an import and export format.
+ * <p/>
+ * Entries are keyed by the SHA-1 checksum of the artifact file when it is available, so that they remain valid when
+ * the file is moved, for example when a cache directory is shared between workspaces or restored from a CI cache.
+ * Additional read-only cache directories can be registered to look up pre-warmed entries.
+ * <p/>
+ * The decoded entries are kept as snapshots that are never handed out: each lookup returns a private copy, so that a
+ * cache instance can be shared by all the module executions of a reactor build (see {@link #getSessionCache}).
  */
-public class ParsingContextCache {
+public class ParsingContextCache implements Closeable {
 
     private static final String CACHE_MODEL_VERSION = "0.2";
+    private static final int MAX_DECODED_ENTRIES = 2000;
+    private static final String CHECKSUM_KEY_PREFIX = "sha1:";
 
     private File cacheLocation;
-    private Map<String,ParsingContext> parsingContextCache = new TreeMap<String,ParsingContext>();
+    private ParsingContextStore parsingContextStore;
+    private static final Map<MavenSession, Map<File, ParsingContextCache>> sessionCaches = new WeakHashMap<MavenSession, Map<File, ParsingContextCache>>();
+
+    private List<File> sharedCacheLocations = new CopyOnWriteArrayList<File>();
+    private List<ParsingContextStore> sharedParsingContextStores = new CopyOnWriteArrayList<ParsingContextStore>();
     private ObjectMapper objectMapper;
     ClassLoader resourceClassLoader = this.getClass().getClassLoader();
 
@@ -78,6 +99,7 @@ public class ParsingContextCache {
             if (!cacheLocation.mkdirs()) {
                 throw new RuntimeException("Cache location couldn't be created at " + cacheLocation + ", aborting !");
             }
+            writeCacheInfo(new File(cacheLocation, "cache-info.json"));
         } else {
             File cacheInfoFile = new File(cacheLocation, "cache-info.json");
             if (!cacheInfoFile.exists()) {
@@ -101,6 +123,11 @@ public class ParsingContextCache {
         if (classLoader != null) {
             resourceClassLoader = classLoader;
         }
+        try {
+            parsingContextStore = new ParsingContextStore(cacheLocation, MAX_DECODED_ENTRIES);
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening cache store in " + cacheLocation + ", aborting !", e);
+        }
     }
 
     public void writeCacheInfo(File cacheInfoFile) {
@@ -124,71 +151,278 @@ public class ParsingContextCache {
         }
     }
 
-    public ParsingContext get(Artifact artifact) {
-        ParsingContext parsingContext = parsingContextCache.get(MavenAetherHelperUtils.getCoords(artifact));
-        if (parsingContext != null) {
-            parsingContext.reconnectPackageInfos();
-            return parsingContext;
-        }
-        File artifactJSONFile = new File(cacheLocation, MavenAetherHelperUtils.getDiskPath(artifact) + ".json");
-        if (!artifactJSONFile.exists()) {
-            // we didn't find a cache entry, let's check if there is a prepopulated one in the class loader
-            // resources.
-            URL artifactJSONUrl = resourceClassLoader.getResource("dependencyCache/" + MavenAetherHelperUtils.getDiskPath(artifact) + ".json");
-            if (artifactJSONUrl == null) {
-                return null;
-            } else {
-                try {
-                    parsingContext = getObjectMapper().readValue(artifactJSONUrl, ParsingContext.class);
-                    parsingContext.reconnectPackageInfos();
-                } catch (IOException e) {
-                    e.printStackTrace();
+    /**
+     * Returns the cache shared by all the executions of a build session for the given location, so that the entries
+     * for the dependencies common to several modules of a reactor build are only read and decoded once. The caches
+     * of a session must not be closed by the executions, they are closed when the session ends.
+     */
+    public static ParsingContextCache getSessionCache(MavenSession session, File cacheLocation) {
+        synchronized (sessionCaches) {
+            Map<File, ParsingContextCache> caches = sessionCaches.get(session);
+            if (caches == null) {
+                caches = new HashMap<File, ParsingContextCache>();
+                sessionCaches.put(session, caches);
+                MavenExecutionRequest request = session.getRequest();
+                if (request != null) {
+                    request.setExecutionListener(new SessionEndListener(session, request.getExecutionListener()));
                 }
             }
-        } else {
-            try {
-                parsingContext = getObjectMapper().readValue(artifactJSONFile, ParsingContext.class);
-                parsingContext.reconnectPackageInfos();
-            } catch (IOException e) {
-                e.printStackTrace();
+            ParsingContextCache parsingContextCache = caches.get(cacheLocation);
+            if (parsingContextCache == null) {
+                parsingContextCache = new ParsingContextCache(cacheLocation, null);
+                caches.put(cacheLocation, parsingContextCache);
             }
+            return parsingContextCache;
         }
+    }
 
+    /**
+     * Closes the caches of a build session, a later call to {@link #getSessionCache} for this session opens new ones.
+     */
+    public static void closeSessionCaches(MavenSession session) {
+        Map<File, ParsingContextCache> caches;
+        synchronized (sessionCaches) {
+            caches = sessionCaches.remove(session);
+        }
+        if (caches != null) {
+            for (ParsingContextCache parsingContextCache : caches.values()) {
+                IOUtils.closeQuietly(parsingContextCache);
+            }
+        }
+    }
+
+    /**
+     * Registers a read-only cache directory, containing either a cache store or JSON files using the artifact disk
+     * layout. Only the entries matching the checksum of the artifacts are used from such directories.
+     */
+    public synchronized void addSharedCacheLocation(File sharedCacheLocation) {
+        if (!sharedCacheLocation.isDirectory() || sharedCacheLocations.contains(sharedCacheLocation)) {
+            return;
+        }
+        try {
+            sharedParsingContextStores.add(new ParsingContextStore(sharedCacheLocation, MAX_DECODED_ENTRIES, true));
+            sharedCacheLocations.add(sharedCacheLocation);
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening shared cache store in " + sharedCacheLocation + ", aborting !", e);
+        }
+    }
+
+    public ParsingContext get(Artifact artifact) {
+        String artifactCoords = MavenAetherHelperUtils.getCoords(artifact);
+        String checksum = ChecksumUtils.getChecksum(artifact.getFile());
+        ParsingContext parsingContext = getFromStore(parsingContextStore, artifact, artifactCoords, checksum);
         if (parsingContext != null) {
-            if (artifact.getFile() != null) {
-                if (artifact.getFile().lastModified() != parsingContext.getLastModified() ||
-                        artifact.getFile().length() != parsingContext.getFileSize() ||
-                        !artifact.getFile().getName().equals(parsingContext.getFileName()) ||
-                        !artifact.getFile().getPath().equals(parsingContext.getFilePath())) {
-                    // cached file info and artifact file do not match, we will not use the entry from the cache !
-                    return null;
+            return createView(parsingContext, artifact);
+        }
+
+        // we didn't find an entry in the local store, let's check the shared stores and the JSON files, either in
+        // the cache directories or prepopulated in the class loader resources.
+        if (checksum != null) {
+            for (ParsingContextStore sharedParsingContextStore : sharedParsingContextStores) {
+                parsingContext = getFromStore(sharedParsingContextStore, artifact, null, checksum);
+                if (parsingContext != null) {
+                    return importEntry(artifact, checksum, new ParsingContext(parsingContext));
                 }
             }
-
-            parsingContextCache.put(MavenAetherHelperUtils.getCoords(artifact), parsingContext);
-            return parsingContext;
+        }
+        String artifactJSONPath = MavenAetherHelperUtils.getDiskPath(artifact) + ".json";
+        List<File> artifactJSONFiles = new ArrayList<File>();
+        artifactJSONFiles.add(new File(cacheLocation, artifactJSONPath));
+        for (File sharedCacheLocation : sharedCacheLocations) {
+            artifactJSONFiles.add(new File(sharedCacheLocation, artifactJSONPath));
+        }
+        try {
+            for (File artifactJSONFile : artifactJSONFiles) {
+                if (artifactJSONFile.exists()) {
+                    parsingContext = getObjectMapper().readValue(artifactJSONFile, ParsingContext.class);
+                    if (isValid(parsingContext, artifact, checksum)) {
+                        return importEntry(artifact, checksum, parsingContext);
+                    }
+                }
+            }
+            URL artifactJSONUrl = resourceClassLoader.getResource("dependencyCache/" + artifactJSONPath);
+            if (artifactJSONUrl != null) {
+                parsingContext = getObjectMapper().readValue(artifactJSONUrl, ParsingContext.class);
+                if (isValid(parsingContext, artifact, checksum)) {
+                    return importEntry(artifact, checksum, parsingContext);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
         return null;
     }
 
     public ParsingContext put(Artifact artifact, ParsingContext parsingContext) {
-        File artifactJSONFile = new File(cacheLocation, MavenAetherHelperUtils.getDiskPath(artifact) + ".json");
-        if (!artifactJSONFile.getParentFile().exists()) {
-            if (!artifactJSONFile.getParentFile().mkdirs()) {
-                throw new RuntimeException("Couldn't create parent directory " + artifactJSONFile.getParentFile() + " to store file " + artifactJSONFile + ", aborting !");
-            }
-        }
+        String checksum = ChecksumUtils.getChecksum(artifact.getFile());
         try {
             parsingContext.setInCache(true);
-            getObjectMapper().writeValue(artifactJSONFile, parsingContext);
-            ParsingContext previousParsingContext = parsingContextCache.put(MavenAetherHelperUtils.getCoords(artifact), parsingContext);
-            return previousParsingContext;
+            parsingContext.setChecksum(checksum);
+            ParsingContext previousParsingContext = parsingContextStore.put(getStoreKey(artifact, checksum), MavenAetherHelperUtils.getDiskPath(artifact), new ParsingContext(parsingContext));
+            return previousParsingContext != null ? new ParsingContext(previousParsingContext) : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private ParsingContext getFromStore(ParsingContextStore store, Artifact artifact, String artifactCoords, String checksum) {
+        try {
+            ParsingContext parsingContext = null;
+            if (checksum != null) {
+                parsingContext = store.get(CHECKSUM_KEY_PREFIX + checksum);
+            }
+            if (parsingContext == null && artifactCoords != null) {
+                parsingContext = store.get(artifactCoords);
+            }
+            if (parsingContext != null && isValid(parsingContext, artifact, checksum)) {
+                return parsingContext;
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Imports an entry found outside of the local store, the entry then becomes the snapshot stored for the artifact.
+     */
+    private ParsingContext importEntry(Artifact artifact, String checksum, ParsingContext parsingContext) {
+        relocate(parsingContext, artifact);
+        parsingContext.reconnectPackageInfos();
+        parsingContext.setInCache(true);
+        if (parsingContext.getChecksum() == null) {
+            parsingContext.setChecksum(checksum);
+        }
+        try {
+            parsingContextStore.put(getStoreKey(artifact, checksum), MavenAetherHelperUtils.getDiskPath(artifact), parsingContext);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return createView(parsingContext, artifact);
+    }
+
+    private ParsingContext createView(ParsingContext snapshot, Artifact artifact) {
+        ParsingContext parsingContext = new ParsingContext(snapshot);
+        relocate(parsingContext, artifact);
+        return parsingContext;
+    }
+
+    /**
+     * An entry is valid if it was computed for the same content, which is checked using the checksums when both are
+     * known, and using the file information otherwise.
+     */
+    private boolean isValid(ParsingContext parsingContext, Artifact artifact, String checksum) {
+        if (artifact.getFile() == null) {
+            return true;
+        }
+        if (checksum != null && parsingContext.getChecksum() != null) {
+            return checksum.equals(parsingContext.getChecksum());
+        }
+        return artifact.getFile().lastModified() == parsingContext.getLastModified() &&
+                artifact.getFile().length() == parsingContext.getFileSize() &&
+                artifact.getFile().getName().equals(parsingContext.getFileName()) &&
+                artifact.getFile().getPath().equals(parsingContext.getFilePath());
+    }
+
+    private void relocate(ParsingContext parsingContext, Artifact artifact) {
+        File artifactFile = artifact.getFile();
+        if (artifactFile != null && !artifactFile.getPath().equals(parsingContext.getFilePath())) {
+            parsingContext.setFileInfo(artifactFile.lastModified(), artifactFile.length(), artifactFile.getName(), artifactFile.getPath());
+        }
+    }
+
+    private static String getStoreKey(Artifact artifact, String checksum) {
+        return checksum != null ? CHECKSUM_KEY_PREFIX + checksum : MavenAetherHelperUtils.getCoords(artifact);
+    }
+
+    /**
+     * Exports all the cache entries as JSON files, using the artifact disk layout.
+     * @param exportDirectory the directory in which the JSON files will be written
+     * @return the number of exported entries
+     */
+    public int exportJSON(File exportDirectory) throws IOException {
+        int exported = 0;
+        for (String artifactCoords : parsingContextStore.getKeys()) {
+            ParsingContext parsingContext = parsingContextStore.get(artifactCoords);
+            String diskPath = parsingContextStore.getDiskPath(artifactCoords);
+            if (parsingContext == null || diskPath == null) {
+                continue;
+            }
+            File artifactJSONFile = new File(exportDirectory, diskPath + ".json");
+            if (!artifactJSONFile.getParentFile().exists() && !artifactJSONFile.getParentFile().mkdirs()) {
+                throw new IOException("Couldn't create parent directory " + artifactJSONFile.getParentFile() + " to store file " + artifactJSONFile);
+            }
+            getObjectMapper().writeValue(artifactJSONFile, parsingContext);
+            exported++;
+        }
+        return exported;
+    }
+
+    /**
+     * Imports all the JSON files found in the specified directory, which must use the artifact disk layout.
+     * @param importDirectory the directory containing the JSON files
+     * @return the number of imported entries
+     */
+    public int importJSON(File importDirectory) throws IOException {
+        int imported = 0;
+        String importDirectoryPath = importDirectory.getCanonicalPath();
+        Collection<File> artifactJSONFiles = FileUtils.listFiles(importDirectory, new String[]{"json"}, true);
+        for (File artifactJSONFile : artifactJSONFiles) {
+            if (artifactJSONFile.getParentFile().getCanonicalFile().equals(importDirectory.getCanonicalFile())) {
+                // top level files such as the cache info are not cache entries
+                continue;
+            }
+            ParsingContext parsingContext = getObjectMapper().readValue(artifactJSONFile, ParsingContext.class);
+            if (parsingContext.getMavenCoords() == null) {
+                continue;
+            }
+            String diskPath = artifactJSONFile.getCanonicalPath().substring(importDirectoryPath.length() + 1).replace(File.separatorChar, '/');
+            diskPath = diskPath.substring(0, diskPath.length() - ".json".length());
+            parsingContext.setInCache(true);
+            String key = parsingContext.getChecksum() != null ? CHECKSUM_KEY_PREFIX + parsingContext.getChecksum() : parsingContext.getMavenCoords();
+            parsingContextStore.put(key, diskPath, parsingContext);
+            imported++;
+        }
+        return imported;
+    }
+
+    /**
+     * Merges all the entries of another cache directory into this cache. The directory may contain a cache store
+     * and/or JSON files using the artifact disk layout.
+     * @return the number of merged entries
+     */
+    public int merge(File sourceCacheLocation) throws IOException {
+        int merged = 0;
+        try (ParsingContextStore sourceStore = new ParsingContextStore(sourceCacheLocation, MAX_DECODED_ENTRIES, true)) {
+            for (String key : sourceStore.getKeys()) {
+                if (parsingContextStore.contains(key) && key.startsWith(CHECKSUM_KEY_PREFIX)) {
+                    // entries keyed by checksum are immutable
+                    continue;
+                }
+                ParsingContext parsingContext = sourceStore.get(key);
+                String diskPath = sourceStore.getDiskPath(key);
+                if (parsingContext != null && diskPath != null) {
+                    parsingContextStore.put(key, diskPath, parsingContext);
+                    merged++;
+                }
+            }
+        }
+        return merged + importJSON(sourceCacheLocation);
+    }
+
+    @Override
+    public void close() throws IOException {
+        parsingContextStore.close();
+        for (ParsingContextStore sharedParsingContextStore : sharedParsingContextStores) {
+            sharedParsingContextStore.close();
+        }
+    }
+
+    ParsingContextStore getParsingContextStore() {
+        return parsingContextStore;
+    }
+
     protected ObjectMapper getObjectMapper() {
         if (objectMapper == null) {
             objectMapper = new ObjectMapper();
@@ -197,4 +431,122 @@ public class ParsingContextCache {
         return objectMapper;
     }
 
+    /**
+     * Forwards the events of a build session to its original listener, and closes the caches of the session once it
+     * has ended.
+     */
+    private static class SessionEndListener implements ExecutionListener {
+
+        private final MavenSession session;
+        private final ExecutionListener delegate;
+
+        private SessionEndListener(MavenSession session, ExecutionListener delegate) {
+            this.session = session;
+            this.delegate = delegate;
+        }
+
+        public void sessionEnded(ExecutionEvent event) {
+            closeSessionCaches(session);
+            if (delegate != null) {
+                delegate.sessionEnded(event);
+            }
+        }
+
+        public void projectDiscoveryStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectDiscoveryStarted(event);
+            }
+        }
+
+        public void sessionStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.sessionStarted(event);
+            }
+        }
+
+        public void projectSkipped(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSkipped(event);
+            }
+        }
+
+        public void projectStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectStarted(event);
+            }
+        }
+
+        public void projectSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSucceeded(event);
+            }
+        }
+
+        public void projectFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectFailed(event);
+            }
+        }
+
+        public void mojoSkipped(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSkipped(event);
+            }
+        }
+
+        public void mojoStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoStarted(event);
+            }
+        }
+
+        public void mojoSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSucceeded(event);
+            }
+        }
+
+        public void mojoFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoFailed(event);
+            }
+        }
+
+        public void forkStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkStarted(event);
+            }
+        }
+
+        public void forkSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkSucceeded(event);
+            }
+        }
+
+        public void forkFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkFailed(event);
+            }
+        }
+
+        public void forkedProjectStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectStarted(event);
+            }
+        }
+
+        public void forkedProjectSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectSucceeded(event);
+            }
+        }
+
+        public void forkedProjectFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectFailed(event);
+            }
+        }
+    }
+
 }
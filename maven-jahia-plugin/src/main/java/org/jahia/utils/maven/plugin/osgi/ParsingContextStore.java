@@ -0,0 +1,567 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi;
+
+import org.jahia.utils.osgi.parsers.PackageInfo;
+import org.jahia.utils.osgi.parsers.ParsingContext;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Binary storage for the parsing context cache. The encoded parsing contexts are appended to a single data file and
+ * located through an index file that is memory mapped when the store is opened. The most recently used decoded
+ * entries are kept in a bounded LRU map.
+ * <p>
+ * Several builds may share the same store. All the modifications are done under an exclusive lock on a separate lock
+ * file, and the store files are only ever replaced as a whole, by renaming new files over them. The data file is kept
+ * open from the moment its index is loaded, so the offsets of an index always refer to the data file they were read
+ * from, even if another build replaced it in the meantime.
+ */
+class ParsingContextStore implements Closeable {
+
+    static final String DATA_FILE_NAME = "parsing-contexts.dat";
+    static final String INDEX_FILE_NAME = "parsing-contexts.idx";
+    static final String LOCK_FILE_NAME = "parsing-contexts.lock";
+
+    private static final int MAGIC = 0x4A504358;
+    private static final int STORE_FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+    /**
+     * File locks are held by the whole JVM, the stores of the same JVM must not try to lock the same file twice
+     */
+    private static final Object processLock = new Object();
+
+    private final File dataFile;
+    private final File indexFile;
+    private final File lockFile;
+    private final Map<String, long[]> index = new LinkedHashMap<String, long[]>();
+    private final Map<String, ParsingContext> decodedEntries;
+    private final boolean readOnly;
+    private FileChannel dataChannel;
+    private Object dataFileKey;
+    private boolean open;
+
+    ParsingContextStore(File directory, final int maxDecodedEntries) throws IOException {
+        this(directory, maxDecodedEntries, false);
+    }
+
+    /**
+     * @param readOnly if true, the store files are never modified, which allows sharing a pre-warmed store between
+     *                 builds. A missing or invalid read-only store is considered empty.
+     */
+    ParsingContextStore(File directory, final int maxDecodedEntries, boolean readOnly) throws IOException {
+        this.dataFile = new File(directory, DATA_FILE_NAME);
+        this.indexFile = new File(directory, INDEX_FILE_NAME);
+        this.lockFile = new File(directory, LOCK_FILE_NAME);
+        this.decodedEntries = new LinkedHashMap<String, ParsingContext>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ParsingContext> eldest) {
+                return size() > maxDecodedEntries;
+            }
+        };
+        this.readOnly = readOnly;
+        if (readOnly) {
+            loadIndex();
+        } else {
+            synchronized (processLock) {
+                try (FileChannel lockChannel = openLockChannel(); FileLock lock = lockChannel.lock()) {
+                    if (!loadIndex()) {
+                        reset();
+                    } else if (dataChannel.size() > MIN_COMPACTION_SIZE && getLiveSize() < dataChannel.size() / 2) {
+                        compact();
+                    }
+                }
+            }
+        }
+        open = true;
+    }
+
+    synchronized ParsingContext get(String key) throws IOException {
+        ensureOpen();
+        ParsingContext parsingContext = decodedEntries.get(key);
+        if (parsingContext != null) {
+            return parsingContext;
+        }
+        DataInputStream in = readRecord(key);
+        if (in == null) {
+            return null;
+        }
+        readString(in); // key
+        readString(in); // disk path
+        parsingContext = decode(in);
+        decodedEntries.put(key, parsingContext);
+        return parsingContext;
+    }
+
+    synchronized String getDiskPath(String key) throws IOException {
+        ensureOpen();
+        DataInputStream in = readRecord(key);
+        if (in == null) {
+            return null;
+        }
+        readString(in);
+        return readString(in);
+    }
+
+    synchronized ParsingContext put(String key, String diskPath, ParsingContext parsingContext) throws IOException {
+        if (readOnly) {
+            throw new IOException("Parsing context store in " + dataFile.getParentFile() + " is read-only");
+        }
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(recordBytes);
+        writeString(out, key);
+        writeString(out, diskPath);
+        encode(out, parsingContext);
+        out.flush();
+        byte[] record = recordBytes.toByteArray();
+
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream(key.length() + 16);
+        DataOutputStream indexOut = new DataOutputStream(indexBytes);
+        writeKey(indexOut, key);
+        long offset;
+        // other builds may share the same cache directory, so the appends are done under an exclusive lock
+        synchronized (processLock) {
+            try (FileChannel lockChannel = openLockChannel(); FileLock lock = lockChannel.lock()) {
+                if (!open || !isCurrentDataFile()) {
+                    // another build replaced the store files, our offsets are only valid in the previous ones
+                    reload();
+                }
+                try (FileChannel dataWriteChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.WRITE);
+                     FileChannel indexWriteChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+                    offset = dataWriteChannel.size();
+                    writeFully(dataWriteChannel, ByteBuffer.wrap(record), offset);
+                    indexOut.writeLong(offset);
+                    indexOut.writeInt(record.length);
+                    indexOut.flush();
+                    writeFully(indexWriteChannel, ByteBuffer.wrap(indexBytes.toByteArray()), indexWriteChannel.size());
+                }
+            }
+        }
+        index.put(key, new long[]{offset, record.length});
+        return decodedEntries.put(key, parsingContext);
+    }
+
+    synchronized Set<String> getKeys() throws IOException {
+        ensureOpen();
+        return new LinkedHashSet<String>(index.keySet());
+    }
+
+    synchronized boolean contains(String key) throws IOException {
+        ensureOpen();
+        return index.containsKey(key);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        closeDataChannel();
+    }
+
+    private void closeDataChannel() throws IOException {
+        if (dataChannel != null) {
+            dataChannel.close();
+            dataChannel = null;
+        }
+    }
+
+    /**
+     * Reloads the index of a closed store, as the store files may have been replaced since it was closed.
+     */
+    private void ensureOpen() throws IOException {
+        if (open) {
+            return;
+        }
+        if (readOnly) {
+            decodedEntries.clear();
+            loadIndex();
+        } else {
+            synchronized (processLock) {
+                try (FileChannel lockChannel = openLockChannel(); FileLock lock = lockChannel.lock()) {
+                    reload();
+                }
+            }
+        }
+        open = true;
+    }
+
+    /**
+     * Loads the index of the current store files again, must be called under the lock.
+     */
+    private void reload() throws IOException {
+        decodedEntries.clear();
+        if (!loadIndex()) {
+            reset();
+        }
+        open = true;
+    }
+
+    private FileChannel openLockChannel() throws IOException {
+        return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return false if the data file was replaced since it was opened
+     */
+    private boolean isCurrentDataFile() throws IOException {
+        if (dataChannel == null || !dataFile.isFile()) {
+            return false;
+        }
+        Object fileKey = getFileKey(dataFile);
+        // without file keys, the replaced files cannot be distinguished; this only happens on platforms where open files
+        // cannot be replaced anyway
+        return fileKey == null || fileKey.equals(dataFileKey);
+    }
+
+    private static Object getFileKey(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    private DataInputStream readRecord(String key) throws IOException {
+        long[] location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) location[1]);
+        while (buffer.hasRemaining()) {
+            if (dataChannel.read(buffer, location[0] + buffer.position()) < 0) {
+                throw new EOFException("Truncated parsing context cache entry " + key + " in " + dataFile);
+            }
+        }
+        return new DataInputStream(new ByteArrayInputStream(buffer.array()));
+    }
+
+    /**
+     * Opens the data file and loads the index file, ignoring any trailing entry that was not completely written or
+     * that points outside of the data file.
+     * @return false if the store files are missing or not in the expected format
+     */
+    private boolean loadIndex() throws IOException {
+        index.clear();
+        closeDataChannel();
+        if (!dataFile.isFile() || !indexFile.isFile() || !hasValidHeader(dataFile) || !hasValidHeader(indexFile)) {
+            return false;
+        }
+        openDataChannel();
+        long dataLength = dataChannel.size();
+        try (FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer indexBuffer = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            indexBuffer.position(HEADER_SIZE);
+            while (indexBuffer.remaining() >= 2) {
+                int keyLength = indexBuffer.getShort() & 0xFFFF;
+                if (indexBuffer.remaining() < keyLength + 12) {
+                    break;
+                }
+                byte[] keyBytes = new byte[keyLength];
+                indexBuffer.get(keyBytes);
+                long offset = indexBuffer.getLong();
+                int length = indexBuffer.getInt();
+                if (offset < HEADER_SIZE || length < 0 || offset + length > dataLength) {
+                    break;
+                }
+                String key = new String(keyBytes, StandardCharsets.UTF_8);
+                index.remove(key);
+                index.put(key, new long[]{offset, length});
+            }
+        }
+        return true;
+    }
+
+    private void openDataChannel() throws IOException {
+        dataChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+        dataFileKey = getFileKey(dataFile);
+    }
+
+    private long getLiveSize() {
+        long liveSize = HEADER_SIZE;
+        for (long[] location : index.values()) {
+            liveSize += location[1];
+        }
+        return liveSize;
+    }
+
+    /**
+     * Rewrites the store with only the latest version of each entry, must be called under the lock.
+     */
+    private void compact() throws IOException {
+        File compactedDataFile = new File(dataFile.getPath() + ".tmp");
+        File compactedIndexFile = new File(indexFile.getPath() + ".tmp");
+        Map<String, long[]> compactedIndex = new LinkedHashMap<String, long[]>();
+        try (DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedDataFile)));
+             DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedIndexFile)))) {
+            writeHeader(dataOut);
+            writeHeader(indexOut);
+            long offset = HEADER_SIZE;
+            for (Map.Entry<String, long[]> indexEntry : index.entrySet()) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) indexEntry.getValue()[1]);
+                while (buffer.hasRemaining()) {
+                    if (dataChannel.read(buffer, indexEntry.getValue()[0] + buffer.position()) < 0) {
+                        throw new EOFException("Truncated parsing context cache entry " + indexEntry.getKey() + " in " + dataFile);
+                    }
+                }
+                dataOut.write(buffer.array());
+                writeKey(indexOut, indexEntry.getKey());
+                indexOut.writeLong(offset);
+                indexOut.writeInt(buffer.capacity());
+                compactedIndex.put(indexEntry.getKey(), new long[]{offset, buffer.capacity()});
+                offset += buffer.capacity();
+            }
+        }
+        try {
+            replaceStoreFiles(compactedDataFile, compactedIndexFile);
+        } catch (IOException e) {
+            // the store files may be open by another build on a platform not allowing to replace them, we will try
+            // again next time
+            compactedDataFile.delete();
+            compactedIndexFile.delete();
+            if (!loadIndex()) {
+                reset();
+            }
+            return;
+        }
+        index.clear();
+        index.putAll(compactedIndex);
+    }
+
+    /**
+     * Creates new empty store files, must be called under the lock.
+     */
+    private void reset() throws IOException {
+        index.clear();
+        decodedEntries.clear();
+        File emptyDataFile = new File(dataFile.getPath() + ".tmp");
+        File emptyIndexFile = new File(indexFile.getPath() + ".tmp");
+        for (File file : new File[]{emptyDataFile, emptyIndexFile}) {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                writeHeader(out);
+            }
+        }
+        replaceStoreFiles(emptyDataFile, emptyIndexFile);
+    }
+
+    /**
+     * Renames new store files over the current ones, so that the builds still reading the current data file keep
+     * reading a consistent one, and opens the new data file.
+     */
+    private void replaceStoreFiles(File newDataFile, File newIndexFile) throws IOException {
+        Files.move(newDataFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(newIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        closeDataChannel();
+        openDataChannel();
+    }
+
+    private static boolean hasValidHeader(File file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC && in.readInt() == STORE_FORMAT_VERSION;
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(STORE_FORMAT_VERSION);
+    }
+
+    private static void writeKey(DataOutputStream out, String key) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(keyBytes.length);
+        out.write(keyBytes);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // the encoding contains the same information as the JSON representation of the parsing contexts
+
+    static void encode(DataOutputStream out, ParsingContext parsingContext) throws IOException {
+        writeString(out, parsingContext.getMavenCoords());
+        out.writeLong(parsingContext.getLastModified());
+        out.writeLong(parsingContext.getFileSize());
+        writeString(out, parsingContext.getFileName());
+        writeString(out, parsingContext.getFilePath());
+        writeString(out, parsingContext.getVersion());
+        writeString(out, parsingContext.getChecksum());
+        out.writeBoolean(parsingContext.isInCache());
+        out.writeBoolean(parsingContext.isOsgiBundle());
+        writeStrings(out, parsingContext.getBundleClassPath());
+        writeStrings(out, parsingContext.getTaglibUris());
+        out.writeInt(parsingContext.getUnresolvedTaglibUris().size());
+        for (Map.Entry<String, Set<String>> unresolvedTaglibUris : parsingContext.getUnresolvedTaglibUris().entrySet()) {
+            writeString(out, unresolvedTaglibUris.getKey());
+            writeStrings(out, unresolvedTaglibUris.getValue() != null ? unresolvedTaglibUris.getValue() : Collections.<String>emptySet());
+        }
+        out.writeInt(parsingContext.getTaglibPackages().size());
+        for (Map.Entry<String, Set<PackageInfo>> taglibPackages : parsingContext.getTaglibPackages().entrySet()) {
+            writeString(out, taglibPackages.getKey());
+            writePackageInfos(out, taglibPackages.getValue() != null ? taglibPackages.getValue() : Collections.<PackageInfo>emptySet());
+        }
+        out.writeInt(parsingContext.getExternalTaglibs().size());
+        for (Map.Entry<String, Boolean> externalTaglib : parsingContext.getExternalTaglibs().entrySet()) {
+            writeString(out, externalTaglib.getKey());
+            out.writeBoolean(externalTaglib.getValue() != null && externalTaglib.getValue());
+        }
+        writeStrings(out, parsingContext.getContentTypeDefinitions());
+        writeStrings(out, parsingContext.getContentTypeReferences());
+        writeStrings(out, parsingContext.getAdditionalFilesToParse());
+        writePackageInfos(out, parsingContext.getSplitPackages());
+        writePackageInfos(out, parsingContext.getLocalPackages());
+        writePackageInfos(out, parsingContext.getPackageImports());
+        writePackageInfos(out, parsingContext.getPackageExports());
+        writePackageInfos(out, parsingContext.getPackageIgnores());
+    }
+
+    static ParsingContext decode(DataInputStream in) throws IOException {
+        String mavenCoords = readString(in);
+        long lastModified = in.readLong();
+        long fileSize = in.readLong();
+        String fileName = readString(in);
+        String filePath = readString(in);
+        String version = readString(in);
+        ParsingContext parsingContext = new ParsingContext(mavenCoords, lastModified, fileSize, fileName, filePath, version, null);
+        parsingContext.setChecksum(readString(in));
+        parsingContext.setInCache(in.readBoolean());
+        parsingContext.setOsgiBundle(in.readBoolean());
+        parsingContext.setBundleClassPath(readStrings(in, new ArrayList<String>()));
+        readStrings(in, parsingContext.getTaglibUris());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            parsingContext.putUnresolvedTaglibUris(readString(in), readStrings(in, new TreeSet<String>()));
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            parsingContext.putTaglibPackages(readString(in), readPackageInfos(in, new TreeSet<PackageInfo>(), parsingContext));
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            parsingContext.putExternalTaglib(readString(in), in.readBoolean());
+        }
+        readStrings(in, parsingContext.getContentTypeDefinitions());
+        readStrings(in, parsingContext.getContentTypeReferences());
+        readStrings(in, parsingContext.getAdditionalFilesToParse());
+        readPackageInfos(in, parsingContext.getSplitPackages(), parsingContext);
+        readPackageInfos(in, parsingContext.getLocalPackages(), parsingContext);
+        readPackageInfos(in, parsingContext.getPackageImports(), parsingContext);
+        readPackageInfos(in, parsingContext.getPackageExports(), parsingContext);
+        readPackageInfos(in, parsingContext.getPackageIgnores(), parsingContext);
+        return parsingContext;
+    }
+
+    private static void writePackageInfos(DataOutputStream out, Collection<PackageInfo> packageInfos) throws IOException {
+        out.writeInt(packageInfos.size());
+        for (PackageInfo packageInfo : packageInfos) {
+            writeString(out, packageInfo.getName());
+            writeString(out, packageInfo.getVersion());
+            out.writeBoolean(packageInfo.isOptional());
+            Set<String> directiveNames = packageInfo.getOtherDirectives().stringPropertyNames();
+            out.writeInt(directiveNames.size());
+            for (String directiveName : directiveNames) {
+                writeString(out, directiveName);
+                writeString(out, packageInfo.getOtherDirectives().getProperty(directiveName));
+            }
+        }
+    }
+
+    private static <T extends Collection<PackageInfo>> T readPackageInfos(DataInputStream in, T packageInfos, ParsingContext parsingContext) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            PackageInfo packageInfo = new PackageInfo(readString(in), readString(in), in.readBoolean(), new TreeSet<String>(), parsingContext);
+            int directiveCount = in.readInt();
+            for (int j = 0; j < directiveCount; j++) {
+                packageInfo.getOtherDirectives().setProperty(readString(in), readString(in));
+            }
+            packageInfos.add(packageInfo);
+        }
+        return packageInfos;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    private static <T extends Collection<String>> T readStrings(DataInputStream in, T strings) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -51,6 +51,7 @@ import org.jahia.utils.maven.plugin.osgi.framework.filter.PatternMatcher;
 import org.jahia.utils.maven.plugin.osgi.framework.generator.PackageListGenerator;
 import org.jahia.utils.maven.plugin.osgi.framework.report.PackageReportGenerator;
 import org.jahia.utils.maven.plugin.osgi.framework.scanner.DependencyScanner;
+import org.jahia.utils.maven.plugin.osgi.framework.scanner.JarPackageIndex;
 import org.jahia.utils.maven.plugin.osgi.framework.scanner.PackageScanContext;
 import org.jahia.utils.maven.plugin.osgi.framework.validation.SystemPackagesValidator;
 import org.jahia.utils.maven.plugin.osgi.framework.version.VersionOverrideApplier;
@@ -341,6 +342,23 @@ public class JahiaSystemPackagesCheckMojo extends AetherAwareMojo {
      */
     protected String propertyFilePropertyName = "org.osgi.framework.system.packages.extra";
 
+    /**
+     * The number of threads used to scan the dependencies. The dependencies are scanned serially by default, when set
+     * to 0 the number of available processors is used. The results do not depend on the number of threads.
+     *
+     * @parameter default-value="1"
+     */
+    protected int scanThreads = 1;
+
+    /**
+     * The directory of the persistent index of the scanned JARs. The repository artifacts are identified by their
+     * SHA-1 checksum, so the builds of all the modules and branches sharing this directory only read each JAR once.
+     * Set to an empty value to always read the JARs.
+     *
+     * @parameter default-value="${user.home}/.m2/jar-package-index"
+     */
+    protected String jarPackageIndexDirectory;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         try {
@@ -372,7 +390,10 @@ public class JahiaSystemPackagesCheckMojo extends AetherAwareMojo {
             //   6. If excluded: skip (don't store in memory)
             //   7. If not excluded: add to scanContext
             if (project != null) {
-                DependencyScanner dependencyScanner = new DependencyScanner(exclusionFilter, getLog());
+                JarPackageIndex jarPackageIndex = jarPackageIndexDirectory != null && jarPackageIndexDirectory.length() > 0 ?
+                    new JarPackageIndex(new File(jarPackageIndexDirectory), getLog()) : null;
+                DependencyScanner dependencyScanner = new DependencyScanner(exclusionFilter,
+                    scanThreads > 0 ? scanThreads : Runtime.getRuntime().availableProcessors(), jarPackageIndex, getLog());
                 dependencyScanner.scanArtifacts(project.getArtifacts(), scanContext);
             }
 
@@ -384,7 +405,7 @@ public class JahiaSystemPackagesCheckMojo extends AetherAwareMojo {
             // on occurrence counts and version precedence.
             VersionResolver versionResolver = new VersionResolver(getLog());
             Map<String, Set<String>> packageVersions = versionResolver.resolveSplitPackages(
-                scanContext.getPackageVersionCounts()
+                scanContext.getPackageVersionTable()
             );
 
             // ========================================================================
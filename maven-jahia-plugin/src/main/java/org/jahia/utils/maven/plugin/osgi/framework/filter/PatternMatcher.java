@@ -44,24 +44,52 @@
 package org.jahia.utils.maven.plugin.osgi.framework.filter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
  * Utility class for building and applying exclusion patterns for artifacts and packages.
  * Supports wildcard patterns that are converted to regular expressions.
+ * <p>
+ * The wildcard patterns are all compiled into a single automaton, so that the cost of a lookup only depends on the
+ * length of the tested value and not on the number of patterns. Patterns using other regular expression constructs
+ * are evaluated as regular expressions, in order, so the first declared matching pattern is always the one reported.
  */
 public class PatternMatcher {
 
+    private static final String REGEX_SPECIAL_CHARACTERS = "\\[](){}+?^$|";
+
     private final List<Pattern> patterns;
+    private final int[] regexPatternIndexes;
+    private final GlobAutomaton globAutomaton;
 
     /**
      * Creates a new PatternMatcher with the specified patterns.
      *
-     * @param patterns the list of compiled patterns
+     * @param globs the list of wildcard patterns
      */
-    private PatternMatcher(List<Pattern> patterns) {
-        this.patterns = patterns;
+    private PatternMatcher(List<String> globs) {
+        this.patterns = new ArrayList<>(globs.size());
+        List<Integer> regexPatternIndexList = new ArrayList<>();
+        String[] automatonGlobs = new String[globs.size()];
+        for (int i = 0; i < globs.size(); i++) {
+            String glob = globs.get(i);
+            patterns.add(Pattern.compile(convertToRegex(glob)));
+            if (isGlob(glob)) {
+                automatonGlobs[i] = glob;
+            } else {
+                regexPatternIndexList.add(i);
+            }
+        }
+        this.regexPatternIndexes = new int[regexPatternIndexList.size()];
+        for (int i = 0; i < regexPatternIndexes.length; i++) {
+            regexPatternIndexes[i] = regexPatternIndexList.get(i);
+        }
+        this.globAutomaton = new GlobAutomaton(automatonGlobs);
     }
 
     /**
@@ -75,12 +103,7 @@ public class PatternMatcher {
             return false;
         }
 
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(value).matches()) {
-                return true;
-            }
-        }
-        return false;
+        return getMatchingPatternIndex(value) >= 0;
     }
 
     /**
@@ -94,12 +117,8 @@ public class PatternMatcher {
             return null;
         }
 
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(value).matches()) {
-                return pattern.pattern();
-            }
-        }
-        return null;
+        int matchingPatternIndex = getMatchingPatternIndex(value);
+        return matchingPatternIndex >= 0 ? patterns.get(matchingPatternIndex).pattern() : null;
     }
 
     /**
@@ -111,12 +130,34 @@ public class PatternMatcher {
         return new ArrayList<>(patterns);
     }
 
+    private int getMatchingPatternIndex(String value) {
+        int matchingPatternIndex = globAutomaton.getFirstMatch(value);
+        for (int regexPatternIndex : regexPatternIndexes) {
+            if (matchingPatternIndex >= 0 && regexPatternIndex > matchingPatternIndex) {
+                break;
+            }
+            if (patterns.get(regexPatternIndex).matcher(value).matches()) {
+                return regexPatternIndex;
+            }
+        }
+        return matchingPatternIndex;
+    }
+
+    private static boolean isGlob(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (REGEX_SPECIAL_CHARACTERS.indexOf(pattern.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Builder for creating PatternMatcher instances for artifact exclusions.
      */
     public static class ArtifactPatternBuilder {
 
-        private final List<Pattern> patterns = new ArrayList<>();
+        private final List<String> patterns = new ArrayList<>();
 
         /**
          * Adds an artifact exclusion pattern.
@@ -139,12 +180,11 @@ public class PatternMatcher {
                 groupPattern = pattern.substring(0, colonPos);
                 artifactPattern = pattern.substring(colonPos + 1);
             } else {
-                groupPattern = ".*";
+                groupPattern = "*";
                 artifactPattern = pattern;
             }
 
-            String regex = convertToRegex(groupPattern) + ":" + convertToRegex(artifactPattern);
-            patterns.add(Pattern.compile(regex));
+            patterns.add(groupPattern + ":" + artifactPattern);
 
             return this;
         }
@@ -179,7 +219,7 @@ public class PatternMatcher {
      */
     public static class PackagePatternBuilder {
 
-        private final List<Pattern> patterns = new ArrayList<>();
+        private final List<String> patterns = new ArrayList<>();
 
         /**
          * Adds a package exclusion pattern.
@@ -194,8 +234,7 @@ public class PatternMatcher {
                 return this;
             }
 
-            String regex = convertToRegex(pattern);
-            patterns.add(Pattern.compile(regex));
+            patterns.add(pattern);
 
             return this;
         }
@@ -225,6 +264,150 @@ public class PatternMatcher {
         }
     }
 
+    /**
+     * Deterministic automaton matching a list of wildcard patterns, where "*" matches any sequence of characters and
+     * all the other characters match themselves. Its states are the sets of pattern positions reachable after reading
+     * a prefix of the value, so the literal prefixes shared by the patterns form a trie. The states and transitions
+     * are built on demand, the first time a lookup needs them.
+     */
+    private static class GlobAutomaton {
+
+        private static final int MAX_STATES = 10000;
+
+        // one state per position in each pattern, including the position after its last character
+        private final char[] stateChars;
+        private final boolean[] stateStars;
+        private final boolean[] stateEnds;
+        private final int[] statePatterns;
+        private final Map<String, State> states = new ConcurrentHashMap<>();
+        private final State initialState;
+
+        private GlobAutomaton(String[] globs) {
+            int stateCount = 0;
+            for (String glob : globs) {
+                if (glob != null) {
+                    stateCount += glob.length() + 1;
+                }
+            }
+            stateChars = new char[stateCount];
+            stateStars = new boolean[stateCount];
+            stateEnds = new boolean[stateCount];
+            statePatterns = new int[stateCount];
+            BitSet startStates = new BitSet();
+            int state = 0;
+            for (int patternIndex = 0; patternIndex < globs.length; patternIndex++) {
+                String glob = globs[patternIndex];
+                if (glob == null) {
+                    continue;
+                }
+                startStates.set(state);
+                for (int i = 0; i <= glob.length(); i++) {
+                    if (i < glob.length()) {
+                        stateChars[state] = glob.charAt(i);
+                        stateStars[state] = glob.charAt(i) == '*';
+                    } else {
+                        stateEnds[state] = true;
+                    }
+                    statePatterns[state] = patternIndex;
+                    state++;
+                }
+            }
+            initialState = getState(closure(startStates));
+        }
+
+        /**
+         * @return the index of the first pattern matching the whole value, or -1 if none matches
+         */
+        private int getFirstMatch(String value) {
+            State state = initialState;
+            for (int i = 0; i < value.length() && state.positions.length > 0; i++) {
+                char c = value.charAt(i);
+                State nextState = state.getTransition(c);
+                if (nextState == null) {
+                    nextState = getState(step(state.positions, c));
+                    if (states.size() < MAX_STATES) {
+                        state.setTransition(c, nextState);
+                    }
+                }
+                state = nextState;
+            }
+            return state.firstMatch;
+        }
+
+        private int[] step(int[] positions, char c) {
+            BitSet nextPositions = new BitSet();
+            for (int position : positions) {
+                if (stateStars[position]) {
+                    nextPositions.set(position);
+                } else if (!stateEnds[position] && stateChars[position] == c) {
+                    nextPositions.set(position + 1);
+                }
+            }
+            return closure(nextPositions);
+        }
+
+        /**
+         * Adds the positions following the wildcards, as a wildcard may also match an empty sequence.
+         */
+        private int[] closure(BitSet positions) {
+            BitSet closedPositions = new BitSet();
+            for (int position = positions.nextSetBit(0); position >= 0; position = positions.nextSetBit(position + 1)) {
+                int closedPosition = position;
+                closedPositions.set(closedPosition);
+                while (stateStars[closedPosition]) {
+                    closedPositions.set(++closedPosition);
+                }
+            }
+            return closedPositions.stream().toArray();
+        }
+
+        private State getState(int[] positions) {
+            String key = Arrays.toString(positions);
+            State state = states.get(key);
+            if (state == null) {
+                int firstMatch = -1;
+                for (int position : positions) {
+                    if (stateEnds[position] && (firstMatch < 0 || statePatterns[position] < firstMatch)) {
+                        firstMatch = statePatterns[position];
+                    }
+                }
+                state = new State(positions, firstMatch);
+                if (states.size() < MAX_STATES) {
+                    State existingState = ((ConcurrentHashMap<String, State>) states).putIfAbsent(key, state);
+                    if (existingState != null) {
+                        state = existingState;
+                    }
+                }
+            }
+            return state;
+        }
+
+        private static class State {
+
+            private final int[] positions;
+            private final int firstMatch;
+            private final State[] asciiTransitions = new State[128];
+            private final Map<Character, State> otherTransitions = new ConcurrentHashMap<>();
+
+            private State(int[] positions, int firstMatch) {
+                this.positions = positions;
+                this.firstMatch = firstMatch;
+            }
+
+            private State getTransition(char c) {
+                return c < 128 ? asciiTransitions[c] : otherTransitions.get(c);
+            }
+
+            private void setTransition(char c, State state) {
+                if (c < 128) {
+                    asciiTransitions[c] = state;
+                } else {
+                    otherTransitions.put(c, state);
+                }
+            }
+        }
+    }
+
     /**
      * Converts a wildcard pattern to a regular expression.
      * Escapes dots and converts asterisks to ".*".
@@ -141,13 +141,14 @@ public class PackageListGenerator {
      * Formats the sorted package instructions into final output format.
      */
     private GenerationResult formatPackageList(Set<String> sortedPackageInstructions) {
-        List<String> packageList = new ArrayList<>();
+        List<String> packageList = new ArrayList<>(sortedPackageInstructions.size());
+        Set<String> addedPackageInstructions = new HashSet<>();
         StringBuilder concatenatedBuffer = new StringBuilder();
 
         for (String packageInstruction : sortedPackageInstructions) {
             String packageInstructionWithComma = packageInstruction + ",";
 
-            if (packageList.contains(packageInstructionWithComma)) {
+            if (!addedPackageInstructions.add(packageInstructionWithComma)) {
                 log.warn("Package export " + packageInstructionWithComma +
                          " already present in list, will not add again!");
             } else {
@@ -0,0 +1,328 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi.framework.models;
+
+import java.util.*;
+
+/**
+ * Counts how many times each version of a package was found at each location, to detect and resolve split
+ * packages.
+ *
+ * <p>The package names, versions and locations are interned and referenced by int identifiers. Each (package,
+ * location, version) record only uses a few slots in primitive arrays, and is found through an open addressing table,
+ * so counting a package found again does not allocate anything. Versions are stored as found, callers clean them up
+ * only when reporting them.</p>
+ *
+ * <p>Records are identified by their index, and the records of a package can be iterated with
+ * {@link #getFirstRecord(int)} and {@link #getNextRecord(int)}, in the order they were created.</p>
+ */
+public class PackageVersionTable {
+
+    private static final int NO_RECORD = -1;
+    private static final int NULL_ID = -1;
+
+    private final StringIds packageNames = new StringIds();
+    private final StringIds versions = new StringIds();
+    private final StringIds locations = new StringIds();
+
+    // records, stored as parallel arrays
+    private int recordCount;
+    private int[] recordPackages = new int[1024];
+    private int[] recordLocations = new int[1024];
+    private int[] recordVersions = new int[1024];
+    private int[] recordSpecificationVersions = new int[1024];
+    private int[] recordNextInPackage = new int[1024];
+    private long[] recordCounters = new long[1024];
+
+    // first and last record of each package, indexed by package identifier
+    private int[] packageFirstRecords = new int[256];
+    private int[] packageLastRecords = new int[256];
+
+    // open addressing table of record index + 1, 0 meaning an empty slot
+    private int[] recordSlots = new int[2048];
+
+    /**
+     * Counts one more occurrence of a package version at a location. The specification version is only recorded for
+     * the first occurrence.
+     *
+     * @param packageName the package name
+     * @param location the file path or identifier where the version was found
+     * @param version the package version, may be null
+     * @param specificationVersion the specification version from the manifest, may be null
+     */
+    public void increment(String packageName, String location, String version, String specificationVersion) {
+        int packageId = packageNames.getOrAdd(packageName);
+        int locationId = locations.getOrAdd(location);
+        int versionId = versions.getOrAdd(version);
+        int slot = findSlot(packageId, locationId, versionId);
+        if (recordSlots[slot] != 0) {
+            recordCounters[recordSlots[slot] - 1]++;
+            return;
+        }
+        int record = addRecord(packageId, locationId, versionId, versions.getOrAdd(specificationVersion));
+        recordSlots[slot] = record + 1;
+        if (recordCount * 2 > recordSlots.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Removes a package and its records. If the package is counted again afterwards, it starts again from new
+     * records.
+     *
+     * @param packageName the package name
+     */
+    public void removePackage(String packageName) {
+        int packageId = packageNames.get(packageName);
+        if (packageId == NULL_ID || packageId >= packageFirstRecords.length) {
+            return;
+        }
+        for (int record = packageFirstRecords[packageId] - 1; record != NO_RECORD; record = getNextRecord(record)) {
+            // the slot of the record is kept so that the other records are still found, but it no longer matches
+            recordPackages[record] = NULL_ID;
+        }
+        packageFirstRecords[packageId] = 0;
+        packageLastRecords[packageId] = 0;
+    }
+
+    /**
+     * @return the identifiers of the packages that have records and were not removed, sorted by package name
+     */
+    public int[] getSortedPackageIds() {
+        List<String> sortedPackageNames = new ArrayList<>(packageNames.size());
+        for (int packageId = 0; packageId < packageNames.size(); packageId++) {
+            if (getFirstRecord(packageId) != NO_RECORD) {
+                sortedPackageNames.add(packageNames.getString(packageId));
+            }
+        }
+        Collections.sort(sortedPackageNames);
+        int[] sortedPackageIds = new int[sortedPackageNames.size()];
+        for (int i = 0; i < sortedPackageIds.length; i++) {
+            sortedPackageIds[i] = packageNames.get(sortedPackageNames.get(i));
+        }
+        return sortedPackageIds;
+    }
+
+    /**
+     * @return the names of the packages that have records and were not removed, sorted
+     */
+    public List<String> getSortedPackageNames() {
+        List<String> sortedPackageNames = new ArrayList<>();
+        for (int packageId : getSortedPackageIds()) {
+            sortedPackageNames.add(packageNames.getString(packageId));
+        }
+        return sortedPackageNames;
+    }
+
+    public String getPackageName(int packageId) {
+        return packageNames.getString(packageId);
+    }
+
+    /**
+     * @return the first record of a package, or -1 if it has none
+     */
+    public int getFirstRecord(int packageId) {
+        if (packageId >= packageNames.size() || packageId >= packageFirstRecords.length) {
+            return NO_RECORD;
+        }
+        return packageFirstRecords[packageId] - 1;
+    }
+
+    /**
+     * @return the next record of the same package, or -1 if there is none
+     */
+    public int getNextRecord(int record) {
+        return recordNextInPackage[record] - 1;
+    }
+
+    public String getLocation(int record) {
+        return locations.getString(recordLocations[record]);
+    }
+
+    public String getVersion(int record) {
+        return versions.getString(recordVersions[record]);
+    }
+
+    public String getSpecificationVersion(int record) {
+        return versions.getString(recordSpecificationVersions[record]);
+    }
+
+    public long getCounter(int record) {
+        return recordCounters[record];
+    }
+
+    /**
+     * @return the number of distinct locations where a package was found
+     */
+    public int getLocationCount(int packageId) {
+        return countDistinct(recordLocations, packageId);
+    }
+
+    /**
+     * Checks whether a package was found with the same set of versions at all its locations.
+     */
+    public boolean hasSameVersionsAtAllLocations(int packageId) {
+        // records are unique per location and version, so all the locations have all the versions exactly when
+        // there is one record for each combination
+        int records = 0;
+        for (int record = getFirstRecord(packageId); record != NO_RECORD; record = getNextRecord(record)) {
+            records++;
+        }
+        return records == getLocationCount(packageId) * countDistinct(recordVersions, packageId);
+    }
+
+    private int countDistinct(int[] recordValues, int packageId) {
+        int records = 0;
+        int[] values = new int[8];
+        for (int record = getFirstRecord(packageId); record != NO_RECORD; record = getNextRecord(record)) {
+            if (records == values.length) {
+                values = Arrays.copyOf(values, records * 2);
+            }
+            values[records++] = recordValues[record];
+        }
+        Arrays.sort(values, 0, records);
+        int distinctValues = 0;
+        for (int i = 0; i < records; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                distinctValues++;
+            }
+        }
+        return distinctValues;
+    }
+
+    private int addRecord(int packageId, int locationId, int versionId, int specificationVersionId) {
+        if (recordCount == recordPackages.length) {
+            int capacity = recordCount * 2;
+            recordPackages = Arrays.copyOf(recordPackages, capacity);
+            recordLocations = Arrays.copyOf(recordLocations, capacity);
+            recordVersions = Arrays.copyOf(recordVersions, capacity);
+            recordSpecificationVersions = Arrays.copyOf(recordSpecificationVersions, capacity);
+            recordNextInPackage = Arrays.copyOf(recordNextInPackage, capacity);
+            recordCounters = Arrays.copyOf(recordCounters, capacity);
+        }
+        if (packageId >= packageFirstRecords.length) {
+            int capacity = Math.max(packageId + 1, packageFirstRecords.length * 2);
+            packageFirstRecords = Arrays.copyOf(packageFirstRecords, capacity);
+            packageLastRecords = Arrays.copyOf(packageLastRecords, capacity);
+        }
+        int record = recordCount++;
+        recordPackages[record] = packageId;
+        recordLocations[record] = locationId;
+        recordVersions[record] = versionId;
+        recordSpecificationVersions[record] = specificationVersionId;
+        recordNextInPackage[record] = 0;
+        recordCounters[record] = 1;
+        if (packageFirstRecords[packageId] == 0) {
+            packageFirstRecords[packageId] = record + 1;
+        } else {
+            recordNextInPackage[packageLastRecords[packageId] - 1] = record + 1;
+        }
+        packageLastRecords[packageId] = record + 1;
+        return record;
+    }
+
+    private int findSlot(int packageId, int locationId, int versionId) {
+        int mask = recordSlots.length - 1;
+        int slot = hash(packageId, locationId, versionId) & mask;
+        while (recordSlots[slot] != 0) {
+            int record = recordSlots[slot] - 1;
+            if (recordPackages[record] == packageId && recordLocations[record] == locationId && recordVersions[record] == versionId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        recordSlots = new int[recordSlots.length * 2];
+        for (int record = 0; record < recordCount; record++) {
+            if (recordPackages[record] == NULL_ID) {
+                // removed record
+                continue;
+            }
+            recordSlots[findSlot(recordPackages[record], recordLocations[record], recordVersions[record])] = record + 1;
+        }
+    }
+
+    private static int hash(int packageId, int locationId, int versionId) {
+        int hash = packageId * 0x9E3779B9 + locationId * 0x85EBCA6B + versionId * 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Assigns consecutive identifiers to strings, null being mapped to -1.
+     */
+    private static class StringIds {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private int getOrAdd(String string) {
+            if (string == null) {
+                return NULL_ID;
+            }
+            Integer id = ids.get(string);
+            if (id == null) {
+                id = strings.size();
+                ids.put(string, id);
+                strings.add(string);
+            }
+            return id;
+        }
+
+        private int get(String string) {
+            Integer id = string != null ? ids.get(string) : null;
+            return id != null ? id : NULL_ID;
+        }
+
+        private String getString(int id) {
+            return id != NULL_ID ? strings.get(id) : null;
+        }
+
+        private int size() {
+            return strings.size();
+        }
+    }
+}
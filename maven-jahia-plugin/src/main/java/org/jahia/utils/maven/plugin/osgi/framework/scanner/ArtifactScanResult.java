@@ -0,0 +1,130 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi.framework.scanner;
+
+import org.apache.maven.plugin.logging.Log;
+import org.jahia.utils.maven.plugin.osgi.framework.models.ScanSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the packages found in one artifact, so that the artifact can be scanned on any thread and its results
+ * merged into the shared {@link PackageScanContext} afterwards. Merging the results in the order of the artifacts
+ * gives exactly the same context as a serial scan.
+ */
+class ArtifactScanResult implements JarScanner.PackageCallback {
+
+    private final String artifactCoordinates;
+    private final String registeredPath;
+    private final String canonicalPath;
+    private final List<PackageEvent> packageEvents = new ArrayList<>();
+
+    /**
+     * @param artifactCoordinates the Maven coordinates of the artifact
+     * @param registeredPath the path used to register the artifact coordinates
+     * @param canonicalPath the canonical path of the artifact file, or null if it could not be resolved, in which
+     *                      case the found packages are not tracked
+     */
+    ArtifactScanResult(String artifactCoordinates, String registeredPath, String canonicalPath) {
+        this.artifactCoordinates = artifactCoordinates;
+        this.registeredPath = registeredPath;
+        this.canonicalPath = canonicalPath;
+    }
+
+    @Override
+    public void onPackageFound(String packageName, String version, String specificationVersion,
+                               String artifactCoords, ScanSource scanSource, String parentPackage) {
+        packageEvents.add(new PackageEvent(packageName, version, specificationVersion, artifactCoords, scanSource, parentPackage, null));
+    }
+
+    @Override
+    public void onPackageExcluded(String packageName, String exclusionPattern, String artifactCoords) {
+        packageEvents.add(new PackageEvent(packageName, null, null, artifactCoords, null, null, exclusionPattern));
+    }
+
+    /**
+     * Applies the recorded results to the scan context, in the order they were found.
+     */
+    void mergeInto(PackageScanContext scanContext, Log log) {
+        scanContext.registerArtifact(registeredPath, artifactCoordinates);
+        for (PackageEvent packageEvent : packageEvents) {
+            if (packageEvent.exclusionPattern != null) {
+                // Track the excluded package for reporting
+                scanContext.markPackageExcluded(packageEvent.packageName, packageEvent.exclusionPattern);
+            } else if (canonicalPath != null) {
+                try {
+                    scanContext.updateVersionLocationCounts(canonicalPath, packageEvent.version,
+                                                           packageEvent.specificationVersion, packageEvent.packageName);
+                    scanContext.trackPackage(packageEvent.packageName, packageEvent.version, packageEvent.artifactCoordinates,
+                                           packageEvent.scanSource, packageEvent.parentPackage);
+                } catch (IOException e) {
+                    log.warn("Error updating version location counts: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static class PackageEvent {
+        private final String packageName;
+        private final String version;
+        private final String specificationVersion;
+        private final String artifactCoordinates;
+        private final ScanSource scanSource;
+        private final String parentPackage;
+        private final String exclusionPattern;
+
+        private PackageEvent(String packageName, String version, String specificationVersion, String artifactCoordinates,
+                             ScanSource scanSource, String parentPackage, String exclusionPattern) {
+            this.packageName = packageName;
+            this.version = version;
+            this.specificationVersion = specificationVersion;
+            this.artifactCoordinates = artifactCoordinates;
+            this.scanSource = scanSource;
+            this.parentPackage = parentPackage;
+            this.exclusionPattern = exclusionPattern;
+        }
+    }
+}
@@ -49,7 +49,13 @@ import org.jahia.utils.maven.plugin.osgi.framework.filter.ExclusionFilter;
 import org.jahia.utils.maven.plugin.osgi.framework.models.ScanSource;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Scans Maven project dependencies for OSGi package information.
@@ -65,23 +71,52 @@ import java.util.Set;
  * <p><b>Performance Note:</b> The ExclusionFilter is passed down to all scanners,
  * enabling packages to be filtered immediately when discovered rather than at the end.
  * This significantly reduces memory usage and processing time.
+ *
+ * <p>The artifacts can be scanned in parallel, each one into its own {@link ArtifactScanResult}. The results are then
+ * merged into the scan context in the order of the artifacts, so the reports and package lists are the same as with
+ * a serial scan.
  */
 public class DependencyScanner {
 
     private final ExclusionFilter exclusionFilter;
     private final JarScanner jarScanner;
     private final Log log;
+    private final int scanThreads;
 
     /**
-     * Creates a new DependencyScanner.
+     * Creates a new DependencyScanner scanning the artifacts serially.
      *
      * @param exclusionFilter filter for artifact exclusions
      * @param log Maven logger for output messages
      */
     public DependencyScanner(ExclusionFilter exclusionFilter, Log log) {
+        this(exclusionFilter, 1, log);
+    }
+
+    /**
+     * Creates a new DependencyScanner.
+     *
+     * @param exclusionFilter filter for artifact exclusions
+     * @param scanThreads the number of threads scanning the artifacts, 1 to scan them serially
+     * @param log Maven logger for output messages
+     */
+    public DependencyScanner(ExclusionFilter exclusionFilter, int scanThreads, Log log) {
+        this(exclusionFilter, scanThreads, null, log);
+    }
+
+    /**
+     * Creates a new DependencyScanner.
+     *
+     * @param exclusionFilter filter for artifact exclusions
+     * @param scanThreads the number of threads scanning the artifacts, 1 to scan them serially
+     * @param jarPackageIndex the persistent index of the JAR contents, or null to always read the JARs
+     * @param log Maven logger for output messages
+     */
+    public DependencyScanner(ExclusionFilter exclusionFilter, int scanThreads, JarPackageIndex jarPackageIndex, Log log) {
         this.exclusionFilter = exclusionFilter;
         this.log = log;
-        this.jarScanner = new JarScanner(exclusionFilter, log);
+        this.scanThreads = scanThreads;
+        this.jarScanner = new JarScanner(exclusionFilter, jarPackageIndex, log);
     }
 
     /**
@@ -94,12 +129,50 @@ public class DependencyScanner {
     public void scanArtifacts(Set<Artifact> artifacts, PackageScanContext scanContext) throws IOException {
         log.info("Scanning project dependencies...");
 
+        List<Artifact> artifactsToScan = new ArrayList<>();
         for (Artifact artifact : artifacts) {
             if (shouldSkipArtifact(artifact, scanContext)) {
                 continue;
             }
 
-            scanArtifact(artifact, scanContext);
+            artifactsToScan.add(artifact);
+        }
+
+        if (scanThreads <= 1 || artifactsToScan.size() <= 1) {
+            for (Artifact artifact : artifactsToScan) {
+                scanArtifact(artifact).mergeInto(scanContext, log);
+            }
+            return;
+        }
+
+        ExecutorService scanExecutor = Executors.newFixedThreadPool(Math.min(scanThreads, artifactsToScan.size()));
+        try {
+            List<Future<ArtifactScanResult>> artifactScans = new ArrayList<>();
+            for (final Artifact artifact : artifactsToScan) {
+                artifactScans.add(scanExecutor.submit(() -> scanArtifact(artifact)));
+            }
+            for (Future<ArtifactScanResult> artifactScan : artifactScans) {
+                getArtifactScanResult(artifactScan).mergeInto(scanContext, log);
+            }
+        } finally {
+            scanExecutor.shutdownNow();
+        }
+    }
+
+    private ArtifactScanResult getArtifactScanResult(Future<ArtifactScanResult> artifactScan) throws IOException {
+        try {
+            return artifactScan.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning dependencies", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Error scanning dependencies", e.getCause());
         }
     }
 
@@ -138,9 +211,9 @@ public class DependencyScanner {
     }
 
     /**
-     * Scans a single artifact.
+     * Scans a single artifact. This may run on any thread, the results are only recorded.
      */
-    private void scanArtifact(Artifact artifact, PackageScanContext scanContext) throws IOException {
+    private ArtifactScanResult scanArtifact(Artifact artifact) throws IOException {
         log.debug("Scanning dependency " + artifact.getFile());
 
         String artifactCoordinates = artifact.getGroupId() + ":" +
@@ -148,12 +221,13 @@ public class DependencyScanner {
                                     artifact.getBaseVersion();
 
         // Register artifact for coordinate lookup
+        ArtifactScanResult artifactScanResult;
         try {
             String canonicalPath = artifact.getFile().getCanonicalPath();
-            scanContext.registerArtifact(canonicalPath, artifactCoordinates);
+            artifactScanResult = new ArtifactScanResult(artifactCoordinates, canonicalPath, canonicalPath);
         } catch (IOException e) {
             log.warn("Could not get canonical path for " + artifact.getFile() + ": " + e.getMessage());
-            scanContext.registerArtifact(artifact.getFile().getAbsolutePath(), artifactCoordinates);
+            artifactScanResult = new ArtifactScanResult(artifactCoordinates, artifact.getFile().getAbsolutePath(), null);
         }
 
         // Scan the JAR file
@@ -161,28 +235,8 @@ public class DependencyScanner {
             artifact.getFile(),
             artifact.getBaseVersion(),
             artifactCoordinates,
-            new JarScanner.PackageCallback() {
-                @Override
-                public void onPackageFound(String packageName, String version, String specificationVersion,
-                                         String artifactCoords, ScanSource scanSource, String parentPackage) {
-                    try {
-                        String canonicalPath = artifact.getFile().getCanonicalPath();
-                        scanContext.updateVersionLocationCounts(canonicalPath, version,
-                                                               specificationVersion, packageName);
-                        scanContext.trackPackage(packageName, version, artifactCoords,
-                                               scanSource, parentPackage);
-                    } catch (IOException e) {
-                        log.warn("Error updating version location counts: " + e.getMessage());
-                    }
-                }
-
-                @Override
-                public void onPackageExcluded(String packageName, String exclusionPattern, String artifactCoords) {
-                    // Track the excluded package for reporting
-                    scanContext.markPackageExcluded(packageName, exclusionPattern);
-                }
-            }
+            artifactScanResult
         );
+        return artifactScanResult;
     }
 }
-
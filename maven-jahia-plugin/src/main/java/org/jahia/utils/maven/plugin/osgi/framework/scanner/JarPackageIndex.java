@@ -0,0 +1,277 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi.framework.scanner;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.jahia.utils.maven.plugin.osgi.utils.ChecksumUtils;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A persistent index of the JAR contents needed to discover packages: the manifest and the packages of the JAR
+ * entries.
+ *
+ * <p>The contents are read from the central directory of the JARs, so only the manifest is ever inflated, never the
+ * class files. They are stored in the index directory under the SHA-1 checksum of the JAR when Maven stored an up to
+ * date one next to it, so that the builds of all the modules and branches sharing the directory only read each JAR
+ * once. The other JARs are identified by their path, size and last modification date, so they are never read just to
+ * be identified, and are only indexed in memory: these keys change with every rebuild of the JAR and would pile up in
+ * the index directory. The index is safe for concurrent use, by several threads as well as by several builds.</p>
+ */
+public class JarPackageIndex {
+
+    private static final int INDEX_FORMAT_VERSION = 1;
+    private static final String INDEX_FILE_EXTENSION = ".idx";
+    private static final String FILE_KEY_PREFIX = "file-";
+
+    private final File indexDirectory;
+    private final Log log;
+    private final Map<String, JarContents> jarContentsByKey = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new index.
+     *
+     * @param indexDirectory the directory storing the index, created on first use
+     * @param log Maven logger for output messages
+     */
+    public JarPackageIndex(File indexDirectory, Log log) {
+        this.indexDirectory = indexDirectory;
+        this.log = log;
+    }
+
+    /**
+     * Returns the contents of a JAR file, from the index if the JAR was already scanned, otherwise by reading its
+     * central directory and storing the result in the index.
+     *
+     * @param jarFile the JAR file
+     * @return the contents of the JAR file
+     * @throws IOException if the JAR file cannot be read
+     */
+    public JarContents getJarContents(File jarFile) throws IOException {
+        String indexKey = getIndexKey(jarFile);
+        if (indexKey == null) {
+            return readJarContents(jarFile);
+        }
+        JarContents jarContents = jarContentsByKey.get(indexKey);
+        if (jarContents != null) {
+            return jarContents;
+        }
+        if (indexKey.startsWith(FILE_KEY_PREFIX)) {
+            jarContents = readJarContents(jarFile);
+            jarContentsByKey.put(indexKey, jarContents);
+            return jarContents;
+        }
+        File indexFile = new File(indexDirectory, indexKey.substring(indexKey.length() - 2) + File.separator + indexKey + INDEX_FILE_EXTENSION);
+        jarContents = loadJarContents(indexFile);
+        if (jarContents == null) {
+            jarContents = readJarContents(jarFile);
+            storeJarContents(indexFile, jarContents);
+        } else {
+            log.debug("Using indexed contents of " + jarFile);
+        }
+        jarContentsByKey.put(indexKey, jarContents);
+        return jarContents;
+    }
+
+    /**
+     * Returns the key of a JAR file in the index: the SHA-1 checksum stored by Maven next to the repository artifacts,
+     * unless the JAR is newer than it, otherwise a key derived from the canonical path, size and last modification date
+     * of the file, which are much cheaper to get than a checksum of the whole file.
+     */
+    private static String getIndexKey(File jarFile) throws IOException {
+        if (!jarFile.isFile()) {
+            return null;
+        }
+        // a checksum file older than the JAR is ignored
+        String checksum = ChecksumUtils.readChecksumFile(jarFile);
+        if (checksum != null) {
+            return checksum;
+        }
+        return FILE_KEY_PREFIX + ChecksumUtils.getChecksum(jarFile.getCanonicalPath() + ":" + jarFile.length() + ":" + jarFile.lastModified());
+    }
+
+    /**
+     * Reads the contents of a JAR file from its central directory, without using any index.
+     *
+     * @param jarFile the JAR file
+     * @return the contents of the JAR file
+     * @throws IOException if the JAR file cannot be read
+     */
+    public static JarContents readJarContents(File jarFile) throws IOException {
+        byte[] manifestBytes = null;
+        Map<String, Integer> packageEntryCounts = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(jarFile)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            String packageName = null;
+            String packagePath = null;
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                String entryName = zipEntry.getName();
+                if (manifestBytes == null && JarFile.MANIFEST_NAME.equalsIgnoreCase(entryName)) {
+                    try (InputStream manifestInputStream = zipFile.getInputStream(zipEntry)) {
+                        manifestBytes = IOUtils.toByteArray(manifestInputStream);
+                    }
+                }
+                int lastSlash = entryName.lastIndexOf('/');
+                if (lastSlash <= 0) {
+                    continue; // No package
+                }
+                // entries of the same package are usually stored together, only build a new name when it changes
+                if (packagePath == null || packagePath.length() != lastSlash || !entryName.startsWith(packagePath)) {
+                    packagePath = entryName.substring(0, lastSlash);
+                    packageName = packagePath.replace('/', '.');
+                }
+                packageEntryCounts.merge(packageName, 1, Integer::sum);
+            }
+        }
+        return new JarContents(manifestBytes, packageEntryCounts);
+    }
+
+    private JarContents loadJarContents(File indexFile) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (dataInputStream.readInt() != INDEX_FORMAT_VERSION) {
+                return null;
+            }
+            byte[] manifestBytes = null;
+            int manifestLength = dataInputStream.readInt();
+            if (manifestLength >= 0) {
+                manifestBytes = new byte[manifestLength];
+                dataInputStream.readFully(manifestBytes);
+            }
+            int packageCount = dataInputStream.readInt();
+            Map<String, Integer> packageEntryCounts = new LinkedHashMap<>();
+            for (int i = 0; i < packageCount; i++) {
+                String packageName = dataInputStream.readUTF();
+                packageEntryCounts.put(packageName, dataInputStream.readInt());
+            }
+            return new JarContents(manifestBytes, packageEntryCounts);
+        } catch (IOException e) {
+            // a corrupted index file is simply replaced by a new scan of the JAR
+            log.debug("Ignoring unreadable index file " + indexFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void storeJarContents(File indexFile, JarContents jarContents) {
+        File indexFileDirectory = indexFile.getParentFile();
+        File temporaryIndexFile = null;
+        try {
+            Files.createDirectories(indexFileDirectory.toPath());
+            temporaryIndexFile = File.createTempFile(indexFile.getName(), ".tmp", indexFileDirectory);
+            try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryIndexFile)))) {
+                dataOutputStream.writeInt(INDEX_FORMAT_VERSION);
+                if (jarContents.manifestBytes == null) {
+                    dataOutputStream.writeInt(-1);
+                } else {
+                    dataOutputStream.writeInt(jarContents.manifestBytes.length);
+                    dataOutputStream.write(jarContents.manifestBytes);
+                }
+                dataOutputStream.writeInt(jarContents.packageEntryCounts.size());
+                for (Map.Entry<String, Integer> packageEntryCount : jarContents.packageEntryCounts.entrySet()) {
+                    dataOutputStream.writeUTF(packageEntryCount.getKey());
+                    dataOutputStream.writeInt(packageEntryCount.getValue());
+                }
+            }
+            // other builds sharing the index must never see a partially written file
+            try {
+                Files.move(temporaryIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Error storing index file " + indexFile + ": " + e.getMessage());
+            if (temporaryIndexFile != null) {
+                temporaryIndexFile.delete();
+            }
+        }
+    }
+
+    /**
+     * The contents of a JAR file needed to discover its packages.
+     */
+    public static class JarContents {
+
+        private final byte[] manifestBytes;
+        private final Map<String, Integer> packageEntryCounts;
+
+        JarContents(byte[] manifestBytes, Map<String, Integer> packageEntryCounts) {
+            this.manifestBytes = manifestBytes;
+            this.packageEntryCounts = Collections.unmodifiableMap(packageEntryCounts);
+        }
+
+        /**
+         * @return a new copy of the manifest of the JAR file, or null if it has none
+         * @throws IOException if the manifest cannot be parsed
+         */
+        public Manifest getManifest() throws IOException {
+            return manifestBytes != null ? new Manifest(new ByteArrayInputStream(manifestBytes)) : null;
+        }
+
+        /**
+         * @return the number of file entries of each package of the JAR file, in the order of the JAR entries
+         */
+        public Map<String, Integer> getPackageEntryCounts() {
+            return packageEntryCounts;
+        }
+    }
+}
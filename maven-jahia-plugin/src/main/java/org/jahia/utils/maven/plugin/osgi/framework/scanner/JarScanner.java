@@ -49,13 +49,10 @@ import org.jahia.utils.maven.plugin.osgi.framework.filter.ExclusionFilter;
 import org.jahia.utils.maven.plugin.osgi.framework.models.ScanSource;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 
 /**
@@ -93,6 +90,9 @@ import java.util.jar.Manifest;
  * never added to the scan context. This prevents excluded packages from consuming
  * memory or being processed in downstream operations (version resolution, etc.).
  *
+ * <p>Only the manifest and the entry names of the JARs are used, they are read from the central directory of the JARs
+ * through a {@link JarPackageIndex}, which also keeps them for the next builds when it is persistent.</p>
+ *
  * <p><b>Filtering happens at:</b></p>
  * <ul>
  *   <li>ManifestScanner.scanExportPackageHeader() - filters Export-Package entries</li>
@@ -105,17 +105,30 @@ public class JarScanner {
     private final ExclusionFilter exclusionFilter;
     private final Log log;
     private final ManifestScanner manifestScanner;
+    private final JarPackageIndex jarPackageIndex;
 
     /**
-     * Creates a new JarScanner with logging.
+     * Creates a new JarScanner with logging, reading the JARs without a persistent index.
      *
      * @param exclusionFilter filter for package exclusions
      * @param log Maven logger for output messages
      */
     public JarScanner(ExclusionFilter exclusionFilter, Log log) {
+        this(exclusionFilter, null, log);
+    }
+
+    /**
+     * Creates a new JarScanner with logging.
+     *
+     * @param exclusionFilter filter for package exclusions
+     * @param jarPackageIndex the persistent index of the JAR contents, or null to always read the JARs
+     * @param log Maven logger for output messages
+     */
+    public JarScanner(ExclusionFilter exclusionFilter, JarPackageIndex jarPackageIndex, Log log) {
         this.exclusionFilter = exclusionFilter;
         this.log = log;
         this.manifestScanner = new ManifestScanner(exclusionFilter, log);
+        this.jarPackageIndex = jarPackageIndex;
     }
 
     /**
@@ -130,30 +143,31 @@ public class JarScanner {
     public void scanJar(File jarFile, String defaultVersion, String artifactCoordinates,
                        PackageCallback packageCallback) throws IOException {
 
-        try (JarInputStream jarInputStream = new JarInputStream(new FileInputStream(jarFile))) {
-            Manifest manifest = jarInputStream.getManifest();
-            String specificationVersion = null;
-            Map<String, String> manifestPackageVersions = new HashMap<>();
+        JarPackageIndex.JarContents jarContents = jarPackageIndex != null ?
+                jarPackageIndex.getJarContents(jarFile) : JarPackageIndex.readJarContents(jarFile);
 
-            if (manifest == null) {
-                log.warn("No MANIFEST.MF file found for dependency " + jarFile);
-            } else {
-                specificationVersion = extractSpecificationVersion(manifest, jarFile, defaultVersion);
+        Manifest manifest = jarContents.getManifest();
+        String specificationVersion = null;
+        Map<String, String> manifestPackageVersions = new HashMap<>();
 
-                // First check for Export-Package header - if found, we're done
-                if (manifestScanner.scanExportPackageHeader(manifest, jarFile, artifactCoordinates, packageCallback)) {
-                    return; // Export-Package found and processed, no need to scan further
-                }
+        if (manifest == null) {
+            log.warn("No MANIFEST.MF file found for dependency " + jarFile);
+        } else {
+            specificationVersion = extractSpecificationVersion(manifest, jarFile, defaultVersion);
 
-                // Collect manifest package entries
-                manifestPackageVersions = scanManifestEntries(manifest, jarFile, specificationVersion,
-                                                             artifactCoordinates, packageCallback);
+            // First check for Export-Package header - if found, we're done
+            if (manifestScanner.scanExportPackageHeader(manifest, jarFile, artifactCoordinates, packageCallback)) {
+                return; // Export-Package found and processed, no need to scan further
             }
 
-            // Scan JAR contents
-            scanJarEntries(jarInputStream, jarFile, defaultVersion, specificationVersion,
-                          manifestPackageVersions, artifactCoordinates, packageCallback);
+            // Collect manifest package entries
+            manifestPackageVersions = scanManifestEntries(manifest, jarFile, specificationVersion,
+                                                         artifactCoordinates, packageCallback);
         }
+
+        // Scan JAR contents
+        scanJarEntries(jarContents, jarFile, defaultVersion, specificationVersion,
+                      manifestPackageVersions, artifactCoordinates, packageCallback);
     }
 
     /**
@@ -226,24 +240,11 @@ public class JarScanner {
     /**
      * Scans the actual JAR entries (files) for package structure.
      */
-    private void scanJarEntries(JarInputStream jarInputStream, File jarFile, String defaultVersion,
+    private void scanJarEntries(JarPackageIndex.JarContents jarContents, File jarFile, String defaultVersion,
                                String specificationVersion, Map<String, String> manifestPackageVersions,
-                               String artifactCoordinates, PackageCallback packageCallback) throws IOException {
-        JarEntry jarEntry;
-
-        while ((jarEntry = jarInputStream.getNextJarEntry()) != null) {
-            if (jarEntry.isDirectory()) {
-                continue;
-            }
-
-            String entryName = jarEntry.getName();
-            int lastSlash = entryName.lastIndexOf("/");
-
-            if (lastSlash <= 0) {
-                continue; // No package
-            }
-
-            String packageName = entryName.substring(0, lastSlash).replace("/", ".");
+                               String artifactCoordinates, PackageCallback packageCallback) {
+        for (Map.Entry<String, Integer> packageEntryCount : jarContents.getPackageEntryCounts().entrySet()) {
+            String packageName = packageEntryCount.getKey();
 
             if (shouldSkipPackage(packageName)) {
                 continue;
@@ -262,17 +263,20 @@ public class JarScanner {
             }
 
             // Check if package is excluded
+            String pattern = null;
             if (exclusionFilter != null && exclusionFilter.isPackageExcluded(packageName)) {
-                // Track for reporting but don't process further
+                pattern = exclusionFilter.getPackageExclusionPattern(packageName);
+            }
+
+            // The package is reported once per file entry, as the version location counters count the entries
+            for (int i = 0; i < packageEntryCount.getValue(); i++) {
                 packageCallback.onPackageFound(packageName, version, specificationVersion,
                                               artifactCoordinates, scanSource, parentPackage);
-                String pattern = exclusionFilter.getPackageExclusionPattern(packageName);
-                packageCallback.onPackageExcluded(packageName, pattern, artifactCoordinates);
-                continue;
+                if (pattern != null) {
+                    // Track for reporting but don't process further
+                    packageCallback.onPackageExcluded(packageName, pattern, artifactCoordinates);
+                }
             }
-
-            packageCallback.onPackageFound(packageName, version, specificationVersion,
-                                          artifactCoordinates, scanSource, parentPackage);
         }
     }
 
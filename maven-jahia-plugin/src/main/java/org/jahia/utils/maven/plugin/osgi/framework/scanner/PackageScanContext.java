@@ -44,9 +44,8 @@
 package org.jahia.utils.maven.plugin.osgi.framework.scanner;
 
 import org.jahia.utils.maven.plugin.osgi.framework.models.PackageInfo;
+import org.jahia.utils.maven.plugin.osgi.framework.models.PackageVersionTable;
 import org.jahia.utils.maven.plugin.osgi.framework.models.ScanSource;
-import org.jahia.utils.maven.plugin.osgi.framework.models.VersionLocation;
-import org.jahia.utils.maven.plugin.osgi.framework.version.VersionCleaner;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -64,8 +63,8 @@ public class PackageScanContext {
     // Detailed tracking for reporting
     private final Map<String, PackageInfo> packageTracking;
 
-    // Legacy structure for split-package resolution
-    private final Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts;
+    // Version counts per package and location for split-package resolution
+    private final PackageVersionTable packageVersionTable;
 
     // Maps file paths to artifact coordinates for better reporting
     private final Map<String, String> artifactCoordinatesByPath;
@@ -78,7 +77,7 @@ public class PackageScanContext {
      */
     public PackageScanContext() {
         this.packageTracking = new TreeMap<>();
-        this.packageVersionCounts = new TreeMap<>();
+        this.packageVersionTable = new PackageVersionTable();
         this.artifactCoordinatesByPath = new HashMap<>();
         this.excludedArtifacts = new TreeMap<>();
     }
@@ -120,7 +119,6 @@ public class PackageScanContext {
 
     /**
      * Updates the version location counts for split-package resolution.
-     * This maintains backward compatibility with the original data structure.
      *
      * @param originLocation the file path where the package was found
      * @param newVersion the version to record
@@ -130,26 +128,7 @@ public class PackageScanContext {
      */
     public void updateVersionLocationCounts(String originLocation, String newVersion,
                                            String specificationVersion, String packageName) throws IOException {
-        Map<String, Map<String, VersionLocation>> versionLocations =
-            packageVersionCounts.computeIfAbsent(packageName, k -> new HashMap<>());
-
-        Map<String, VersionLocation> existingVersionLocations = versionLocations.get(originLocation);
-
-        if (existingVersionLocations != null && existingVersionLocations.containsKey(newVersion)) {
-            VersionLocation existingVersionLocation = existingVersionLocations.get(newVersion);
-            existingVersionLocation.incrementCounter();
-        } else {
-            if (existingVersionLocations == null) {
-                existingVersionLocations = new HashMap<>();
-                versionLocations.put(originLocation, existingVersionLocations);
-            }
-
-            VersionLocation versionLocation = new VersionLocation(originLocation,
-                                                                  VersionCleaner.cleanupVersion(newVersion),
-                                                                  specificationVersion);
-            versionLocation.incrementCounter();
-            existingVersionLocations.put(newVersion, versionLocation);
-        }
+        packageVersionTable.increment(packageName, originLocation, newVersion, specificationVersion);
     }
 
     /**
@@ -181,8 +160,8 @@ public class PackageScanContext {
         return packageTracking;
     }
 
-    public Map<String, Map<String, Map<String, VersionLocation>>> getPackageVersionCounts() {
-        return packageVersionCounts;
+    public PackageVersionTable getPackageVersionTable() {
+        return packageVersionTable;
     }
 
     public Map<String, String> getArtifactCoordinatesByPath() {
@@ -43,26 +43,17 @@
  */
 package org.jahia.utils.maven.plugin.osgi.framework.version;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import org.jahia.utils.osgi.VersionNormalizer;
 
 /**
  * Utility class for cleaning up and normalizing OSGi version strings.
  * Converts fuzzy version definitions into proper OSGi semantic versions (major.minor.micro).
  *
- * <p>This implementation is based on the Maven Bundle Plugin's version cleanup logic.</p>
+ * <p>This implementation is based on the Maven Bundle Plugin's version cleanup logic, shared with the other goals
+ * through {@link VersionNormalizer}.</p>
  */
 public class VersionCleaner {
 
-    /**
-     * Pattern to match fuzzy version strings and extract major, minor, micro components.
-     * Qualifiers are intentionally stripped to ensure consistent versioning.
-     */
-    private static final Pattern FUZZY_VERSION = Pattern.compile(
-            "(\\d+)(\\.(\\d+)(\\.(\\d+))?)?([^a-zA-Z0-9](.*))?",
-            Pattern.DOTALL
-    );
-
     /**
      * Cleans up a version string to match OSGi semantic versioning requirements.
      * <p>
@@ -82,39 +73,7 @@ public class VersionCleaner {
      * @return the cleaned OSGi-compliant version string, or null if input is null
      */
     public static String cleanupVersion(String version) {
-        if (version == null) {
-            return null;
-        }
-
-        StringBuilder result = new StringBuilder();
-        Matcher matcher = FUZZY_VERSION.matcher(version);
-
-        if (matcher.matches()) {
-            String major = matcher.group(1);
-            String minor = matcher.group(3);
-            String micro = matcher.group(5);
-
-            if (major != null) {
-                result.append(major);
-
-                if (minor != null) {
-                    result.append(".").append(minor);
-
-                    if (micro != null) {
-                        result.append(".").append(micro);
-                    } else {
-                        result.append(".0");
-                    }
-                } else {
-                    result.append(".0.0");
-                }
-            }
-        } else {
-            // If version doesn't match pattern, use default
-            result.append("0.0.0");
-        }
-
-        return result.toString();
+        return VersionNormalizer.cleanupVersionWithoutQualifier(version);
     }
 
     private VersionCleaner() {
@@ -44,10 +44,11 @@
 package org.jahia.utils.maven.plugin.osgi.framework.version;
 
 import org.apache.maven.plugin.logging.Log;
-import org.jahia.utils.maven.plugin.osgi.framework.models.VersionLocation;
+import org.jahia.utils.maven.plugin.osgi.framework.models.PackageVersionTable;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -72,27 +73,26 @@ public class VersionResolver {
      * Resolves package versions from the collected version location data.
      * Detects split packages with different versions and logs warnings.
      *
-     * @param packageVersionCounts map of package -> location -> version -> VersionLocation
+     * @param packageVersionTable the version counts per package and location
      * @return map of package name to set of versions to export
      */
-    public Map<String, Set<String>> resolveSplitPackages(
-            Map<String, Map<String, Map<String, VersionLocation>>> packageVersionCounts) {
+    public Map<String, Set<String>> resolveSplitPackages(PackageVersionTable packageVersionTable) {
 
         Map<String, Set<String>> packageVersions = new HashMap<>();
 
-        for (Map.Entry<String, Map<String, Map<String, VersionLocation>>> packageEntry :
-                packageVersionCounts.entrySet()) {
+        for (int packageId : packageVersionTable.getSortedPackageIds()) {
+            String packageName = packageVersionTable.getPackageName(packageId);
 
-            String packageName = packageEntry.getKey();
-            Map<String, Map<String, VersionLocation>> locationVersions = packageEntry.getValue();
-
-            boolean allVersionsEqual = checkVersionConsistency(locationVersions);
-
-            if (locationVersions.size() > 1 && !allVersionsEqual) {
-                warnSplitPackage(packageName, locationVersions);
+            if (packageVersionTable.getLocationCount(packageId) > 1 &&
+                    !packageVersionTable.hasSameVersionsAtAllLocations(packageId)) {
+                warnSplitPackage(packageName, packageVersionTable, packageId);
             }
 
-            Set<String> versions = collectVersions(locationVersions);
+            Set<String> versions = new HashSet<>();
+            for (int record = packageVersionTable.getFirstRecord(packageId); record != -1;
+                 record = packageVersionTable.getNextRecord(record)) {
+                versions.add(packageVersionTable.getVersion(record));
+            }
             packageVersions.put(packageName, versions);
         }
 
@@ -100,55 +100,26 @@ public class VersionResolver {
     }
 
     /**
-     * Checks if all locations have the same set of versions.
+     * Logs a warning about split packages with version conflicts, grouping the versions by location.
      */
-    private boolean checkVersionConsistency(Map<String, Map<String, VersionLocation>> locationVersions) {
-        Set<String> previousVersions = null;
-
-        for (Map<String, VersionLocation> versionLocations : locationVersions.values()) {
-            Set<String> currentVersions = versionLocations.keySet();
-
-            if (previousVersions != null && !previousVersions.equals(currentVersions)) {
-                return false;
-            }
-
-            previousVersions = currentVersions;
-        }
-
-        return true;
-    }
-
-    /**
-     * Logs a warning about split packages with version conflicts.
-     */
-    private void warnSplitPackage(String packageName, Map<String, Map<String, VersionLocation>> locationVersions) {
+    private void warnSplitPackage(String packageName, PackageVersionTable packageVersionTable, int packageId) {
         log.warn("Split-package with different versions detected for package " + packageName + ":");
 
-        for (Map.Entry<String, Map<String, VersionLocation>> locationEntry : locationVersions.entrySet()) {
-            String location = locationEntry.getKey();
-
-            for (Map.Entry<String, VersionLocation> versionEntry : locationEntry.getValue().entrySet()) {
-                VersionLocation versionLocation = versionEntry.getValue();
-                log.warn("  - " + location + " v" + versionLocation.getVersion() +
-                         " count=" + versionLocation.getCounter() +
-                         " Specification-Version=" + versionLocation.getSpecificationVersion());
-            }
+        Set<String> locations = new LinkedHashSet<>();
+        for (int record = packageVersionTable.getFirstRecord(packageId); record != -1;
+             record = packageVersionTable.getNextRecord(record)) {
+            locations.add(packageVersionTable.getLocation(record));
         }
-    }
-
-    /**
-     * Collects all unique versions from all locations.
-     */
-    private Set<String> collectVersions(Map<String, Map<String, VersionLocation>> locationVersions) {
-        Set<String> versions = new HashSet<>();
-
-        for (Map<String, VersionLocation> versionLocations : locationVersions.values()) {
-            if (versionLocations != null) {
-                versions.addAll(versionLocations.keySet());
+        for (String location : locations) {
+            for (int record = packageVersionTable.getFirstRecord(packageId); record != -1;
+                 record = packageVersionTable.getNextRecord(record)) {
+                if (location.equals(packageVersionTable.getLocation(record))) {
+                    log.warn("  - " + location + " v" + VersionCleaner.cleanupVersion(packageVersionTable.getVersion(record)) +
+                             " count=" + packageVersionTable.getCounter(record) +
+                             " Specification-Version=" + packageVersionTable.getSpecificationVersion(record));
+                }
             }
         }
-
-        return versions;
     }
 }
 
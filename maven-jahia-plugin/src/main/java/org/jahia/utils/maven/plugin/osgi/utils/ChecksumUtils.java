@@ -0,0 +1,147 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utility methods to get the SHA-1 checksums of artifact files
+ */
+public class ChecksumUtils {
+
+    private static final Map<String, String> fileChecksums = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Returns the SHA-1 checksum of an artifact file, using the checksum file stored by Maven next to it if there is
+     * one, or computing it otherwise. The computed checksums are kept for the files that did not change since.
+     * Directories have no checksum.
+     *
+     * @param file the artifact file
+     * @return the lower case hexadecimal checksum, or null if the file is not a readable file
+     */
+    public static String getChecksum(File file) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        String fileKey = file.getPath() + ":" + file.lastModified() + ":" + file.length();
+        String checksum = fileChecksums.get(fileKey);
+        if (checksum != null) {
+            return checksum;
+        }
+        try {
+            checksum = readChecksumFile(file);
+            if (checksum == null) {
+                MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+                try (InputStream inputStream = new FileInputStream(file)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        messageDigest.update(buffer, 0, read);
+                    }
+                }
+                checksum = toHex(messageDigest.digest());
+            }
+        } catch (IOException | NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+        fileChecksums.put(fileKey, checksum);
+        return checksum;
+    }
+
+    /**
+     * Returns the SHA-1 checksum stored by Maven in the <code>.sha1</code> file next to an artifact file, without
+     * ever reading the artifact file itself. A checksum file older than the artifact file is ignored, the artifact
+     * has been replaced since it was written.
+     *
+     * @param file the artifact file
+     * @return the lower case hexadecimal checksum, or null if there is no valid and up to date checksum file
+     * @throws IOException if the checksum file cannot be read
+     */
+    public static String readChecksumFile(File file) throws IOException {
+        File checksumFile = new File(file.getPath() + ".sha1");
+        if (!checksumFile.isFile() || checksumFile.lastModified() < file.lastModified()) {
+            return null;
+        }
+        String checksumFileContents = FileUtils.readFileToString(checksumFile, StandardCharsets.US_ASCII).trim();
+        // some checksum files also contain the file name after the checksum
+        String[] checksumParts = checksumFileContents.split("\\s+");
+        if (checksumParts.length > 0 && checksumParts[0].matches("[0-9a-fA-F]{40}")) {
+            return checksumParts[0].toLowerCase();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the SHA-1 checksum of a string, as a short file name friendly key.
+     *
+     * @param value the string
+     * @return the lower case hexadecimal checksum of the UTF-8 bytes of the string
+     */
+    public static String getChecksum(String value) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder hexChecksum = new StringBuilder(digest.length * 2);
+        for (byte digestByte : digest) {
+            hexChecksum.append(Character.forDigit((digestByte >> 4) & 0xF, 16)).append(Character.forDigit(digestByte & 0xF, 16));
+        }
+        return hexChecksum.toString();
+    }
+}
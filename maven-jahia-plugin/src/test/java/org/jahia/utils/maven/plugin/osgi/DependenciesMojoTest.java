@@ -0,0 +1,272 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.jahia.utils.osgi.parsers.PackageInfo;
+import org.jahia.utils.osgi.parsers.ParsingContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Unit test for the DependenciesMojo
+ */
+public class DependenciesMojoTest {
+
+    @Test
+    public void testEmbeddedJarOverlappingBundlePackages() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        try {
+            tmpDirTestLocation.mkdirs();
+            ByteArrayOutputStream embeddedJar = new ByteArrayOutputStream();
+            writeJar(embeddedJar, null, "org/jahia/shared/Embedded.txt", "org/jahia/embedded/Embedded.txt");
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().putValue("Bundle-SymbolicName", "test-bundle");
+            manifest.getMainAttributes().putValue("Bundle-Version", "1.0");
+            manifest.getMainAttributes().putValue("Bundle-ClassPath", ".,lib/embedded.jar");
+            manifest.getMainAttributes().putValue("Export-Package", "org.jahia.outer;version=\"1.0\"");
+
+            DependenciesMojo mojo = new DependenciesMojo();
+            // the second bundle embeds the same JAR and uses the parsing context cached for the first one
+            for (String bundleName : new String[] {"bundle1.jar", "bundle2.jar"}) {
+                File bundleFile = new File(tmpDirTestLocation, bundleName);
+                try (OutputStream outputStream = new FileOutputStream(bundleFile)) {
+                    writeJar(outputStream, manifest, "org/jahia/outer/Outer.txt", "org/jahia/shared/Outer.txt", "lib/embedded.jar", embeddedJar.toByteArray());
+                }
+                ParsingContext parsingContext = new ParsingContext("test:" + bundleName, bundleFile.lastModified(), bundleFile.length(),
+                        bundleFile.getName(), bundleFile.getPath(), "1.0", null);
+                mojo.scanJar(bundleFile, false, "", "1.0", false, parsingContext, "");
+
+                Map<String, PackageInfo> localPackages = new TreeMap<String, PackageInfo>();
+                for (PackageInfo localPackage : parsingContext.getLocalPackages()) {
+                    Assert.assertNull("Duplicate local package " + localPackage, localPackages.put(localPackage.getName(), localPackage));
+                }
+                Assert.assertEquals("[lib, org.jahia.embedded, org.jahia.outer, org.jahia.shared]", localPackages.keySet().toString());
+                // the package found in the bundle itself is kept, not the one of the embedded JAR
+                Assert.assertEquals("[" + bundleFile.getPath() + "/org/jahia/shared/Outer.txt]", localPackages.get("org.jahia.shared").getSourceLocations().toString());
+                Assert.assertEquals("[" + bundleFile.getPath() + "!lib/embedded.jar/org/jahia/embedded/Embedded.txt]", localPackages.get("org.jahia.embedded").getSourceLocations().toString());
+                Assert.assertEquals(1, parsingContext.getPackageExports().size());
+                Assert.assertEquals("org.jahia.outer", parsingContext.getPackageExports().iterator().next().getName());
+            }
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    @Test
+    public void testInputFingerprint() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        try {
+            tmpDirTestLocation.mkdirs();
+            File dependencyFile = new File(tmpDirTestLocation, "dependency-1.0.jar");
+            FileUtils.writeStringToFile(dependencyFile, "content", "UTF-8");
+            dependencyFile.setLastModified(1000000L);
+            Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+            artifacts.add(createArtifact("dependency", dependencyFile));
+            DependenciesMojo mojo = createMojo(tmpDirTestLocation, artifacts);
+
+            String fingerprint = mojo.computeInputFingerprint();
+            Assert.assertEquals(fingerprint, mojo.computeInputFingerprint());
+
+            dependencyFile.setLastModified(2000000L);
+            String modifiedFingerprint = mojo.computeInputFingerprint();
+            Assert.assertNotEquals(fingerprint, modifiedFingerprint);
+
+            // same modification time, different size
+            FileUtils.writeStringToFile(dependencyFile, "other content", "UTF-8");
+            dependencyFile.setLastModified(2000000L);
+            String resizedFingerprint = mojo.computeInputFingerprint();
+            Assert.assertNotEquals(modifiedFingerprint, resizedFingerprint);
+
+            mojo.originalInstructions.put("Import-Package", "org.jahia.other");
+            String instructionsFingerprint = mojo.computeInputFingerprint();
+            Assert.assertNotEquals(resizedFingerprint, instructionsFingerprint);
+
+            File otherDependencyFile = new File(tmpDirTestLocation, "other-1.0.jar");
+            FileUtils.writeStringToFile(otherDependencyFile, "content", "UTF-8");
+            artifacts.add(createArtifact("other", otherDependencyFile));
+            mojo.project.setArtifacts(artifacts);
+            String artifactsFingerprint = mojo.computeInputFingerprint();
+            Assert.assertNotEquals(instructionsFingerprint, artifactsFingerprint);
+
+            // with a checksum stored by Maven, the checksum identifies the artifact instead of its date
+            File checksumFile = new File(dependencyFile.getPath() + ".sha1");
+            FileUtils.writeStringToFile(checksumFile, "0123456789abcdef0123456789abcdef01234567", "US-ASCII");
+            checksumFile.setLastModified(3000000L);
+            String checksumFingerprint = mojo.computeInputFingerprint();
+            Assert.assertNotEquals(artifactsFingerprint, checksumFingerprint);
+            dependencyFile.setLastModified(2500000L);
+            Assert.assertEquals(checksumFingerprint, mojo.computeInputFingerprint());
+            FileUtils.writeStringToFile(checksumFile, "76543210fedcba9876543210fedcba9876543210", "US-ASCII");
+            checksumFile.setLastModified(3000000L);
+            Assert.assertNotEquals(checksumFingerprint, mojo.computeInputFingerprint());
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    @Test
+    public void testDependenciesStateRoundTrip() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        try {
+            tmpDirTestLocation.mkdirs();
+            DependenciesMojo mojo = createMojo(tmpDirTestLocation, new LinkedHashSet<Artifact>());
+            mojo.project.getProperties().put("jahia.plugin.projectPackageImport", "org.jahia.api;version=\"[1.0,2)\",\n org.jahia.other");
+            mojo.project.getProperties().put("jahia.plugin.providedNodeTypes", "jnt:test,jmix:test");
+            mojo.project.getProperties().put("jahia.plugin.requiredNodeTypes", "");
+            File dependenciesStateFile = new File(tmpDirTestLocation, "state/dependencies-state.properties");
+            mojo.saveDependenciesState(dependenciesStateFile, "fingerprint", "com.jahia.services.content;nodetypes:List<String>=\"jnt:test\"");
+            Map<Object, Object> savedProperties = new TreeMap<Object, Object>(mojo.project.getProperties());
+
+            DependenciesMojo restoringMojo = createMojo(tmpDirTestLocation, new LinkedHashSet<Artifact>());
+            Assert.assertFalse(restoringMojo.restoreDependenciesState(dependenciesStateFile, "other fingerprint"));
+            Assert.assertTrue(restoringMojo.project.getProperties().isEmpty());
+
+            Assert.assertTrue(restoringMojo.restoreDependenciesState(dependenciesStateFile, "fingerprint"));
+            Assert.assertEquals(savedProperties, new TreeMap<Object, Object>(restoringMojo.project.getProperties()));
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    @Test
+    public void testSessionCacheKeptOpenForTheNextModule() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        MavenSession session = new MavenSession(null, new DefaultMavenExecutionRequest(), new DefaultMavenExecutionResult(), new ArrayList<MavenProject>());
+        try {
+            tmpDirTestLocation.mkdirs();
+            File dependencyFile = new File(tmpDirTestLocation, "dependency-1.0.jar");
+            FileUtils.writeStringToFile(dependencyFile, "content", "UTF-8");
+            Artifact artifact = createArtifact("dependency", dependencyFile);
+
+            DependenciesMojo firstModuleMojo = createMojo(tmpDirTestLocation, new LinkedHashSet<Artifact>());
+            firstModuleMojo.mavenSession = session;
+            firstModuleMojo.dependencyParsingCacheDirectory = new File(tmpDirTestLocation, "cache").getPath();
+            firstModuleMojo.openParsingContextCache();
+            firstModuleMojo.parsingContextCache.put(artifact, new ParsingContext("org.jahia.test:dependency:jar:1.0", dependencyFile.lastModified(),
+                    dependencyFile.length(), dependencyFile.getName(), dependencyFile.getPath(), "1.0", null));
+            ParsingContextStore store = firstModuleMojo.parsingContextCache.getParsingContextStore();
+            String key = store.getKeys().iterator().next();
+            ParsingContext decodedEntry = store.get(key);
+            firstModuleMojo.releaseParsingContextCache();
+
+            DependenciesMojo secondModuleMojo = createMojo(tmpDirTestLocation, new LinkedHashSet<Artifact>());
+            secondModuleMojo.mavenSession = session;
+            secondModuleMojo.dependencyParsingCacheDirectory = firstModuleMojo.dependencyParsingCacheDirectory;
+            secondModuleMojo.openParsingContextCache();
+            Assert.assertSame(firstModuleMojo.parsingContextCache, secondModuleMojo.parsingContextCache);
+            // the entry decoded for the first module is still decoded
+            Assert.assertSame(decodedEntry, store.get(key));
+            Assert.assertNotNull(secondModuleMojo.parsingContextCache.get(artifact));
+            secondModuleMojo.releaseParsingContextCache();
+
+            // the caches are closed at the end of the session
+            session.getRequest().getExecutionListener().sessionEnded(null);
+            Assert.assertNotSame(secondModuleMojo.parsingContextCache,
+                    ParsingContextCache.getSessionCache(session, new File(firstModuleMojo.dependencyParsingCacheDirectory + DependenciesMojo.DEPENDENCY_PARSING_CACHE_DIRECTORY_VERSION)));
+        } finally {
+            ParsingContextCache.closeSessionCaches(session);
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    private static DependenciesMojo createMojo(File baseDirectory, Set<Artifact> artifacts) {
+        DependenciesMojo mojo = new DependenciesMojo();
+        mojo.project = new MavenProject();
+        mojo.project.setGroupId("org.jahia.test");
+        mojo.project.setArtifactId("test-module");
+        mojo.project.setVersion("1.0");
+        mojo.project.setArtifacts(artifacts);
+        mojo.pluginVersion = "test";
+        mojo.originalInstructions = new LinkedHashMap<String, String>();
+        mojo.originalInstructions.put("Import-Package", "org.jahia.api");
+        mojo.projectOutputDirectory = new File(baseDirectory, "classes").getPath();
+        mojo.jahiaDependsCapabilitiesActivated = false;
+        return mojo;
+    }
+
+    private static Artifact createArtifact(String artifactId, File file) {
+        Artifact artifact = new DefaultArtifact("org.jahia.test", artifactId, "1.0", Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(file);
+        artifact.setDependencyTrail(Arrays.asList("org.jahia.test:test-module:jar:1.0", artifact.getId()));
+        return artifact;
+    }
+
+    private static void writeJar(OutputStream outputStream, Manifest manifest, Object... entries) throws IOException {
+        try (JarOutputStream jarOutputStream = manifest != null ? new JarOutputStream(outputStream, manifest) : new JarOutputStream(outputStream)) {
+            for (int i = 0; i < entries.length; i++) {
+                jarOutputStream.putNextEntry(new JarEntry((String) entries[i]));
+                if (i + 1 < entries.length && entries[i + 1] instanceof byte[]) {
+                    jarOutputStream.write((byte[]) entries[++i]);
+                }
+                jarOutputStream.closeEntry();
+            }
+        }
+    }
+}
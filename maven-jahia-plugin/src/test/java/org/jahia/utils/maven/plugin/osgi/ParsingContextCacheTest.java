@@ -0,0 +1,220 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.jahia.utils.maven.plugin.osgi.utils.ChecksumUtils;
+import org.jahia.utils.osgi.parsers.PackageInfo;
+import org.jahia.utils.osgi.parsers.ParsingContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * Unit test for the parsing context cache
+ */
+public class ParsingContextCacheTest {
+
+    @Test
+    public void testStoreAndJSONExport() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        File artifactFile = new File(tmpDirTestLocation, "test-1.0.jar");
+        FileUtils.writeStringToFile(artifactFile, "test", "UTF-8");
+        Artifact artifact = new DefaultArtifact("org.jahia.test", "test", "1.0", Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(artifactFile);
+        try {
+            File cacheLocation = new File(tmpDirTestLocation, "cache");
+            ParsingContextCache cache = new ParsingContextCache(cacheLocation, null);
+            Assert.assertNull(cache.get(artifact));
+            ParsingContext parsingContext = new ParsingContext("org.jahia.test:test:jar:1.0", artifactFile.lastModified(), artifactFile.length(),
+                    artifactFile.getName(), artifactFile.getPath(), "1.0", null);
+            parsingContext.setOsgiBundle(true);
+            parsingContext.setBundleClassPath(Arrays.asList(".", "lib/embedded.jar"));
+            parsingContext.addLocalPackage(new PackageInfo("org.jahia.test", "1.0", false, "test", parsingContext));
+            PackageInfo packageImport = new PackageInfo("org.jahia.services", "[8.0,9)", true, "test", parsingContext);
+            packageImport.getOtherDirectives().setProperty("resolution", "optional");
+            parsingContext.addPackageImport(packageImport);
+            parsingContext.addAllContentTypeReferences(Collections.singleton("jnt:page"));
+            parsingContext.putTaglibPackages("http://www.jahia.org/tags/test", Collections.singleton(new PackageInfo("org.jahia.taglibs", "1.0", false, "test", parsingContext)));
+            parsingContext.putExternalTaglib("http://www.jahia.org/tags/test", true);
+            parsingContext.putUnresolvedTaglibUris("test.jsp", Collections.singleton("http://www.jahia.org/tags/missing"));
+            cache.put(artifact, parsingContext);
+            cache.close();
+
+            cache = new ParsingContextCache(cacheLocation, null);
+            ParsingContext cachedParsingContext = cache.get(artifact);
+            Assert.assertNotNull(cachedParsingContext);
+            assertSameContents(parsingContext, cachedParsingContext);
+            // each lookup returns a private copy of the cached entry
+            ParsingContext otherCachedParsingContext = cache.get(artifact);
+            Assert.assertNotSame(cachedParsingContext, otherCachedParsingContext);
+            cachedParsingContext.addContentTypeReference("jnt:modified");
+            assertSameContents(parsingContext, otherCachedParsingContext);
+            assertSameContents(parsingContext, cache.get(artifact));
+            Assert.assertEquals("optional", cachedParsingContext.getPackageImports().iterator().next().getOtherDirectives().getProperty("resolution"));
+            Assert.assertSame(cachedParsingContext, cachedParsingContext.getLocalPackages().iterator().next().getOrigin());
+
+            File exportLocation = new File(tmpDirTestLocation, "export");
+            Assert.assertEquals(1, cache.exportJSON(exportLocation));
+            Assert.assertTrue(new File(exportLocation, "org/jahia/test/test/1.0/test-1.0.jar.json").exists());
+            cache.close();
+
+            FileUtils.deleteDirectory(cacheLocation);
+            cache = new ParsingContextCache(cacheLocation, null);
+            Assert.assertNull(cache.get(artifact));
+            Assert.assertEquals(1, cache.importJSON(exportLocation));
+            assertSameContents(parsingContext, cache.get(artifact));
+
+            // entries that do not match the artifact file are not used
+            FileUtils.writeStringToFile(artifactFile, "modified", "UTF-8");
+            Assert.assertNull(cache.get(artifact));
+            cache.close();
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    @Test
+    public void testChecksumKeyedEntries() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        try {
+            Artifact artifact = createArtifact(new File(tmpDirTestLocation, "workspace1/test-1.0.jar"), "content");
+            File cacheLocation = new File(tmpDirTestLocation, "cache1");
+            ParsingContextCache cache = new ParsingContextCache(cacheLocation, null);
+            ParsingContext parsingContext = new ParsingContext("org.jahia.test:test:jar:1.0", artifact.getFile().lastModified(), artifact.getFile().length(),
+                    artifact.getFile().getName(), artifact.getFile().getPath(), "1.0", null);
+            parsingContext.addLocalPackage(new PackageInfo("org.jahia.test", "1.0", false, "test", parsingContext));
+            cache.put(artifact, parsingContext);
+            Assert.assertEquals(ChecksumUtils.getChecksum(artifact.getFile()), parsingContext.getChecksum());
+            cache.close();
+
+            // the same content in another workspace uses the entry of a shared, read-only, cache
+            Artifact movedArtifact = createArtifact(new File(tmpDirTestLocation, "workspace2/test-1.0.jar"), "content");
+            ParsingContextCache otherCache = new ParsingContextCache(new File(tmpDirTestLocation, "cache2"), null);
+            otherCache.addSharedCacheLocation(cacheLocation);
+            ParsingContext movedParsingContext = otherCache.get(movedArtifact);
+            Assert.assertNotNull(movedParsingContext);
+            Assert.assertEquals(movedArtifact.getFile().getPath(), movedParsingContext.getFilePath());
+            Assert.assertEquals(parsingContext.getLocalPackages(), movedParsingContext.getLocalPackages());
+            Assert.assertNull(otherCache.get(createArtifact(new File(tmpDirTestLocation, "workspace3/test-1.0.jar"), "other content")));
+            otherCache.close();
+
+            // merging caches
+            ParsingContextCache mergedCache = new ParsingContextCache(new File(tmpDirTestLocation, "cache3"), null);
+            Assert.assertEquals(1, mergedCache.merge(cacheLocation));
+            Assert.assertNotNull(mergedCache.get(movedArtifact));
+            mergedCache.close();
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    @Test
+    public void testStoreCompactedByAnotherBuild() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        try {
+            tmpDirTestLocation.mkdirs();
+            // no decoded entries are kept, so that all the lookups read the data file
+            ParsingContextStore store = new ParsingContextStore(tmpDirTestLocation, 0);
+            ParsingContext parsingContext = new ParsingContext("org.jahia.test:test:jar:1.0", 0, 0, "test-1.0.jar", "test-1.0.jar", "1.0", null);
+            parsingContext.addLocalPackage(new PackageInfo("org.jahia.test", "1.0", false, "test", parsingContext));
+            parsingContext.addContentTypeReference("jnt:" + StringUtils.repeat("x", 4096));
+            // overwritten entries make the data file large enough to be compacted
+            for (int i = 0; i < 300; i++) {
+                store.put("updated", "updated", parsingContext);
+            }
+            ParsingContext otherParsingContext = new ParsingContext("org.jahia.test:other:jar:1.0", 0, 0, "other-1.0.jar", "other-1.0.jar", "1.0", null);
+            store.put("other", "other", otherParsingContext);
+            long dataLength = new File(tmpDirTestLocation, ParsingContextStore.DATA_FILE_NAME).length();
+
+            // another build opens the store and compacts it, while the first one still uses its index
+            ParsingContextStore otherStore = new ParsingContextStore(tmpDirTestLocation, 10);
+            Assert.assertTrue(new File(tmpDirTestLocation, ParsingContextStore.DATA_FILE_NAME).length() < dataLength / 2);
+            Assert.assertEquals("other-1.0.jar", store.get("other").getFileName());
+            store.put("new", "new", otherParsingContext);
+            otherStore.close();
+            store.close();
+
+            ParsingContextStore reopenedStore = new ParsingContextStore(tmpDirTestLocation, 10);
+            Assert.assertEquals(new HashSet<String>(Arrays.asList("updated", "other", "new")), reopenedStore.getKeys());
+            Assert.assertEquals(parsingContext.getContentTypeReferences(), reopenedStore.get("updated").getContentTypeReferences());
+            Assert.assertEquals("other-1.0.jar", reopenedStore.get("other").getFileName());
+            Assert.assertEquals("other-1.0.jar", reopenedStore.get("new").getFileName());
+            reopenedStore.close();
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    private Artifact createArtifact(File artifactFile, String content) throws IOException {
+        FileUtils.writeStringToFile(artifactFile, content, "UTF-8");
+        Artifact artifact = new DefaultArtifact("org.jahia.test", "test", "1.0", Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(artifactFile);
+        return artifact;
+    }
+
+    private void assertSameContents(ParsingContext expected, ParsingContext actual) {
+        Assert.assertEquals(expected.getMavenCoords(), actual.getMavenCoords());
+        Assert.assertEquals(expected.getFilePath(), actual.getFilePath());
+        Assert.assertEquals(expected.getLastModified(), actual.getLastModified());
+        Assert.assertTrue(actual.isInCache());
+        Assert.assertTrue(actual.isOsgiBundle());
+        Assert.assertEquals(expected.getBundleClassPath(), actual.getBundleClassPath());
+        Assert.assertEquals(expected.getLocalPackages(), actual.getLocalPackages());
+        Assert.assertEquals(expected.getPackageImports(), actual.getPackageImports());
+        Assert.assertEquals(expected.getContentTypeReferences(), actual.getContentTypeReferences());
+        Assert.assertEquals(expected.getTaglibPackages(), actual.getTaglibPackages());
+        Assert.assertEquals(expected.getExternalTaglibs(), actual.getExternalTaglibs());
+        Assert.assertEquals(expected.getUnresolvedTaglibUris(), actual.getUnresolvedTaglibUris());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi.framework.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Unit test for the exclusion pattern matcher
+ */
+public class PatternMatcherTest {
+
+    @Test
+    public void testFirstMatchingPattern() {
+        PatternMatcher packageMatcher = new PatternMatcher.PackagePatternBuilder()
+                .addPatterns(Arrays.asList("org.jahia.taglibs*", "org.jahia.*", "javax.servlet", "org.(apache|eclipse).*", "*.internal.*"))
+                .build();
+        Assert.assertEquals("org\\.jahia\\.taglibs.*", packageMatcher.getMatchingPattern("org.jahia.taglibs.utility"));
+        Assert.assertEquals("org\\.jahia\\..*", packageMatcher.getMatchingPattern("org.jahia.services.internal.cache"));
+        Assert.assertEquals("javax\\.servlet", packageMatcher.getMatchingPattern("javax.servlet"));
+        Assert.assertNull(packageMatcher.getMatchingPattern("javax.servlet.http"));
+        Assert.assertNull(packageMatcher.getMatchingPattern("org.jahiaextra"));
+        Assert.assertEquals("org\\.(apache|eclipse)\\..*", packageMatcher.getMatchingPattern("org.apache.commons.internal.io"));
+        Assert.assertEquals(".*\\.internal\\..*", packageMatcher.getMatchingPattern("com.acme.internal.io"));
+        Assert.assertFalse(packageMatcher.matches(null));
+
+        PatternMatcher artifactMatcher = new PatternMatcher.ArtifactPatternBuilder()
+                .addPattern("org.jahia.modules:*")
+                .addPattern("*:jahia-*-api")
+                .build();
+        Assert.assertTrue(artifactMatcher.matches("org.jahia.modules:news"));
+        Assert.assertEquals(".*:jahia-.*-api", artifactMatcher.getMatchingPattern("org.jahia.server:jahia-impl-api"));
+        Assert.assertFalse(artifactMatcher.matches("org.jahia.server:jahia-impl"));
+    }
+
+    @Test
+    public void testArtifactPatternWithoutGroup() {
+        PatternMatcher artifactMatcher = new PatternMatcher.ArtifactPatternBuilder()
+                .addPattern("jahia-*-api")
+                .build();
+        Assert.assertEquals(".*:jahia-.*-api", artifactMatcher.getMatchingPattern("org.jahia.server:jahia-impl-api"));
+        Assert.assertTrue(artifactMatcher.matches(":jahia-impl-api"));
+        Assert.assertFalse(artifactMatcher.matches("org.jahia.server:jahia-impl"));
+    }
+
+    @Test
+    public void testSameResultsAsRegularExpressions() {
+        Random random = new Random(42);
+        String alphabet = "ab.*";
+        List<String> globs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            globs.add(randomString(random, alphabet, 1 + random.nextInt(6)));
+        }
+        PatternMatcher packageMatcher = new PatternMatcher.PackagePatternBuilder().addPatterns(globs).build();
+        List<Pattern> patterns = packageMatcher.getPatterns();
+        for (int i = 0; i < 20000; i++) {
+            String value = randomString(random, "ab.", random.nextInt(8));
+            String expectedPattern = null;
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(value).matches()) {
+                    expectedPattern = pattern.pattern();
+                    break;
+                }
+            }
+            Assert.assertEquals("Wrong pattern for " + value, expectedPattern, packageMatcher.getMatchingPattern(value));
+        }
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return value.toString();
+    }
+}
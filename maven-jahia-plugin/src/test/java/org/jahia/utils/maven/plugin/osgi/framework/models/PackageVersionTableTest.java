@@ -0,0 +1,116 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi.framework.models;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Unit test for the package version table
+ */
+public class PackageVersionTableTest {
+
+    @Test
+    public void testVersionCounts() {
+        PackageVersionTable packageVersionTable = new PackageVersionTable();
+        packageVersionTable.increment("org.jahia.b", "b.jar", "1.0", "1.0.0");
+        packageVersionTable.increment("org.jahia.b", "b.jar", "1.0", "2.0.0");
+        packageVersionTable.increment("org.jahia.b", "c.jar", "1.0", null);
+        packageVersionTable.increment("org.jahia.a", "a.jar", null, null);
+        packageVersionTable.increment("org.jahia.a", "b.jar", "2.0", null);
+        packageVersionTable.increment("org.jahia.c", "c.jar", "3.0", null);
+
+        Assert.assertEquals(Arrays.asList("org.jahia.a", "org.jahia.b", "org.jahia.c"), packageVersionTable.getSortedPackageNames());
+        int[] packageIds = packageVersionTable.getSortedPackageIds();
+        Assert.assertEquals(2, packageVersionTable.getLocationCount(packageIds[0]));
+        Assert.assertFalse(packageVersionTable.hasSameVersionsAtAllLocations(packageIds[0]));
+        Assert.assertTrue(packageVersionTable.hasSameVersionsAtAllLocations(packageIds[1]));
+
+        int record = packageVersionTable.getFirstRecord(packageIds[0]);
+        Assert.assertEquals("a.jar", packageVersionTable.getLocation(record));
+        Assert.assertNull(packageVersionTable.getVersion(record));
+        record = packageVersionTable.getFirstRecord(packageIds[1]);
+        Assert.assertEquals(2, packageVersionTable.getCounter(record));
+        Assert.assertEquals("1.0.0", packageVersionTable.getSpecificationVersion(record));
+        record = packageVersionTable.getNextRecord(record);
+        Assert.assertEquals("c.jar", packageVersionTable.getLocation(record));
+        Assert.assertEquals(-1, packageVersionTable.getNextRecord(record));
+
+        packageVersionTable.removePackage("org.jahia.c");
+        packageVersionTable.removePackage("org.jahia.unknown");
+        Assert.assertEquals(Arrays.asList("org.jahia.a", "org.jahia.b"), packageVersionTable.getSortedPackageNames());
+
+        // a removed package found again is counted from scratch
+        packageVersionTable.increment("org.jahia.c", "d.jar", "4.0", null);
+        packageVersionTable.increment("org.jahia.c", "c.jar", "3.0", null);
+        Assert.assertEquals(Arrays.asList("org.jahia.a", "org.jahia.b", "org.jahia.c"), packageVersionTable.getSortedPackageNames());
+        packageIds = packageVersionTable.getSortedPackageIds();
+        record = packageVersionTable.getFirstRecord(packageIds[2]);
+        Assert.assertEquals("d.jar", packageVersionTable.getLocation(record));
+        record = packageVersionTable.getNextRecord(record);
+        Assert.assertEquals("c.jar", packageVersionTable.getLocation(record));
+        Assert.assertEquals(1, packageVersionTable.getCounter(record));
+        Assert.assertEquals(-1, packageVersionTable.getNextRecord(record));
+        Assert.assertEquals(2, packageVersionTable.getLocationCount(packageIds[2]));
+    }
+
+    @Test
+    public void testManyRecords() {
+        PackageVersionTable packageVersionTable = new PackageVersionTable();
+        for (int i = 0; i < 3; i++) {
+            for (int packageIndex = 0; packageIndex < 5000; packageIndex++) {
+                packageVersionTable.increment("org.jahia.p" + packageIndex, "l" + (packageIndex % 7) + ".jar", "1." + (packageIndex % 3), null);
+            }
+        }
+        int[] packageIds = packageVersionTable.getSortedPackageIds();
+        Assert.assertEquals(5000, packageIds.length);
+        for (int packageId : packageIds) {
+            int record = packageVersionTable.getFirstRecord(packageId);
+            Assert.assertEquals(3, packageVersionTable.getCounter(record));
+            Assert.assertEquals(-1, packageVersionTable.getNextRecord(record));
+        }
+    }
+}
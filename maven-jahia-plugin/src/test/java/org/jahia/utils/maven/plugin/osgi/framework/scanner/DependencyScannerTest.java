@@ -0,0 +1,134 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi.framework.scanner;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.jahia.utils.maven.plugin.osgi.framework.filter.ExclusionFilter;
+import org.jahia.utils.maven.plugin.osgi.framework.filter.PatternMatcher;
+import org.jahia.utils.maven.plugin.osgi.framework.models.PackageInfo;
+import org.jahia.utils.maven.plugin.osgi.framework.models.PackageVersionTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Unit test for the dependency scanner
+ */
+public class DependencyScannerTest {
+
+    @Test
+    public void testParallelScanMatchesSerialScan() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        try {
+            Set<Artifact> artifacts = new LinkedHashSet<>();
+            for (int i = 0; i < 12; i++) {
+                artifacts.add(createArtifact(tmpDirTestLocation, i));
+            }
+            ExclusionFilter exclusionFilter = new ExclusionFilter(
+                    new PatternMatcher.ArtifactPatternBuilder().addPattern("org.jahia.test:test5").build(),
+                    new PatternMatcher.PackagePatternBuilder().addPattern("org.jahia.test.excluded*").build());
+
+            PackageScanContext serialScanContext = new PackageScanContext();
+            new DependencyScanner(exclusionFilter, 1, new SystemStreamLog()).scanArtifacts(artifacts, serialScanContext);
+            PackageScanContext parallelScanContext = new PackageScanContext();
+            new DependencyScanner(exclusionFilter, 4, new SystemStreamLog()).scanArtifacts(artifacts, parallelScanContext);
+
+            Assert.assertEquals(1, serialScanContext.getExcludedArtifacts().size());
+            Assert.assertTrue(serialScanContext.getPackageTracking().get("org.jahia.test.excluded").isExcluded());
+            Assert.assertEquals(serialScanContext.getExcludedArtifacts(), parallelScanContext.getExcludedArtifacts());
+            Assert.assertEquals(serialScanContext.getArtifactCoordinatesByPath(), parallelScanContext.getArtifactCoordinatesByPath());
+            Assert.assertEquals(describe(serialScanContext), describe(parallelScanContext));
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    private static String describe(PackageScanContext scanContext) {
+        StringBuilder description = new StringBuilder();
+        for (PackageInfo packageInfo : scanContext.getPackageTracking().values()) {
+            description.append(packageInfo.getPackageName()).append(' ').append(packageInfo.getVersions()).append(' ')
+                    .append(packageInfo.getSourceArtifacts()).append(' ').append(packageInfo.getParentPackage()).append(' ')
+                    .append(packageInfo.getExcludedByPattern()).append('\n');
+        }
+        PackageVersionTable packageVersionTable = scanContext.getPackageVersionTable();
+        for (int packageId : packageVersionTable.getSortedPackageIds()) {
+            for (int record = packageVersionTable.getFirstRecord(packageId); record != -1; record = packageVersionTable.getNextRecord(record)) {
+                description.append(packageVersionTable.getPackageName(packageId)).append(' ').append(packageVersionTable.getLocation(record)).append(' ')
+                        .append(packageVersionTable.getVersion(record)).append(' ').append(packageVersionTable.getCounter(record)).append('\n');
+            }
+        }
+        return description.toString();
+    }
+
+    private static Artifact createArtifact(File directory, int index) throws IOException {
+        File artifactFile = new File(directory, "test" + index + "-1." + index + ".jar");
+        artifactFile.getParentFile().mkdirs();
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(artifactFile), manifest)) {
+            for (String entryName : new String[] {"org/jahia/test/shared/Shared.class", "org/jahia/test/shared/impl/Impl.class",
+                    "org/jahia/test/excluded/Excluded.class", "org/jahia/test/module" + (index % 3) + "/Module.class"}) {
+                jarOutputStream.putNextEntry(new JarEntry(entryName));
+                jarOutputStream.write(new byte[] {(byte) 0xCA, (byte) 0xFE});
+                jarOutputStream.closeEntry();
+            }
+        }
+        Artifact artifact = new DefaultArtifact("org.jahia.test", "test" + index, "1." + index, Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(artifactFile);
+        return artifact;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.maven.plugin.osgi.framework.scanner;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Unit test for the persistent JAR package index
+ */
+public class JarPackageIndexTest {
+
+    @Test
+    public void testIndexedContents() throws IOException {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        try {
+            File jarFile = new File(tmpDirTestLocation, "test-1.0.jar");
+            jarFile.getParentFile().mkdirs();
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().putValue("Specification-Version", "1.2");
+            try (JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(jarFile), manifest)) {
+                for (String entryName : new String[] {"org/jahia/test/A.class", "org/jahia/test/impl/", "org/jahia/test/impl/B.class",
+                        "org/jahia/test/C.class", "Root.class"}) {
+                    jarOutputStream.putNextEntry(new JarEntry(entryName));
+                    jarOutputStream.closeEntry();
+                }
+            }
+
+            JarPackageIndex.JarContents jarContents = JarPackageIndex.readJarContents(jarFile);
+            Assert.assertEquals("1.2", jarContents.getManifest().getMainAttributes().getValue("Specification-Version"));
+            Assert.assertEquals(Arrays.asList("META-INF", "org.jahia.test", "org.jahia.test.impl"), Arrays.asList(jarContents.getPackageEntryCounts().keySet().toArray()));
+            Assert.assertEquals(Integer.valueOf(2), jarContents.getPackageEntryCounts().get("org.jahia.test"));
+
+            File indexDirectory = new File(tmpDirTestLocation, "index");
+            Assert.assertEquals(jarContents.getPackageEntryCounts(), new JarPackageIndex(indexDirectory, new SystemStreamLog()).getJarContents(jarFile).getPackageEntryCounts());
+            // without a checksum file stored by Maven, the JAR is identified by its path, size and date, in memory only
+            Assert.assertFalse(indexDirectory.exists());
+
+            String checksum = "0123456789abcdef0123456789abcdef01234567";
+            File checksumFile = new File(jarFile.getPath() + ".sha1");
+            FileUtils.writeStringToFile(checksumFile, checksum + "  test-1.0.jar", "US-ASCII");
+            new JarPackageIndex(indexDirectory, new SystemStreamLog()).getJarContents(jarFile);
+            File indexFile = new File(indexDirectory, "67" + File.separator + checksum + ".idx");
+            Assert.assertTrue(indexFile.isFile());
+
+            // a new index instance, as used by another build, reads the stored contents
+            JarPackageIndex.JarContents indexedJarContents = new JarPackageIndex(indexDirectory, new SystemStreamLog()).getJarContents(jarFile);
+            Assert.assertEquals(jarContents.getPackageEntryCounts(), indexedJarContents.getPackageEntryCounts());
+            Assert.assertEquals(jarContents.getManifest(), indexedJarContents.getManifest());
+
+            // a checksum file older than the JAR does not describe it any more
+            Assert.assertTrue(indexFile.delete());
+            Assert.assertTrue(checksumFile.setLastModified(jarFile.lastModified() - 10000));
+            new JarPackageIndex(indexDirectory, new SystemStreamLog()).getJarContents(jarFile);
+            Assert.assertFalse(indexFile.exists());
+            Assert.assertTrue(FileUtils.listFiles(indexDirectory, new String[] {"idx"}, true).isEmpty());
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+}
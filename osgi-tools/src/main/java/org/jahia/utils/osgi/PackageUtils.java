@@ -46,11 +46,10 @@ package org.jahia.utils.osgi;
 import aQute.bnd.version.Version;
 import aQute.bnd.version.VersionRange;
 import org.jahia.utils.osgi.parsers.PackageInfo;
+import org.jahia.utils.osgi.parsers.PackageInfoSet;
 import org.jahia.utils.osgi.parsers.ParsingContext;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Library of utilities to handle package names
@@ -84,42 +83,105 @@ public class PackageUtils {
     public static final String NETWORK_ERROR_PREFIX = "NETWORK ERROR: ";
     public static final String MAVEN_SEARCH_HOST_URL = "http://search.maven.org";
 
+    private static final int PACKAGE_NAME_CACHE_SIZE = 4096;
+    private static final String[] packageNameCache = new String[PACKAGE_NAME_CACHE_SIZE];
+
     public static Set<PackageInfo> getPackagesFromClass(final String fqnClassName, boolean optionalDependency, String version, String sourceLocation, ParsingContext parsingContext) {
         Set<PackageInfo> packages = new HashSet<PackageInfo>();
-        // Split for generics
-        String[] classNames = fqnClassName.split("<|>|,");
-        for (String className : classNames) {
-            // remove all blank space in class name
-            className = className.replaceAll("\\s+", "");
-            String[] classNameParts = className.split("\\.");
-            if (classNameParts.length > 1 &&
-                    classNameParts[classNameParts.length - 2].length() > 0 &&
-                    Character.isUpperCase(classNameParts[classNameParts.length - 2].charAt(0))) {
-                // we found a static import, we will return all parts except the last two.
-                StringBuilder packageNameBuilder = new StringBuilder();
-                for (int i = 0; i < classNameParts.length - 2; i++) {
-                    packageNameBuilder.append(classNameParts[i]);
-                    if (i < classNameParts.length - 3) {
-                        packageNameBuilder.append(".");
-                    }
-                }
-                if (packageNameBuilder.length() > 0) {
-                    packages.add(new PackageInfo(packageNameBuilder.toString(), version, optionalDependency, sourceLocation, parsingContext));
-                    continue;
-                } else {
+        // remove all blank space in class names, this doesn't change the generics separators
+        String classNames = removeWhitespace(fqnClassName);
+        int classNameStart = 0;
+        // split for generics
+        for (int i = 0; i <= classNames.length(); i++) {
+            if (i < classNames.length()) {
+                char c = classNames.charAt(i);
+                if (c != '<' && c != '>' && c != ',') {
                     continue;
                 }
             }
-            int lastDot = className.lastIndexOf(".");
-            if (lastDot < 0) {
-                continue;
+            String packageName = getPackageFromClassName(classNames, classNameStart, i);
+            if (packageName != null) {
+                packages.add(new PackageInfo(packageName, version, optionalDependency, sourceLocation, parsingContext));
             }
-            packages.add(new PackageInfo(className.substring(0, lastDot), version, optionalDependency, sourceLocation, parsingContext));
+            classNameStart = i + 1;
         }
         return packages;
     }
 
+    /**
+     * Returns the package of the class name found between start and end, or null if there is none. If the part
+     * before the last dot starts with an upper case character, the name is a static member reference and the last
+     * two parts are removed.
+     */
+    private static String getPackageFromClassName(String classNames, int start, int end) {
+        // trailing dots are ignored when looking for the class name parts
+        int partsEnd = end;
+        while (partsEnd > start && classNames.charAt(partsEnd - 1) == '.') {
+            partsEnd--;
+        }
+        int lastPartDot = classNames.lastIndexOf('.', partsEnd - 1);
+        if (lastPartDot >= start) {
+            int classPartDot = classNames.lastIndexOf('.', lastPartDot - 1);
+            int classPartStart = classPartDot >= start ? classPartDot + 1 : start;
+            if (classPartStart < lastPartDot && Character.isUpperCase(classNames.charAt(classPartStart))) {
+                // we found a static import, we will return all parts except the last two.
+                return classPartDot > start ? internPackageName(classNames, start, classPartDot) : null;
+            }
+        }
+        int lastDot = classNames.lastIndexOf('.', end - 1);
+        if (lastDot < start) {
+            return null;
+        }
+        return internPackageName(classNames, start, lastDot);
+    }
+
+    private static String removeWhitespace(String value) {
+        int i = 0;
+        while (i < value.length() && !isWhitespace(value.charAt(i))) {
+            i++;
+        }
+        if (i == value.length()) {
+            return value;
+        }
+        StringBuilder valueBuilder = new StringBuilder(value.length());
+        valueBuilder.append(value, 0, i);
+        for (; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!isWhitespace(c)) {
+                valueBuilder.append(c);
+            }
+        }
+        return valueBuilder.toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Returns a shared instance of the package name found between start and end, so that the same package referenced
+     * from many files does not create as many strings. The cache is a fixed size table where colliding names simply
+     * replace each other.
+     */
+    private static String internPackageName(String value, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + value.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (PACKAGE_NAME_CACHE_SIZE - 1);
+        String packageName = packageNameCache[slot];
+        if (packageName != null && packageName.length() == end - start && value.regionMatches(start, packageName, 0, end - start)) {
+            return packageName;
+        }
+        packageName = value.substring(start, end);
+        packageNameCache[slot] = packageName;
+        return packageName;
+    }
+
     public static boolean containsIgnoreVersion(Collection<PackageInfo> packages, PackageInfo targetPackage) {
+        if (packages instanceof PackageInfoSet) {
+            return ((PackageInfoSet) packages).containsName(targetPackage.getName());
+        }
         for (PackageInfo packageInfo : packages) {
             if (packageInfo.getName().equals(targetPackage.getName())) {
                 return true;
@@ -129,7 +191,7 @@ public class PackageUtils {
     }
 
     public static boolean containsMatchingVersion(Collection<PackageInfo> packages, PackageInfo targetPackage) {
-        for (PackageInfo packageInfo : packages) {
+        for (PackageInfo packageInfo : getCandidates(packages, targetPackage)) {
             if (packageInfo.matches(targetPackage)) {
                 return true;
             }
@@ -140,7 +202,7 @@ public class PackageUtils {
     public static int removeMatchingVersions(Collection<PackageInfo> packages, PackageInfo targetPackage) {
         int matchCount = 0;
         List<PackageInfo> packagesToRemove = new ArrayList<PackageInfo>();
-        for (PackageInfo packageInfo : packages) {
+        for (PackageInfo packageInfo : getCandidates(packages, targetPackage)) {
             if (packageInfo.matches(targetPackage)) {
                 packagesToRemove.add(packageInfo);
             }
@@ -153,6 +215,16 @@ public class PackageUtils {
         return matchCount;
     }
 
+    /**
+     * Only packages with the same name may match, so when the collection is indexed by name we only look at those.
+     */
+    private static Collection<PackageInfo> getCandidates(Collection<PackageInfo> packages, PackageInfo targetPackage) {
+        if (packages instanceof PackageInfoSet) {
+            return ((PackageInfoSet) packages).getByName(targetPackage.getName());
+        }
+        return packages;
+    }
+
     /**
      * Returns the intersection of this version range with the specified version
      * ranges.
@@ -263,64 +335,10 @@ public class PackageUtils {
      * the version syntax. This method cleans up such a version to match an OSGi
      * version.
      *
-     * @param VERSION_STRING
-     * @return
+     * @see VersionNormalizer#cleanupVersion(String)
      */
-    static final Pattern FUZZY_VERSION = Pattern.compile("(\\d+)(\\.(\\d+)(\\.(\\d+))?)?([^a-zA-Z0-9](.*))?",
-            Pattern.DOTALL);
-
-
     static public String cleanupVersion(String version) {
-        StringBuffer result = new StringBuffer();
-        Matcher m = FUZZY_VERSION.matcher(version);
-        if (m.matches()) {
-            String major = m.group(1);
-            String minor = m.group(3);
-            String micro = m.group(5);
-            String qualifier = m.group(7);
-
-            if (major != null) {
-                result.append(major);
-                if (minor != null) {
-                    result.append(".");
-                    result.append(minor);
-                    if (micro != null) {
-                        result.append(".");
-                        result.append(micro);
-                        if (qualifier != null) {
-                            result.append(".");
-                            cleanupModifier(result, qualifier);
-                        }
-                    } else if (qualifier != null) {
-                        result.append(".0.");
-                        cleanupModifier(result, qualifier);
-                    } else {
-                        result.append(".0");
-                    }
-                } else if (qualifier != null) {
-                    result.append(".0.0.");
-                    cleanupModifier(result, qualifier);
-                } else {
-                    result.append(".0.0");
-                }
-            }
-        } else {
-            result.append("0.0.0.");
-            cleanupModifier(result, version);
-        }
-        return result.toString();
-    }
-
-
-    static void cleanupModifier(StringBuffer result, String modifier) {
-        for (int i = 0; i < modifier.length(); i++) {
-            char c = modifier.charAt(i);
-            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
-                    || c == '-')
-                result.append(c);
-            else
-                result.append('_');
-        }
+        return VersionNormalizer.cleanupVersion(version);
     }
 
     public static String getPackageSearchUrl(String packageName) {
@@ -0,0 +1,239 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi;
+
+import aQute.bnd.version.Version;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Normalizes the fuzzy version strings found in Maven artifacts and manifests into OSGi versions, following the
+ * cleanup rules of the Maven Bundle Plugin.
+ * <p/>
+ * The version strings are parsed by a hand-written tokenizer that accepts exactly what the
+ * <code>(\d+)(\.(\d+)(\.(\d+))?)?([^a-zA-Z0-9](.*))?</code> pattern used to accept, and the results are memoized in a
+ * bounded concurrent cache, as the same few thousand version strings are normalized over and over during a build, by
+ * several threads. When the cache is full, a quarter of it is evicted, without any ordering.
+ */
+public final class VersionNormalizer {
+
+    private static final int MAX_CACHED_VERSIONS = 10000;
+    private static final NormalizedVersion NULL_VERSION = new NormalizedVersion(null, null);
+
+    private static final Map<String, NormalizedVersion> normalizedVersions = new ConcurrentHashMap<String, NormalizedVersion>();
+
+    /**
+     * Cleans up a version to match an OSGi version, keeping its qualifier: "1.2-SNAPSHOT" becomes "1.2.0.SNAPSHOT".
+     *
+     * @param version the version to clean up
+     * @return the cleaned up version, or null if the version is null
+     */
+    public static String cleanupVersion(String version) {
+        return getNormalizedVersion(version).version;
+    }
+
+    /**
+     * Cleans up a version to match an OSGi version, without its qualifier: "1.2-SNAPSHOT" becomes "1.2.0" and a version
+     * that does not start with a number becomes "0.0.0".
+     *
+     * @param version the version to clean up
+     * @return the cleaned up version, or null if the version is null
+     */
+    public static String cleanupVersionWithoutQualifier(String version) {
+        return getNormalizedVersion(version).versionWithoutQualifier;
+    }
+
+    /**
+     * Parses a version once cleaned up with {@link #cleanupVersion(String)}.
+     *
+     * @param version the version to parse
+     * @return the parsed version, or null if the version is null
+     * @throws IllegalArgumentException if the cleaned up version is not a valid OSGi version, for example when a
+     *                                  number is too large
+     */
+    public static Version parseVersion(String version) {
+        return getNormalizedVersion(version).getParsedVersion();
+    }
+
+    private static NormalizedVersion getNormalizedVersion(String version) {
+        if (version == null) {
+            return NULL_VERSION;
+        }
+        NormalizedVersion normalizedVersion = normalizedVersions.get(version);
+        if (normalizedVersion == null) {
+            normalizedVersion = normalize(version);
+            if (normalizedVersions.size() >= MAX_CACHED_VERSIONS) {
+                evictVersions();
+            }
+            NormalizedVersion existingVersion = normalizedVersions.putIfAbsent(version, normalizedVersion);
+            if (existingVersion != null) {
+                normalizedVersion = existingVersion;
+            }
+        }
+        return normalizedVersion;
+    }
+
+    private static void evictVersions() {
+        Iterator<String> versions = normalizedVersions.keySet().iterator();
+        while (versions.hasNext() && normalizedVersions.size() > MAX_CACHED_VERSIONS * 3 / 4) {
+            versions.next();
+            versions.remove();
+        }
+    }
+
+    static int getCachedVersionCount() {
+        return normalizedVersions.size();
+    }
+
+    static NormalizedVersion normalize(String version) {
+        int length = version.length();
+        int majorEnd = skipDigits(version, 0);
+        if (majorEnd == 0) {
+            return new NormalizedVersion(appendQualifier(new StringBuilder(length + 7).append("0.0.0."), version, 0).toString(), "0.0.0");
+        }
+        int minorEnd = -1;
+        int microEnd = -1;
+        int qualifierSeparator = majorEnd;
+        if (majorEnd < length && version.charAt(majorEnd) == '.') {
+            int digitsEnd = skipDigits(version, majorEnd + 1);
+            if (digitsEnd > majorEnd + 1) {
+                if (digitsEnd < length && version.charAt(digitsEnd) == '.') {
+                    int microDigitsEnd = skipDigits(version, digitsEnd + 1);
+                    if (microDigitsEnd > digitsEnd + 1 && isQualifierSeparator(version, microDigitsEnd)) {
+                        minorEnd = digitsEnd;
+                        microEnd = microDigitsEnd;
+                        qualifierSeparator = microDigitsEnd;
+                    }
+                }
+                if (microEnd == -1 && isQualifierSeparator(version, digitsEnd)) {
+                    minorEnd = digitsEnd;
+                    qualifierSeparator = digitsEnd;
+                }
+            }
+        }
+        if (!isQualifierSeparator(version, qualifierSeparator)) {
+            // the digits are followed by a letter, so the version does not match at all
+            return new NormalizedVersion(appendQualifier(new StringBuilder(length + 7).append("0.0.0."), version, 0).toString(), "0.0.0");
+        }
+
+        StringBuilder result = new StringBuilder(length + 6);
+        result.append(version, 0, majorEnd).append('.');
+        if (minorEnd != -1) {
+            result.append(version, majorEnd + 1, minorEnd);
+        } else {
+            result.append('0');
+        }
+        result.append('.');
+        if (microEnd != -1) {
+            result.append(version, minorEnd + 1, microEnd);
+        } else {
+            result.append('0');
+        }
+        String versionWithoutQualifier = result.toString();
+        if (qualifierSeparator == length) {
+            return new NormalizedVersion(versionWithoutQualifier, versionWithoutQualifier);
+        }
+        return new NormalizedVersion(appendQualifier(result.append('.'), version, qualifierSeparator + 1).toString(), versionWithoutQualifier);
+    }
+
+    private static int skipDigits(String version, int start) {
+        int position = start;
+        while (position < version.length() && version.charAt(position) >= '0' && version.charAt(position) <= '9') {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isQualifierSeparator(String version, int position) {
+        return position == version.length() || !isAlphanumeric(version.charAt(position));
+    }
+
+    private static boolean isAlphanumeric(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static StringBuilder appendQualifier(StringBuilder result, String qualifier, int start) {
+        for (int i = start; i < qualifier.length(); i++) {
+            char c = qualifier.charAt(i);
+            if (isAlphanumeric(c) || c == '_' || c == '-') {
+                result.append(c);
+            } else {
+                result.append('_');
+            }
+        }
+        return result;
+    }
+
+    static class NormalizedVersion {
+
+        private final String version;
+        private final String versionWithoutQualifier;
+        private volatile Version parsedVersion;
+
+        private NormalizedVersion(String version, String versionWithoutQualifier) {
+            this.version = version;
+            this.versionWithoutQualifier = versionWithoutQualifier;
+        }
+
+        String getVersion() {
+            return version;
+        }
+
+        String getVersionWithoutQualifier() {
+            return versionWithoutQualifier;
+        }
+
+        private Version getParsedVersion() {
+            if (parsedVersion == null && version != null) {
+                parsedVersion = new Version(version);
+            }
+            return parsedVersion;
+        }
+    }
+
+    private VersionNormalizer() {
+    }
+}
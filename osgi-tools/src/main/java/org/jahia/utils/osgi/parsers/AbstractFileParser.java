@@ -45,20 +45,36 @@ package org.jahia.utils.osgi.parsers;
 
 import org.slf4j.Logger;
 
+import java.util.Set;
+
 /**
  * Abstract file parser
  */
 public abstract class AbstractFileParser implements FileParser, Comparable<AbstractFileParser> {
 
-    private Logger logger;
+    /**
+     * The parsers are shared by the threads scanning the dependencies, so the logger given with each file is only
+     * visible to the thread parsing it.
+     */
+    private final ThreadLocal<Logger> logger = new ThreadLocal<Logger>();
     protected int priority = 0;
 
     public void setLogger(Logger logger) {
-        this.logger = logger;
+        this.logger.set(logger);
     }
 
     public Logger getLogger() {
-        return logger;
+        return logger.get();
+    }
+
+    /**
+     * Returns the lower case extensions of the files this parser may accept, so that {@link Parsers} only asks the
+     * relevant parsers whether they can parse a file. {@link #canParse(String)} still has the final word.
+     *
+     * @return the extensions, or null if the parser has to be asked for any file
+     */
+    public Set<String> getFileExtensions() {
+        return null;
     }
 
     public int getPriority() {
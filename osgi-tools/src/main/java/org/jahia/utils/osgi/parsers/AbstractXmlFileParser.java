@@ -44,17 +44,27 @@
 package org.jahia.utils.osgi.parsers;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.lang.StringUtils;
 import org.jahia.utils.osgi.PackageUtils;
 import org.jdom2.Attribute;
+import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.Namespace;
+import org.jdom2.filter.Filters;
 import org.jdom2.input.SAXBuilder;
-import org.jdom2.xpath.XPath;
+import org.jdom2.xpath.XPathExpression;
+import org.jdom2.xpath.XPathFactory;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,6 +75,40 @@ public abstract class AbstractXmlFileParser extends AbstractFileParser {
 
     public static final Pattern XPATH_PREFIX_PATTERN = Pattern.compile("(\\w+):[\\w-]+");
 
+    private static final int MAX_POOLED_SAX_BUILDERS = 16;
+    private static final int MAX_CACHED_XPATH_EXPRESSIONS = 1000;
+    private static final int MAX_CACHED_XPATH_BINDINGS = 16;
+
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlInputFactory.setXMLResolver(new XMLResolver() {
+            public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) {
+                // external DTDs are not loaded
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        });
+    }
+
+    /**
+     * Idle builders, reused from one file to the next.
+     */
+    private static final Queue<SAXBuilder> saxBuilders = new ConcurrentLinkedQueue<SAXBuilder>();
+
+    /**
+     * Compiled XPath expressions, by expression and then by namespace bindings, the least recently used expressions
+     * and the oldest bindings of an expression being evicted. A compiled expression must not be evaluated by two threads
+     * at the same time, so the expressions are taken out of their queue while they are evaluated.
+     */
+    private static final Map<String, List<CompiledXPathExpressions>> xPathExpressions = new LinkedHashMap<String, List<CompiledXPathExpressions>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<CompiledXPathExpressions>> eldest) {
+            return size() > MAX_CACHED_XPATH_EXPRESSIONS;
+        }
+    };
+
     public abstract boolean canParse(String fileName, Element rootElement);
 
     public abstract void parse(String fileName, Element rootElement, String fileParent, boolean externalDependency, boolean optionalDependency, String version, ParsingContext parsingContext)
@@ -75,19 +119,17 @@ public abstract class AbstractXmlFileParser extends AbstractFileParser {
         return "xml".equals(ext);
     }
 
+    @Override
+    public Set<String> getFileExtensions() {
+        return Collections.singleton("xml");
+    }
+
     public boolean parse(String fileName, InputStream inputStream, String fileParent, boolean externalDependency, boolean optionalDependency, String version, ParsingContext parsingContext) {
         boolean processed = true;
-        SAXBuilder saxBuilder = new SAXBuilder();
-        saxBuilder.setValidation(false);
-        saxBuilder.setFeature("http://xml.org/sax/features/validation", false);
-        saxBuilder.setFeature("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
-        saxBuilder.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-        InputStream inputStreamCopy = null;
+        SAXBuilder saxBuilder = borrowSAXBuilder();
         try {
-            ByteArrayOutputStream entryOutputStream = new ByteArrayOutputStream();
-            IOUtils.copy(inputStream, entryOutputStream);
-            inputStreamCopy = new ByteArrayInputStream(entryOutputStream.toByteArray());
-            InputStreamReader fileReader = new InputStreamReader(inputStreamCopy);
+            // the XML parser closes its input, which belongs to the caller
+            InputStreamReader fileReader = new InputStreamReader(CloseShieldInputStream.wrap(inputStream));
             org.jdom2.Document jdomDocument = saxBuilder.build(fileReader);
             Element rootElement = jdomDocument.getRootElement();
             // getLog().debug("Parsed XML file" + fileName + " successfully.");
@@ -104,11 +146,85 @@ public abstract class AbstractXmlFileParser extends AbstractFileParser {
             getLogger().warn("Error parsing XML file " + fileName + ": " + e.getMessage() + " enable debug mode (-X) for more detailed exception");
             getLogger().debug("Detailed exception", e);
         } finally {
-            IOUtils.closeQuietly(inputStreamCopy);
+            returnSAXBuilder(saxBuilder);
         }
         return processed;
     }
 
+    /**
+     * Reads the beginning of an XML file, up to the start tag of the root element.
+     *
+     * @return a detached copy of the root element, with its namespaces and attributes but without any content, that
+     * can be passed to {@link #canParse(String, Element)}
+     * @throws XMLStreamException if the file is not well-formed before the end of the start tag
+     */
+    public static Element readRootElement(InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader reader = createXMLStreamReader(inputStream);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    Element rootElement = new Element(reader.getLocalName(), getNamespace(reader.getPrefix(), reader.getNamespaceURI()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        Namespace namespace = getNamespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+                        if (!namespace.getPrefix().equals(rootElement.getNamespacePrefix())) {
+                            rootElement.addNamespaceDeclaration(namespace);
+                        }
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        try {
+                            rootElement.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i),
+                                    getNamespace(reader.getAttributePrefix(i), reader.getAttributeNamespace(i)));
+                        } catch (IllegalArgumentException e) {
+                            // JDOM is stricter than the StAX parser, such an attribute is not needed to pick a parser
+                        }
+                    }
+                    new Document(rootElement);
+                    return rootElement;
+                }
+            }
+            throw new XMLStreamException("No root element found");
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Namespace getNamespace(String prefix, String uri) {
+        return Namespace.getNamespace(prefix != null ? prefix : "", uri != null ? uri : "");
+    }
+
+    /**
+     * @return a StAX reader on the given stream, which neither validates the file nor loads external entities and DTDs
+     */
+    protected static XMLStreamReader createXMLStreamReader(InputStream inputStream) throws XMLStreamException {
+        return xmlInputFactory.createXMLStreamReader(inputStream);
+    }
+
+    /**
+     * @return an idle non-validating builder, which neither loads the DTDs nor the external entities
+     */
+    protected static SAXBuilder borrowSAXBuilder() {
+        SAXBuilder saxBuilder = saxBuilders.poll();
+        if (saxBuilder == null) {
+            saxBuilder = new SAXBuilder();
+            saxBuilder.setFeature("http://xml.org/sax/features/validation", false);
+            saxBuilder.setFeature("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
+            saxBuilder.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            saxBuilder.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            saxBuilder.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            saxBuilder.setReuseParser(true);
+        }
+        return saxBuilder;
+    }
+
+    /**
+     * Gives back a builder obtained with {@link #borrowSAXBuilder()}, once the document has been built.
+     */
+    protected static void returnSAXBuilder(SAXBuilder saxBuilder) {
+        if (saxBuilders.size() < MAX_POOLED_SAX_BUILDERS) {
+            saxBuilders.offer(saxBuilder);
+        }
+    }
+
     public boolean hasNamespaceURI(Element element, String namespaceURI) {
         //getLog().debug("Main namespace URI=" + element.getNamespace().getURI());
         if (element.getNamespace().getURI().equals(namespaceURI)) {
@@ -138,15 +254,7 @@ public abstract class AbstractXmlFileParser extends AbstractFileParser {
      * @throws JDOMException raised if there was a problem navigating the JDOM structure.
      */
     public static Element getElement(Element scopeElement, String xPathExpression) throws JDOMException {
-        XPath xPath = XPath.newInstance(xPathExpression);
-        String namespaceURI = scopeElement.getDocument().getRootElement().getNamespaceURI();
-        if ((namespaceURI != null) && (!"".equals(namespaceURI))) {
-            xPath.addNamespace("xp", namespaceURI);
-        }
-        for (Namespace additionalNamespace : (List<Namespace>) scopeElement.getDocument().getRootElement().getAdditionalNamespaces()) {
-            xPath.addNamespace(additionalNamespace);
-        }
-        return (Element) xPath.selectSingleNode(scopeElement);
+        return (Element) evaluate(scopeElement, xPathExpression, "xp", true);
     }
 
     public List<Element> getElements(Element scopeElement, String xPathExpression) throws JDOMException {
@@ -161,30 +269,13 @@ public abstract class AbstractXmlFileParser extends AbstractFileParser {
     }
 
     public List<?> selectNodes(Element scopeElement, String xPathExpression) throws JDOMException {
-        XPath xPath = XPath.newInstance(xPathExpression);
-        String namespaceURI = scopeElement.getDocument().getRootElement().getNamespaceURI();
-        if ((namespaceURI != null) && (!"".equals(namespaceURI))) {
-            xPath.addNamespace("xp", namespaceURI);
-        }
-        for (Namespace additionalNamespace : (List<Namespace>) scopeElement.getDocument().getRootElement().getAdditionalNamespaces()) {
-            xPath.addNamespace(additionalNamespace);
-        }
-
-        return xPath.selectNodes(scopeElement);
+        return (List<?>) evaluate(scopeElement, xPathExpression, "xp", false);
     }
 
     @SuppressWarnings("unchecked")
     public List<Attribute> getAttributes(Element scopeElement, String xPathExpression) throws JDOMException {
         List<Attribute> elems = new LinkedList<Attribute>();
-        XPath xPath = XPath.newInstance(xPathExpression);
-        String namespaceURI = scopeElement.getDocument().getRootElement().getNamespaceURI();
-        if ((namespaceURI != null) && (!"".equals(namespaceURI))) {
-            xPath.addNamespace("xp", namespaceURI);
-        }
-        for (Namespace additionalNamespace : (List<Namespace>) scopeElement.getDocument().getRootElement().getAdditionalNamespaces()) {
-            xPath.addNamespace(additionalNamespace);
-        }
-        for (Object obj : xPath.selectNodes(scopeElement)) {
+        for (Object obj : selectNodes(scopeElement, xPathExpression)) {
             if (obj instanceof Attribute) {
                 elems.add((Attribute) obj);
             }
@@ -220,20 +311,89 @@ public abstract class AbstractXmlFileParser extends AbstractFileParser {
 
     public List<Object> getNodes(Element scopeElement, String xPathExpression, String defaultPrefix) throws JDOMException {
         List<Object> nodes = new LinkedList<Object>();
-        XPath xPath = XPath.newInstance(xPathExpression);
-        String namespaceURI = scopeElement.getDocument().getRootElement().getNamespaceURI();
-        if ((namespaceURI != null) && (!"".equals(namespaceURI))) {
-            xPath.addNamespace(defaultPrefix, namespaceURI);
-        }
-        for (Namespace additionalNamespace : (List<Namespace>) scopeElement.getDocument().getRootElement().getAdditionalNamespaces()) {
-            xPath.addNamespace(additionalNamespace);
-        }
-        for (Object obj : xPath.selectNodes(scopeElement)) {
+        for (Object obj : (List<?>) evaluate(scopeElement, xPathExpression, defaultPrefix, false)) {
             nodes.add(obj);
         }
         return nodes;
     }
 
+    /**
+     * Evaluates an XPath expression with a cached compiled version of it. The default namespace of the document is
+     * bound to the given prefix, and the additional namespaces of the root element to their own prefixes.
+     *
+     * @return the first matching node if <code>first</code> is true, or the list of all the matching nodes
+     */
+    private static Object evaluate(Element scopeElement, String xPathExpression, String defaultPrefix, boolean first) throws JDOMException {
+        Element rootElement = scopeElement.getDocument().getRootElement();
+        Queue<XPathExpression<Object>> idleExpressions = getCompiledExpressions(xPathExpression, defaultPrefix, rootElement).idleExpressions;
+        XPathExpression<Object> expression = idleExpressions.poll();
+        try {
+            if (expression == null) {
+                expression = XPathFactory.instance().compile(xPathExpression, Filters.fpassthrough(), null,
+                        getNamespaceBindings(rootElement, defaultPrefix));
+            }
+            return first ? expression.evaluateFirst(scopeElement) : expression.evaluate(scopeElement);
+        } catch (IllegalArgumentException e) {
+            throw new JDOMException("Invalid XPath expression " + xPathExpression, e);
+        } catch (IllegalStateException e) {
+            throw new JDOMException("Unable to evaluate XPath expression " + xPathExpression, e);
+        } finally {
+            if (expression != null) {
+                idleExpressions.offer(expression);
+            }
+        }
+    }
+
+    private static CompiledXPathExpressions getCompiledExpressions(String xPathExpression, String defaultPrefix, Element rootElement) {
+        synchronized (xPathExpressions) {
+            List<CompiledXPathExpressions> expressionsByBindings = xPathExpressions.get(xPathExpression);
+            if (expressionsByBindings == null) {
+                expressionsByBindings = new ArrayList<CompiledXPathExpressions>(1);
+                xPathExpressions.put(xPathExpression, expressionsByBindings);
+            }
+            for (int i = 0; i < expressionsByBindings.size(); i++) {
+                CompiledXPathExpressions compiledExpressions = expressionsByBindings.get(i);
+                if (compiledExpressions.isBoundTo(defaultPrefix, rootElement)) {
+                    return compiledExpressions;
+                }
+            }
+            CompiledXPathExpressions compiledExpressions = new CompiledXPathExpressions(defaultPrefix, rootElement);
+            if (expressionsByBindings.size() >= MAX_CACHED_XPATH_BINDINGS) {
+                expressionsByBindings.remove(0);
+            }
+            expressionsByBindings.add(compiledExpressions);
+            return compiledExpressions;
+        }
+    }
+
+    /**
+     * @return the number of namespace bindings the expression is currently compiled for
+     */
+    static int getCachedBindingsCount(String xPathExpression) {
+        synchronized (xPathExpressions) {
+            List<CompiledXPathExpressions> expressionsByBindings = xPathExpressions.get(xPathExpression);
+            return expressionsByBindings != null ? expressionsByBindings.size() : 0;
+        }
+    }
+
+    /**
+     * Binds the default namespace of the document to the given prefix, and the additional namespaces of the root
+     * element to their own prefixes.
+     */
+    private static Collection<Namespace> getNamespaceBindings(Element rootElement, String defaultPrefix) {
+        // the bindings are declared in the same order as with the former XPath API, where a later one replaced an
+        // earlier one with the same prefix
+        Map<String, Namespace> namespaces = new LinkedHashMap<String, Namespace>();
+        String namespaceURI = rootElement.getNamespaceURI();
+        if ((namespaceURI != null) && (!"".equals(namespaceURI))) {
+            namespaces.put(defaultPrefix, Namespace.getNamespace(defaultPrefix, namespaceURI));
+        }
+        for (Namespace additionalNamespace : rootElement.getAdditionalNamespaces()) {
+            namespaces.put(additionalNamespace.getPrefix(), additionalNamespace);
+        }
+        return namespaces.values();
+    }
+
     /**
      * Use an array of XPath queries to extract class name, package or content type references from
      * a JDOM document.
@@ -283,30 +443,38 @@ public abstract class AbstractXmlFileParser extends AbstractFileParser {
                         getLogger().debug(fileName + " Found package=" + referenceValue);
                         parsingContext.addPackageImport(new PackageInfo(referenceValue, version, optionalDependency, fileParent + "/" + fileName, parsingContext));
                     } else {
-                        if (referenceValue.contains(" ")) {
-                            getLogger().debug(fileName + "Found multi-valued reference: " + referenceValue);
-                            String[] referenceValueArray = referenceValue.split(" ");
-                            for (String reference : referenceValueArray) {
-                                getLogger().debug(fileName + " Found content type " + referenceValue + " reference");
-                                parsingContext.addContentTypeReference(reference);
-                            }
-                        } else if (referenceValue.contains(",")) {
-                            getLogger().debug(fileName + "Found multi-valued reference: " + referenceValue);
-                            String[] referenceValueArray = referenceValue.split(",");
-                            for (String reference : referenceValueArray) {
-                                getLogger().debug(fileName + " Found content type " + referenceValue + " reference");
-                                parsingContext.addContentTypeReference(reference);
-                            }
-                        } else {
-                            getLogger().debug(fileName + " Found content type " + referenceValue + " reference");
-                            parsingContext.addContentTypeReference(referenceValue);
-                        }
+                        addContentTypeReferences(fileName, referenceValue, parsingContext);
                     }
                 }
             }
         }
     }
 
+    /**
+     * Adds the content types referenced by an attribute or element value, which may hold several types separated by
+     * spaces or commas.
+     */
+    protected void addContentTypeReferences(String fileName, String referenceValue, ParsingContext parsingContext) {
+        if (referenceValue.contains(" ")) {
+            getLogger().debug(fileName + "Found multi-valued reference: " + referenceValue);
+            String[] referenceValueArray = referenceValue.split(" ");
+            for (String reference : referenceValueArray) {
+                getLogger().debug(fileName + " Found content type " + referenceValue + " reference");
+                parsingContext.addContentTypeReference(reference);
+            }
+        } else if (referenceValue.contains(",")) {
+            getLogger().debug(fileName + "Found multi-valued reference: " + referenceValue);
+            String[] referenceValueArray = referenceValue.split(",");
+            for (String reference : referenceValueArray) {
+                getLogger().debug(fileName + " Found content type " + referenceValue + " reference");
+                parsingContext.addContentTypeReference(reference);
+            }
+        } else {
+            getLogger().debug(fileName + " Found content type " + referenceValue + " reference");
+            parsingContext.addContentTypeReference(referenceValue);
+        }
+    }
+
     public void dumpElementNamespaces(Element element) {
         Namespace mainNamespace = element.getNamespace();
         getLogger().debug("Main namespace prefix=[" + mainNamespace.getPrefix() + "] uri=[" + mainNamespace.getURI() + "] getNamespaceURI=[" + element.getNamespaceURI() + "]");
@@ -316,4 +484,40 @@ public abstract class AbstractXmlFileParser extends AbstractFileParser {
     }
 
 
+    /**
+     * The idle compiled versions of an expression for one set of namespace bindings. The bindings are kept as the
+     * values they are computed from, so that a lookup compares them with the root element without building them.
+     */
+    private static class CompiledXPathExpressions {
+
+        private final String defaultPrefix;
+        private final String namespaceURI;
+        private final Namespace[] additionalNamespaces;
+        private final Queue<XPathExpression<Object>> idleExpressions = new ConcurrentLinkedQueue<XPathExpression<Object>>();
+
+        private CompiledXPathExpressions(String defaultPrefix, Element rootElement) {
+            this.defaultPrefix = defaultPrefix;
+            this.namespaceURI = rootElement.getNamespaceURI();
+            List<Namespace> rootAdditionalNamespaces = rootElement.getAdditionalNamespaces();
+            this.additionalNamespaces = rootAdditionalNamespaces.toArray(new Namespace[rootAdditionalNamespaces.size()]);
+        }
+
+        private boolean isBoundTo(String defaultPrefix, Element rootElement) {
+            if (!StringUtils.equals(this.defaultPrefix, defaultPrefix) || !StringUtils.equals(namespaceURI, rootElement.getNamespaceURI())) {
+                return false;
+            }
+            List<Namespace> rootAdditionalNamespaces = rootElement.getAdditionalNamespaces();
+            if (rootAdditionalNamespaces.size() != additionalNamespaces.length) {
+                return false;
+            }
+            for (int i = 0; i < additionalNamespaces.length; i++) {
+                Namespace rootAdditionalNamespace = rootAdditionalNamespaces.get(i);
+                if (!additionalNamespaces[i].getPrefix().equals(rootAdditionalNamespace.getPrefix())
+                        || !additionalNamespaces[i].getURI().equals(rootAdditionalNamespace.getURI())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
@@ -44,6 +44,7 @@
 package org.jahia.utils.osgi.parsers;
 
 import org.apache.commons.io.FilenameUtils;
+import org.jahia.utils.osgi.parsers.cnd.CompiledDefinitionsCache;
 import org.jahia.utils.osgi.parsers.cnd.JahiaCndReader;
 import org.jahia.utils.osgi.parsers.cnd.NodeTypeRegistry;
 import org.jahia.utils.osgi.parsers.cnd.ParseException;
@@ -53,6 +54,7 @@ import javax.jcr.ValueFormatException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -61,22 +63,54 @@ import java.util.TreeSet;
  */
 public class CndFileParser extends AbstractFileParser {
 
+    private final NodeTypeRegistry nodeTypeRegistry = NodeTypeRegistry.getInstance();
+
+    private CompiledDefinitionsCache compiledDefinitionsCache;
+
+    public NodeTypeRegistry getNodeTypeRegistry() {
+        return nodeTypeRegistry;
+    }
+
+    public CompiledDefinitionsCache getCompiledDefinitionsCache() {
+        return compiledDefinitionsCache;
+    }
+
+    /**
+     * Sets the cache of compiled definitions, so that unchanged CND files are not parsed again. Without a cache, the
+     * files are scanned in the lightweight mode of the reader, which does not build the node type model at all.
+     *
+     * @param compiledDefinitionsCache the cache to use, or <code>null</code> to always parse the files
+     */
+    public void setCompiledDefinitionsCache(CompiledDefinitionsCache compiledDefinitionsCache) {
+        this.compiledDefinitionsCache = compiledDefinitionsCache;
+    }
+
     public boolean canParse(String fileName) {
         String ext = FilenameUtils.getExtension(fileName).toLowerCase();
         return "cnd".equals(ext);
     }
 
+    @Override
+    public Set<String> getFileExtensions() {
+        return Collections.singleton("cnd");
+    }
+
     public boolean parse(String fileName, InputStream inputStream, String fileParent, boolean externalDependency, boolean optionalDependency, String version, ParsingContext parsingContext) throws IOException {
         getLogger().debug("Processing CND " + fileName + "...");
 
         try {
-            JahiaCndReader jahiaCndReader = new JahiaCndReader(new InputStreamReader(inputStream), fileName, fileName, NodeTypeRegistry.getInstance());
-            jahiaCndReader.setDoRegister(false);
-            jahiaCndReader.parse();
-
+            JahiaCndReader jahiaCndReader = new JahiaCndReader(new InputStreamReader(inputStream), fileName, fileName, nodeTypeRegistry);
             Set<String> contentTypeDefinitions = new TreeSet<String>();
             Set<String> contentTypeReferences = new TreeSet<String>();
-            jahiaCndReader.getDefinitionsAndReferences(contentTypeDefinitions, contentTypeReferences);
+            if (compiledDefinitionsCache != null) {
+                jahiaCndReader.setDoRegister(false);
+                jahiaCndReader.setCompiledDefinitionsCache(compiledDefinitionsCache);
+                jahiaCndReader.parse();
+                jahiaCndReader.getDefinitionsAndReferences(contentTypeDefinitions, contentTypeReferences);
+            } else {
+                // only the type names are needed, the node type model is not built
+                jahiaCndReader.parseDefinitionsAndReferences(contentTypeDefinitions, contentTypeReferences);
+            }
             parsingContext.addAllContentTypeDefinitions(contentTypeDefinitions);
             parsingContext.addAllContentTypeReferences(contentTypeReferences);
         } catch (ParseException e) {
@@ -50,6 +50,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,6 +67,11 @@ public class DrlFileParser extends AbstractFileParser {
         return "drl".equals(ext);
     }
 
+    @Override
+    public Set<String> getFileExtensions() {
+        return Collections.singleton("drl");
+    }
+
     public boolean parse(String fileName, InputStream inputStream, String fileParent, boolean externalDependency, boolean optionalDependency, String version, ParsingContext parsingContext) throws IOException {
         getLogger().debug("Processing Drools Rule file " + fileName + "...");
         BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
@@ -43,22 +43,68 @@
  */
 package org.jahia.utils.osgi.parsers;
 
+import org.apache.commons.io.IOUtils;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
 /**
- * JCR Import file parser
+ * JCR Import file parser. Files larger than the streaming threshold, such as the repository.xml exports of site
+ * imports, are read with a StAX parser instead of being loaded as a JDOM tree, so that they are parsed in constant
+ * memory.
  */
 public class JCRImportXmlFileParser extends AbstractXmlFileParser {
 
+    public static final String JCR_NAMESPACE_URI = "http://www.jcp.org/jcr/1.0";
+
+    /**
+     * Default size in bytes above which the files are streamed. It stays below {@link Parsers#MAX_REWINDABLE_BYTES}, so that another parser can still read a file which is not a JCR import.
+     */
+    public static final int DEFAULT_STREAMING_THRESHOLD = 2 * 1024 * 1024;
+
     private final static String[] JCR_IMPORT_XPATH_QUERIES = {
             "//@jcr:primaryType",
             "//@jcr:mixinTypes"
     };
 
+    private int streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+
+    public int getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    public void setStreamingThreshold(int streamingThreshold) {
+        this.streamingThreshold = streamingThreshold;
+    }
+
     @Override
     public boolean canParse(String fileName, Element rootElement) {
-        return hasNamespaceURI(rootElement, "http://www.jcp.org/jcr/1.0");
+        return hasNamespaceURI(rootElement, JCR_NAMESPACE_URI);
+    }
+
+    @Override
+    public boolean parse(String fileName, InputStream inputStream, String fileParent, boolean externalDependency, boolean optionalDependency, String version, ParsingContext parsingContext) {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        try {
+            // only read what is needed to choose between the two modes
+            long headSize = IOUtils.copyLarge(inputStream, head, 0, streamingThreshold + 1L);
+            if (headSize <= streamingThreshold) {
+                return super.parse(fileName, new ByteArrayInputStream(head.toByteArray()), fileParent, externalDependency, optionalDependency, version, parsingContext);
+            }
+        } catch (IOException e) {
+            getLogger().warn("Error parsing XML file " + fileName + ": " + e.getMessage() + " enable debug mode (-X) for more detailed exception");
+            getLogger().debug("Detailed exception", e);
+            return true;
+        }
+        return parseStreaming(fileName, new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), inputStream), fileParent, parsingContext);
     }
 
     @Override
@@ -67,4 +113,74 @@ public class JCRImportXmlFileParser extends AbstractXmlFileParser {
 
         getRefsUsingXPathQueries(fileName, rootElement, false, false, JCR_IMPORT_XPATH_QUERIES, "xp", fileParent, version, optionalDependency, parsingContext);
     }
+
+    /**
+     * Extracts the same references as the XPath queries while reading the file. As with the queries, the
+     * <code>jcr</code> prefix has to be declared on the root element.
+     *
+     * @return false if the file is not a JCR import, in which case only its beginning has been read
+     */
+    private boolean parseStreaming(String fileName, InputStream inputStream, String fileParent, ParsingContext parsingContext) {
+        XMLStreamReader reader = null;
+        try {
+            reader = createXMLStreamReader(inputStream);
+            if (!nextStartElement(reader)) {
+                return false;
+            }
+            boolean jcrImport = JCR_NAMESPACE_URI.equals(reader.getNamespaceURI());
+            String jcrPrefixURI = null;
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i) != null ? reader.getNamespacePrefix(i) : "";
+                if (prefix.equals(reader.getPrefix() != null ? reader.getPrefix() : "")) {
+                    // the namespace of the element itself is not an additional namespace
+                    continue;
+                }
+                if (JCR_NAMESPACE_URI.equals(reader.getNamespaceURI(i))) {
+                    jcrImport = true;
+                }
+                if ("jcr".equals(prefix)) {
+                    jcrPrefixURI = reader.getNamespaceURI(i);
+                }
+            }
+            if (!jcrImport) {
+                return false;
+            }
+            getLogger().debug("Streaming JCR import file " + fileParent + " / " + fileName + "...");
+            if (jcrPrefixURI == null) {
+                getLogger().debug(fileParent + " / " + fileName + ": the jcr prefix is not declared in this file, no content type reference can be extracted");
+                return true;
+            }
+            do {
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    if (jcrPrefixURI.equals(reader.getAttributeNamespace(i))) {
+                        String localName = reader.getAttributeLocalName(i);
+                        if ("primaryType".equals(localName) || "mixinTypes".equals(localName)) {
+                            addContentTypeReferences(fileName, reader.getAttributeValue(i), parsingContext);
+                        }
+                    }
+                }
+            } while (nextStartElement(reader));
+        } catch (XMLStreamException e) {
+            getLogger().warn("Error parsing XML file " + fileName + ": " + e.getMessage() + " enable debug mode (-X) for more detailed exception");
+            getLogger().debug("Detailed exception", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    getLogger().debug("Error closing XML reader", e);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean nextStartElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
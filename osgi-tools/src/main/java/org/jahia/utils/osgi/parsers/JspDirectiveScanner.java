@@ -0,0 +1,332 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass scanner for the directives of a JSP file that reference Java classes or tag libraries. The directives
+ * are recognized exactly as {@link JspFileParser#JSP_PAGE_IMPORT_PATTERN}, {@link JspFileParser#JSP_TAGLIB_PATTERN},
+ * {@link JspFileParser#IDEA_TYPE_HINT_PATTERN} and {@link JspFileParser#JSP_USEBEAN_TAG_PATTERN} would match them, but
+ * the content is read in chunks from the reader and only the characters of the directive being matched are kept in
+ * memory.
+ */
+class JspDirectiveScanner {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final String PAGE_DIRECTIVE = "page";
+    private static final String TAGLIB_DIRECTIVE = "taglib";
+    private static final String IMPORT_ATTRIBUTE = "import=\"";
+    private static final String URI_ATTRIBUTE = "uri=\"";
+    private static final String ELVARIABLE = "--@elvariable";
+    private static final String TYPE_ATTRIBUTE = "type=\"";
+    private static final String USEBEAN_TAG = "<jsp:useBean";
+
+    private final Reader reader;
+    private char[] buffer = new char[CHUNK_SIZE];
+    // position in the content of the first character of the buffer
+    private int offset = 0;
+    private int length = 0;
+    // position in the content of the first character that must be kept in the buffer
+    private int mark = 0;
+    private boolean eof = false;
+
+    private final List<String> pageImports = new ArrayList<String>();
+    private final List<String> taglibUris = new ArrayList<String>();
+    private final List<String> typeHints = new ArrayList<String>();
+    private final List<String> useBeanAttributes = new ArrayList<String>();
+
+    JspDirectiveScanner(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the whole content, and collects the values of the directives in the order in which they appear.
+     */
+    void scan() throws IOException {
+        // as each pattern was applied on its own, a directive can only start after the end of the previous match of
+        // the same kind
+        int nextPageImport = 0;
+        int nextTaglib = 0;
+        int nextTypeHint = 0;
+        int nextUseBean = 0;
+        for (int pos = 0; ; pos++) {
+            // nothing before the current position is needed anymore
+            mark = pos;
+            int c = charAt(pos);
+            if (c == -1) {
+                break;
+            } else if (c != '<') {
+                continue;
+            }
+            int end;
+            if (pos >= nextPageImport && (end = matchDirective(pos, PAGE_DIRECTIVE, IMPORT_ATTRIBUTE, pageImports)) != -1) {
+                nextPageImport = end;
+            }
+            if (pos >= nextTaglib && (end = matchDirective(pos, TAGLIB_DIRECTIVE, URI_ATTRIBUTE, taglibUris)) != -1) {
+                nextTaglib = end;
+            }
+            if (pos >= nextTypeHint && (end = matchTypeHint(pos)) != -1) {
+                nextTypeHint = end;
+            }
+            if (pos >= nextUseBean && (end = matchUseBean(pos)) != -1) {
+                nextUseBean = end;
+            }
+        }
+    }
+
+    /**
+     * @return the values of the <code>import</code> attributes of the page directives
+     */
+    List<String> getPageImports() {
+        return pageImports;
+    }
+
+    /**
+     * @return the values of the <code>uri</code> attributes of the taglib directives
+     */
+    List<String> getTaglibUris() {
+        return taglibUris;
+    }
+
+    /**
+     * @return the types declared in the <code>@elvariable</code> comments
+     */
+    List<String> getTypeHints() {
+        return typeHints;
+    }
+
+    /**
+     * @return the raw attributes of the <code>jsp:useBean</code> tags
+     */
+    List<String> getUseBeanAttributes() {
+        return useBeanAttributes;
+    }
+
+    /**
+     * Matches <code>&lt;%@\s*directive[^%]*\sattribute"([^%"]*)"[^%]*%&gt;</code>.
+     */
+    private int matchDirective(int start, String directive, String attribute, List<String> values) throws IOException {
+        if (!matches(start, "<%@")) {
+            return -1;
+        }
+        int pos = skipSpaces(start + 3);
+        if (!matches(pos, directive)) {
+            return -1;
+        }
+        int bodyStart = pos + directive.length();
+        int bodyEnd = indexOf('%', bodyStart);
+        if (bodyEnd == -1 || charAt(bodyEnd + 1) != '>') {
+            return -1;
+        }
+        // the leading [^%]* is greedy, so the last attribute with a closing quote wins
+        int lastQuote = lastIndexOf('"', bodyStart, bodyEnd);
+        for (int attributeStart = bodyEnd - attribute.length(); attributeStart > bodyStart; attributeStart--) {
+            int valueStart = attributeStart + attribute.length();
+            if (valueStart <= lastQuote && isSpace(charAt(attributeStart - 1)) && matches(attributeStart, attribute)) {
+                values.add(substring(valueStart, indexOf('"', valueStart)));
+                return bodyEnd + 2;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matches <code>&lt;%\s*--@elvariable.*type=\"(.*)\"\s*--\s*%&gt;</code>.
+     */
+    private int matchTypeHint(int start) throws IOException {
+        if (!matches(start, "<%")) {
+            return -1;
+        }
+        int pos = skipSpaces(start + 2);
+        if (!matches(pos, ELVARIABLE)) {
+            return -1;
+        }
+        int lineStart = pos + ELVARIABLE.length();
+        int lineEnd = lineEnd(lineStart);
+        // both .* are greedy: the value ends at the last quote followed by the end of the comment...
+        int valueEnd = -1;
+        int end = -1;
+        for (int quote = lastIndexOf('"', lineStart, lineEnd); quote != -1; quote = lastIndexOf('"', lineStart, quote)) {
+            int commentEnd = skipSpaces(quote + 1);
+            if (matches(commentEnd, "--")) {
+                commentEnd = skipSpaces(commentEnd + 2);
+                if (matches(commentEnd, "%>")) {
+                    valueEnd = quote;
+                    end = commentEnd + 2;
+                    break;
+                }
+            }
+        }
+        if (valueEnd == -1) {
+            return -1;
+        }
+        // ... and starts after the last type attribute before it
+        for (int typeStart = valueEnd - TYPE_ATTRIBUTE.length(); typeStart >= lineStart; typeStart--) {
+            if (matches(typeStart, TYPE_ATTRIBUTE)) {
+                typeHints.add(substring(typeStart + TYPE_ATTRIBUTE.length(), valueEnd));
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matches <code>&lt;jsp:useBean(.*)\/&gt;</code>.
+     */
+    private int matchUseBean(int start) throws IOException {
+        if (!matches(start, USEBEAN_TAG)) {
+            return -1;
+        }
+        int attributesStart = start + USEBEAN_TAG.length();
+        int lineEnd = lineEnd(attributesStart);
+        for (int tagEnd = lineEnd - 2; tagEnd >= attributesStart; tagEnd--) {
+            if (matches(tagEnd, "/>")) {
+                useBeanAttributes.add(substring(attributesStart, tagEnd));
+                return tagEnd + 2;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int pos, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (charAt(pos + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipSpaces(int pos) throws IOException {
+        while (isSpace(charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private int indexOf(char c, int from) throws IOException {
+        int current;
+        for (int pos = from; (current = charAt(pos)) != -1; pos++) {
+            if (current == c) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the last position of the character in [from, to[, or -1
+     */
+    private int lastIndexOf(char c, int from, int to) throws IOException {
+        for (int pos = to - 1; pos >= from; pos--) {
+            if (charAt(pos) == c) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first line terminator, as understood by the <code>.</code> of a regular expression,
+     * or the end of the content
+     */
+    private int lineEnd(int from) throws IOException {
+        int pos = from;
+        int c;
+        while ((c = charAt(pos)) != -1 && c != '\n' && c != '\r' && c != '\u0085' && c != '\u2028' && c != '\u2029') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Same characters as <code>\s</code> in a regular expression.
+     */
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private String substring(int from, int to) {
+        return new String(buffer, from - offset, to - from);
+    }
+
+    /**
+     * @return the character at the given position of the content, or -1 after the end of the content. The position
+     * must not be before the mark.
+     */
+    private int charAt(int pos) throws IOException {
+        while (pos - offset >= length) {
+            if (eof || !fill()) {
+                return -1;
+            }
+        }
+        return buffer[pos - offset];
+    }
+
+    private boolean fill() throws IOException {
+        int discarded = mark - offset;
+        if (discarded > 0) {
+            System.arraycopy(buffer, discarded, buffer, 0, length - discarded);
+            offset = mark;
+            length -= discarded;
+        }
+        if (buffer.length - length < CHUNK_SIZE) {
+            char[] newBuffer = new char[Math.max(buffer.length * 2, length + CHUNK_SIZE)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+        int read = reader.read(buffer, length, buffer.length - length);
+        if (read == -1) {
+            eof = true;
+            return false;
+        }
+        length += read;
+        return true;
+    }
+}
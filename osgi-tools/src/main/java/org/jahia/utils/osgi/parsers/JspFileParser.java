@@ -44,19 +44,23 @@
 package org.jahia.utils.osgi.parsers;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jahia.utils.osgi.PackageUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * JSP file parser
+ * JSP file parser. The directives matched by the patterns below are collected in a single pass by a
+ * {@link JspDirectiveScanner}.
  */
 public class JspFileParser extends AbstractFileParser {
 
@@ -66,26 +70,32 @@ public class JspFileParser extends AbstractFileParser {
     public static final Pattern JSP_USEBEAN_TAG_PATTERN = Pattern.compile("<jsp:useBean(.*)\\/>");
     public static final Pattern TAG_ATTRIBUTES_PATTERN = Pattern.compile("((?:\\S:)?\\S*)\\s*=\\s*(?:\\\"|\\')([^\\\"\\']*)(?:\\\"|\\')");
 
+    private static final Set<String> FILE_EXTENSIONS = new HashSet<String>(Arrays.asList("jsp", "jspf", "tag", "tagf"));
+
     public boolean canParse(String fileName) {
         String ext = FilenameUtils.getExtension(fileName).toLowerCase();
         return "jsp".equals(ext) || "jspf".equals(ext) || "tag".equals(ext) || "tagf".equals(ext);
     }
 
+    @Override
+    public Set<String> getFileExtensions() {
+        return FILE_EXTENSIONS;
+    }
+
     public boolean parse(String fileName, InputStream inputStream, String fileParent, boolean externalDependency, boolean optionalDependency, String version, ParsingContext parsingContext) throws IOException {
         getLogger().debug("Processing JSP " + fileParent + " / " + fileName + "...");
-        String jspFileContent = IOUtils.toString(inputStream);
+        JspDirectiveScanner scanner = new JspDirectiveScanner(new InputStreamReader(inputStream));
+        scanner.scan();
 
-        parsePageImport(parsingContext, jspFileContent, fileParent + " / " + fileName, optionalDependency, version);
-        parseIdeaTypeHint(parsingContext, jspFileContent, fileParent + " / " + fileName, optionalDependency, version);
-        parseJspUseBean(parsingContext, jspFileContent, fileParent + " / " + fileName, optionalDependency, version);
-        parseTaglib(fileName, parsingContext, jspFileContent);
+        parsePageImport(parsingContext, scanner.getPageImports(), fileParent + " / " + fileName, optionalDependency, version);
+        parseIdeaTypeHint(parsingContext, scanner.getTypeHints(), fileParent + " / " + fileName, optionalDependency, version);
+        parseJspUseBean(parsingContext, scanner.getUseBeanAttributes(), fileParent + " / " + fileName, optionalDependency, version);
+        parseTaglib(fileName, parsingContext, scanner.getTaglibUris());
         return true;
     }
 
-    private void parseJspUseBean(ParsingContext parsingContext, String jspFileContent, String sourceLocation, boolean optionalDependency, String version) {
-        Matcher jspUseBeanTagMatcher = JSP_USEBEAN_TAG_PATTERN.matcher(jspFileContent);
-        while (jspUseBeanTagMatcher.find()) {
-            String useBeanAttributes = jspUseBeanTagMatcher.group(1);
+    private void parseJspUseBean(ParsingContext parsingContext, List<String> useBeanTags, String sourceLocation, boolean optionalDependency, String version) {
+        for (String useBeanAttributes : useBeanTags) {
             Matcher tagAttributesMatcher = TAG_ATTRIBUTES_PATTERN.matcher(useBeanAttributes);
             while (tagAttributesMatcher.find()) {
                 String attributeName = tagAttributesMatcher.group(1);
@@ -97,10 +107,8 @@ public class JspFileParser extends AbstractFileParser {
         }
     }
 
-    private void parseTaglib(String fileName, ParsingContext parsingContext, String jspFileContent) {
-        Matcher taglibUriMatcher = JSP_TAGLIB_PATTERN.matcher(jspFileContent);
-        while (taglibUriMatcher.find()) {
-            String taglibUri = taglibUriMatcher.group(1);
+    private void parseTaglib(String fileName, ParsingContext parsingContext, List<String> taglibUris) {
+        for (String taglibUri : taglibUris) {
             parsingContext.addTaglibUri(taglibUri);
             if (!parsingContext.getTaglibPackages().containsKey(taglibUri)) {
                 Set<String> unresolvedUrisForJsp = parsingContext.getUnresolvedTaglibUris().get(fileName);
@@ -119,18 +127,14 @@ public class JspFileParser extends AbstractFileParser {
         }
     }
 
-    private void parseIdeaTypeHint(ParsingContext parsingContext, String jspFileContent, String sourceLocation, boolean optionalDependency, String version) {
-        Matcher ideaTypeHintMatcher = IDEA_TYPE_HINT_PATTERN.matcher(jspFileContent);
-        while (ideaTypeHintMatcher.find()) {
-            String classImportString = ideaTypeHintMatcher.group(1);
+    private void parseIdeaTypeHint(ParsingContext parsingContext, List<String> typeHints, String sourceLocation, boolean optionalDependency, String version) {
+        for (String classImportString : typeHints) {
             parsingContext.addAllPackageImports(PackageUtils.getPackagesFromClass(classImportString, optionalDependency, version, sourceLocation, parsingContext));
         }
     }
 
-    private void parsePageImport(ParsingContext parsingContext, String jspFileContent, String sourceLocation, boolean optionalDependency, String version) {
-        Matcher pageImportMatcher = JSP_PAGE_IMPORT_PATTERN.matcher(jspFileContent);
-        while (pageImportMatcher.find()) {
-            String classImportString = pageImportMatcher.group(1);
+    private void parsePageImport(ParsingContext parsingContext, List<String> pageImports, String sourceLocation, boolean optionalDependency, String version) {
+        for (String classImportString : pageImports) {
             if (classImportString.contains(",")) {
                 getLogger().debug("Multiple imports in a single JSP page import statement detected: " + classImportString);
                 String[] classImports = StringUtils.split(classImportString, ",");
@@ -0,0 +1,173 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A sorted set of package infos that also indexes them by package name, so that looking up all the versions of a
+ * package does not require a full scan of the set. The ordering and equality semantics are the ones of a
+ * {@link TreeSet} of {@link PackageInfo}.
+ */
+public class PackageInfoSet extends AbstractSet<PackageInfo> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TreeSet<PackageInfo> packageInfos = new TreeSet<>();
+    private final Map<String, List<PackageInfo>> packageInfosByName = new HashMap<>();
+
+    public PackageInfoSet() {
+    }
+
+    public PackageInfoSet(Collection<PackageInfo> packageInfos) {
+        addAll(packageInfos);
+    }
+
+    @Override
+    public int size() {
+        return packageInfos.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return packageInfos.contains(o);
+    }
+
+    /**
+     * @return true if the set contains a package with the given name, whatever its version
+     */
+    public boolean containsName(String name) {
+        return packageInfosByName.containsKey(name);
+    }
+
+    /**
+     * @return all the packages of the set with the given name, never null
+     */
+    public List<PackageInfo> getByName(String name) {
+        List<PackageInfo> namedPackageInfos = packageInfosByName.get(name);
+        return namedPackageInfos != null ? Collections.unmodifiableList(namedPackageInfos) : Collections.<PackageInfo>emptyList();
+    }
+
+    @Override
+    public boolean add(PackageInfo packageInfo) {
+        if (!packageInfos.add(packageInfo)) {
+            return false;
+        }
+        List<PackageInfo> namedPackageInfos = packageInfosByName.get(packageInfo.getName());
+        if (namedPackageInfos == null) {
+            namedPackageInfos = new ArrayList<>(1);
+            packageInfosByName.put(packageInfo.getName(), namedPackageInfos);
+        }
+        namedPackageInfos.add(packageInfo);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof PackageInfo) || !packageInfos.remove(o)) {
+            return false;
+        }
+        // the removed entry is not necessarily o itself but one comparing equal to it, so we keep the entries still present
+        String name = ((PackageInfo) o).getName();
+        List<PackageInfo> namedPackageInfos = packageInfosByName.get(name);
+        if (namedPackageInfos != null) {
+            Iterator<PackageInfo> namedPackageInfoIterator = namedPackageInfos.iterator();
+            while (namedPackageInfoIterator.hasNext()) {
+                if (!packageInfos.contains(namedPackageInfoIterator.next())) {
+                    namedPackageInfoIterator.remove();
+                }
+            }
+            if (namedPackageInfos.isEmpty()) {
+                packageInfosByName.remove(name);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        packageInfos.clear();
+        packageInfosByName.clear();
+    }
+
+    @Override
+    public Iterator<PackageInfo> iterator() {
+        final Iterator<PackageInfo> packageInfoIterator = packageInfos.iterator();
+        return new Iterator<PackageInfo>() {
+
+            private PackageInfo current;
+
+            public boolean hasNext() {
+                return packageInfoIterator.hasNext();
+            }
+
+            public PackageInfo next() {
+                current = packageInfoIterator.next();
+                return current;
+            }
+
+            public void remove() {
+                packageInfoIterator.remove();
+                removeFromIndex(current);
+            }
+        };
+    }
+
+    private void removeFromIndex(PackageInfo packageInfo) {
+        List<PackageInfo> namedPackageInfos = packageInfosByName.get(packageInfo.getName());
+        if (namedPackageInfos == null) {
+            return;
+        }
+        for (int i = 0; i < namedPackageInfos.size(); i++) {
+            if (namedPackageInfos.get(i) == packageInfo) {
+                namedPackageInfos.remove(i);
+                break;
+            }
+        }
+        if (namedPackageInfos.isEmpty()) {
+            packageInfosByName.remove(packageInfo.getName());
+        }
+    }
+}
@@ -43,21 +43,40 @@
  */
 package org.jahia.utils.osgi.parsers;
 
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.jdom2.Element;
 import org.slf4j.Logger;
 
-import java.io.BufferedInputStream;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
 
 /**
- * Collection of parsers, organized by phases
+ * Collection of parsers, organized by phases. For each phase, a dispatch table built from the file extensions
+ * declared by the parsers gives the parsers to try for a file, and when several XML parsers are candidates, the root
+ * element of the file is read once to pick the ones that accept it.
  */
 public class Parsers {
 
     public static final String DEFAULT_PARSERS_PROPERTY_FILE_PATH = "org/jahia/utils/osgi/default-parsers.properties";
+
+    /**
+     * Maximum number of bytes kept to give the same file to another parser when a parser declines it.
+     */
+    public static final int MAX_REWINDABLE_BYTES = 4 * 1024 * 1024;
+
     List<SortedSet<FileParser>> parsersByPhase;
 
+    /**
+     * Per phase, the parsers by lower case extension, in the order of the phase. The parsers which do not declare
+     * their extensions are stored under the null key, and also appear in every other list.
+     */
+    private volatile List<Map<String, List<FileParser>>> dispatchTables;
+
+    private volatile ParsingStatistics statistics;
+
     private final static Parsers instance = new Parsers();
 
     public Parsers() {
@@ -102,10 +121,24 @@ public class Parsers {
         return instance;
     }
 
+    public ParsingStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Activates the collection of the parser statistics, or deactivates it if null is passed.
+     */
+    public void setStatistics(ParsingStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     public boolean addParserToPhase(int phaseID, FileParser fileParser) {
-        SortedSet<FileParser> phaseParsers = getPhaseParsers(phaseID);
-        if (!phaseParsers.contains(fileParser)) {
-            phaseParsers.add(fileParser);
+        synchronized (this) {
+            SortedSet<FileParser> phaseParsers = getPhaseParsers(phaseID);
+            if (!phaseParsers.contains(fileParser)) {
+                phaseParsers.add(fileParser);
+            }
+            dispatchTables = null;
         }
         return true;
     }
@@ -120,12 +153,28 @@ public class Parsers {
         return parsersByPhase.get(phaseID);
     }
 
-    public boolean canParseForPhase(int phaseID, String fileName) {
-        SortedSet<FileParser> phaseParsers = getPhaseParsers(phaseID);
-        if (phaseParsers == null || phaseParsers.size() == 0) {
-            return false;
+    /**
+     * Returns the registered parsers of the given class, in all phases, so that they can be configured.
+     *
+     * @param parserClass the class of the parsers to look for
+     * @return the matching parsers
+     */
+    public <T extends FileParser> List<T> getParsers(Class<T> parserClass) {
+        List<T> parsers = new ArrayList<T>();
+        if (parsersByPhase != null) {
+            for (SortedSet<FileParser> phaseParsers : parsersByPhase) {
+                for (FileParser fileParser : phaseParsers) {
+                    if (parserClass.isInstance(fileParser)) {
+                        parsers.add(parserClass.cast(fileParser));
+                    }
+                }
+            }
         }
-        for (FileParser fileParser : phaseParsers) {
+        return parsers;
+    }
+
+    public boolean canParseForPhase(int phaseID, String fileName) {
+        for (FileParser fileParser : getPhaseParsers(phaseID, fileName)) {
             if (fileParser.canParse(fileName)) {
                 return true;
             }
@@ -133,24 +182,123 @@ public class Parsers {
         return false;
     }
 
+    /**
+     * @return the parsers of the phase that may accept the file according to its extension
+     */
+    private List<FileParser> getPhaseParsers(int phaseID, String fileName) {
+        List<Map<String, List<FileParser>>> tables = dispatchTables;
+        if (tables == null) {
+            tables = buildDispatchTables();
+        }
+        if (phaseID < 0 || phaseID >= tables.size()) {
+            return Collections.emptyList();
+        }
+        Map<String, List<FileParser>> table = tables.get(phaseID);
+        List<FileParser> phaseParsers = table.get(FilenameUtils.getExtension(fileName).toLowerCase());
+        return phaseParsers != null ? phaseParsers : table.get(null);
+    }
+
+    private synchronized List<Map<String, List<FileParser>>> buildDispatchTables() {
+        if (dispatchTables != null) {
+            return dispatchTables;
+        }
+        List<Map<String, List<FileParser>>> tables = new ArrayList<Map<String, List<FileParser>>>();
+        if (parsersByPhase != null) {
+            for (SortedSet<FileParser> phaseParsers : parsersByPhase) {
+                Set<String> extensions = new HashSet<String>();
+                for (FileParser fileParser : phaseParsers) {
+                    Set<String> parserExtensions = getFileExtensions(fileParser);
+                    if (parserExtensions != null) {
+                        extensions.addAll(parserExtensions);
+                    }
+                }
+                Map<String, List<FileParser>> table = new HashMap<String, List<FileParser>>();
+                table.put(null, new ArrayList<FileParser>());
+                for (String extension : extensions) {
+                    table.put(extension, new ArrayList<FileParser>());
+                }
+                for (FileParser fileParser : phaseParsers) {
+                    Set<String> parserExtensions = getFileExtensions(fileParser);
+                    for (Map.Entry<String, List<FileParser>> entry : table.entrySet()) {
+                        if (parserExtensions == null || parserExtensions.contains(entry.getKey())) {
+                            entry.getValue().add(fileParser);
+                        }
+                    }
+                }
+                tables.add(table);
+            }
+        }
+        dispatchTables = tables;
+        return tables;
+    }
+
+    private static Set<String> getFileExtensions(FileParser fileParser) {
+        return fileParser instanceof AbstractFileParser ? ((AbstractFileParser) fileParser).getFileExtensions() : null;
+    }
+
     public boolean parse(int phaseID,
                          String fileName,
                          InputStream inputStream,
                          String fileParent,
                          boolean externalDependency, boolean optionalDependency, String version, Logger logger, ParsingContext parsingContext) throws IOException {
-        SortedSet<FileParser> phaseParsers = getPhaseParsers(phaseID);
-        if (phaseParsers == null || phaseParsers.size() == 0) {
-            return false;
-        }
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-        bufferedInputStream.mark(4*1024*1024);
-        for (FileParser fileParser : phaseParsers) {
+        List<FileParser> candidateParsers = new ArrayList<FileParser>();
+        int xmlParsers = 0;
+        for (FileParser fileParser : getPhaseParsers(phaseID, fileName)) {
             fileParser.setLogger(logger);
             if (fileParser.canParse(fileName)) {
-                if (fileParser.parse(fileName, bufferedInputStream, fileParent, externalDependency, optionalDependency , version, parsingContext)) {
-                    return true;
+                candidateParsers.add(fileParser);
+                if (fileParser instanceof AbstractXmlFileParser) {
+                    xmlParsers++;
                 }
-                bufferedInputStream.reset();
+            }
+        }
+        if (candidateParsers.isEmpty()) {
+            return false;
+        }
+        RewindableInputStream rewindableInputStream = new RewindableInputStream(inputStream, MAX_REWINDABLE_BYTES);
+        if (xmlParsers > 1) {
+            // read the root element once for all the XML parsers, instead of letting each one build the whole document
+            Element rootElement = null;
+            try {
+                rootElement = AbstractXmlFileParser.readRootElement(rewindableInputStream);
+            } catch (XMLStreamException e) {
+                // the first XML parser will report the error
+            }
+            rewindableInputStream.rewind();
+            if (rootElement != null) {
+                for (Iterator<FileParser> iterator = candidateParsers.iterator(); iterator.hasNext(); ) {
+                    FileParser fileParser = iterator.next();
+                    if (fileParser instanceof AbstractXmlFileParser && !((AbstractXmlFileParser) fileParser).canParse(fileName, rootElement)) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        ParsingStatistics currentStatistics = statistics;
+        boolean first = true;
+        for (FileParser fileParser : candidateParsers) {
+            if (!first) {
+                rewindableInputStream.rewind();
+            }
+            first = false;
+            boolean parsed;
+            if (currentStatistics != null) {
+                long startNanos = System.nanoTime();
+                long startAllocatedBytes = ParsingStatistics.getCurrentThreadAllocatedBytes();
+                CountingInputStream countingInputStream = new CountingInputStream(rewindableInputStream);
+                try {
+                    parsed = fileParser.parse(fileName, countingInputStream, fileParent, externalDependency, optionalDependency, version, parsingContext);
+                } finally {
+                    ParsingStatistics.Entry parserStatistics = currentStatistics.getParser(fileParser.getClass().getSimpleName());
+                    parserStatistics.record(startNanos, startAllocatedBytes);
+                    parserStatistics.addBytesRead(countingInputStream.getByteCount());
+                    parserStatistics.addEntriesInspected(1);
+                }
+            } else {
+                parsed = fileParser.parse(fileName, rewindableInputStream, fileParent, externalDependency, optionalDependency , version, parsingContext);
+            }
+            if (parsed) {
+                return true;
             }
         }
         return false;
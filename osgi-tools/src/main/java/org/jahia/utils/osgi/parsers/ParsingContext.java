@@ -45,7 +45,6 @@ package org.jahia.utils.osgi.parsers;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.apache.commons.lang.StringUtils;
-import org.jahia.utils.osgi.PackageUtils;
 
 import java.io.Serializable;
 import java.util.*;
@@ -61,6 +60,7 @@ public class ParsingContext implements Serializable {
     protected String fileName;
     protected String filePath;
     protected String version;
+    protected String checksum;
     protected boolean inCache = false;
     private Set<String> taglibUris = new TreeSet<>();
     private Map<String, Set<String>> unresolvedTaglibUris = new TreeMap<>();
@@ -69,13 +69,13 @@ public class ParsingContext implements Serializable {
     private Set<String> contentTypeDefinitions = new TreeSet<>();
     private Set<String> contentTypeReferences = new TreeSet<>();
     private Set<String> additionalFilesToParse = new TreeSet<>();
-    private Set<PackageInfo> splitPackages = new TreeSet<>();
+    private PackageInfoSet splitPackages = new PackageInfoSet();
     private boolean osgiBundle = false;
     private List<String> bundleClassPath = new ArrayList<>();
-    private Set<PackageInfo> localPackages = new TreeSet<>();
-    private Set<PackageInfo> packageImports = new TreeSet<>();
-    private Set<PackageInfo> packageExports = new TreeSet<>();
-    private Set<PackageInfo> packageIgnores = new TreeSet<>();
+    private PackageInfoSet localPackages = new PackageInfoSet();
+    private PackageInfoSet packageImports = new PackageInfoSet();
+    private PackageInfoSet packageExports = new PackageInfoSet();
+    private PackageInfoSet packageIgnores = new PackageInfoSet();
 
     @JsonIgnore protected ParsingContext parentParsingContext;
     @JsonIgnore protected List<ParsingContext> children = new ArrayList<>();
@@ -96,6 +96,44 @@ public class ParsingContext implements Serializable {
         this.parentParsingContext = parentParsingContext;
     }
 
+    /**
+     * Creates a copy of the scanning results of another context, for example to hand out a private copy of a cached
+     * context. The hierarchy (parent and children) and the optional and external states are not copied, and the
+     * package infos of the copy have it as their origin.
+     */
+    public ParsingContext(ParsingContext source) {
+        this(source.mavenCoords, source.lastModified, source.fileSize, source.fileName, source.filePath, source.version, null);
+        this.checksum = source.checksum;
+        this.inCache = source.inCache;
+        this.taglibUris.addAll(source.taglibUris);
+        for (Map.Entry<String, Set<String>> unresolvedTaglibUrisEntry : source.unresolvedTaglibUris.entrySet()) {
+            this.unresolvedTaglibUris.put(unresolvedTaglibUrisEntry.getKey(), unresolvedTaglibUrisEntry.getValue() != null ? new TreeSet<>(unresolvedTaglibUrisEntry.getValue()) : null);
+        }
+        for (Map.Entry<String, Set<PackageInfo>> taglibPackagesEntry : source.taglibPackages.entrySet()) {
+            this.taglibPackages.put(taglibPackagesEntry.getKey(), taglibPackagesEntry.getValue() != null ? copyPackageInfos(taglibPackagesEntry.getValue(), new TreeSet<PackageInfo>()) : null);
+        }
+        this.externalTaglibs.putAll(source.externalTaglibs);
+        this.contentTypeDefinitions.addAll(source.contentTypeDefinitions);
+        this.contentTypeReferences.addAll(source.contentTypeReferences);
+        this.additionalFilesToParse.addAll(source.additionalFilesToParse);
+        copyPackageInfos(source.splitPackages, this.splitPackages);
+        this.osgiBundle = source.osgiBundle;
+        this.bundleClassPath.addAll(source.bundleClassPath);
+        copyPackageInfos(source.localPackages, this.localPackages);
+        copyPackageInfos(source.packageImports, this.packageImports);
+        copyPackageInfos(source.packageExports, this.packageExports);
+        copyPackageInfos(source.packageIgnores, this.packageIgnores);
+    }
+
+    private Set<PackageInfo> copyPackageInfos(Collection<PackageInfo> source, Set<PackageInfo> target) {
+        for (PackageInfo packageInfo : source) {
+            PackageInfo packageInfoCopy = new PackageInfo(packageInfo);
+            packageInfoCopy.setOrigin(this);
+            target.add(packageInfoCopy);
+        }
+        return target;
+    }
+
     public void addPackageImport(PackageInfo packageInfo, Boolean forceOptional) {
         if (StringUtils.isEmpty(packageInfo.getName())) {
             return;
@@ -107,8 +145,8 @@ public class ParsingContext implements Serializable {
                 } else {
                     PackageInfo existingPackageInfo = null;
                     // we must add the new source locations to the existing entry
-                    for (PackageInfo packageImport : packageImports) {
-                        if (packageImport.equals(packageImport)) {
+                    for (PackageInfo packageImport : packageImports.getByName(packageInfo.getName())) {
+                        if (packageImport.compareTo(packageInfo) == 0) {
                             existingPackageInfo = packageImport;
                             break;
                         }
@@ -262,6 +300,27 @@ public class ParsingContext implements Serializable {
         return filePath;
     }
 
+    /**
+     * Updates the file information, used when a cached context is reused for the same content at another location.
+     */
+    public void setFileInfo(long lastModified, long fileSize, String fileName, String filePath) {
+        this.lastModified = lastModified;
+        this.fileSize = fileSize;
+        this.fileName = fileName;
+        this.filePath = filePath;
+    }
+
+    /**
+     * @return the SHA-1 checksum of the scanned file, if known
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
     public boolean addLocalPackage(PackageInfo packageInfo) {
         return localPackages.add(packageInfo);
     }
@@ -399,17 +458,16 @@ public class ParsingContext implements Serializable {
 
                     // let's do split-package detection
 
+                    PackageInfoSet childPackageExports = childParsingContext.packageExports;
                     for (PackageInfo localPackage : localPackages) {
-                        if (PackageUtils.containsIgnoreVersion(childParsingContext.getPackageExports(), localPackage)) {
+                        if (childPackageExports.containsName(localPackage.getName())) {
                             PackageInfo splitPackageInfo = new PackageInfo(localPackage);
-                            for (PackageInfo childPackageExport : childParsingContext.getPackageExports()) {
-                                if (childPackageExport.equalsIgnoreVersion(localPackage)) {
-                                    if (childPackageExport.getSourceLocations() != null &&
-                                            childPackageExport.getSourceLocations().size() > 0) {
-                                        splitPackageInfo.getSourceLocations().addAll(childPackageExport.getSourceLocations());
-                                    } else {
-                                        splitPackageInfo.getSourceLocations().add(childPackageExport.getOrigin().getFilePath());
-                                    }
+                            for (PackageInfo childPackageExport : childPackageExports.getByName(localPackage.getName())) {
+                                if (childPackageExport.getSourceLocations() != null &&
+                                        childPackageExport.getSourceLocations().size() > 0) {
+                                    splitPackageInfo.getSourceLocations().addAll(childPackageExport.getSourceLocations());
+                                } else {
+                                    splitPackageInfo.getSourceLocations().add(childPackageExport.getOrigin().getFilePath());
                                 }
                             }
                             splitPackages.add(splitPackageInfo);
@@ -445,16 +503,14 @@ public class ParsingContext implements Serializable {
 
         // first let's detect split packages between the imports and the local packages.
         for (PackageInfo localPackage : localPackages) {
-            if (PackageUtils.containsIgnoreVersion(packageImports, localPackage)) {
+            if (packageImports.containsName(localPackage.getName())) {
                 PackageInfo splitPackageInfo = new PackageInfo(localPackage);
-                for (PackageInfo packageImport : packageImports) {
-                    if (packageImport.equalsIgnoreVersion(localPackage)) {
-                        if (packageImport.getSourceLocations() != null &&
-                                packageImport.getSourceLocations().size() > 0) {
-                            splitPackageInfo.getSourceLocations().addAll(packageImport.getSourceLocations());
-                        } else {
-                            splitPackageInfo.getSourceLocations().add(packageImport.getOrigin().getFilePath());
-                        }
+                for (PackageInfo packageImport : packageImports.getByName(localPackage.getName())) {
+                    if (packageImport.getSourceLocations() != null &&
+                            packageImport.getSourceLocations().size() > 0) {
+                        splitPackageInfo.getSourceLocations().addAll(packageImport.getSourceLocations());
+                    } else {
+                        splitPackageInfo.getSourceLocations().add(packageImport.getOrigin().getFilePath());
                     }
                 }
                 splitPackages.add(splitPackageInfo);
@@ -0,0 +1,222 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects timing and volume statistics of a parsing run, per phase, per parser and per artifact. All the methods
+ * may be called concurrently from scanning threads.
+ */
+public class ParsingStatistics {
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final boolean allocationSupported = enableAllocationMeasurement();
+
+    private final Map<String, Entry> phases = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, Entry> parsers = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, Entry> artifacts = new ConcurrentHashMap<String, Entry>();
+
+    public Map<String, Entry> getPhases() {
+        return new TreeMap<String, Entry>(phases);
+    }
+
+    public Map<String, Entry> getParsers() {
+        return new TreeMap<String, Entry>(parsers);
+    }
+
+    public Map<String, Entry> getArtifacts() {
+        return new TreeMap<String, Entry>(artifacts);
+    }
+
+    public Entry getPhase(String name) {
+        return getEntry(phases, name);
+    }
+
+    public Entry getParser(String name) {
+        return getEntry(parsers, name);
+    }
+
+    public Entry getArtifact(String name) {
+        return getEntry(artifacts, name);
+    }
+
+    /**
+     * @return true if the allocated bytes of the threads can be measured on this JVM
+     */
+    public boolean isAllocationSupported() {
+        return allocationSupported;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 if this is not supported by the JVM
+     */
+    public static long getCurrentThreadAllocatedBytes() {
+        if (!allocationSupported) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return the entries of the map sorted by decreasing wall time, limited to the given count
+     */
+    public static List<Map.Entry<String, Entry>> getSlowest(Map<String, Entry> entries, int count) {
+        List<Map.Entry<String, Entry>> slowest = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+        Collections.sort(slowest, new Comparator<Map.Entry<String, Entry>>() {
+            public int compare(Map.Entry<String, Entry> entry1, Map.Entry<String, Entry> entry2) {
+                return Long.compare(entry2.getValue().getWallTimeNanos(), entry1.getValue().getWallTimeNanos());
+            }
+        });
+        return slowest.size() > count ? slowest.subList(0, count) : slowest;
+    }
+
+    private static Entry getEntry(Map<String, Entry> entries, String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry();
+            Entry existingEntry = ((ConcurrentHashMap<String, Entry>) entries).putIfAbsent(name, entry);
+            if (existingEntry != null) {
+                entry = existingEntry;
+            }
+        }
+        return entry;
+    }
+
+    private static boolean enableAllocationMeasurement() {
+        try {
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+                if (allocationMXBean.isThreadAllocatedMemorySupported()) {
+                    if (!allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+                        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+                    }
+                    return true;
+                }
+            }
+        } catch (LinkageError e) {
+            // the com.sun.management extension is not available on this JVM
+        } catch (UnsupportedOperationException e) {
+            // allocation measurement cannot be enabled
+        }
+        return false;
+    }
+
+    /**
+     * Statistics of one phase, parser or artifact.
+     */
+    public static class Entry {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder wallTimeNanos = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder entriesInspected = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder cacheMisses = new LongAdder();
+
+        /**
+         * Records one execution.
+         *
+         * @param startNanos the {@link System#nanoTime()} at the start of the execution
+         * @param startAllocatedBytes the result of {@link #getCurrentThreadAllocatedBytes()} at the start of the
+         *                            execution, on the same thread
+         */
+        public void record(long startNanos, long startAllocatedBytes) {
+            count.increment();
+            wallTimeNanos.add(System.nanoTime() - startNanos);
+            if (startAllocatedBytes >= 0) {
+                allocatedBytes.add(getCurrentThreadAllocatedBytes() - startAllocatedBytes);
+            }
+        }
+
+        public void addBytesRead(long bytes) {
+            bytesRead.add(bytes);
+        }
+
+        public void addEntriesInspected(long entries) {
+            entriesInspected.add(entries);
+        }
+
+        public void recordCacheHit() {
+            cacheHits.increment();
+        }
+
+        public void recordCacheMiss() {
+            cacheMisses.increment();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getWallTimeNanos() {
+            return wallTimeNanos.sum();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.sum();
+        }
+
+        public long getEntriesInspected() {
+            return entriesInspected.sum();
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes.sum();
+        }
+
+        public long getCacheHits() {
+            return cacheHits.sum();
+        }
+
+        public long getCacheMisses() {
+            return cacheMisses.sum();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that records what is read from its source, so that the same content can be read again by another
+ * parser. The recording buffer grows with the content instead of being allocated upfront, and recording stops once
+ * the limit is exceeded, after which the stream cannot be rewound anymore.
+ */
+class RewindableInputStream extends InputStream {
+
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private final InputStream source;
+    private final int maxRecordedBytes;
+    private byte[] recorded;
+    private int recordedLength = 0;
+    // position in the recorded bytes, only meaningful while recording
+    private int position = 0;
+    private boolean overflow = false;
+
+    RewindableInputStream(InputStream source, int maxRecordedBytes) {
+        this.source = source;
+        this.maxRecordedBytes = maxRecordedBytes;
+    }
+
+    /**
+     * Goes back to the beginning of the content.
+     *
+     * @throws IOException if more than the limit has already been read
+     */
+    void rewind() throws IOException {
+        if (overflow) {
+            throw new IOException("Cannot rewind after reading more than " + maxRecordedBytes + " bytes");
+        }
+        position = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!overflow && position < recordedLength) {
+            return recorded[position++] & 0xff;
+        }
+        int c = source.read();
+        if (c != -1) {
+            record(new byte[]{(byte) c}, 0, 1);
+        }
+        return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!overflow && position < recordedLength) {
+            int count = Math.min(len, recordedLength - position);
+            System.arraycopy(recorded, position, b, off, count);
+            position += count;
+            return count;
+        }
+        int count = source.read(b, off, len);
+        if (count > 0) {
+            record(b, off, count);
+        }
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (!overflow && position < recordedLength) {
+            return recordedLength - position;
+        }
+        return source.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private void record(byte[] b, int off, int len) {
+        if (overflow) {
+            return;
+        }
+        if (recordedLength + len > maxRecordedBytes) {
+            overflow = true;
+            recorded = null;
+            return;
+        }
+        if (recorded == null || recordedLength + len > recorded.length) {
+            int capacity = recorded == null ? INITIAL_CAPACITY : recorded.length * 2;
+            capacity = Math.min(Math.max(capacity, recordedLength + len), maxRecordedBytes);
+            byte[] newRecorded = new byte[capacity];
+            if (recorded != null) {
+                System.arraycopy(recorded, 0, newRecorded, 0, recordedLength);
+            }
+            recorded = newRecorded;
+        }
+        System.arraycopy(b, off, recorded, recordedLength, len);
+        recordedLength += len;
+        position = recordedLength;
+    }
+}
@@ -87,6 +87,11 @@ public class TldXmlFileParser extends AbstractXmlFileParser {
         return "tld".equals(ext);
     }
 
+    @Override
+    public Set<String> getFileExtensions() {
+        return Collections.singleton("tld");
+    }
+
     @Override
     public boolean canParse(String fileName, Element rootElement) {
         return true;
@@ -0,0 +1,599 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers.cnd;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.Value;
+import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of compiled CND files. The node types built by the {@link JahiaCndReader} for a file are stored in a compact
+ * binary form, keyed by a SHA-256 digest of the file content and of the lexer, reader and format versions, so that
+ * an unchanged file is rebuilt from its compiled form without being lexed and parsed again.
+ * <p/>
+ * Compiled definitions are kept in memory and, if a directory is given, also written to disk so that they survive
+ * from one build to the next. The namespace declarations and the selector option types checked by the reader are
+ * replayed against the target registry when loading ; if they fail, the entry is ignored and the file is parsed, so
+ * that the same errors are reported as without the cache.
+ */
+public class CompiledDefinitionsCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledDefinitionsCache.class);
+
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x434e4443;
+    private static final String FILE_EXTENSION = ".cndc";
+    private static final int DEFAULT_MAX_MEMORY_ENTRIES = 256;
+
+    private static final int ITEM_PROPERTY = 0;
+    private static final int ITEM_NODE = 1;
+
+    private static final int VALUE_STATIC = 0;
+    private static final int VALUE_DYNAMIC = 1;
+
+    private final File directory;
+    private final Map<String, byte[]> memoryCache;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Creates a cache only kept in memory.
+     */
+    public CompiledDefinitionsCache() {
+        this(null);
+    }
+
+    /**
+     * Creates a cache stored in the given directory.
+     *
+     * @param directory the directory of the compiled files, or <code>null</code> to only keep them in memory
+     */
+    public CompiledDefinitionsCache(File directory) {
+        this(directory, DEFAULT_MAX_MEMORY_ENTRIES);
+    }
+
+    public CompiledDefinitionsCache(File directory, final int maxMemoryEntries) {
+        this.directory = directory;
+        this.memoryCache = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        });
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Computes the cache key of a CND content.
+     *
+     * @param content the characters of the CND file
+     * @return the hexadecimal SHA-256 digest of the content and of the versions of the parsing code
+     */
+    public static String getKey(CharBuffer content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+        digest.update((FORMAT_VERSION + ":" + Lexer.LEXER_VERSION + ":" + JahiaCndReader.READER_VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(StandardCharsets.UTF_8.encode(content.duplicate()));
+        byte[] bytes = digest.digest();
+        StringBuilder key = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Stores the definitions parsed from a file.
+     *
+     * @param key the key of the file content, see {@link #getKey(CharBuffer)}
+     * @param namespaces the namespaces declared by the file
+     * @param nodeTypes the node types parsed from the file
+     */
+    public void put(String key, Map<String, String> namespaces, List<ExtendedNodeType> nodeTypes) {
+        byte[] data;
+        try {
+            data = new Encoder().encode(namespaces, nodeTypes);
+        } catch (IOException e) {
+            logger.debug("Definitions cannot be compiled, they will not be cached: " + e.getMessage());
+            return;
+        }
+        memoryCache.put(key, data);
+        if (directory != null) {
+            File tempFile = null;
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                    throw new IOException("Cannot create directory " + directory);
+                }
+                // write to a temporary file first so that concurrent builds never read a partial file
+                tempFile = File.createTempFile(key, ".tmp", directory);
+                FileUtils.writeByteArrayToFile(tempFile, data);
+                File file = getFile(key);
+                if (!tempFile.renameTo(file) && !file.exists()) {
+                    throw new IOException("Cannot rename " + tempFile + " to " + file);
+                }
+            } catch (IOException e) {
+                logger.warn("Error writing compiled definitions to " + directory + ": " + e.getMessage());
+            } finally {
+                if (tempFile != null) {
+                    FileUtils.deleteQuietly(tempFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the definitions of a file from their compiled form. The namespaces of the file are registered in the
+     * registry, but the node types are not.
+     *
+     * @param key the key of the file content, see {@link #getKey(CharBuffer)}
+     * @param filename the name of the file, for logging
+     * @param systemId the system ID of the node types
+     * @param registry the registry the node types belong to
+     * @param registering <code>true</code> if the types of the file are registered while they are parsed, which makes
+     *                    them visible to the selector option checks of the following types
+     * @param declaredNamespaces filled with the namespaces declared by the file
+     * @return the node types, or <code>null</code> if the file is not in the cache or if its definitions cannot be
+     * loaded as is in this registry
+     */
+    public List<ExtendedNodeType> load(String key, String filename, String systemId, NodeTypeRegistry registry,
+                                       boolean registering, Map<String, String> declaredNamespaces) {
+        byte[] data = memoryCache.get(key);
+        if (data == null && directory != null) {
+            File file = getFile(key);
+            if (file.exists()) {
+                try {
+                    data = FileUtils.readFileToByteArray(file);
+                    memoryCache.put(key, data);
+                } catch (IOException e) {
+                    logger.warn("Error reading compiled definitions " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        if (data == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            List<ExtendedNodeType> nodeTypes = new Decoder(data, systemId, registry, registering).decode(declaredNamespaces);
+            if (nodeTypes == null) {
+                logger.debug("Compiled definitions of " + filename + " do not match the registry, parsing the file");
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return nodeTypes;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Invalid compiled definitions for " + filename + ", parsing the file: " + e.getMessage());
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    private void remove(String key) {
+        memoryCache.remove(key);
+        if (directory != null) {
+            FileUtils.deleteQuietly(getFile(key));
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key + FILE_EXTENSION);
+    }
+
+    /**
+     * Writes the definitions of a file, with all the strings in a table at the beginning of the data and referenced
+     * by index afterwards.
+     */
+    private static class Encoder {
+        private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(body);
+
+        byte[] encode(Map<String, String> namespaces, List<ExtendedNodeType> nodeTypes) throws IOException {
+            writeInt(namespaces.size());
+            for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+                writeString(namespace.getKey());
+                writeString(namespace.getValue());
+            }
+            writeInt(nodeTypes.size());
+            for (ExtendedNodeType nodeType : nodeTypes) {
+                writeNodeType(nodeType);
+            }
+            out.flush();
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + strings.size() * 16 + 16);
+            DataOutputStream header = new DataOutputStream(result);
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT_VERSION);
+            header.writeInt(strings.size());
+            for (String s : strings.keySet()) {
+                header.writeUTF(s);
+            }
+            header.flush();
+            body.writeTo(result);
+            return result.toByteArray();
+        }
+
+        private void writeNodeType(ExtendedNodeType nodeType) throws IOException {
+            writeString(nodeType.getName());
+            writeInt((nodeType.isAbstract() ? 1 : 0) | (nodeType.isMixin() ? 2 : 0)
+                    | (nodeType.hasOrderableChildNodes(false) ? 4 : 0) | (nodeType.isQueryable() ? 8 : 0));
+            writeString(nodeType.getPrimaryItemName());
+            writeStrings(nodeType.getDeclaredSupertypeNames());
+            writeString(nodeType.getItemsType());
+            List<String> mixinExtendNames = nodeType.getMixinExtendNames();
+            writeStrings(mixinExtendNames.toArray(new String[mixinExtendNames.size()]));
+            List<ExtendedItemDefinition> items = nodeType.getDeclaredItems(true);
+            writeInt(items.size());
+            for (ExtendedItemDefinition item : items) {
+                writeItem(item);
+            }
+        }
+
+        private void writeItem(ExtendedItemDefinition item) throws IOException {
+            writeInt(item.isNode() ? ITEM_NODE : ITEM_PROPERTY);
+            writeString(item.getName());
+            writeInt((item.isProtected() ? 1 : 0) | (item.isAutoCreated() ? 2 : 0) | (item.isMandatory() ? 4 : 0)
+                    | (item.isHidden() ? 8 : 0));
+            writeString(item.getItemType());
+            writeInt(item.getOnParentVersion());
+            writeInt(item.getOnConflict());
+            writeInt(item.getSelector());
+            Map<String, String> selectorOptions = item.getSelectorOptions();
+            writeInt(selectorOptions.size());
+            for (Map.Entry<String, String> option : selectorOptions.entrySet()) {
+                writeString(option.getKey());
+                writeString(option.getValue());
+            }
+            if (item.isNode()) {
+                ExtendedNodeDefinition node = (ExtendedNodeDefinition) item;
+                writeStrings(node.getRequiredPrimaryTypeNames());
+                writeString(node.getDefaultPrimaryTypeName());
+                writeInt(node.allowsSameNameSiblings() ? 1 : 0);
+                writeString(node.getWorkflow());
+            } else {
+                ExtendedPropertyDefinition property = (ExtendedPropertyDefinition) item;
+                boolean allOperators = property.getAvailableQueryOperators() == Lexer.ALL_OPERATORS;
+                writeInt(property.getRequiredType());
+                writeInt((property.isInternationalized() ? 1 : 0) | (property.isMultiple() ? 2 : 0)
+                        | (property.isQueryOrderable() ? 4 : 0) | (property.isFullTextSearchable() ? 8 : 0)
+                        | (property.isFacetable() ? 16 : 0) | (property.isHierarchical() ? 32 : 0)
+                        | (allOperators ? 64 : 0));
+                writeInt(property.getIndex());
+                out.writeDouble(property.getScoreboost());
+                writeString(property.getAnalyzer());
+                if (!allOperators) {
+                    writeStrings(property.getAvailableQueryOperators());
+                }
+                writeValues(property.getDefaultValuesAsUnexpandedValue());
+                writeValues(property.getValueConstraintsAsUnexpandedValue());
+            }
+        }
+
+        private void writeValues(Value[] values) throws IOException {
+            writeInt(values.length);
+            for (Value value : values) {
+                if (value instanceof DynamicValueImpl) {
+                    DynamicValueImpl dynamicValue = (DynamicValueImpl) value;
+                    writeInt(VALUE_DYNAMIC);
+                    writeString(dynamicValue.getFn());
+                    List<String> params = dynamicValue.getParams();
+                    writeStrings(params.toArray(new String[params.size()]));
+                    writeInt(dynamicValue.getType());
+                } else if (value instanceof ValueImpl) {
+                    writeInt(VALUE_STATIC);
+                    writeString(((ValueImpl) value).value);
+                    writeInt(value.getType());
+                } else {
+                    throw new IOException("Unsupported value " + value);
+                }
+            }
+        }
+
+        private void writeStrings(String[] values) throws IOException {
+            if (values == null) {
+                writeInt(0);
+                return;
+            }
+            writeInt(values.length + 1);
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                writeInt(0);
+                return;
+            }
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.put(s, index);
+            }
+            writeInt(index + 1);
+        }
+
+        private void writeInt(int value) throws IOException {
+            // zigzag variable length encoding, small values of either sign take one byte
+            int v = (value << 1) ^ (value >> 31);
+            while ((v & ~0x7F) != 0) {
+                out.writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.writeByte(v);
+        }
+    }
+
+    /**
+     * Rebuilds node types from the data written by the {@link Encoder}, going through the same setters as the reader.
+     */
+    private static class Decoder {
+        private final DataInputStream in;
+        private final String systemId;
+        private final NodeTypeRegistry registry;
+        private final boolean registering;
+        private String[] strings;
+
+        Decoder(byte[] data, String systemId, NodeTypeRegistry registry, boolean registering) {
+            this.in = new DataInputStream(new ByteArrayInputStream(data));
+            this.systemId = systemId;
+            this.registry = registry;
+            this.registering = registering;
+        }
+
+        List<ExtendedNodeType> decode(Map<String, String> declaredNamespaces) throws IOException {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown format");
+            }
+            strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+
+            int namespaceCount = readInt();
+            for (int i = 0; i < namespaceCount; i++) {
+                String prefix = readString();
+                String uri = readString();
+                try {
+                    registry.registerNamespace(prefix, uri);
+                } catch (NamespaceException e) {
+                    return null;
+                }
+                declaredNamespaces.put(prefix, uri);
+            }
+
+            int nodeTypeCount = readInt();
+            List<ExtendedNodeType> nodeTypes = new ArrayList<ExtendedNodeType>(nodeTypeCount);
+            Set<String> names = new HashSet<String>();
+            for (int i = 0; i < nodeTypeCount; i++) {
+                ExtendedNodeType nodeType = readNodeType(names);
+                if (nodeType == null) {
+                    return null;
+                }
+                nodeTypes.add(nodeType);
+                names.add(nodeType.getName());
+            }
+            return nodeTypes;
+        }
+
+        private ExtendedNodeType readNodeType(Set<String> previousNames) throws IOException {
+            ExtendedNodeType nodeType = new ExtendedNodeType(registry, systemId);
+            nodeType.setName(new Name(readString(), registry.getNamespaces()));
+            int flags = readInt();
+            nodeType.setAbstract((flags & 1) != 0);
+            nodeType.setMixin((flags & 2) != 0);
+            nodeType.setHasOrderableChildNodes((flags & 4) != 0);
+            nodeType.setQueryable((flags & 8) != 0);
+            nodeType.setPrimaryItemName(readString());
+            nodeType.setDeclaredSupertypes(readStrings());
+            nodeType.setItemsType(readString());
+            for (String mixinExtendName : readStrings()) {
+                nodeType.addMixinExtend(mixinExtendName);
+            }
+            int itemCount = readInt();
+            for (int i = 0; i < itemCount; i++) {
+                if (!readItem(nodeType, previousNames)) {
+                    return null;
+                }
+            }
+            return nodeType;
+        }
+
+        private boolean readItem(ExtendedNodeType nodeType, Set<String> previousNames) throws IOException {
+            boolean node = readInt() == ITEM_NODE;
+            ExtendedItemDefinition item = node ? new ExtendedNodeDefinition(registry) : new ExtendedPropertyDefinition(registry);
+            item.setName(new Name(readString(), registry.getNamespaces()));
+            int flags = readInt();
+            item.setProtected((flags & 1) != 0);
+            item.setAutoCreated((flags & 2) != 0);
+            item.setMandatory((flags & 4) != 0);
+            item.setHidden((flags & 8) != 0);
+            item.setItemType(readString());
+            item.setOnParentVersion(readInt());
+            item.setOnConflict(readInt());
+            int selector = readInt();
+            int optionCount = readInt();
+            if (optionCount > 0) {
+                Map<String, String> options = new LinkedHashMap<String, String>();
+                for (int i = 0; i < optionCount; i++) {
+                    String key = readString();
+                    String value = readString();
+                    if (!checkSelectorOption(key, value, previousNames)) {
+                        return false;
+                    }
+                    options.put(key, value);
+                }
+                item.setSelectorOptions(options);
+            }
+            if (node) {
+                ExtendedNodeDefinition nodeDefinition = (ExtendedNodeDefinition) item;
+                nodeDefinition.setSelector(selector);
+                nodeDefinition.setRequiredPrimaryTypes(readStrings());
+                nodeDefinition.setDefaultPrimaryType(readString());
+                nodeDefinition.setAllowsSameNameSiblings(readInt() != 0);
+                nodeDefinition.setWorkflow(readString());
+                nodeDefinition.setDeclaringNodeType(nodeType);
+            } else {
+                ExtendedPropertyDefinition property = (ExtendedPropertyDefinition) item;
+                // the required type sets a default selector, which is then replaced by the parsed one
+                property.setRequiredType(readInt());
+                property.setSelector(selector);
+                int propertyFlags = readInt();
+                property.setInternationalized((propertyFlags & 1) != 0);
+                property.setMultiple((propertyFlags & 2) != 0);
+                property.setQueryOrderable((propertyFlags & 4) != 0);
+                property.setFullTextSearchable((propertyFlags & 8) != 0);
+                property.setFacetable((propertyFlags & 16) != 0);
+                property.setHierarchical((propertyFlags & 32) != 0);
+                property.setIndex(readInt());
+                property.setScoreboost(in.readDouble());
+                property.setAnalyzer(readString());
+                if ((propertyFlags & 64) == 0) {
+                    property.setAvailableQueryOperators(readStrings());
+                }
+                property.setDefaultValues(readValues(property, false));
+                property.setValueConstraints(readValues(property, true));
+                property.setDeclaringNodeType(nodeType);
+            }
+            return true;
+        }
+
+        /**
+         * Performs the type checks done by the reader on the selector options.
+         */
+        private boolean checkSelectorOption(String key, String value, Set<String> previousNames) {
+            if (key.equals("addListMixin") || key.equals("addMixin") || key.equals("availableTypes")) {
+                for (String s : Patterns.COMMA.split(value)) {
+                    if (!registry.hasNodeType(s) && !(registering && previousNames.contains(s))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private Value[] readValues(ExtendedPropertyDefinition property, boolean isConstraint) throws IOException {
+            Value[] values = new Value[readInt()];
+            for (int i = 0; i < values.length; i++) {
+                if (readInt() == VALUE_DYNAMIC) {
+                    String fn = readString();
+                    List<String> params = new ArrayList<String>(Arrays.asList(readStrings()));
+                    values[i] = new DynamicValueImpl(fn, params, readInt(), isConstraint, property);
+                } else {
+                    // values are stored normalized, normalizing them again leaves them unchanged
+                    String value = readString();
+                    values[i] = new ValueImpl(value, readInt(), isConstraint);
+                }
+            }
+            return values;
+        }
+
+        private String[] readStrings() throws IOException {
+            int count = readInt();
+            if (count == 0) {
+                return null;
+            }
+            String[] values = new String[count - 1];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readString();
+            }
+            return values;
+        }
+
+        private String readString() throws IOException {
+            int index = readInt();
+            if (index == 0) {
+                return null;
+            }
+            if (index > strings.length) {
+                throw new IOException("Invalid string index " + index);
+            }
+            return strings[index - 1];
+        }
+
+        private int readInt() throws IOException {
+            int v = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift > 28) {
+                    throw new IOException("Invalid variable length integer");
+                }
+                b = in.readUnsignedByte();
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+}
@@ -52,6 +52,7 @@ import javax.jcr.Value;
 import javax.jcr.nodetype.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Jahia extended JCR node type information.
@@ -87,7 +88,7 @@ public class ExtendedNodeType implements NodeType {
     private String primaryItemName;
     private String[] declaredSupertypeNames = new String[0];
     private ExtendedNodeType[] declaredSupertypes = new ExtendedNodeType[0];
-    private List<ExtendedNodeType> declaredSubtypes = new ArrayList<ExtendedNodeType>();
+    private List<ExtendedNodeType> declaredSubtypes = new CopyOnWriteArrayList<ExtendedNodeType>();
     private boolean queryable = true;
     private String itemsType;
     private List<String> mixinExtendNames = new ArrayList<String>();
@@ -97,6 +98,11 @@ public class ExtendedNodeType implements NodeType {
     private Map<Locale, String> labels = new ConcurrentHashMap<Locale, String>(1);
     private Map<Locale, String> descriptions = new ConcurrentHashMap<Locale, String>(1);
     private boolean systemType;
+
+    private int typeId = -1;
+    private volatile SupertypeClosure supertypeClosure;
+    private volatile SubtypeClosure subtypeClosure;
+
     public ExtendedNodeType(NodeTypeRegistry registry, String systemId) {
         this.registry = registry;
         this.systemId = systemId;
@@ -159,7 +165,7 @@ public class ExtendedNodeType implements NodeType {
         return hasOrderableChildNodes;
     }
 
-    private boolean hasOrderableChildNodes(boolean checkSupertypes) {
+    boolean hasOrderableChildNodes(boolean checkSupertypes) {
         if (checkSupertypes) {
             final ExtendedNodeType[] supertypes = getSupertypes();
             for (ExtendedNodeType supertype : supertypes) {
@@ -194,11 +200,17 @@ public class ExtendedNodeType implements NodeType {
 
 
     public ExtendedNodeType[] getSupertypes() {
-        Set<ExtendedNodeType> l = getSupertypeSet();
-        return l.toArray(new ExtendedNodeType[l.size()]);
+        return getSupertypeClosure().supertypes.clone();
     }
 
+    /**
+     * @return a read-only view of all the supertypes of this type, computed once per registry change
+     */
     public Set<ExtendedNodeType> getSupertypeSet() {
+        return getSupertypeClosure().supertypeSet;
+    }
+
+    private Set<ExtendedNodeType> computeSupertypeSet() {
         Set<ExtendedNodeType> l = new LinkedHashSet<ExtendedNodeType>();
         boolean primaryFound = false;
         ExtendedNodeType[] d = getDeclaredSupertypes();
@@ -226,6 +238,10 @@ public class ExtendedNodeType implements NodeType {
     }
 
     public ExtendedNodeType[] getPrimarySupertypes() {
+        return getSupertypeClosure().primarySupertypes.clone();
+    }
+
+    private ExtendedNodeType[] computePrimarySupertypes() {
         List<ExtendedNodeType> l = new ArrayList<ExtendedNodeType>();
         boolean primaryFound = false;
         ExtendedNodeType[] d = getDeclaredSupertypes();
@@ -233,7 +249,7 @@ public class ExtendedNodeType implements NodeType {
             ExtendedNodeType s = d[i];
             if (s != null && !s.isMixin()) {
                 l.add(s);
-                l.addAll(Arrays.asList(s.getPrimarySupertypes()));
+                l.addAll(Arrays.asList(s.getSupertypeClosure().primarySupertypes));
                 primaryFound = true;
             }
         }
@@ -247,6 +263,52 @@ public class ExtendedNodeType implements NodeType {
         return l.toArray(new ExtendedNodeType[l.size()]);
     }
 
+    private SupertypeClosure getSupertypeClosure() {
+        int generation = registry.getGeneration();
+        if (registry.isInBatch()) {
+            // the changes of an open batch are only seen by its thread, the closure is not shared with the others
+            return new SupertypeClosure(generation, computeSupertypeSet(), computePrimarySupertypes());
+        }
+        SupertypeClosure closure = supertypeClosure;
+        if (closure == null || closure.generation != generation) {
+            closure = new SupertypeClosure(generation, computeSupertypeSet(), computePrimarySupertypes());
+            supertypeClosure = closure;
+        }
+        return closure;
+    }
+
+    private SubtypeClosure getSubtypeClosure() {
+        boolean inBatch = registry.isInBatch();
+        SubtypeClosure closure = subtypeClosure;
+        int generation = registry.getGeneration();
+        if (inBatch || closure == null || closure.generation != generation) {
+            List<ExtendedNodeType> subtypes = new ArrayList<ExtendedNodeType>();
+            List<ExtendedNodeType> mixinSubtypes = new ArrayList<ExtendedNodeType>();
+            for (ExtendedNodeType s : registry.getDeclaredSubtypes(this, declaredSubtypes)) {
+                SubtypeClosure subtypeClosure = s.getSubtypeClosure();
+                subtypes.add(s);
+                subtypes.addAll(subtypeClosure.subtypes);
+                if (s.isMixin()) {
+                    mixinSubtypes.add(s);
+                    mixinSubtypes.addAll(Arrays.asList(subtypeClosure.mixinSubtypes));
+                }
+            }
+            closure = new SubtypeClosure(generation, subtypes, mixinSubtypes);
+            if (!inBatch) {
+                subtypeClosure = closure;
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * @return the dense integer ID given to this type by its registry when it was validated, or <code>-1</code> if the
+     * type has not been validated yet
+     */
+    public int getTypeId() {
+        return typeId;
+    }
+
     public ExtendedNodeType[] getDeclaredSupertypes() {
         return declaredSupertypes;
     }
@@ -257,8 +319,11 @@ public class ExtendedNodeType implements NodeType {
 
 
     public void validate() throws NoSuchNodeTypeException {
+        typeId = registry.getNodeTypeId(getName());
+        ExtendedNodeType[] previousSupertypes = this.declaredSupertypes;
         this.declaredSupertypes = new ExtendedNodeType[declaredSupertypeNames.length];
         int mixIndex = 0;
+        boolean hierarchyChanged = false;
         for (int i = 0; i < declaredSupertypeNames.length; i++) {
             final ExtendedNodeType nodeType = registry.getNodeType(declaredSupertypeNames[i]);
             if (!nodeType.isMixin && i>0) {
@@ -268,8 +333,9 @@ public class ExtendedNodeType implements NodeType {
             } else {
                 this.declaredSupertypes[i] = nodeType;
             }
-            nodeType.addSubType(this);
+            hierarchyChanged |= registry.addSubType(nodeType, this);
         }
+        hierarchyChanged |= !isSameTypes(previousSupertypes, this.declaredSupertypes);
         List<ExtendedNodeType> newMixinExtend = new ArrayList<ExtendedNodeType>();
         for (String s : mixinExtendNames) {
             final ExtendedNodeType type = registry.getNodeType(s);
@@ -282,15 +348,42 @@ public class ExtendedNodeType implements NodeType {
                 registry.addTypedItem(itemDefinition);
             }
         }
+        if (hierarchyChanged) {
+            // the memoized closures of all types have to be recomputed
+            registry.nodeTypesChanged();
+        }
     }
 
-    void addSubType(ExtendedNodeType subType) {
+    private static boolean isSameTypes(ExtendedNodeType[] types, ExtendedNodeType[] otherTypes) {
+        if (types.length != otherTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != otherTypes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a subtype at the end of the declared subtypes, moving it if it was already declared.
+     *
+     * @return true if the declared subtypes changed
+     */
+    synchronized boolean addSubType(ExtendedNodeType subType) {
+        int size = declaredSubtypes.size();
+        if (size > 0 && declaredSubtypes.get(size - 1) == subType) {
+            return false;
+        }
         declaredSubtypes.remove(subType);
         declaredSubtypes.add(subType);
+        return true;
     }
 
     public NodeTypeIterator getDeclaredSubtypes() {
-        return new NodeTypeIteratorImpl(declaredSubtypes.iterator(), declaredSubtypes.size());
+        List<ExtendedNodeType> subtypes = registry.getDeclaredSubtypes(this, declaredSubtypes);
+        return new NodeTypeIteratorImpl(subtypes.iterator(), subtypes.size());
     }
 
     public String[] getDeclaredSupertypeNames() {
@@ -299,55 +392,27 @@ public class ExtendedNodeType implements NodeType {
 
 
     public NodeTypeIterator getSubtypes() {
-        List<ExtendedNodeType> l = new ArrayList<ExtendedNodeType>();
-        for (Iterator<ExtendedNodeType> iterator = declaredSubtypes.iterator(); iterator.hasNext();) {
-            ExtendedNodeType s =  iterator.next();
-            l.add(s);
-            NodeTypeIterator subtypes = s.getSubtypes();
-            while (subtypes.hasNext()) {
-                l.add((ExtendedNodeType) subtypes.next());
-            }
-        }
+        List<ExtendedNodeType> l = getSubtypeClosure().subtypes;
         return new NodeTypeIteratorImpl(l.iterator(), l.size());
     }
 
+    /**
+     * @return a read-only list of all the subtypes of this type, computed once per registry change
+     */
     public List<ExtendedNodeType> getSubtypesAsList() {
-        List<ExtendedNodeType> l = new ArrayList<ExtendedNodeType>();
-        for (Iterator<ExtendedNodeType> iterator = declaredSubtypes.iterator(); iterator.hasNext();) {
-            ExtendedNodeType s =  iterator.next();
-            l.add(s);
-            NodeTypeIterator subtypes = s.getSubtypes();
-            while (subtypes.hasNext()) {
-                l.add((ExtendedNodeType) subtypes.next());
-            }
-        }
-        return l;
+        return getSubtypeClosure().subtypes;
     }
 
     public ExtendedNodeType[] getMixinSubtypes() {
-        List<ExtendedNodeType> l = new ArrayList<ExtendedNodeType>();
-        for (Iterator<ExtendedNodeType> iterator = declaredSubtypes.iterator(); iterator.hasNext();) {
-            ExtendedNodeType s =  iterator.next();
-            if (s.isMixin()) {
-                l.add(s);
-                l.addAll(Arrays.asList(s.getMixinSubtypes()));
-            }
-        }
-        return l.toArray(new ExtendedNodeType[l.size()]);
+        return getSubtypeClosure().mixinSubtypes.clone();
     }
 
     public boolean isNodeType(String typeName) {
         if (getName().equals(typeName) || Constants.NT_BASE.equals(typeName)) {
             return true;
         }
-        ExtendedNodeType[] d = getDeclaredSupertypes();
-        for (int i = 0; i < d.length; i++) {
-            ExtendedNodeType s = d[i];
-            if (s.isNodeType(typeName)) {
-                return true;
-            }
-        }
-        return false;
+        int id = registry.findNodeTypeId(typeName);
+        return id >= 0 && getSupertypeClosure().supertypeIds.get(id);
     }
 
     public List<ExtendedItemDefinition>  getItems() {
@@ -632,7 +697,7 @@ public class ExtendedNodeType implements NodeType {
 
     public boolean canAddChildNode(String childNodeName, String nodeTypeName) {
         try {
-            ExtendedNodeType nt = NodeTypeRegistry.getInstance().getNodeType(nodeTypeName);
+            ExtendedNodeType nt = registry.getNodeType(nodeTypeName);
             if (!nt.isAbstract() && !nt.isMixin()) {
                 if (getChildNodeDefinitionsAsMap().containsKey(childNodeName)) {
                     if (canAddChildNode(nt,getChildNodeDefinitionsAsMap().get(childNodeName)))  {
@@ -1081,4 +1146,40 @@ public class ExtendedNodeType implements NodeType {
     public String toString() {
         return getName();
     }
+
+    /**
+     * Supertypes of a type, valid as long as the registry generation does not change.
+     */
+    private class SupertypeClosure {
+        final int generation;
+        final Set<ExtendedNodeType> supertypeSet;
+        final ExtendedNodeType[] supertypes;
+        final ExtendedNodeType[] primarySupertypes;
+        final BitSet supertypeIds = new BitSet();
+
+        SupertypeClosure(int generation, Set<ExtendedNodeType> supertypeSet, ExtendedNodeType[] primarySupertypes) {
+            this.generation = generation;
+            this.supertypeSet = Collections.unmodifiableSet(supertypeSet);
+            this.supertypes = supertypeSet.toArray(new ExtendedNodeType[supertypeSet.size()]);
+            this.primarySupertypes = primarySupertypes;
+            for (ExtendedNodeType supertype : supertypes) {
+                supertypeIds.set(registry.getNodeTypeId(supertype.getName()));
+            }
+        }
+    }
+
+    /**
+     * Subtypes of a type, valid as long as the registry generation does not change.
+     */
+    private static class SubtypeClosure {
+        final int generation;
+        final List<ExtendedNodeType> subtypes;
+        final ExtendedNodeType[] mixinSubtypes;
+
+        SubtypeClosure(int generation, List<ExtendedNodeType> subtypes, List<ExtendedNodeType> mixinSubtypes) {
+            this.generation = generation;
+            this.subtypes = Collections.unmodifiableList(subtypes);
+            this.mixinSubtypes = mixinSubtypes.toArray(new ExtendedNodeType[mixinSubtypes.size()]);
+        }
+    }
 }
@@ -48,6 +48,7 @@ import org.apache.commons.collections.Transformer;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 
+import javax.jcr.NamespaceException;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Value;
@@ -140,6 +141,12 @@ import java.util.regex.Pattern;
 public class JahiaCndReader {
     private static Logger logger = org.slf4j.LoggerFactory.getLogger(JahiaCndReader.class);
 
+    /**
+     * Version of the parsing rules, to be incremented whenever a change makes the reader build different definitions
+     * for the same input, see {@link CompiledDefinitionsCache}.
+     */
+    public static final int READER_VERSION = 1;
+
     protected String systemId;
     protected String filename;
 
@@ -163,9 +170,27 @@ public class JahiaCndReader {
      */
     protected String currentToken;
 
+    /**
+     * the keyword ID of the current token, see {@link Lexer#getKeywordId(String)}
+     */
+    private int currentKeywordId = -1;
+
+    /**
+     * the token for which {@link #currentKeywordId} has been computed
+     */
+    private String currentKeywordToken;
 
     protected boolean doRegister = true;
 
+    /**
+     * the namespaces declared by the parsed file, in declaration order
+     */
+    protected Map<String, String> declaredNamespaces = new LinkedHashMap<String, String>();
+
+    private CompiledDefinitionsCache compiledDefinitionsCache;
+
+    private boolean started;
+
     /**
      * Checks if the provided token is semantically equal to the given
      * argument.
@@ -175,6 +200,11 @@ public class JahiaCndReader {
      * @return <code>true</code> if equals; <code>false</code> otherwise.
      */
     protected static boolean tokenEquals(String token, String[] s) {
+        BitSet keywordGroup = Lexer.getKeywordGroup(s);
+        if (keywordGroup != null) {
+            int keywordId = Lexer.getKeywordId(token);
+            return keywordId >= 0 && keywordGroup.get(keywordId);
+        }
         for (String e : s) {
             if (token.equals(e)) {
                 return true;
@@ -279,6 +309,25 @@ public class JahiaCndReader {
         this.doRegister = doRegister;
     }
 
+    /**
+     * Sets the cache of compiled definitions consulted by {@link #parse()}. When the content of the file is found in
+     * the cache, the definitions are rebuilt from their binary form instead of being parsed again.
+     *
+     * @param compiledDefinitionsCache the cache to use, or <code>null</code> to always parse the file
+     */
+    public void setCompiledDefinitionsCache(CompiledDefinitionsCache compiledDefinitionsCache) {
+        this.compiledDefinitionsCache = compiledDefinitionsCache;
+    }
+
+    /**
+     * Returns the namespaces declared by the parsed file.
+     *
+     * @return a map of namespace URIs by prefix, in declaration order
+     */
+    public Map<String, String> getDeclaredNamespaces() {
+        return declaredNamespaces;
+    }
+
     /**
      * Returns the list of parsed nodetype definitions.
      *
@@ -294,23 +343,80 @@ public class JahiaCndReader {
      * @throws ParseException
      */
     public void parse() throws ParseException, IOException {
+        if (compiledDefinitionsCache != null && !started) {
+            started = true;
+            String key = CompiledDefinitionsCache.getKey(lexer.getContent());
+            if (loadCompiledDefinitions(key)) {
+                return;
+            }
+            doParse();
+            compiledDefinitionsCache.put(key, declaredNamespaces, nodeTypesList);
+        } else {
+            started = true;
+            doParse();
+        }
+    }
+
+    private boolean loadCompiledDefinitions(String key) {
+        List<ExtendedNodeType> nodeTypes = compiledDefinitionsCache.load(key, filename, systemId, registry, doRegister, declaredNamespaces);
+        if (nodeTypes == null) {
+            declaredNamespaces.clear();
+            return false;
+        }
+        if (doRegister) {
+            registry.beginBatch(systemId);
+            boolean registered = false;
+            try {
+                for (ExtendedNodeType nodeType : nodeTypes) {
+                    registry.addNodeType(nodeType.getNameObject(), nodeType);
+                }
+                registered = true;
+            } finally {
+                if (registered) {
+                    registry.commitBatch();
+                } else {
+                    registry.rollbackBatch();
+                }
+            }
+        }
+        nodeTypesList.addAll(nodeTypes);
+        return true;
+    }
+
+    private void doParse() throws ParseException, IOException {
         nextToken();
         while (!currentTokenEquals(Lexer.EOF)) {
             if (!doNameSpace()) {
                 break;
             }
         }
-        while (!currentTokenEquals(Lexer.EOF)) {
-            ExtendedNodeType ntd = new ExtendedNodeType(registry, systemId);
-            doNodeTypeName(ntd);
-            doSuperTypes(ntd);
-            doOptions(ntd);
-            doItemDefs(ntd);
-
+        if (doRegister) {
+            // the types of the file are published together once it has been fully parsed
+            registry.beginBatch(systemId);
+        }
+        boolean parsed = false;
+        try {
+            while (!currentTokenEquals(Lexer.EOF)) {
+                ExtendedNodeType ntd = new ExtendedNodeType(registry, systemId);
+                doNodeTypeName(ntd);
+                doSuperTypes(ntd);
+                doOptions(ntd);
+                doItemDefs(ntd);
+
+                if (doRegister) {
+                    registry.addNodeType(ntd.getNameObject(),ntd);
+                }
+                nodeTypesList.add(ntd);
+            }
+            parsed = true;
+        } finally {
             if (doRegister) {
-                registry.addNodeType(ntd.getNameObject(),ntd);
+                if (parsed) {
+                    registry.commitBatch();
+                } else {
+                    registry.rollbackBatch();
+                }
             }
-            nodeTypesList.add(ntd);
         }
         /*
         for (ExtendedNodeType type : nodeTypesList) {
@@ -356,16 +462,13 @@ public class JahiaCndReader {
             lexer.fail("Missing > in namespace decl.");
         }
 
-        if (registry.getNamespaces().containsKey(prefix) && !registry.getNamespaces().get(prefix).equals(uri)) {
-            lexer.fail("Invalid namespace declaration : prefix already declared");
+        try {
+            registry.registerNamespace(prefix, uri);
+            declaredNamespaces.put(prefix, uri);
+        } catch (NamespaceException e) {
+            lexer.fail(e.getMessage());
         }
 
-        if (!registry.getNamespaces().containsKey(prefix) && registry.getNamespaces().containsValue(uri)) {
-            lexer.fail("Invalid namespace declaration : uri already declared");
-        }
-
-        registry.getNamespaces().put(prefix, uri);
-
         nextToken();
         return true;
     }
@@ -712,6 +815,11 @@ public class JahiaCndReader {
         if (!currentTokenEquals(Lexer.QUERYOPS)) {
             return;
         }
+        List<String> queryOps = readQueryOperators();
+        pd.setAvailableQueryOperators(queryOps.toArray(new String[queryOps.size()]));
+    }
+
+    private List<String> readQueryOperators() throws ParseException {
         nextToken();
 
         String[] ops = Patterns.COMMA.split(currentToken);
@@ -736,7 +844,7 @@ public class JahiaCndReader {
                 lexer.fail("'" + s + "' is not a valid query operator");
             }
         }
-        pd.setAvailableQueryOperators(queryOps.toArray(new String[queryOps.size()]));
+        return queryOps;
     }
 
     /**
@@ -933,6 +1041,10 @@ public class JahiaCndReader {
     }
 
     private void doSelectorOptions(ExtendedItemDefinition pdi) throws ParseException, IOException {
+        pdi.setSelectorOptions(readSelectorOptions());
+    }
+
+    private Map<String,String> readSelectorOptions() throws ParseException, IOException {
         nextToken();
         Map<String,String> options = new LinkedHashMap<String,String>();
         while (true) {
@@ -963,7 +1075,7 @@ public class JahiaCndReader {
             }
             nextToken();
         }
-        pdi.setSelectorOptions(options);
+        return options;
     }
 
     /**
@@ -974,6 +1086,8 @@ public class JahiaCndReader {
      */
     protected void nextToken() throws ParseException {
         currentToken = lexer.getNextToken();
+        currentKeywordId = lexer.getKeywordId();
+        currentKeywordToken = currentToken;
     }
 
     /**
@@ -984,7 +1098,16 @@ public class JahiaCndReader {
      * @return <code>true</code> if equals; <code>false</code> otherwise.
      */
     protected boolean currentTokenEquals(String[] s) {
-        return tokenEquals(currentToken, s);
+        BitSet keywordGroup = Lexer.getKeywordGroup(s);
+        if (keywordGroup == null) {
+            return tokenEquals(currentToken, s);
+        }
+        if (currentKeywordToken != currentToken) {
+            // the current token has been set without going through nextToken()
+            currentKeywordId = Lexer.getKeywordId(currentToken);
+            currentKeywordToken = currentToken;
+        }
+        return currentKeywordId >= 0 && keywordGroup.get(currentKeywordId);
     }
 
     /**
@@ -1022,6 +1145,276 @@ public class JahiaCndReader {
         return logger;
     }
 
+    /**
+     * Parses the definition in a lightweight mode, which does not build the node types and their item definitions but
+     * only collects the same type names as {@link #getDefinitionsAndReferences(Set, Set)} would after a full
+     * {@link #parse()}. The namespaces declared by the file are still registered.
+     *
+     * @param contentTypeDefinitions filled with the names of the types defined by the file
+     * @param contentTypeReferences filled with the names of the types referenced by the file and not defined in it
+     * @throws ParseException if the file is invalid
+     */
+    public void parseDefinitionsAndReferences(Set<String> contentTypeDefinitions, Set<String> contentTypeReferences)
+            throws ParseException, IOException {
+        started = true;
+        nextToken();
+        while (!currentTokenEquals(Lexer.EOF)) {
+            if (!doNameSpace()) {
+                break;
+            }
+        }
+        while (!currentTokenEquals(Lexer.EOF)) {
+            scanNodeType(contentTypeDefinitions, contentTypeReferences);
+        }
+
+        // remove all content type references that are defined in this file to keep only exist definitions
+        contentTypeReferences.removeAll(contentTypeDefinitions);
+    }
+
+    private void scanNodeType(Set<String> contentTypeDefinitions, Set<String> contentTypeReferences)
+            throws ParseException, IOException {
+        if (!currentTokenEquals(Lexer.BEGIN_NODE_TYPE_NAME)) {
+            lexer.fail("Unexpected token '" + currentToken +"'");
+        }
+        nextToken();
+        String name = parseName(currentToken).toString();
+        nextToken();
+        if (!currentTokenEquals(Lexer.END_NODE_TYPE_NAME)) {
+            lexer.fail("Missing '" + Lexer.END_NODE_TYPE_NAME + "' delimiter for end of node type name, found " + currentToken);
+        }
+        nextToken();
+        getLog().debug(filename+ " Nodetype definition " + name);
+        contentTypeDefinitions.add(name);
+
+        if (currentTokenEquals(Lexer.EXTENDS)) {
+            do {
+                nextToken();
+                parseName(currentToken); // check name validity
+                contentTypeReferences.add(currentToken);
+                nextToken();
+            } while (currentTokenEquals(Lexer.LIST_DELIMITER));
+        }
+        scanOptions(contentTypeReferences);
+
+        // a node type only keeps the last definition of a named property, so are its references
+        Map<String, List<String>> propertyReferences = new HashMap<String, List<String>>();
+        while (true) {
+            if (currentTokenEquals(Lexer.PROPERTY_DEFINITION)) {
+                nextToken();
+                scanPropertyDefinition(propertyReferences, contentTypeReferences);
+            } else if (currentTokenEquals(Lexer.CHILD_NODE_DEFINITION)) {
+                nextToken();
+                scanChildNodeDefinition(contentTypeReferences);
+            } else {
+                break;
+            }
+        }
+        for (List<String> references : propertyReferences.values()) {
+            contentTypeReferences.addAll(references);
+        }
+    }
+
+    /**
+     * Skips the node type options, as {@link #doOptions(ExtendedNodeType)} reads them, keeping the mixin extends
+     * references.
+     */
+    private void scanOptions(Set<String> contentTypeReferences) throws ParseException, IOException {
+        while (true) {
+            if (currentTokenEquals(Lexer.ORDERABLE) || currentTokenEquals(Lexer.MIXIN) || currentTokenEquals(Lexer.ABSTRACT)
+                    || currentTokenEquals(Lexer.NOQUERY) || currentTokenEquals(Lexer.QUERY)) {
+                nextToken();
+            } else if (currentTokenEquals(Lexer.PRIMARYITEM)) {
+                nextToken();
+                nextToken();
+            } else if (currentTokenEquals(Lexer.VALIDATOR) || currentTokenEquals(Lexer.ITEMTYPE)) {
+                boolean validator = currentTokenEquals(Lexer.VALIDATOR);
+                nextToken();
+                if (!currentTokenEquals(Lexer.DEFAULT)) {
+                    lexer.fail("Invalid validator");
+                }
+                nextToken();
+                if (validator) {
+                    logger.warn("Warning : validator is not supported anymore");
+                }
+                nextToken();
+            } else if (currentTokenEquals(Lexer.MIXIN_EXTENDS)) {
+                nextToken();
+                if (!currentTokenEquals(Lexer.DEFAULT)) {
+                    lexer.fail("Invalid validator");
+                }
+                do {
+                    nextToken();
+                    contentTypeReferences.add(currentToken);
+                    nextToken();
+                } while (currentTokenEquals(Lexer.LIST_DELIMITER));
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void scanPropertyDefinition(Map<String, List<String>> propertyReferences, Set<String> contentTypeReferences)
+            throws ParseException, IOException {
+        String name = parseName(currentToken).toString();
+        nextToken();
+        int requiredType = 0;
+        Map<String, String> selectorOptions = null;
+        if (currentTokenEquals(Lexer.BEGIN_TYPE)) {
+            nextToken();
+            requiredType = getPropertyType(currentToken);
+            if (requiredType < 0) {
+                lexer.fail("Unknown type '" + currentToken + "' specified");
+            }
+            nextToken();
+            if (currentTokenEquals(Lexer.END_TYPE)) {
+                nextToken();
+            } else if (currentTokenEquals(Lexer.LIST_DELIMITER)) {
+                nextToken();
+                if (getSelectorType(currentToken) < 0) {
+                    lexer.fail("Unknown type '" + currentToken + "' specified");
+                }
+                nextToken();
+                if (currentTokenEquals(Lexer.BEGIN_NODE_TYPE_NAME)) {
+                    selectorOptions = readSelectorOptions();
+                }
+                if (currentTokenEquals(Lexer.END_TYPE)) {
+                    nextToken();
+                } else {
+                    lexer.fail("Missing '" + Lexer.END_TYPE + "' delimiter for end of property type");
+                }
+            } else {
+                lexer.fail("Missing '" + Lexer.END_TYPE + "' delimiter for end of property type");
+            }
+        }
+        boolean reference = ExtendedPropertyType.REFERENCE == requiredType || ExtendedPropertyType.WEAKREFERENCE == requiredType;
+        List<String> references = new ArrayList<String>();
+        if (currentTokenEquals(Lexer.DEFAULT)) {
+            scanValuesList(requiredType, false, reference ? references : null);
+        }
+        scanPropertyAttributes();
+        if (currentTokenEquals(Lexer.CONSTRAINT)) {
+            scanValuesList(requiredType, true, reference ? references : null);
+        }
+        if (selectorOptions != null) {
+            addSelectorOptionReferences(selectorOptions, references);
+        }
+        if ("*".equals(name)) {
+            // residual definitions are all kept
+            contentTypeReferences.addAll(references);
+        } else {
+            propertyReferences.put(name, references);
+        }
+    }
+
+    /**
+     * Skips a list of values, adding their string form to the given list if it is not <code>null</code>.
+     */
+    private void scanValuesList(int requiredType, boolean isConstraint, List<String> values) throws ParseException {
+        do {
+            nextToken();
+            String v = currentToken;
+            nextToken();
+            if (currentTokenEquals(Lexer.BEGIN_TYPE)) {
+                nextToken();
+                List<String> params = new ArrayList<String>();
+                while (!currentTokenEquals(Lexer.END_TYPE)) {
+                    params.add(currentToken);
+                    nextToken();
+                }
+                nextToken();
+                if (values != null) {
+                    for (Value value : new DynamicValueImpl(v, params, requiredType, isConstraint, null).expand()) {
+                        try {
+                            values.add(value.getString());
+                        } catch (RepositoryException e) {
+                            // not a string value, no type name to keep
+                        }
+                    }
+                }
+            } else if (values != null) {
+                values.add(v);
+            }
+        } while (currentTokenEquals(Lexer.LIST_DELIMITER));
+    }
+
+    /**
+     * Skips the property attributes, checking them as {@link #doPropertyAttributes(ExtendedPropertyDefinition, ExtendedNodeType)} does.
+     */
+    private void scanPropertyAttributes() throws ParseException, IOException {
+        while (currentTokenEquals(Lexer.PROP_ATTRIBUTE)) {
+            if (currentTokenEquals(Lexer.ITEMTYPE) || currentTokenEquals(Lexer.ANALYZER)) {
+                nextToken();
+                if (!currentTokenEquals(Lexer.DEFAULT)) {
+                    lexer.fail("Invalid value for " + currentToken);
+                }
+                nextToken();
+            } else if (currentTokenEquals(Lexer.INDEXED)) {
+                nextToken();
+                if (!currentTokenEquals(Lexer.DEFAULT)) {
+                    lexer.fail("Invalid value for indexed " + currentToken);
+                }
+                nextToken();
+                if (!currentTokenEquals(Lexer.NO) && !currentTokenEquals(Lexer.TOKENIZED) && !currentTokenEquals(Lexer.UNTOKENIZED)) {
+                    lexer.fail("Invalid value for indexed [ no | tokenized | untokenized ] "+currentToken);
+                }
+            } else if (currentTokenEquals(Lexer.SCOREBOOST)) {
+                nextToken();
+                if (!currentTokenEquals(Lexer.DEFAULT)) {
+                    lexer.fail("Invalid value for score boost " + currentToken);
+                }
+                nextToken();
+                try {
+                    Double.parseDouble(currentToken);
+                } catch (NumberFormatException e) {
+                    lexer.fail("Invalid value for score boost "+currentToken);
+                }
+            } else if (currentTokenEquals(Lexer.FULLTEXTSEARCHABLE) || currentTokenEquals(Lexer.ONCONFLICT)) {
+                nextToken();
+                if (currentTokenEquals(Lexer.DEFAULT)) {
+                    nextToken();
+                }
+            } else if (currentTokenEquals(Lexer.QUERYOPS)) {
+                readQueryOperators();
+            }
+            nextToken();
+        }
+    }
+
+    private void scanChildNodeDefinition(Set<String> contentTypeReferences) throws ParseException, IOException {
+        parseName(currentToken);
+        nextToken();
+        if (currentTokenEquals(Lexer.BEGIN_TYPE)) {
+            do {
+                nextToken();
+                contentTypeReferences.add(currentToken);
+                nextToken();
+            } while (currentTokenEquals(Lexer.LIST_DELIMITER));
+            if (currentTokenEquals(Lexer.BEGIN_NODE_TYPE_NAME)) {
+                readSelectorOptions();
+            }
+            if (currentTokenEquals(Lexer.END_TYPE)) {
+                nextToken();
+            } else {
+                lexer.fail("Missing '" + Lexer.END_TYPE + "' delimiter for end of child node type");
+            }
+        }
+        if (currentTokenEquals(Lexer.DEFAULT)) {
+            nextToken();
+            contentTypeReferences.add(currentToken);
+            nextToken();
+        }
+        while (currentTokenEquals(Lexer.NODE_ATTRIBUTE)) {
+            if (currentTokenEquals(Lexer.ITEMTYPE) || currentTokenEquals(Lexer.WORKFLOW)) {
+                nextToken();
+                if (!currentTokenEquals(Lexer.DEFAULT)) {
+                    lexer.fail("Invalid value for " + currentToken);
+                }
+                nextToken();
+            }
+            nextToken();
+        }
+    }
+
     public void getDefinitionsAndReferences(Set<String> contentTypeDefinitions, Set<String> contentTypeReferences) throws RepositoryException {
         for (ExtendedNodeType extendedNodeType : getNodeTypesList()) {
             getLog().debug(filename+ " Nodetype definition " + extendedNodeType.getName());
@@ -1069,102 +1462,106 @@ public class JahiaCndReader {
                         }
                     }
                 }
-                Map<String,String> selectorOptions = propertyDefinition.getSelectorOptions();
-                if (selectorOptions.size() > 0) {
-                    if (selectorOptions.containsKey("nodes")) {
-                        String nodeSelector = selectorOptions.get("nodes");
-                        for (String nodeSelectorItem : Pattern.compile("|", Pattern.LITERAL).split(nodeSelector)) {
-                            String[] nodeSelectorOptions = nodeSelectorItem.split(";");
-                            if (nodeSelectorOptions.length > 1) {
-                                if (StringUtils.isNotEmpty(nodeSelectorOptions[1])) {
-                                    getLog().debug(filename+ "  found choicelist node type " + nodeSelectorOptions[1]);
-                                    contentTypeReferences.add(nodeSelectorOptions[1]);
-                                }
-                            }
-                        }
-                    }
-                    if (selectorOptions.containsKey("nodetypes")) {
-                        String param = selectorOptions.get("nodetypes");
-                        if (param.indexOf(";fromDependencies") > -1) {
-                        }
-                        if (param.startsWith("MIXIN")) {
-                        } else if (param.startsWith("PRIMARY")) {
-                        } else if (param.startsWith("ALL")) {
-                        } else if (StringUtils.isEmpty(param)) {
-                        } else {
-                            getLog().debug(filename+ "  found choicelist nodetype type " + param);
-                            contentTypeReferences.add(param);
-                        }
-                    }
-                    if (selectorOptions.containsKey("subnodetypes")) {
-                        String param = selectorOptions.get("subnodetypes");
-                        if (StringUtils.isEmpty(param)) {
-                            param = "jmix:editorialContent";
-                        }
-                        String includedTypes = StringUtils.substringBefore(param, ";");
-                        Set<String> excludedTypes = new HashSet<String>();
-                        String exclusion = StringUtils.substringAfter(param, ";");
-                        if (StringUtils.isNotBlank(exclusion)) {
-                            excludedTypes.addAll(CollectionUtils.collect(Arrays.asList(Patterns.COMMA.split(StringUtils.substringAfter(param, ";"))), new Transformer() {
-                                public Object transform(Object input) {
-                                    return ((String) input).trim();
-                                }
-                            }));
-                        }
+                addSelectorOptionReferences(propertyDefinition.getSelectorOptions(), contentTypeReferences);
+            }
+        }
 
-                        for (String nodeTypeName : Patterns.COMMA.split(includedTypes)) {
-                            if (StringUtils.isNotEmpty(nodeTypeName)) {
-                                getLog().debug(filename+ "  found choicelist subnodetype included type " + nodeTypeName);
-                                contentTypeReferences.add(nodeTypeName);
-                            }
-                        }
+        // remove all content type references that are defined in this file to keep only exist definitions
+        contentTypeReferences.removeAll(contentTypeDefinitions);
+    }
 
-                        for (String nodeTypeName : excludedTypes) {
-                            if (StringUtils.isNotEmpty(nodeTypeName)) {
-                                getLog().debug(filename+ "  found choicelist subnodetype excluded type " + nodeTypeName);
-                                contentTypeReferences.add(nodeTypeName);
-                            }
-                        }
+    private void addSelectorOptionReferences(Map<String,String> selectorOptions, Collection<String> contentTypeReferences) {
+        if (selectorOptions.isEmpty()) {
+            return;
+        }
+        if (selectorOptions.containsKey("nodes")) {
+            String nodeSelector = selectorOptions.get("nodes");
+            for (String nodeSelectorItem : Pattern.compile("|", Pattern.LITERAL).split(nodeSelector)) {
+                String[] nodeSelectorOptions = nodeSelectorItem.split(";");
+                if (nodeSelectorOptions.length > 1) {
+                    if (StringUtils.isNotEmpty(nodeSelectorOptions[1])) {
+                        getLog().debug(filename+ "  found choicelist node type " + nodeSelectorOptions[1]);
+                        contentTypeReferences.add(nodeSelectorOptions[1]);
                     }
-                    if (selectorOptions.containsKey("componenttypes")) {
-                        String param = selectorOptions.get("componenttypes");
-                        Set<String> DEF_INCLUDES = new TreeSet<String>(
-                                Arrays.asList("jmix:editorialContent"));
-                        Set<String> includeTypes = DEF_INCLUDES;
-                        Set<String> excludeTypes = new TreeSet<String>();
-
-                        if (StringUtils.isNotEmpty(param)) {
-                            includeTypes = getNodeTypes(StringUtils.substringBefore(param, ";"));
-                            excludeTypes = getNodeTypes(StringUtils.substringAfter(param, ";"));
-                        }
+                }
+            }
+        }
+        if (selectorOptions.containsKey("nodetypes")) {
+            String param = selectorOptions.get("nodetypes");
+            if (param.indexOf(";fromDependencies") > -1) {
+            }
+            if (param.startsWith("MIXIN")) {
+            } else if (param.startsWith("PRIMARY")) {
+            } else if (param.startsWith("ALL")) {
+            } else if (StringUtils.isEmpty(param)) {
+            } else {
+                getLog().debug(filename+ "  found choicelist nodetype type " + param);
+                contentTypeReferences.add(param);
+            }
+        }
+        if (selectorOptions.containsKey("subnodetypes")) {
+            String param = selectorOptions.get("subnodetypes");
+            if (StringUtils.isEmpty(param)) {
+                param = "jmix:editorialContent";
+            }
+            String includedTypes = StringUtils.substringBefore(param, ";");
+            Set<String> excludedTypes = new HashSet<String>();
+            String exclusion = StringUtils.substringAfter(param, ";");
+            if (StringUtils.isNotBlank(exclusion)) {
+                excludedTypes.addAll(CollectionUtils.collect(Arrays.asList(Patterns.COMMA.split(StringUtils.substringAfter(param, ";"))), new Transformer() {
+                    public Object transform(Object input) {
+                        return ((String) input).trim();
+                    }
+                }));
+            }
 
-                        for (String nodeTypeName : includeTypes) {
-                            if (StringUtils.isNotEmpty(nodeTypeName)) {
-                                getLog().debug(filename+ "  found choicelist component type included type " + nodeTypeName);
-                                contentTypeReferences.add(nodeTypeName);
-                            }
-                        }
+            for (String nodeTypeName : Patterns.COMMA.split(includedTypes)) {
+                if (StringUtils.isNotEmpty(nodeTypeName)) {
+                    getLog().debug(filename+ "  found choicelist subnodetype included type " + nodeTypeName);
+                    contentTypeReferences.add(nodeTypeName);
+                }
+            }
 
-                        for (String nodeTypeName : excludeTypes) {
-                            if (StringUtils.isNotEmpty(nodeTypeName)) {
-                                getLog().debug(filename+ "  found choicelist component type included type " + nodeTypeName);
-                                contentTypeReferences.add(nodeTypeName);
-                            }
-                        }
-                    }
+            for (String nodeTypeName : excludedTypes) {
+                if (StringUtils.isNotEmpty(nodeTypeName)) {
+                    getLog().debug(filename+ "  found choicelist subnodetype excluded type " + nodeTypeName);
+                    contentTypeReferences.add(nodeTypeName);
                 }
             }
         }
+        if (selectorOptions.containsKey("componenttypes")) {
+            String param = selectorOptions.get("componenttypes");
+            Set<String> DEF_INCLUDES = new TreeSet<String>(
+                    Arrays.asList("jmix:editorialContent"));
+            Set<String> includeTypes = DEF_INCLUDES;
+            Set<String> excludeTypes = new TreeSet<String>();
+
+            if (StringUtils.isNotEmpty(param)) {
+                includeTypes = getNodeTypes(StringUtils.substringBefore(param, ";"));
+                excludeTypes = getNodeTypes(StringUtils.substringAfter(param, ";"));
+            }
 
-        // remove all content type references that are defined in this file to keep only exist definitions
-        contentTypeReferences.removeAll(contentTypeDefinitions);
+            for (String nodeTypeName : includeTypes) {
+                if (StringUtils.isNotEmpty(nodeTypeName)) {
+                    getLog().debug(filename+ "  found choicelist component type included type " + nodeTypeName);
+                    contentTypeReferences.add(nodeTypeName);
+                }
+            }
+
+            for (String nodeTypeName : excludeTypes) {
+                if (StringUtils.isNotEmpty(nodeTypeName)) {
+                    getLog().debug(filename+ "  found choicelist component type included type " + nodeTypeName);
+                    contentTypeReferences.add(nodeTypeName);
+                }
+            }
+        }
     }
 
     public Set<String> getNodeTypes(String typesString) {
         Set<String> types = new TreeSet<String>();
         if (StringUtils.isNotEmpty(typesString)) {
             for (String value : StringUtils.split(typesString, ", ")) {
-                if (NodeTypeRegistry.getInstance().hasNodeType(value)) {
+                if (registry.hasNodeType(value)) {
                     types.add(value);
                 }
             }
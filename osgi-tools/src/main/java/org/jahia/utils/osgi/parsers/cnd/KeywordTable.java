@@ -0,0 +1,159 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers.cnd;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/**
+ * Perfect-hash table of the keywords recognized by the {@link Lexer}. Each distinct keyword gets a dense integer ID.
+ * The hash multiplier is chosen when the table is built so that no two keywords share a slot, which means a lookup is
+ * one hash computation plus at most one comparison, and can be done directly on the lexer's character buffer without
+ * creating a string for the candidate token.
+ */
+final class KeywordTable {
+
+    private static final int FIRST_MULTIPLIER = 0x9E3779B1;
+
+    private final String[] keywords;
+    private final int[] slots;
+    private final int mask;
+    private final int multiplier;
+
+    KeywordTable(Collection<String> words) {
+        keywords = new LinkedHashSet<String>(words).toArray(new String[0]);
+        int size = Integer.highestOneBit(Math.max(keywords.length, 1) * 4 - 1) << 1;
+        int[] table = new int[size];
+        int candidate = FIRST_MULTIPLIER;
+        while (!fill(table, size - 1, candidate)) {
+            candidate += 2;
+            if (candidate == FIRST_MULTIPLIER + 2 * 4096) {
+                // very unlikely, but a bigger table always ends up collision-free
+                size <<= 1;
+                table = new int[size];
+                candidate = FIRST_MULTIPLIER;
+            }
+        }
+        slots = table;
+        mask = size - 1;
+        multiplier = candidate;
+    }
+
+    private boolean fill(int[] table, int tableMask, int candidate) {
+        Arrays.fill(table, -1);
+        for (int id = 0; id < keywords.length; id++) {
+            String keyword = keywords[id];
+            int slot = hash(keyword, candidate) & tableMask;
+            if (table[slot] >= 0) {
+                return false;
+            }
+            table[slot] = id;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of distinct keywords, which is also the upper bound (exclusive) of the keyword IDs
+     */
+    int size() {
+        return keywords.length;
+    }
+
+    /**
+     * @param id a keyword ID returned by one of the lookup methods
+     * @return the canonical string instance of the keyword
+     */
+    String getKeyword(int id) {
+        return keywords[id];
+    }
+
+    /**
+     * Looks up a keyword from a range of characters.
+     *
+     * @return the keyword ID or <code>-1</code> if the characters are not a keyword
+     */
+    int lookup(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ chars[i]) * multiplier;
+        }
+        int id = slots[mix(h) & mask];
+        if (id < 0) {
+            return -1;
+        }
+        String keyword = keywords[id];
+        if (keyword.length() != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keyword.charAt(i) != chars[offset + i]) {
+                return -1;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Looks up a keyword from a string.
+     *
+     * @return the keyword ID or <code>-1</code> if the string is not a keyword
+     */
+    int lookup(String s) {
+        int id = slots[hash(s, multiplier) & mask];
+        return id >= 0 && keywords[id].equals(s) ? id : -1;
+    }
+
+    private static int hash(String s, int multiplier) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * multiplier;
+        }
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+}
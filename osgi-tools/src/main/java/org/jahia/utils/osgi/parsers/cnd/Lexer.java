@@ -46,14 +46,22 @@ package org.jahia.utils.osgi.parsers.cnd;
 import javax.jcr.query.qom.QueryObjectModelConstants;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StreamTokenizer;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.CharBuffer;
+import java.util.*;
 
 /**
- * Lexer
+ * Lexer for the compact node type definition format. It scans a character array directly and produces the same token
+ * strings as the {@link java.io.StreamTokenizer} configuration it replaces, but keyword tokens are returned as the
+ * canonical strings of a precomputed {@link KeywordTable} along with their keyword ID, so that the reader can match
+ * them against the alias arrays below with a bit test instead of string comparisons.
  */
 public class Lexer {
+    /**
+     * Version of the tokenization rules, to be incremented whenever a change makes the lexer produce different tokens
+     * for the same input, see {@link CompiledDefinitionsCache}.
+     */
+    public static final int LEXER_VERSION = 2;
+
     public static final char SINGLE_QUOTE = '\'';
     public static final char DOUBLE_QUOTE = '\"';
     public static final char BEGIN_NODE_TYPE_NAME = '[';
@@ -224,43 +232,128 @@ public class Lexer {
 
     public static final String EOF = "eof";
 
-    private final StreamTokenizer st;
+    /**
+     * Token kinds returned by {@link #getTokenType()}
+     */
+    public static final int TOKEN_EOF = -1;
+    public static final int TOKEN_WORD = -2;
+    public static final int TOKEN_NUMBER = -3;
+    public static final int TOKEN_QUOTED = -4;
+    public static final int TOKEN_DELIMITER = -5;
+
+    private static final KeywordTable KEYWORDS;
+
+    private static final Map<String[], BitSet> KEYWORD_GROUPS = new IdentityHashMap<String[], BitSet>();
+
+    private static final String[] CHAR_TOKENS = new String[256];
+
+    private static final int[] CHAR_KEYWORDS = new int[256];
+
+    static {
+        // the keyword groups the parser matches tokens against, ALL_OPERATORS is only a list of values
+        String[][] groups = new String[][] {
+                ORDERABLE, MIXIN, ABSTRACT, NOQUERY, QUERY, PRIMARYITEM, MIXIN_EXTENDS, VALIDATOR, PRIMARY, AUTOCREATED,
+                MANDATORY, PROTECTED, MULTIPLE, SNS, INTERNATIONALIZED, ITEMTYPE, INDEXED, SCOREBOOST, NO, YES,
+                TOKENIZED, UNTOKENIZED, ANALYZER, FACETABLE, HIERARCHICAL, SORTABLE, FULLTEXTSEARCHABLE, QUERYOPS,
+                NOFULLTEXT, NOQUERYORDER, HIDDEN, ONCONFLICT, USE_LATEST, USE_OLDEST, NUMERIC_USE_MIN, NUMERIC_USE_MAX,
+                NUMERIC_SUM, COPY, VERSION, INITIALIZE, COMPUTE, IGNORE, ABORT, WORKFLOW, PROP_ATTRIBUTE,
+                NODE_ATTRIBUTE, STRING, BINARY, LONG, DOUBLE, BOOLEAN, DATE, NAME, PATH, REFERENCE, WEAKREFERENCE, URI,
+                DECIMAL, SMALLTEXT, RICHTEXT, TEXTAREA, CHOICELIST, DATETIMEPICKER, DATEPICKER, CATEGORY, CONTENTPICKER,
+                FILEUPLOAD, PAGE, COLOR, CHECKBOX, CRON, TAG, UNDEFINED
+        };
+        Set<String> words = new LinkedHashSet<String>();
+        for (String[] group : groups) {
+            words.addAll(Arrays.asList(group));
+        }
+        KEYWORDS = new KeywordTable(words);
+        for (String[] group : groups) {
+            BitSet ids = new BitSet(KEYWORDS.size());
+            for (String word : group) {
+                ids.set(KEYWORDS.lookup(word));
+            }
+            KEYWORD_GROUPS.put(group, ids);
+        }
+        for (int c = 0; c < CHAR_TOKENS.length; c++) {
+            CHAR_TOKENS[c] = String.valueOf((char) c);
+            CHAR_KEYWORDS[c] = KEYWORDS.lookup(CHAR_TOKENS[c]);
+        }
+    }
 
     private final String filename;
 
+    private Reader reader;
+    private char[] buffer;
+    private int position;
+    private int limit;
+
+    private int lineNumber = 1;
+    private int tokenType;
+    private int keywordId = -1;
+    private char[] quoteBuffer;
+
     /**
      * Constructor
      * @param r
      */
     public Lexer(Reader r, String filename) {
         this.filename = filename;
-        st = new StreamTokenizer(r);
-
-        st.eolIsSignificant(false);
+        this.reader = r;
+    }
 
-        st.lowerCaseMode(false);
+    /**
+     * Creates a lexer working directly on the given characters, which must not be modified while the lexer is in use.
+     * @param chars the CND content
+     * @param filename the name used in error messages
+     */
+    public Lexer(char[] chars, String filename) {
+        this(chars, 0, chars.length, filename);
+    }
 
-        st.slashSlashComments(true);
-        st.slashStarComments(true);
+    /**
+     * Creates a lexer working on the remaining characters of the given buffer. Array backed buffers are used in
+     * place, other buffers are copied.
+     * @param chars the CND content
+     * @param filename the name used in error messages
+     */
+    public Lexer(CharBuffer chars, String filename) {
+        this.filename = filename;
+        if (chars.hasArray()) {
+            buffer = chars.array();
+            position = chars.arrayOffset() + chars.position();
+            limit = chars.arrayOffset() + chars.limit();
+        } else {
+            buffer = new char[chars.remaining()];
+            chars.duplicate().get(buffer);
+            limit = buffer.length;
+        }
+    }
 
-        st.wordChars('a', 'z');
-        st.wordChars('A', 'Z');
-        st.wordChars(':', ':');
-        st.wordChars('_', '_');
+    private Lexer(char[] chars, int offset, int length, String filename) {
+        this.filename = filename;
+        this.buffer = chars;
+        this.position = offset;
+        this.limit = offset + length;
+    }
 
-        st.quoteChar(SINGLE_QUOTE);
-        st.quoteChar(DOUBLE_QUOTE);
+    /**
+     * Returns the ID of a keyword, as found in one of the alias arrays of this class.
+     *
+     * @param token the token to look up
+     * @return the keyword ID or <code>-1</code> if the token is not a keyword
+     */
+    public static int getKeywordId(String token) {
+        return KEYWORDS.lookup(token);
+    }
 
-        st.ordinaryChar(BEGIN_NODE_TYPE_NAME);
-        st.ordinaryChar(END_NODE_TYPE_NAME);
-        st.ordinaryChar(EXTENDS);
-        st.ordinaryChar(LIST_DELIMITER);
-        st.ordinaryChar(PROPERTY_DEFINITION);
-        st.ordinaryChar(CHILD_NODE_DEFINITION);
-        st.ordinaryChar(BEGIN_TYPE);
-        st.ordinaryChar(END_TYPE);
-        st.ordinaryChar(DEFAULT);
-        st.ordinaryChar(CONSTRAINT);
+    /**
+     * Returns the IDs of the keywords of one of the alias arrays declared by this class (for example {@link #MIXIN} or
+     * {@link #PROP_ATTRIBUTE}).
+     *
+     * @param aliases one of the alias arrays of this class
+     * @return the set of keyword IDs, or <code>null</code> if the array is not declared by this class
+     */
+    public static BitSet getKeywordGroup(String[] aliases) {
+        return KEYWORD_GROUPS.get(aliases);
     }
 
     /**
@@ -270,32 +363,302 @@ public class Lexer {
      * @throws ParseException
      */
     public String getNextToken() throws ParseException {
-        try {
-            int tokenType = st.nextToken();
-            if (tokenType == StreamTokenizer.TT_EOF) {
+        if (buffer == null) {
+            load();
+        }
+        keywordId = -1;
+        int c = read();
+        while (true) {
+            // whitespaces
+            while (c >= 0 && c <= ' ') {
+                if (c == '\r') {
+                    lineNumber++;
+                    c = read();
+                    if (c == '\n') {
+                        c = read();
+                    }
+                } else {
+                    if (c == '\n') {
+                        lineNumber++;
+                    }
+                    c = read();
+                }
+            }
+            if (c < 0) {
+                tokenType = TOKEN_EOF;
                 return EOF;
-            } else if (tokenType == StreamTokenizer.TT_WORD
-                    || tokenType == SINGLE_QUOTE
-                    || tokenType == DOUBLE_QUOTE) {
-                return st.sval;
-            } else if (tokenType == StreamTokenizer.TT_NUMBER) {
-                return String.valueOf(st.nval);
+            }
+            if (c != '/') {
+                break;
+            }
+            c = read();
+            if (c == '*') {
+                if (!skipBlockComment()) {
+                    tokenType = TOKEN_EOF;
+                    return EOF;
+                }
+                c = read();
             } else {
-                return new String(new char[] {(char) tokenType});
+                if (c != '/') {
+                    // a single '/' also starts a line comment, and the character following it is always skipped
+                    c = read();
+                }
+                while (c != '\n' && c != '\r' && c >= 0) {
+                    c = read();
+                }
+            }
+        }
+        if (isDigit(c)) {
+            return number(c);
+        }
+        if (isWordStart(c)) {
+            return word();
+        }
+        if (c == SINGLE_QUOTE || c == DOUBLE_QUOTE) {
+            return quoted((char) c);
+        }
+        tokenType = TOKEN_DELIMITER;
+        if (c < CHAR_TOKENS.length) {
+            keywordId = CHAR_KEYWORDS[c];
+            return CHAR_TOKENS[c];
+        }
+        return String.valueOf((char) c);
+    }
+
+    /**
+     * @return the kind of the last token returned by {@link #getNextToken()}, one of the <code>TOKEN_</code> constants
+     */
+    public int getTokenType() {
+        return tokenType;
+    }
+
+    /**
+     * @return the keyword ID of the last token returned by {@link #getNextToken()}, or <code>-1</code> if the token
+     * is not a keyword
+     */
+    public int getKeywordId() {
+        return keywordId;
+    }
+
+    /**
+     * @return the current line number
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns a read-only view of the whole input of this lexer, reading it first if needed. Must be called before any
+     * token is read.
+     *
+     * @return the characters of the CND content
+     * @throws ParseException if the input cannot be read
+     */
+    CharBuffer getContent() throws ParseException {
+        if (reader != null) {
+            load();
+        }
+        return CharBuffer.wrap(buffer, position, limit - position).asReadOnlyBuffer();
+    }
+
+    private void load() throws ParseException {
+        buffer = new char[8192];
+        try {
+            int read;
+            while ((read = reader.read(buffer, limit, buffer.length - limit)) >= 0) {
+                limit += read;
+                if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
             }
         } catch (IOException e) {
             fail("IOException while attempting to read input stream", e);
-            return null;
+        } finally {
+            reader = null;
         }
     }
 
+    private int read() {
+        return position < limit ? buffer[position++] : -1;
+    }
+
+    /**
+     * Skips a block comment whose opening has been consumed, counting lines the same way
+     * {@link java.io.StreamTokenizer} does.
+     *
+     * @return <code>false</code> if the end of the input is reached before the end of the comment
+     */
+    private boolean skipBlockComment() {
+        int prevc = 0;
+        int c;
+        while ((c = read()) != '/' || prevc != '*') {
+            if (c == '\r') {
+                lineNumber++;
+                c = read();
+                if (c == '\n') {
+                    c = read();
+                }
+            } else if (c == '\n') {
+                lineNumber++;
+                c = read();
+            }
+            if (c < 0) {
+                return false;
+            }
+            prevc = c;
+        }
+        return true;
+    }
+
+    private String word() {
+        int start = position - 1;
+        while (position < limit && isWordPart(buffer[position])) {
+            position++;
+        }
+        tokenType = TOKEN_WORD;
+        return token(buffer, start, position - start);
+    }
+
+    private String number(int c) {
+        // same value as computed by StreamTokenizer, the grammar expects its double formatting
+        double v = 0;
+        int decexp = 0;
+        int seendot = 0;
+        while (true) {
+            if (c == '.' && seendot == 0) {
+                seendot = 1;
+            } else if ('0' <= c && c <= '9') {
+                v = v * 10 + (c - '0');
+                decexp += seendot;
+            } else {
+                break;
+            }
+            c = read();
+        }
+        unread(c);
+        if (decexp != 0) {
+            double denom = 10;
+            decexp--;
+            while (decexp > 0) {
+                denom *= 10;
+                decexp--;
+            }
+            v = v / denom;
+        }
+        tokenType = TOKEN_NUMBER;
+        return String.valueOf(v);
+    }
+
+    private String quoted(char quote) {
+        int start = position;
+        int c = read();
+        while (c >= 0 && c != quote && c != '\n' && c != '\r' && c != '\\') {
+            c = read();
+        }
+        tokenType = TOKEN_QUOTED;
+        if (c != '\\') {
+            int length = (c < 0 ? position : position - 1) - start;
+            if (c != quote) {
+                unread(c);
+            }
+            return token(buffer, start, length);
+        }
+        // escape sequences, the value has to be built in a separate buffer
+        int length = position - 1 - start;
+        if (quoteBuffer == null || quoteBuffer.length < limit - start) {
+            quoteBuffer = new char[Math.max(64, limit - start)];
+        }
+        System.arraycopy(buffer, start, quoteBuffer, 0, length);
+        int d = c;
+        while (d >= 0 && d != quote && d != '\n' && d != '\r') {
+            if (d == '\\') {
+                c = read();
+                int first = c;
+                if (c >= '0' && c <= '7') {
+                    c = c - '0';
+                    int c2 = read();
+                    if ('0' <= c2 && c2 <= '7') {
+                        c = (c << 3) + (c2 - '0');
+                        c2 = read();
+                        if ('0' <= c2 && c2 <= '7' && first <= '3') {
+                            c = (c << 3) + (c2 - '0');
+                            d = read();
+                        } else {
+                            d = c2;
+                        }
+                    } else {
+                        d = c2;
+                    }
+                } else {
+                    switch (c) {
+                        case 'a':
+                            c = 0x7;
+                            break;
+                        case 'b':
+                            c = '\b';
+                            break;
+                        case 'f':
+                            c = 0xC;
+                            break;
+                        case 'n':
+                            c = '\n';
+                            break;
+                        case 'r':
+                            c = '\r';
+                            break;
+                        case 't':
+                            c = '\t';
+                            break;
+                        case 'v':
+                            c = 0xB;
+                            break;
+                        default:
+                            break;
+                    }
+                    d = read();
+                }
+            } else {
+                c = d;
+                d = read();
+            }
+            quoteBuffer[length++] = (char) c;
+        }
+        if (d != quote) {
+            unread(d);
+        }
+        return token(quoteBuffer, 0, length);
+    }
+
+    private String token(char[] chars, int offset, int length) {
+        keywordId = KEYWORDS.lookup(chars, offset, length);
+        return keywordId >= 0 ? KEYWORDS.getKeyword(keywordId) : new String(chars, offset, length);
+    }
+
+    private void unread(int c) {
+        if (c >= 0) {
+            position--;
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return (c >= '0' && c <= '9') || c == '.';
+    }
+
+    private static boolean isWordStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == ':' || c == '_' || c >= 160;
+    }
+
+    private static boolean isWordPart(int c) {
+        return isWordStart(c) || isDigit(c);
+    }
+
     /**
      * Creates a failure exception including the current line number and systemid.
      * @param message message
      * @throws ParseException the created exception
      */
     public void fail(String message) throws ParseException {
-        throw new ParseException(message, st.lineno(), -1, filename);
+        throw new ParseException(message, lineNumber, -1, filename);
     }
 
     /**
@@ -305,7 +668,7 @@ public class Lexer {
      * @throws ParseException the created exception
      */
     public void fail(String message, Throwable e) throws ParseException {
-        throw new ParseException(message, e, st.lineno(), -1, filename);
+        throw new ParseException(message, e, lineNumber, -1, filename);
     }
 
      /**
@@ -314,6 +677,6 @@ public class Lexer {
      * @throws ParseException the created exception
      */
      public void fail(Throwable e) throws ParseException {
-        throw new ParseException(e, st.lineno(), -1, filename);
+        throw new ParseException(e, lineNumber, -1, filename);
     }
 }
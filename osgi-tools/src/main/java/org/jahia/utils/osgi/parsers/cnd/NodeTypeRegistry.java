@@ -46,6 +46,7 @@ package org.jahia.utils.osgi.parsers.cnd;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 
+import javax.jcr.NamespaceException;
 import javax.jcr.RepositoryException;
 import javax.jcr.UnsupportedRepositoryOperationException;
 import javax.jcr.nodetype.*;
@@ -54,9 +55,17 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Jahia implementation of the {@link NodeTypeManager}.
+ * <p/>
+ * Registered types are held in an immutable snapshot which is replaced as a whole on every change, so reads never
+ * lock and can run concurrently with registrations. Changes made between {@link #beginBatch(String)} and
+ * {@link #commitBatch()} are only visible to the registering thread until they are published together, which lets
+ * several threads parse and register the CND files of different modules at the same time. Besides the shared
+ * {@link #getInstance()} registry, separate instances can be created to keep the types of a build isolated.
  * User: toto
  * Date: 4 janv. 2008
  * Time: 15:08:56
@@ -65,13 +74,16 @@ public class NodeTypeRegistry implements NodeTypeManager {
     public static final String SYSTEM = "system";
     private static Logger logger = org.slf4j.LoggerFactory.getLogger(NodeTypeRegistry.class);
 
-    private List<ExtendedNodeType> nodeTypesList = new ArrayList<ExtendedNodeType>();
-    private Map<Name, ExtendedNodeType> nodetypes = new HashMap<Name, ExtendedNodeType>();
+    private volatile Snapshot snapshot = new Snapshot();
 
-    private Map<String,String> namespaces = new HashMap<String,String>();
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<Batch>();
 
-    private Map<ExtendedNodeType,Set<ExtendedNodeType>> mixinExtensions = new HashMap<ExtendedNodeType,Set<ExtendedNodeType>>();
-    private Map<String,Set<ExtendedItemDefinition>> typedItems = new HashMap<String,Set<ExtendedItemDefinition>>();
+    private final Map<String,String> namespaces = new ConcurrentHashMap<String,String>();
+
+    private final Map<String, Integer> nodeTypeIds = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private volatile CompiledDefinitionsCache compiledDefinitionsCache;
 
     private boolean propertiesLoaded = false;
     private final Properties deploymentProperties = new Properties();
@@ -82,11 +94,236 @@ public class NodeTypeRegistry implements NodeTypeManager {
         return instance;
     }
 
+    /**
+     * Creates an empty registry, independent from the shared {@link #getInstance()} one.
+     */
+    public NodeTypeRegistry() {
+    }
+
+    /**
+     * Starts a batch of changes for the given system ID. Until {@link #commitBatch()} is called, the node types, mixin
+     * extensions and typed items registered by the current thread are only visible to this thread. Nested calls join
+     * the batch already started by the thread.
+     *
+     * @param systemId the system ID (module) the registered types belong to
+     */
+    public void beginBatch(String systemId) {
+        Batch batch = currentBatch.get();
+        if (batch != null) {
+            batch.depth++;
+        } else {
+            currentBatch.set(new Batch(systemId, snapshot));
+        }
+    }
+
+    /**
+     * Publishes the changes of the batch started by the current thread, atomically for all other threads. A nested
+     * call only leaves the nested level, the changes are published by the outermost one.
+     *
+     * @throws IllegalStateException if no batch has been started by the current thread, or if a nested level of the
+     * batch has been rolled back, the whole batch is discarded then
+     */
+    public void commitBatch() {
+        Batch batch = currentBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No batch started by the current thread");
+        }
+        if (batch.depth > 0) {
+            batch.depth--;
+            return;
+        }
+        currentBatch.remove();
+        if (batch.failed) {
+            throw new IllegalStateException("The node type registry batch of " + batch.systemId + " has been rolled back by a nested call");
+        }
+        if (batch.changes == null && batch.subtypeLinks.isEmpty()) {
+            return;
+        }
+        logger.debug("Publishing {} node type registry changes for {}", batch.log.size(), batch.systemId);
+        synchronized (this) {
+            if (batch.changes != null) {
+                if (snapshot == batch.base) {
+                    snapshot = batch.changes.build();
+                } else {
+                    // another batch has been published in the meantime, replay our changes on top of it
+                    Builder builder = new Builder(snapshot);
+                    batch.replay(builder);
+                    snapshot = builder.build();
+                }
+            }
+            for (SubtypeLink link : batch.subtypeLinks) {
+                link.supertype.addSubType(link.subtype);
+            }
+        }
+        nodeTypesChanged();
+    }
+
+    /**
+     * Discards the changes of the batch started by the current thread. A nested call only marks the batch as failed,
+     * it is discarded when the outermost level is committed or rolled back.
+     */
+    public void rollbackBatch() {
+        Batch batch = currentBatch.get();
+        if (batch == null) {
+            return;
+        }
+        if (batch.depth > 0) {
+            batch.depth--;
+            batch.failed = true;
+            return;
+        }
+        currentBatch.remove();
+        nodeTypesChanged();
+    }
+
+    /**
+     * Registers and validates a set of node types as one batch, so that other threads either see all of them or none.
+     *
+     * @param systemId the system ID (module) of the node types
+     * @param nodeTypes the node types to register
+     * @throws NoSuchNodeTypeException if one of the types references an unknown type, nothing is registered then
+     */
+    public void registerNodeTypes(String systemId, List<ExtendedNodeType> nodeTypes) throws NoSuchNodeTypeException {
+        beginBatch(systemId);
+        boolean committed = false;
+        try {
+            for (ExtendedNodeType nodeType : nodeTypes) {
+                addNodeType(nodeType.getNameObject(), nodeType);
+            }
+            for (ExtendedNodeType nodeType : nodeTypes) {
+                nodeType.validate();
+            }
+            commitBatch();
+            committed = true;
+        } finally {
+            if (!committed) {
+                rollbackBatch();
+            }
+        }
+    }
+
+    /**
+     * Returns the dense integer ID of a node type name, allocating it on first use. IDs are never reused, a type
+     * registered again under the same name keeps its ID.
+     *
+     * @param name the qualified node type name
+     * @return the ID of the type
+     */
+    public int getNodeTypeId(String name) {
+        Integer id = nodeTypeIds.get(name);
+        if (id == null) {
+            synchronized (nodeTypeIds) {
+                id = nodeTypeIds.get(name);
+                if (id == null) {
+                    id = nodeTypeIds.size();
+                    nodeTypeIds.put(name, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param name the qualified node type name
+     * @return the ID of the type or <code>-1</code> if no ID has been allocated for this name
+     */
+    public int findNodeTypeId(String name) {
+        Integer id = nodeTypeIds.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return a counter incremented on every change of the type hierarchy, used to invalidate the supertype and
+     * subtype closures memoized by the node types
+     */
+    int getGeneration() {
+        return generation.get();
+    }
+
+    void nodeTypesChanged() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return true if the current thread has started a batch which is not published yet, the types it sees may then
+     * differ from the ones seen by the other threads
+     */
+    boolean isInBatch() {
+        return currentBatch.get() != null;
+    }
+
+    /**
+     * Declares a type as subtype of one of its supertypes. Inside a batch, the link is only recorded and made when
+     * the batch is published, so that a batch which is rolled back leaves no subtype on the published types.
+     *
+     * @param supertype the supertype
+     * @param subtype the type declaring it
+     * @return true if the declared subtypes of the supertype changed
+     */
+    boolean addSubType(ExtendedNodeType supertype, ExtendedNodeType subtype) {
+        Batch batch = currentBatch.get();
+        if (batch != null) {
+            batch.subtypeLinks.add(new SubtypeLink(supertype, subtype));
+            return true;
+        }
+        return supertype.addSubType(subtype);
+    }
+
+    /**
+     * @param type a node type
+     * @param declaredSubtypes the published declared subtypes of the type
+     * @return the declared subtypes of the type, including the ones linked by the batch of the current thread
+     */
+    List<ExtendedNodeType> getDeclaredSubtypes(ExtendedNodeType type, List<ExtendedNodeType> declaredSubtypes) {
+        Batch batch = currentBatch.get();
+        if (batch == null || batch.subtypeLinks.isEmpty()) {
+            return declaredSubtypes;
+        }
+        List<ExtendedNodeType> subtypes = null;
+        for (SubtypeLink link : batch.subtypeLinks) {
+            if (link.supertype == type) {
+                if (subtypes == null) {
+                    subtypes = new ArrayList<ExtendedNodeType>(declaredSubtypes);
+                }
+                subtypes.remove(link.subtype);
+                subtypes.add(link.subtype);
+            }
+        }
+        return subtypes != null ? subtypes : declaredSubtypes;
+    }
+
+    private Snapshot snapshot() {
+        Batch batch = currentBatch.get();
+        if (batch != null && batch.changes != null) {
+            return batch.changes.build();
+        }
+        return snapshot;
+    }
+
+    private void update(Change change) {
+        Batch batch = currentBatch.get();
+        if (batch != null) {
+            if (batch.changes == null) {
+                batch.changes = new Builder(batch.base);
+            }
+            change.apply(batch.changes);
+            batch.log.add(change);
+            return;
+        }
+        synchronized (this) {
+            Builder builder = new Builder(snapshot);
+            change.apply(builder);
+            snapshot = builder.build();
+        }
+        nodeTypesChanged();
+    }
+
     public void flushLabels() {
-        for (ExtendedNodeType nodeType : nodetypes.values()) {
+        Snapshot current = snapshot();
+        for (ExtendedNodeType nodeType : current.nodetypes.values()) {
             nodeType.clearLabels();
         }
-        for (Set<ExtendedItemDefinition> itemSet : typedItems.values()) {
+        for (Set<ExtendedItemDefinition> itemSet : current.typedItems.values()) {
             for (ExtendedItemDefinition item : itemSet) {
                 item.clearLabels();
                 item.getDeclaringNodeType().clearLabels();
@@ -94,6 +331,19 @@ public class NodeTypeRegistry implements NodeTypeManager {
         }
     }
 
+    public CompiledDefinitionsCache getCompiledDefinitionsCache() {
+        return compiledDefinitionsCache;
+    }
+
+    /**
+     * Sets the cache used by {@link #getDefinitionsFromFile(File, String)} to avoid parsing unchanged files again.
+     *
+     * @param compiledDefinitionsCache the cache, or <code>null</code> to always parse the files
+     */
+    public void setCompiledDefinitionsCache(CompiledDefinitionsCache compiledDefinitionsCache) {
+        this.compiledDefinitionsCache = compiledDefinitionsCache;
+    }
+
     public List<ExtendedNodeType> getDefinitionsFromFile(File resource, String systemId) throws ParseException, IOException {
         String ext = resource.getPath().substring(resource.getPath().lastIndexOf('.'));
         if (ext.equalsIgnoreCase(".cnd")) {
@@ -102,6 +352,7 @@ public class NodeTypeRegistry implements NodeTypeManager {
                 resourceReader = new FileReader(resource);
                 JahiaCndReader r = new JahiaCndReader(resourceReader, resource.getPath(), systemId, this);
                 r.setDoRegister(false);
+                r.setCompiledDefinitionsCache(compiledDefinitionsCache);
                 r.parse();
                 return r.getNodeTypesList();
             } finally {
@@ -112,7 +363,7 @@ public class NodeTypeRegistry implements NodeTypeManager {
     }
 
     public ExtendedNodeType getNodeType(String name) throws NoSuchNodeTypeException {
-        ExtendedNodeType res = nodetypes.get(new Name(name, namespaces));
+        ExtendedNodeType res = snapshot().nodetypes.get(new Name(name, namespaces));
         if (res == null) {
             throw new NoSuchNodeTypeException(name);
         }
@@ -120,42 +371,75 @@ public class NodeTypeRegistry implements NodeTypeManager {
     }
 
     public NodeTypeIterator getAllNodeTypes() {
-        return new JahiaNodeTypeIterator(nodeTypesList.iterator(),nodeTypesList.size());
+        Collection<ExtendedNodeType> nodeTypes = snapshot().nodetypes.values();
+        return new JahiaNodeTypeIterator(nodeTypes.iterator(),nodeTypes.size());
     }
 
     public NodeTypeIterator getAllNodeTypes(List<String> systemIds) {
         List<ExtendedNodeType> res = new ArrayList<ExtendedNodeType>();
-        for (Iterator<ExtendedNodeType> iterator = nodetypes.values().iterator(); iterator.hasNext();) {
-            ExtendedNodeType nt = iterator.next();
-            if (systemIds == null || systemIds.contains(nt.getSystemId())) {
-                res.add(nt);
-            }
+        for (ExtendedNodeType nt : getNodeTypes(snapshot(), systemIds)) {
+            res.add(nt);
         }
         return new JahiaNodeTypeIterator(res.iterator(), res.size());
     }
 
     public NodeTypeIterator getNodeTypes(String systemId) {
-        List<ExtendedNodeType> l = new ArrayList<ExtendedNodeType>();
-        for (ExtendedNodeType nt : nodeTypesList) {
-            if (nt.getSystemId().equals(systemId)) {
-                l.add(nt);
-            }
-        }
+        Set<ExtendedNodeType> l = getNodeTypes(snapshot(), systemId);
         return new JahiaNodeTypeIterator(l.iterator(),l.size());
     }
 
+    private static Set<ExtendedNodeType> getNodeTypes(Snapshot current, String systemId) {
+        Set<ExtendedNodeType> l = current.nodeTypesBySystemId.get(systemId);
+        return l != null ? l : Collections.<ExtendedNodeType>emptySet();
+    }
+
+    /**
+     * @return the types of the given modules, looked up in the system ID index, or all the types if
+     * <code>systemIds</code> is <code>null</code>
+     */
+    private static Collection<ExtendedNodeType> getNodeTypes(Snapshot current, List<String> systemIds) {
+        if (systemIds == null) {
+            return current.nodetypes.values();
+        }
+        List<ExtendedNodeType> res = new ArrayList<ExtendedNodeType>();
+        for (String systemId : new LinkedHashSet<String>(systemIds)) {
+            res.addAll(getNodeTypes(current, systemId));
+        }
+        return res;
+    }
+
     public Map<String, String> getNamespaces() {
         return namespaces;
     }
+
+    /**
+     * Registers a namespace mapping. Registering the same mapping again has no effect.
+     *
+     * @param prefix the namespace prefix
+     * @param uri the namespace URI
+     * @throws NamespaceException if the prefix or the URI is already mapped differently
+     */
+    public void registerNamespace(String prefix, String uri) throws NamespaceException {
+        synchronized (namespaces) {
+            String existingUri = namespaces.get(prefix);
+            if (existingUri != null && !existingUri.equals(uri)) {
+                throw new NamespaceException("Invalid namespace declaration : prefix already declared");
+            }
+            if (existingUri == null && namespaces.containsValue(uri)) {
+                throw new NamespaceException("Invalid namespace declaration : uri already declared");
+            }
+            namespaces.put(prefix, uri);
+        }
+    }
+
     public NodeTypeIterator getPrimaryNodeTypes() throws RepositoryException {
         return getPrimaryNodeTypes(null);
     }
 
     public NodeTypeIterator getPrimaryNodeTypes(List<String> systemIds) throws RepositoryException {
         List<ExtendedNodeType> res = new ArrayList<ExtendedNodeType>();
-        for (Iterator<ExtendedNodeType> iterator = nodetypes.values().iterator(); iterator.hasNext();) {
-            ExtendedNodeType nt = iterator.next();
-            if (!nt.isMixin() && (systemIds == null || systemIds.contains(nt.getSystemId()))) {
+        for (ExtendedNodeType nt : getNodeTypes(snapshot(), systemIds)) {
+            if (!nt.isMixin()) {
                 res.add(nt);
             }
         }
@@ -168,57 +452,296 @@ public class NodeTypeRegistry implements NodeTypeManager {
 
     public NodeTypeIterator getMixinNodeTypes(List<String> systemIds) throws RepositoryException {
         List<ExtendedNodeType> res = new ArrayList<ExtendedNodeType>();
-        for (Iterator<ExtendedNodeType> iterator = nodetypes.values().iterator(); iterator.hasNext();) {
-            ExtendedNodeType nt = iterator.next();
-            if (nt.isMixin() && (systemIds == null || systemIds.contains(nt.getSystemId()))) {
+        for (ExtendedNodeType nt : getNodeTypes(snapshot(), systemIds)) {
+            if (nt.isMixin()) {
                 res.add(nt);
             }
         }
         return new JahiaNodeTypeIterator(res.iterator(), res.size());
     }
 
-    public void addNodeType(Name name, ExtendedNodeType nodeType) {
-        if (nodetypes.containsKey(name)) {
-            nodeTypesList.remove(nodetypes.get(name));
-        }
-        nodeTypesList.add(nodeType);
-        nodetypes.put(name, nodeType);
+    public void addNodeType(final Name name, final ExtendedNodeType nodeType) {
+        update(new Change() {
+            public void apply(Builder builder) {
+                builder.addNodeType(name, nodeType);
+            }
+        });
     }
 
-    public void addMixinExtension(ExtendedNodeType mixin, ExtendedNodeType baseType) {
-        if (!mixinExtensions.containsKey(baseType)) {
-            mixinExtensions.put(baseType, new HashSet<ExtendedNodeType>());
-        }
-        mixinExtensions.get(baseType).add(mixin);
+    public void addMixinExtension(final ExtendedNodeType mixin, final ExtendedNodeType baseType) {
+        update(new Change() {
+            public void apply(Builder builder) {
+                builder.addMixinExtension(mixin, baseType);
+            }
+        });
     }
 
+    /**
+     * @return a read-only view of the mixin extensions, by extended type
+     */
     public Map<ExtendedNodeType, Set<ExtendedNodeType>> getMixinExtensions() {
-        return mixinExtensions;
+        return snapshot().mixinExtensions;
     }
 
-    public void addTypedItem(ExtendedItemDefinition itemDef) {
-        final String type = itemDef.getItemType();
-        if (!typedItems.containsKey(type)) {
-            typedItems.put(type, new HashSet<ExtendedItemDefinition>());
-        }
-        typedItems.get(type).add(itemDef);
+    public void addTypedItem(final ExtendedItemDefinition itemDef) {
+        update(new Change() {
+            public void apply(Builder builder) {
+                builder.addTypedItem(itemDef);
+            }
+        });
     }
 
+    /**
+     * @return a read-only view of the typed items, by item type
+     */
     public Map<String, Set<ExtendedItemDefinition>> getTypedItems() {
-        return typedItems;
+        return snapshot().typedItems;
     }
 
-    public void unregisterNodeType(Name name) {
-        ExtendedNodeType nt = nodetypes.remove(name);
-        nodeTypesList.remove(nt);
+    public void unregisterNodeType(final Name name) {
+        update(new Change() {
+            public void apply(Builder builder) {
+                builder.removeNodeType(name);
+            }
+        });
     }
 
-    public void unregisterNodeTypes(String systemId) {
-        for (Name n : new HashSet<Name>(nodetypes.keySet())) {
-            ExtendedNodeType nt = nodetypes.get(n);
-            if (systemId.equals(nt.getSystemId())) {
-                unregisterNodeType(n);
+    /**
+     * Unregisters all the types of a module, along with the mixin extensions and typed items they declared.
+     *
+     * @param systemId the system ID of the module
+     */
+    public void unregisterNodeTypes(final String systemId) {
+        update(new Change() {
+            public void apply(Builder builder) {
+                builder.removeNodeTypes(systemId);
             }
+        });
+    }
+
+    /**
+     * Immutable state of the registry. Besides the global maps, the types, mixin extensions and typed items are indexed
+     * by the system ID of the module declaring them, so that the operations on one module do not scan the whole
+     * registry. The types are kept in registration order.
+     */
+    private static class Snapshot {
+        final Map<Name, ExtendedNodeType> nodetypes;
+        final Map<ExtendedNodeType, Set<ExtendedNodeType>> mixinExtensions;
+        final Map<String, Set<ExtendedItemDefinition>> typedItems;
+        final Map<String, Set<ExtendedNodeType>> nodeTypesBySystemId;
+        final Map<String, Map<ExtendedNodeType, Set<ExtendedNodeType>>> mixinExtensionsBySystemId;
+        final Map<String, Set<ExtendedItemDefinition>> typedItemsBySystemId;
+
+        Snapshot() {
+            this(new LinkedHashMap<Name, ExtendedNodeType>(),
+                    new HashMap<ExtendedNodeType, Set<ExtendedNodeType>>(), new HashMap<String, Set<ExtendedItemDefinition>>(),
+                    new HashMap<String, Set<ExtendedNodeType>>(), new HashMap<String, Map<ExtendedNodeType, Set<ExtendedNodeType>>>(),
+                    new HashMap<String, Set<ExtendedItemDefinition>>());
+        }
+
+        Snapshot(Map<Name, ExtendedNodeType> nodetypes,
+                 Map<ExtendedNodeType, Set<ExtendedNodeType>> mixinExtensions, Map<String, Set<ExtendedItemDefinition>> typedItems,
+                 Map<String, Set<ExtendedNodeType>> nodeTypesBySystemId,
+                 Map<String, Map<ExtendedNodeType, Set<ExtendedNodeType>>> mixinExtensionsBySystemId,
+                 Map<String, Set<ExtendedItemDefinition>> typedItemsBySystemId) {
+            this.nodetypes = Collections.unmodifiableMap(nodetypes);
+            this.mixinExtensions = Collections.unmodifiableMap(mixinExtensions);
+            this.typedItems = Collections.unmodifiableMap(typedItems);
+            this.nodeTypesBySystemId = Collections.unmodifiableMap(nodeTypesBySystemId);
+            this.mixinExtensionsBySystemId = Collections.unmodifiableMap(mixinExtensionsBySystemId);
+            this.typedItemsBySystemId = Collections.unmodifiableMap(typedItemsBySystemId);
+        }
+    }
+
+    /**
+     * Mutable copy of a snapshot. Only the top-level maps are copied when the builder is created, the sets and maps
+     * stored in them are shared with the snapshot and copied the first time the builder modifies them. From then on
+     * they belong to the builder and are modified in place, so a batch of changes on a module only costs the size of
+     * this module's entries.
+     */
+    private static class Builder {
+        final Map<Name, ExtendedNodeType> nodetypes;
+        final Map<ExtendedNodeType, Set<ExtendedNodeType>> mixinExtensions;
+        final Map<String, Set<ExtendedItemDefinition>> typedItems;
+        final Map<String, Set<ExtendedNodeType>> nodeTypesBySystemId;
+        final Map<String, Map<ExtendedNodeType, Set<ExtendedNodeType>>> mixinExtensionsBySystemId;
+        final Map<String, Set<ExtendedItemDefinition>> typedItemsBySystemId;
+        /**
+         * The modifiable sets and maps owned by this builder, by the read-only view stored in the maps.
+         */
+        private final Map<Object, Object> owned = new IdentityHashMap<Object, Object>();
+        private final Snapshot view;
+
+        Builder(Snapshot base) {
+            nodetypes = new LinkedHashMap<Name, ExtendedNodeType>(base.nodetypes);
+            mixinExtensions = new HashMap<ExtendedNodeType, Set<ExtendedNodeType>>(base.mixinExtensions);
+            typedItems = new HashMap<String, Set<ExtendedItemDefinition>>(base.typedItems);
+            nodeTypesBySystemId = new HashMap<String, Set<ExtendedNodeType>>(base.nodeTypesBySystemId);
+            mixinExtensionsBySystemId = new HashMap<String, Map<ExtendedNodeType, Set<ExtendedNodeType>>>(base.mixinExtensionsBySystemId);
+            typedItemsBySystemId = new HashMap<String, Set<ExtendedItemDefinition>>(base.typedItemsBySystemId);
+            view = new Snapshot(nodetypes, mixinExtensions, typedItems, nodeTypesBySystemId,
+                    mixinExtensionsBySystemId, typedItemsBySystemId);
+        }
+
+        /**
+         * @return the modifiable set stored under the key, copied or created and stored in the map if the builder
+         * does not own it yet
+         */
+        @SuppressWarnings("unchecked")
+        private <K, T> Set<T> ownedSet(Map<K, Set<T>> map, K key, boolean ordered) {
+            Set<T> current = map.get(key);
+            Set<T> set = current != null ? (Set<T>) owned.get(current) : null;
+            if (set == null) {
+                if (ordered) {
+                    set = current != null ? new LinkedHashSet<T>(current) : new LinkedHashSet<T>();
+                } else {
+                    set = current != null ? new HashSet<T>(current) : new HashSet<T>();
+                }
+                Set<T> readOnly = Collections.unmodifiableSet(set);
+                owned.put(readOnly, set);
+                map.put(key, readOnly);
+            }
+            return set;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <K, V> Map<K, V> ownedMap(Map<String, Map<K, V>> map, String key) {
+            Map<K, V> current = map.get(key);
+            Map<K, V> result = current != null ? (Map<K, V>) owned.get(current) : null;
+            if (result == null) {
+                result = current != null ? new HashMap<K, V>(current) : new HashMap<K, V>();
+                Map<K, V> readOnly = Collections.unmodifiableMap(result);
+                owned.put(readOnly, result);
+                map.put(key, readOnly);
+            }
+            return result;
+        }
+
+        /**
+         * Removes an element from the set stored under the key, and the set itself once it is empty.
+         */
+        private <K, T> void removeFromSet(Map<K, Set<T>> map, K key, T element, boolean ordered) {
+            Set<T> current = map.get(key);
+            if (current != null && current.contains(element)) {
+                Set<T> set = ownedSet(map, key, ordered);
+                set.remove(element);
+                if (set.isEmpty()) {
+                    owned.remove(map.remove(key));
+                }
+            }
+        }
+
+        void addNodeType(Name name, ExtendedNodeType nodeType) {
+            // removed first so that a type registered again moves to the end of the registration order
+            ExtendedNodeType previous = nodetypes.remove(name);
+            if (previous != null) {
+                removeFromSet(nodeTypesBySystemId, previous.getSystemId(), previous, true);
+            }
+            nodetypes.put(name, nodeType);
+            ownedSet(nodeTypesBySystemId, nodeType.getSystemId(), true).add(nodeType);
+        }
+
+        void removeNodeType(Name name) {
+            ExtendedNodeType nt = nodetypes.remove(name);
+            if (nt != null) {
+                removeFromSet(nodeTypesBySystemId, nt.getSystemId(), nt, true);
+            }
+        }
+
+        /**
+         * Removes the types of a module, with the mixin extensions and typed items they declared.
+         */
+        void removeNodeTypes(String systemId) {
+            Set<ExtendedNodeType> moduleTypes = nodeTypesBySystemId.remove(systemId);
+            if (moduleTypes != null) {
+                owned.remove(moduleTypes);
+                for (ExtendedNodeType nt : moduleTypes) {
+                    nodetypes.remove(nt.getNameObject());
+                }
+            }
+
+            Map<ExtendedNodeType, Set<ExtendedNodeType>> moduleMixinExtensions = mixinExtensionsBySystemId.remove(systemId);
+            if (moduleMixinExtensions != null) {
+                owned.remove(moduleMixinExtensions);
+                for (Map.Entry<ExtendedNodeType, Set<ExtendedNodeType>> entry : moduleMixinExtensions.entrySet()) {
+                    owned.remove(entry.getValue());
+                    for (ExtendedNodeType mixin : entry.getValue()) {
+                        removeFromSet(mixinExtensions, entry.getKey(), mixin, false);
+                    }
+                }
+            }
+
+            Set<ExtendedItemDefinition> moduleTypedItems = typedItemsBySystemId.remove(systemId);
+            if (moduleTypedItems != null) {
+                owned.remove(moduleTypedItems);
+                for (ExtendedItemDefinition itemDef : moduleTypedItems) {
+                    removeFromSet(typedItems, itemDef.getItemType(), itemDef, false);
+                }
+            }
+        }
+
+        void addMixinExtension(ExtendedNodeType mixin, ExtendedNodeType baseType) {
+            ownedSet(mixinExtensions, baseType, false).add(mixin);
+            Map<ExtendedNodeType, Set<ExtendedNodeType>> moduleMixinExtensions = ownedMap(mixinExtensionsBySystemId, mixin.getSystemId());
+            ownedSet(moduleMixinExtensions, baseType, false).add(mixin);
+        }
+
+        void addTypedItem(ExtendedItemDefinition itemDef) {
+            ownedSet(typedItems, itemDef.getItemType(), false).add(itemDef);
+            ownedSet(typedItemsBySystemId, itemDef.getDeclaringNodeType().getSystemId(), false).add(itemDef);
+        }
+
+        /**
+         * @return a read-only view of the current state. The builder is either discarded afterwards, or only used by
+         * the thread owning the batch, which is the only one reading the intermediate states.
+         */
+        Snapshot build() {
+            return view;
+        }
+    }
+
+    /**
+     * A modification of the registry, recorded in a batch so that it can be replayed if another batch has been
+     * published before it.
+     */
+    private interface Change {
+        void apply(Builder builder);
+    }
+
+    /**
+     * Changes made by one thread, not yet published.
+     */
+    private static class Batch {
+        final String systemId;
+        final Snapshot base;
+        final List<Change> log = new ArrayList<Change>();
+        final List<SubtypeLink> subtypeLinks = new ArrayList<SubtypeLink>();
+        Builder changes;
+        int depth;
+        boolean failed;
+
+        Batch(String systemId, Snapshot base) {
+            this.systemId = systemId;
+            this.base = base;
+        }
+
+        void replay(Builder builder) {
+            for (Change change : log) {
+                change.apply(builder);
+            }
+        }
+    }
+
+    /**
+     * Subtype declared by a type validated inside a batch.
+     */
+    private static class SubtypeLink {
+        final ExtendedNodeType supertype;
+        final ExtendedNodeType subtype;
+
+        SubtypeLink(ExtendedNodeType supertype, ExtendedNodeType subtype) {
+            this.supertype = supertype;
+            this.subtype = subtype;
         }
     }
 
@@ -272,7 +795,7 @@ public class NodeTypeRegistry implements NodeTypeManager {
     }
 
     public boolean hasNodeType(String name) {
-        return nodetypes.get(new Name(name, namespaces)) != null;
+        return snapshot().nodetypes.get(new Name(name, namespaces)) != null;
     }
 
     public NodeTypeTemplate createNodeTypeTemplate() throws UnsupportedRepositoryOperationException, RepositoryException {
@@ -300,9 +823,10 @@ public class NodeTypeRegistry implements NodeTypeManager {
     }
 
     public void unregisterNodeType(String name) throws ConstraintViolationException {
-        Name n = new Name(name, namespaces);
-        if (nodetypes.containsKey(n)) {
-            for (ExtendedNodeType type : nodeTypesList) {
+        final Name n = new Name(name, namespaces);
+        Snapshot current = snapshot();
+        if (current.nodetypes.containsKey(n)) {
+            for (ExtendedNodeType type : current.nodetypes.values()) {
                 if (!type.getName().equals(name)) {
                     for (ExtendedNodeType nt : type.getSupertypes()) {
                         if (nt.getName().equals(name)) {
@@ -321,7 +845,7 @@ public class NodeTypeRegistry implements NodeTypeManager {
                     }
                 }
             }
-            nodeTypesList.remove(nodetypes.remove(n));
+            unregisterNodeType(n);
         }
     }
 
@@ -80,6 +80,19 @@ public class PackageUtilsTest {
         Assert.assertTrue("Package name is not properly extracted", packagesName.contains(new PackageInfo("org.jahia.utils", version, false, fileName, parsingContext)));
         Assert.assertTrue("Package name is not properly extracted", packagesName.contains(new PackageInfo("org.jahia.services.notification", version, false, fileName, parsingContext)));
         Assert.assertTrue("Package name is not properly extracted", packagesName.size() == 2);
+        packagesName = PackageUtils.getPackagesFromClass("java.util.Map< java.lang.String ,\n org.jahia.utils.Patterns.SPACE >", false, version, fileName, parsingContext);
+        Assert.assertTrue("Package name is not properly extracted", packagesName.contains(new PackageInfo("java.util", version, false, fileName, parsingContext)));
+        Assert.assertTrue("Package name is not properly extracted", packagesName.contains(new PackageInfo("java.lang", version, false, fileName, parsingContext)));
+        Assert.assertTrue("Package name is not properly extracted", packagesName.contains(new PackageInfo("org.jahia.utils", version, false, fileName, parsingContext)));
+        Assert.assertTrue("Package name is not properly extracted", packagesName.size() == 3);
+        packagesName = PackageUtils.getPackagesFromClass("Map.Entry", false, version, fileName, parsingContext);
+        Assert.assertTrue("Package name is not properly extracted", packagesName.isEmpty());
+        packagesName = PackageUtils.getPackagesFromClass("String", false, version, fileName, parsingContext);
+        Assert.assertTrue("Package name is not properly extracted", packagesName.isEmpty());
+
+        String firstPackageName = PackageUtils.getPackagesFromClass("org.jahia.services.content.JCRNodeWrapper", false, version, fileName, parsingContext).iterator().next().getName();
+        String secondPackageName = PackageUtils.getPackagesFromClass("org.jahia.services.content.JCRSessionWrapper", true, null, "other", null).iterator().next().getName();
+        Assert.assertSame("Package names should be shared", firstPackageName, secondPackageName);
     }
 
     @Test
@@ -0,0 +1,121 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi;
+
+import aQute.bnd.version.Version;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit test for the version normalizer
+ */
+public class VersionNormalizerTest {
+
+    // the regular expression the normalizer replaces, kept as a reference
+    private static final Pattern FUZZY_VERSION = Pattern.compile("(\\d+)(\\.(\\d+)(\\.(\\d+))?)?([^a-zA-Z0-9](.*))?",
+            Pattern.DOTALL);
+
+    @Test
+    public void testCleanupVersion() {
+        Assert.assertEquals("1.2.3.SNAPSHOT", VersionNormalizer.cleanupVersion("1.2.3-SNAPSHOT"));
+        Assert.assertEquals("1.2.0.SNAPSHOT", VersionNormalizer.cleanupVersion("1.2-SNAPSHOT"));
+        Assert.assertEquals("3.0.0", VersionNormalizer.cleanupVersion("3"));
+        Assert.assertEquals("1.0.0.2a", VersionNormalizer.cleanupVersion("1.2a"));
+        Assert.assertEquals("0.0.0.invalid_version", VersionNormalizer.cleanupVersion("invalid version"));
+        Assert.assertNull(VersionNormalizer.cleanupVersion(null));
+        Assert.assertEquals("1.2.3", VersionNormalizer.cleanupVersionWithoutQualifier("1.2.3-SNAPSHOT"));
+        Assert.assertEquals("2.1.0", VersionNormalizer.cleanupVersionWithoutQualifier("2.1"));
+        Assert.assertEquals("0.0.0", VersionNormalizer.cleanupVersionWithoutQualifier("invalid"));
+        Assert.assertEquals(new Version(1, 2, 0, "Final"), VersionNormalizer.parseVersion("1.2.Final"));
+        Assert.assertSame(VersionNormalizer.parseVersion("1.2.Final"), VersionNormalizer.parseVersion("1.2.Final"));
+    }
+
+    @Test
+    public void testBoundedCache() {
+        for (int i = 0; i < 25000; i++) {
+            Assert.assertEquals("1.0." + i + ".SNAPSHOT", VersionNormalizer.cleanupVersion("1.0." + i + "-SNAPSHOT"));
+            Assert.assertTrue(VersionNormalizer.getCachedVersionCount() <= 10000);
+        }
+    }
+
+    @Test
+    public void testMatchesRegularExpression() {
+        Random random = new Random(42);
+        String alphabet = "0123456789..--_aZ é";
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder version = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                version.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            VersionNormalizer.NormalizedVersion normalizedVersion = VersionNormalizer.normalize(version.toString());
+            Assert.assertEquals(version.toString(), cleanupVersionWithPattern(version.toString(), true), normalizedVersion.getVersion());
+            Assert.assertEquals(version.toString(), cleanupVersionWithPattern(version.toString(), false), normalizedVersion.getVersionWithoutQualifier());
+        }
+    }
+
+    private static String cleanupVersionWithPattern(String version, boolean withQualifier) {
+        StringBuilder result = new StringBuilder();
+        Matcher m = FUZZY_VERSION.matcher(version);
+        if (m.matches()) {
+            String minor = m.group(3);
+            String micro = m.group(5);
+            String qualifier = m.group(7);
+            result.append(m.group(1)).append('.').append(minor != null ? minor : "0").append('.').append(minor != null && micro != null ? micro : "0");
+            if (withQualifier && qualifier != null) {
+                result.append('.').append(qualifier.replaceAll("[^a-zA-Z0-9_-]", "_"));
+            }
+        } else {
+            result.append("0.0.0");
+            if (withQualifier) {
+                result.append('.').append(version.replaceAll("[^a-zA-Z0-9_-]", "_"));
+            }
+        }
+        return result.toString();
+    }
+}
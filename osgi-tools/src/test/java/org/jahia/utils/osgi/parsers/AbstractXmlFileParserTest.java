@@ -0,0 +1,170 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers;
+
+import org.apache.commons.io.FileUtils;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit test for the XPath evaluation and the XML parsing shared by the XML file parsers
+ */
+public class AbstractXmlFileParserTest {
+
+    private static final String BEAN_XPATH = "/xp:beans/xp:bean";
+
+    @Test
+    public void testXPathWithDifferentNamespaceBindings() throws Exception {
+        Element firstRoot = build("<beans xmlns=\"urn:first\"><bean id=\"first\"/></beans>");
+        Element secondRoot = build("<beans xmlns=\"urn:second\"><bean id=\"second\"/><bean id=\"other\"/></beans>");
+        Element prefixedRoot = build("<beans xmlns=\"urn:first\" xmlns:p=\"urn:p\"><p:bean id=\"prefixed\"/></beans>");
+        TestXmlFileParser parser = new TestXmlFileParser();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("first", AbstractXmlFileParser.getElement(firstRoot, BEAN_XPATH).getAttributeValue("id"));
+            Assert.assertEquals(2, parser.getElements(secondRoot, BEAN_XPATH).size());
+            Assert.assertEquals("second", AbstractXmlFileParser.getElement(secondRoot, BEAN_XPATH).getAttributeValue("id"));
+            Assert.assertEquals("prefixed", AbstractXmlFileParser.getElement(prefixedRoot, "/xp:beans/p:bean").getAttributeValue("id"));
+            Assert.assertNull(AbstractXmlFileParser.getElement(prefixedRoot, BEAN_XPATH));
+        }
+    }
+
+    @Test
+    public void testConcurrentXPathEvaluation() throws Exception {
+        final Element firstRoot = build("<beans xmlns=\"urn:first\"><bean id=\"first\"/></beans>");
+        final Element secondRoot = build("<beans xmlns=\"urn:second\"><bean id=\"second\"/></beans>");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < 8; i++) {
+                final boolean first = i % 2 == 0;
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        for (int j = 0; j < 500; j++) {
+                            Element root = first ? firstRoot : secondRoot;
+                            Assert.assertEquals(first ? "first" : "second",
+                                    AbstractXmlFileParser.getElement(root, BEAN_XPATH).getAttributeValue("id"));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBoundedNamespaceBindings() throws Exception {
+        String xPathExpression = "/xp:beans/xp:bean[@id='bounded']";
+        for (int i = 0; i < 40; i++) {
+            Element root = build("<beans xmlns=\"urn:bounded" + i + "\"><bean id=\"bounded\"/></beans>");
+            Assert.assertNotNull(AbstractXmlFileParser.getElement(root, xPathExpression));
+            Assert.assertTrue(AbstractXmlFileParser.getCachedBindingsCount(xPathExpression) <= 16);
+        }
+    }
+
+    @Test
+    public void testExternalEntitiesAreNotResolved() throws Exception {
+        File tmpDirTestLocation = new File(System.getProperty("java.io.tmpdir"), "test-" + System.currentTimeMillis());
+        try {
+            File secretFile = new File(tmpDirTestLocation, "secret.txt");
+            FileUtils.writeStringToFile(secretFile, "secret", "UTF-8");
+            String xml = "<?xml version=\"1.0\"?>\n<!DOCTYPE beans [<!ENTITY xxe SYSTEM \"" + secretFile.toURI() + "\">]>\n" +
+                    "<beans xmlns=\"urn:first\"><bean id=\"a\">&xxe;</bean></beans>";
+
+            TestXmlFileParser parser = new TestXmlFileParser();
+            Assert.assertTrue(parser.parse("beans.xml", new ByteArrayInputStream(xml.getBytes("UTF-8")), "test", false, false, "1.0", new ParsingContext()));
+            Assert.assertNotNull(parser.content);
+            Assert.assertFalse(parser.content.contains("secret"));
+        } finally {
+            FileUtils.deleteDirectory(tmpDirTestLocation);
+        }
+    }
+
+    private static Element build(String xml) throws Exception {
+        SAXBuilder saxBuilder = AbstractXmlFileParser.borrowSAXBuilder();
+        try {
+            return saxBuilder.build(new StringReader(xml)).getRootElement();
+        } finally {
+            AbstractXmlFileParser.returnSAXBuilder(saxBuilder);
+        }
+    }
+
+    private static class TestXmlFileParser extends AbstractXmlFileParser {
+
+        private String content;
+
+        TestXmlFileParser() {
+            setLogger(LoggerFactory.getLogger(AbstractXmlFileParserTest.class));
+        }
+
+        @Override
+        public boolean canParse(String fileName, Element rootElement) {
+            return true;
+        }
+
+        @Override
+        public void parse(String fileName, Element rootElement, String fileParent, boolean externalDependency, boolean optionalDependency, String version, ParsingContext parsingContext)
+                throws JDOMException {
+            content = rootElement.getValue();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Unit test for the JCR import file parser
+ */
+public class JCRImportXmlFileParserTest {
+
+    @Test
+    public void testStreamingFindsSameReferencesAsXPath() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<content xmlns:j=\"http://www.jahia.org/jahia/1.0\" xmlns:jcr=\"http://www.jcp.org/jcr/1.0\">\n" +
+                "<sites jcr:primaryType=\"jnt:virtualsitesFolder\">\n");
+        for (int i = 0; i < 500; i++) {
+            xml.append("<page").append(i).append(" jcr:primaryType=\"jnt:page").append(i % 7).append("\"")
+                    .append(" jcr:mixinTypes=\"jmix:a").append(i % 3).append(" jmix:b").append(i % 5).append("\" j:templateName=\"home\">")
+                    .append("<list jcr:primaryType=\"jnt:contentList\" jcr:mixinTypes=\"jmix:c,jmix:d\"/>")
+                    .append("</page").append(i).append(">\n");
+        }
+        xml.append("</sites>\n</content>\n");
+        byte[] content = xml.toString().getBytes("UTF-8");
+
+        ParsingContext domParsingContext = new ParsingContext();
+        Assert.assertTrue(newParser(Integer.MAX_VALUE - 1).parse("repository.xml", new ByteArrayInputStream(content), "test", false, false, "1.0", domParsingContext));
+        ParsingContext streamingParsingContext = new ParsingContext();
+        Assert.assertTrue(newParser(1024).parse("repository.xml", new ByteArrayInputStream(content), "test", false, false, "1.0", streamingParsingContext));
+
+        Assert.assertTrue(domParsingContext.getContentTypeReferences().contains("jmix:d"));
+        Assert.assertEquals(7 + 3 + 5 + 4, domParsingContext.getContentTypeReferences().size());
+        Assert.assertEquals(domParsingContext.getContentTypeReferences(), streamingParsingContext.getContentTypeReferences());
+    }
+
+    @Test
+    public void testStreamingSkipsOtherFiles() throws IOException {
+        StringBuilder xml = new StringBuilder("<beans xmlns=\"http://www.springframework.org/schema/beans\">\n");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<bean id=\"bean").append(i).append("\" class=\"org.jahia.Bean\"/>\n");
+        }
+        xml.append("</beans>\n");
+        ParsingContext parsingContext = new ParsingContext();
+        Assert.assertFalse(newParser(1024).parse("applicationContext.xml", new ByteArrayInputStream(xml.toString().getBytes("UTF-8")), "test", false, false, "1.0", parsingContext));
+        Assert.assertTrue(parsingContext.getContentTypeReferences().isEmpty());
+    }
+
+    private static JCRImportXmlFileParser newParser(int streamingThreshold) {
+        JCRImportXmlFileParser parser = new JCRImportXmlFileParser();
+        parser.setLogger(LoggerFactory.getLogger(JCRImportXmlFileParserTest.class));
+        parser.setStreamingThreshold(streamingThreshold);
+        return parser;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit test for the JSP directive scanner, checked against the regular expressions it replaces.
+ */
+public class JspDirectiveScannerTest {
+
+    private static final String[] FRAGMENTS = new String[]{
+            "<%@", "<%", "%>", "%", "--%>", "--", " ", "\n", "\r\n", "\t", " ", "\"", "'", "<", "/>", "=",
+            "page", "taglib", " import=\"", "import=\"", " uri=\"", "--@elvariable", " type=\"", "type=\"",
+            "<jsp:useBean", " class=", "a.b.C", "x", "java.util.List<a.B>", ",", "<c:out value=\"${x}\"/>"
+    };
+
+    @Test
+    public void testSameDirectivesAsRegularExpressions() throws IOException {
+        String jsp;
+        InputStream in = this.getClass().getClassLoader().getResourceAsStream("org/jahia/utils/osgi/parsers/test.jsp");
+        try {
+            jsp = IOUtils.toString(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        assertSameDirectives(jsp);
+        assertSameDirectives("<%@ page import=\"a.B\" import=\"c.D\" %><%@page language=\"java\" import=\"e.F, g.H\"\n%>");
+        assertSameDirectives("<%-- @elvariable id=\"a\" type=\"a.B\" --\n %> <%--@elvariable type=\"c.D\"--%> type=\"e.F\"--%>");
+        assertSameDirectives("<jsp:useBean id=\"a\" class=\"a.B\"/><jsp:useBean class='c.D' />\n<jsp:useBean class=\"e.F\">");
+        assertSameDirectives("<%@ taglib uri=\"http://x\" %><%@ taglib prefix=\"c\" uri=\"http://y\" % %><%@ taglib uri=\"http://z\"");
+
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            assertSameDirectives(randomContent(random, 1 + random.nextInt(60)));
+        }
+    }
+
+    @Test
+    public void testLargeContent() throws IOException {
+        StringBuilder corpus = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            corpus.append("<%@ page language=\"java\" contentType=\"text/html;charset=UTF-8\" import=\"org.jahia.test").append(i).append(".Class\" %>\n");
+            corpus.append("<%@ taglib prefix=\"c").append(i).append("\" uri=\"http://java.sun.com/jsp/jstl/core").append(i).append("\" %>\n");
+            corpus.append("<%--@elvariable id=\"node").append(i).append("\" type=\"org.jahia.services.content.JCRNodeWrapper\"--%>\n");
+            corpus.append("<jsp:useBean id=\"bean").append(i).append("\" class=\"org.jahia.test").append(i).append(".Bean\"/>\n");
+            for (int j = 0; j < 20; j++) {
+                corpus.append("<c:if test=\"${not empty currentNode.properties['p").append(random.nextInt(100))
+                        .append("']}\"><div class=\"item\">${fn:escapeXml(currentNode.name)}</div></c:if>\n");
+            }
+        }
+        String jsp = corpus.toString();
+        Assert.assertEquals(scanWithRegularExpressions(jsp), scan(jsp));
+    }
+
+    private static String randomContent(Random random, int fragments) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < fragments; i++) {
+            content.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return content.toString();
+    }
+
+    private static void assertSameDirectives(String content) throws IOException {
+        Assert.assertEquals("Different directives for " + content, scanWithRegularExpressions(content), scan(content));
+    }
+
+    private static List<List<String>> scan(String content) throws IOException {
+        JspDirectiveScanner scanner = new JspDirectiveScanner(new StringReader(content));
+        scanner.scan();
+        List<List<String>> result = new ArrayList<List<String>>();
+        result.add(scanner.getPageImports());
+        result.add(scanner.getTaglibUris());
+        result.add(scanner.getTypeHints());
+        result.add(scanner.getUseBeanAttributes());
+        return result;
+    }
+
+    private static List<List<String>> scanWithRegularExpressions(String content) {
+        List<List<String>> result = new ArrayList<List<String>>();
+        result.add(findAll(JspFileParser.JSP_PAGE_IMPORT_PATTERN, content));
+        result.add(findAll(JspFileParser.JSP_TAGLIB_PATTERN, content));
+        result.add(findAll(JspFileParser.IDEA_TYPE_HINT_PATTERN, content));
+        result.add(findAll(JspFileParser.JSP_USEBEAN_TAG_PATTERN, content));
+        return result;
+    }
+
+    private static List<String> findAll(Pattern pattern, String content) {
+        List<String> values = new ArrayList<String>();
+        Matcher matcher = pattern.matcher(content);
+        while (matcher.find()) {
+            values.add(matcher.group(1));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers;
+
+import org.jahia.utils.osgi.PackageUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Unit test for the name indexed package info set
+ */
+public class PackageInfoSetTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackageInfoSetTest.class);
+
+    @Test
+    public void testIndexFollowsSetChanges() {
+        PackageInfoSet packageInfos = new PackageInfoSet();
+        Assert.assertTrue(packageInfos.add(new PackageInfo("org.jahia.api", "1.0", false, "a.jar", null)));
+        Assert.assertTrue(packageInfos.add(new PackageInfo("org.jahia.api", "2.0", false, "b.jar", null)));
+        Assert.assertFalse(packageInfos.add(new PackageInfo("org.jahia.api", "1.0", false, "c.jar", null)));
+        Assert.assertTrue(packageInfos.add(new PackageInfo("org.jahia.services")));
+        Assert.assertEquals(3, packageInfos.size());
+        Assert.assertEquals(2, packageInfos.getByName("org.jahia.api").size());
+        Assert.assertTrue(PackageUtils.containsIgnoreVersion(packageInfos, new PackageInfo("org.jahia.services", "3.0", false, "d.jar", null)));
+
+        Assert.assertTrue(packageInfos.remove(new PackageInfo("org.jahia.api", "1.0", false, "e.jar", null)));
+        Assert.assertEquals(1, packageInfos.getByName("org.jahia.api").size());
+        Assert.assertEquals("2.0", packageInfos.getByName("org.jahia.api").get(0).getVersion());
+
+        Assert.assertEquals(1, PackageUtils.removeMatchingVersions(packageInfos, new PackageInfo("org.jahia.api", "[2.0,3)", false, "f.jar", null)));
+        Assert.assertFalse(packageInfos.containsName("org.jahia.api"));
+
+        packageInfos.removeAll(Collections.singleton(new PackageInfo("org.jahia.services")));
+        Assert.assertTrue(packageInfos.isEmpty());
+        Assert.assertFalse(packageInfos.containsName("org.jahia.services"));
+    }
+
+    @Test
+    public void testDuplicateImportKeepsOtherImports() {
+        ParsingContext parsingContext = new ParsingContext();
+        parsingContext.addPackageImport(new PackageInfo("org.apache.commons.lang", null, false, "a.jsp", parsingContext));
+        parsingContext.addPackageImport(new PackageInfo("org.jahia.services", null, false, "a.jsp", parsingContext));
+        parsingContext.addPackageImport(new PackageInfo("org.jahia.services", null, true, "b.jsp", parsingContext));
+        for (PackageInfo packageImport : parsingContext.getPackageImports()) {
+            if (packageImport.getName().equals("org.apache.commons.lang")) {
+                Assert.assertFalse(packageImport.isOptional());
+                Assert.assertEquals(Collections.singleton("a.jsp"), packageImport.getSourceLocations());
+            } else {
+                Assert.assertEquals(new TreeSet<>(Arrays.asList("a.jsp", "b.jsp")), packageImport.getSourceLocations());
+            }
+        }
+    }
+
+    /**
+     * Post-processes a context the size of a large bundle such as jahia-impl: thousands of local packages and
+     * imports, and a few hundred dependencies exporting packages.
+     */
+    @Test
+    public void testLargeBundlePostProcess() {
+        ParsingContext parsingContext = new ParsingContext();
+        for (int i = 0; i < 5000; i++) {
+            parsingContext.addLocalPackage(new PackageInfo("org.jahia.local" + i, null, false, "classes", parsingContext));
+            parsingContext.addPackageImport(new PackageInfo("org.jahia.imported" + i, null, false, "classes", parsingContext));
+        }
+        for (int i = 0; i < 300; i++) {
+            ParsingContext childParsingContext = new ParsingContext("dep" + i, 0, 0, "dep" + i + ".jar", "dep" + i + ".jar", "1.0", parsingContext);
+            childParsingContext.setExternal(true);
+            for (int j = 0; j < 50; j++) {
+                childParsingContext.addPackageExport(new PackageInfo("org.dep" + i + ".exported" + j, "1.0", false, "dep" + i + ".jar", childParsingContext));
+            }
+            childParsingContext.addPackageExport(new PackageInfo("org.jahia.local" + i, "1.0", false, "dep" + i + ".jar", childParsingContext));
+            parsingContext.addChildJarParsingContext(childParsingContext);
+        }
+        long startTime = System.currentTimeMillis();
+        parsingContext.postProcess();
+        logger.info("Post-processed large bundle context in " + (System.currentTimeMillis() - startTime) + " ms");
+        Assert.assertEquals(300, parsingContext.getSplitPackages().size());
+        Assert.assertEquals(5000, parsingContext.getPackageImports().size());
+    }
+}
@@ -122,6 +122,52 @@ public class ParsersTest {
 
     }
 
+    @Test
+    public void testXmlDispatch() throws IOException {
+        Parsers parsers = Parsers.getInstance();
+        Assert.assertTrue(parsers.canParseForPhase(0, "META-INF/functions.TLD"));
+        Assert.assertFalse(parsers.canParseForPhase(0, "test.jsp"));
+        Assert.assertTrue(parsers.canParseForPhase(1, "META-INF/spring/context.xml"));
+        Assert.assertFalse(parsers.canParseForPhase(1, "README"));
+
+        ParsingContext parsingContext = new ParsingContext();
+        String springContext = "<beans xmlns=\"http://www.springframework.org/schema/beans\">\n" +
+                "<bean id=\"test\" class=\"org.jahia.test.spring.TestBean\"/>\n</beans>\n";
+        Assert.assertTrue(parsers.parse(1, "context.xml", new ByteArrayInputStream(springContext.getBytes("UTF-8")), "test", false, false, "1.0", logger, parsingContext));
+        Assert.assertTrue(parsingContext.getPackageImports().contains(new PackageInfo("org.jahia.test.spring")));
+
+        String jcrImport = "<content xmlns:jcr=\"http://www.jcp.org/jcr/1.0\">\n" +
+                "<page jcr:primaryType=\"jnt:page\" jcr:mixinTypes=\"jmix:test\"/>\n</content>\n";
+        Assert.assertTrue(parsers.parse(1, "repository.xml", new ByteArrayInputStream(jcrImport.getBytes("UTF-8")), "test", false, false, "1.0", logger, parsingContext));
+        Assert.assertTrue(parsingContext.getContentTypeReferences().contains("jnt:page"));
+        Assert.assertTrue(parsingContext.getContentTypeReferences().contains("jmix:test"));
+
+        Assert.assertFalse(parsers.parse(1, "other.xml", new ByteArrayInputStream("<other/>".getBytes("UTF-8")), "test", false, false, "1.0", logger, parsingContext));
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        Parsers parsers = Parsers.getInstance();
+        ParsingStatistics statistics = new ParsingStatistics();
+        parsers.setStatistics(statistics);
+        try {
+            byte[] springContext = ("<beans xmlns=\"http://www.springframework.org/schema/beans\">\n" +
+                    "<bean id=\"test\" class=\"org.jahia.test.spring.TestBean\"/>\n</beans>\n").getBytes("UTF-8");
+            Assert.assertTrue(parsers.parse(1, "context.xml", new ByteArrayInputStream(springContext), "test", false, false, "1.0", logger, new ParsingContext()));
+        } finally {
+            parsers.setStatistics(null);
+        }
+        long parsedBytes = 0;
+        long parsedEntries = 0;
+        for (ParsingStatistics.Entry parserStatistics : statistics.getParsers().values()) {
+            parsedBytes += parserStatistics.getBytesRead();
+            parsedEntries += parserStatistics.getEntriesInspected();
+        }
+        Assert.assertTrue(parsedEntries >= 1);
+        Assert.assertTrue(parsedBytes > 0);
+        Assert.assertEquals(1, ParsingStatistics.getSlowest(statistics.getParsers(), 1).size());
+    }
+
     private void parseFile(String fileName, InputStream inputStream, String fileParent, boolean externalDependency, boolean optionalDependency, String version, Logger logger, ParsingContext parsingContext) throws IOException {
         try {
         Parsers.getInstance().parse(0, fileName, inputStream, fileParent, externalDependency, optionalDependency, version, logger, parsingContext);
@@ -0,0 +1,190 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers.cnd;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.Value;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Unit test for the compiled CND definitions cache
+ */
+public class CompiledDefinitionsCacheTest {
+
+    private File cacheDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDirectory = File.createTempFile("cnd-cache", "");
+        cacheDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(cacheDirectory);
+    }
+
+    @Test
+    public void testCompiledDefinitionsMatchParsedOnes() throws Exception {
+        String cnd = loadDefinitions();
+
+        NodeTypeRegistry parsedRegistry = new NodeTypeRegistry();
+        CompiledDefinitionsCache cache = new CompiledDefinitionsCache(cacheDirectory);
+        JahiaCndReader parsed = read(cnd, parsedRegistry, cache);
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cacheDirectory.list().length);
+
+        // a new cache on the same directory, as in the next build
+        NodeTypeRegistry loadedRegistry = new NodeTypeRegistry();
+        CompiledDefinitionsCache nextCache = new CompiledDefinitionsCache(cacheDirectory);
+        JahiaCndReader loaded = read(cnd, loadedRegistry, nextCache);
+        Assert.assertEquals(1, nextCache.getHits());
+
+        Assert.assertEquals(parsedRegistry.getNamespaces(), loadedRegistry.getNamespaces());
+        Assert.assertEquals(describe(parsed.getNodeTypesList()), describe(loaded.getNodeTypesList()));
+
+        Set<String> parsedDefinitions = new TreeSet<String>();
+        Set<String> parsedReferences = new TreeSet<String>();
+        parsed.getDefinitionsAndReferences(parsedDefinitions, parsedReferences);
+        Set<String> loadedDefinitions = new TreeSet<String>();
+        Set<String> loadedReferences = new TreeSet<String>();
+        loaded.getDefinitionsAndReferences(loadedDefinitions, loadedReferences);
+        Assert.assertFalse(parsedDefinitions.isEmpty());
+        Assert.assertEquals(parsedDefinitions, loadedDefinitions);
+        Assert.assertEquals(parsedReferences, loadedReferences);
+    }
+
+    @Test
+    public void testChangedContentIsParsedAgain() throws Exception {
+        CompiledDefinitionsCache cache = new CompiledDefinitionsCache();
+        String cnd = "<nt = 'http://www.jcp.org/jcr/nt/1.0'>\n[nt:base]\n - jcr:primaryType (name) mandatory\n";
+        read(cnd, new NodeTypeRegistry(), cache);
+        read(cnd, new NodeTypeRegistry(), cache);
+        read(cnd + " - jcr:mixinTypes (name) multiple\n", new NodeTypeRegistry(), cache);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testConflictingNamespaceIsReported() throws Exception {
+        CompiledDefinitionsCache cache = new CompiledDefinitionsCache();
+        String cnd = "<test = 'http://www.jahia.org/test/1.0'>\n[test:type]\n";
+        read(cnd, new NodeTypeRegistry(), cache);
+
+        NodeTypeRegistry registry = new NodeTypeRegistry();
+        registry.registerNamespace("test", "http://www.jahia.org/other/1.0");
+        try {
+            read(cnd, registry, cache);
+            Assert.fail("The namespace conflict should have been reported");
+        } catch (ParseException e) {
+            Assert.assertEquals(0, cache.getHits());
+        }
+    }
+
+    private static JahiaCndReader read(String cnd, NodeTypeRegistry registry, CompiledDefinitionsCache cache) throws Exception {
+        JahiaCndReader reader = new JahiaCndReader(new StringReader(cnd), "definitions.cnd", "definitions", registry);
+        reader.setDoRegister(false);
+        reader.setCompiledDefinitionsCache(cache);
+        reader.parse();
+        return reader;
+    }
+
+    private String loadDefinitions() throws IOException {
+        InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream("org/jahia/utils/osgi/parsers/cnd/definitions.cnd");
+        try {
+            return IOUtils.toString(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private static List<String> describe(List<ExtendedNodeType> nodeTypes) throws Exception {
+        List<String> res = new ArrayList<String>();
+        for (ExtendedNodeType nodeType : nodeTypes) {
+            res.add(nodeType.getName() + " " + nodeType.isMixin() + " " + nodeType.isAbstract() + " "
+                    + nodeType.isQueryable() + " " + nodeType.getPrimaryItemName() + " " + nodeType.getItemsType() + " "
+                    + Arrays.toString(nodeType.getDeclaredSupertypeNames()) + " " + nodeType.getMixinExtendNames());
+            for (ExtendedItemDefinition item : nodeType.getDeclaredItems(true)) {
+                StringBuilder s = new StringBuilder(" ").append(item.getName()).append(" ").append(item.isMandatory())
+                        .append(" ").append(item.isProtected()).append(" ").append(item.isAutoCreated())
+                        .append(" ").append(item.isHidden()).append(" ").append(item.getItemType())
+                        .append(" ").append(item.getOnParentVersion()).append(" ").append(item.getSelector())
+                        .append(" ").append(item.getSelectorOptions());
+                if (item instanceof ExtendedPropertyDefinition) {
+                    ExtendedPropertyDefinition property = (ExtendedPropertyDefinition) item;
+                    s.append(" ").append(property.getRequiredType()).append(" ").append(property.isMultiple())
+                            .append(" ").append(property.isInternationalized()).append(" ").append(property.getIndex())
+                            .append(" ").append(property.getScoreboost()).append(" ").append(property.getAnalyzer())
+                            .append(" ").append(Arrays.toString(property.getAvailableQueryOperators()))
+                            .append(" ").append(Arrays.toString(property.getValueConstraints()));
+                    for (Value value : property.getDefaultValuesAsUnexpandedValue()) {
+                        s.append(" ").append(value instanceof DynamicValueImpl ? ((DynamicValueImpl) value).getFn() + ((DynamicValueImpl) value).getParams() : value.getString());
+                    }
+                } else {
+                    ExtendedNodeDefinition node = (ExtendedNodeDefinition) item;
+                    s.append(" ").append(Arrays.toString(node.getRequiredPrimaryTypeNames()))
+                            .append(" ").append(node.getDefaultPrimaryTypeName()).append(" ").append(node.allowsSameNameSiblings())
+                            .append(" ").append(node.getWorkflow());
+                }
+                res.add(s.toString());
+            }
+        }
+        return res;
+    }
+}
@@ -43,12 +43,15 @@
  */
 package org.jahia.utils.osgi.parsers.cnd;
 
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 
 import javax.jcr.RepositoryException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -86,6 +89,29 @@ public class JahiaCndReaderTest {
         }
     }
 
+    @Test
+    public void testLightweightDefinitionsAndReferences() throws Exception {
+        String cnd = IOUtils.toString(this.getClass().getClassLoader().getResourceAsStream("org/jahia/utils/osgi/parsers/cnd/definitions.cnd"));
+        final String fileName = "definitions.cnd";
+
+        JahiaCndReader fullReader = new JahiaCndReader(new StringReader(cnd), fileName, fileName, new NodeTypeRegistry());
+        fullReader.setDoRegister(false);
+        fullReader.parse();
+        Set<String> contentTypeDefinitions = new TreeSet<String>();
+        Set<String> contentTypeReferences = new TreeSet<String>();
+        fullReader.getDefinitionsAndReferences(contentTypeDefinitions, contentTypeReferences);
+
+        JahiaCndReader lightweightReader = new JahiaCndReader(new StringReader(cnd), fileName, fileName, new NodeTypeRegistry());
+        Set<String> scannedDefinitions = new TreeSet<String>();
+        Set<String> scannedReferences = new TreeSet<String>();
+        lightweightReader.parseDefinitionsAndReferences(scannedDefinitions, scannedReferences);
+        Assert.assertTrue(lightweightReader.getNodeTypesList().isEmpty());
+
+        Assert.assertFalse(contentTypeDefinitions.isEmpty());
+        Assert.assertFalse(contentTypeReferences.isEmpty());
+        Assert.assertEquals(contentTypeDefinitions, scannedDefinitions);
+        Assert.assertEquals(contentTypeReferences, scannedReferences);
+    }
 
     private Logger getLog() {
         return logger;
@@ -0,0 +1,171 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers.cnd;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit test for the CND lexer, checking that it produces the same tokens as the {@link StreamTokenizer} based
+ * implementation it replaced.
+ */
+public class LexerTest {
+
+    private static final String EDGE_CASES = "<jnt = 'http://www.jahia.org/jahia/nt/1.0'>\n" +
+            "// line comment [jnt:ignored]\r\n" +
+            "/* block\r\n comment */ [jnt:text_2.1] > jmix:a, jmix:b orderable mix\n" +
+            "- jcr:title (string, richtext[ckeditor.customConfig='$context/conf.js',x]) = 'a\\'b\\tc\\101\\7' i18n < '^[0-9]+\\.$'\n" +
+            "- size (long) = 25 scoreboost = 2.5 < '(-10,0]', '.5' indexed=no\n" +
+            "+ * (jmix:droppableContent) = jnt:text multiple\n" +
+            "- unterminated (string) = \"open\n" +
+            "/ single slash comment\n[skipped]\n" +
+            "- chars (string) = été \u0080 中 ! * . 12abc\n" +
+            "/* unterminated comment";
+
+    @Test
+    public void testSameTokensAsStreamTokenizer() throws Exception {
+        assertSameTokens(EDGE_CASES);
+        assertSameTokens(getCorpus());
+        assertSameTokens("");
+        assertSameTokens("'\\");
+    }
+
+    @Test
+    public void testKeywordIds() throws Exception {
+        Lexer lexer = new Lexer("mix o facetable jnt:text ! 'mixin'".toCharArray(), "test.cnd");
+        Assert.assertSame(Lexer.MIXIN[1], lexer.getNextToken());
+        Assert.assertTrue(Lexer.getKeywordGroup(Lexer.MIXIN).get(lexer.getKeywordId()));
+        Assert.assertEquals("o", lexer.getNextToken());
+        Assert.assertTrue(Lexer.getKeywordGroup(Lexer.ORDERABLE).get(lexer.getKeywordId()));
+        Assert.assertEquals("facetable", lexer.getNextToken());
+        Assert.assertTrue(Lexer.getKeywordGroup(Lexer.PROP_ATTRIBUTE).get(lexer.getKeywordId()));
+        Assert.assertFalse(Lexer.getKeywordGroup(Lexer.NODE_ATTRIBUTE).get(lexer.getKeywordId()));
+        Assert.assertEquals("jnt:text", lexer.getNextToken());
+        Assert.assertEquals(Lexer.TOKEN_WORD, lexer.getTokenType());
+        Assert.assertEquals(-1, lexer.getKeywordId());
+        Assert.assertEquals("!", lexer.getNextToken());
+        Assert.assertEquals(Lexer.TOKEN_DELIMITER, lexer.getTokenType());
+        Assert.assertTrue(Lexer.getKeywordGroup(Lexer.PRIMARY).get(lexer.getKeywordId()));
+        Assert.assertTrue(Lexer.getKeywordGroup(Lexer.PRIMARYITEM).get(lexer.getKeywordId()));
+        Assert.assertEquals("mixin", lexer.getNextToken());
+        Assert.assertEquals(Lexer.TOKEN_QUOTED, lexer.getTokenType());
+        Assert.assertTrue(Lexer.getKeywordGroup(Lexer.MIXIN).get(lexer.getKeywordId()));
+        Assert.assertEquals(Lexer.EOF, lexer.getNextToken());
+        Assert.assertEquals(Lexer.TOKEN_EOF, lexer.getTokenType());
+        Assert.assertNull(Lexer.getKeywordGroup(new String[]{"mixin"}));
+    }
+
+    private void assertSameTokens(String content) throws Exception {
+        StreamTokenizerLexer expected = new StreamTokenizerLexer(new StringReader(content));
+        Lexer actual = new Lexer(new StringReader(content), "test.cnd");
+        String token;
+        do {
+            token = expected.getNextToken();
+            Assert.assertEquals(token, actual.getNextToken());
+            Assert.assertEquals("Line number of token " + token, expected.getLineNumber(), actual.getLineNumber());
+        } while (!Lexer.EOF.equals(token));
+    }
+
+    private String getCorpus() throws IOException {
+        InputStream in = this.getClass().getClassLoader().getResourceAsStream("org/jahia/utils/osgi/parsers/cnd/definitions.cnd");
+        try {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * The previous lexer implementation, used as the reference.
+     */
+    private static class StreamTokenizerLexer {
+
+        private final StreamTokenizer st;
+
+        StreamTokenizerLexer(Reader r) {
+            st = new StreamTokenizer(r);
+            st.eolIsSignificant(false);
+            st.lowerCaseMode(false);
+            st.slashSlashComments(true);
+            st.slashStarComments(true);
+            st.wordChars('a', 'z');
+            st.wordChars('A', 'Z');
+            st.wordChars(':', ':');
+            st.wordChars('_', '_');
+            st.quoteChar(Lexer.SINGLE_QUOTE);
+            st.quoteChar(Lexer.DOUBLE_QUOTE);
+            for (char c : new char[]{Lexer.BEGIN_NODE_TYPE_NAME, Lexer.END_NODE_TYPE_NAME, Lexer.EXTENDS,
+                    Lexer.LIST_DELIMITER, Lexer.PROPERTY_DEFINITION, Lexer.CHILD_NODE_DEFINITION, Lexer.BEGIN_TYPE,
+                    Lexer.END_TYPE, Lexer.DEFAULT, Lexer.CONSTRAINT}) {
+                st.ordinaryChar(c);
+            }
+        }
+
+        String getNextToken() throws IOException {
+            int tokenType = st.nextToken();
+            if (tokenType == StreamTokenizer.TT_EOF) {
+                return Lexer.EOF;
+            } else if (tokenType == StreamTokenizer.TT_WORD || tokenType == Lexer.SINGLE_QUOTE
+                    || tokenType == Lexer.DOUBLE_QUOTE) {
+                return st.sval;
+            } else if (tokenType == StreamTokenizer.TT_NUMBER) {
+                return String.valueOf(st.nval);
+            } else {
+                return new String(new char[]{(char) tokenType});
+            }
+        }
+
+        int getLineNumber() {
+            return st.lineno();
+        }
+    }
+}
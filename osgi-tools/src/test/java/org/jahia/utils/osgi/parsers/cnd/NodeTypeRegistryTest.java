@@ -0,0 +1,346 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2023 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.utils.osgi.parsers.cnd;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.jcr.nodetype.NoSuchNodeTypeException;
+import javax.jcr.nodetype.NodeTypeIterator;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit test for the node type registry
+ */
+public class NodeTypeRegistryTest {
+
+    private static final String BASE_CND = "<nt = 'http://www.jcp.org/jcr/nt/1.0'>\n" +
+            "<jmix = 'http://www.jahia.org/jahia/mix/1.0'>\n" +
+            "[nt:base]\n" +
+            "[jmix:droppableContent] mixin\n";
+
+    @Test
+    public void testBatchIsOnlyVisibleAfterCommit() throws Exception {
+        final NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+
+        registry.beginBatch("module1");
+        parse(registry, "[jmix:module1] mixin\n[nt:module1] > nt:base, jmix:module1\n", "module1");
+        Assert.assertTrue(registry.hasNodeType("nt:module1"));
+        Assert.assertFalse(hasNodeTypeInOtherThread(registry, "nt:module1"));
+        registry.commitBatch();
+        Assert.assertTrue(hasNodeTypeInOtherThread(registry, "nt:module1"));
+        Assert.assertTrue(hasNodeTypeInOtherThread(registry, "jmix:module1"));
+
+        registry.beginBatch("module2");
+        parse(registry, "[nt:module2] > nt:base\n", "module2");
+        registry.rollbackBatch();
+        Assert.assertFalse(registry.hasNodeType("nt:module2"));
+
+        Assert.assertFalse(NodeTypeRegistry.getInstance().hasNodeType("nt:module1"));
+    }
+
+    @Test
+    public void testParallelRegistration() throws Exception {
+        final NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < 40; i++) {
+                final String systemId = "module" + i;
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        List<ExtendedNodeType> types = parseDefinitions(registry,
+                                "[jmix:" + systemId + "] mixin\n[nt:" + systemId + "] > nt:base, jmix:" + systemId + ", jmix:droppableContent\n",
+                                systemId);
+                        registry.registerNodeTypes(systemId, types);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(2 + 80, registry.getAllNodeTypes().getSize());
+        for (int i = 0; i < 40; i++) {
+            Assert.assertTrue(registry.getNodeType("nt:module" + i).isNodeType("jmix:droppableContent"));
+        }
+        Assert.assertEquals(40, registry.getNodeType("jmix:droppableContent").getDeclaredSubtypes().getSize());
+    }
+
+    @Test
+    public void testSupertypeClosureFollowsRegistryChanges() throws Exception {
+        NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+        parse(registry, "[jmix:a] mixin\n[nt:a] > nt:base, jmix:a\n[nt:b] > nt:a\n", "module-a");
+
+        ExtendedNodeType b = registry.getNodeType("nt:b");
+        Assert.assertTrue(b.getTypeId() >= 0);
+        Assert.assertTrue(b.isNodeType("nt:b"));
+        Assert.assertTrue(b.isNodeType("nt:a"));
+        Assert.assertTrue(b.isNodeType("jmix:a"));
+        Assert.assertTrue(b.isNodeType("nt:base"));
+        Assert.assertFalse(b.isNodeType("jmix:droppableContent"));
+        Assert.assertFalse(b.isNodeType("jmix:unknown"));
+        Assert.assertEquals(3, b.getSupertypes().length);
+        Assert.assertEquals(2, b.getPrimarySupertypes().length);
+        Assert.assertSame(b.getSupertypeSet(), b.getSupertypeSet());
+        Assert.assertEquals(2, registry.getNodeType("jmix:a").getSubtypesAsList().size());
+
+        // redefining a supertype must invalidate the memoized closures of its subtypes
+        parse(registry, "[nt:a] > nt:base, jmix:droppableContent\n", "module-a2");
+        b.validate();
+        Assert.assertTrue(b.isNodeType("jmix:droppableContent"));
+        Assert.assertFalse(b.isNodeType("jmix:a"));
+        Assert.assertEquals(3, b.getSupertypes().length);
+    }
+
+    @Test
+    public void testValidateKeepsClosuresWhenNothingChanged() throws Exception {
+        NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+        parse(registry, "[jmix:a] mixin\n[nt:a] > nt:base, jmix:a\n", "module-a");
+
+        ExtendedNodeType a = registry.getNodeType("nt:a");
+        Set<ExtendedNodeType> supertypes = a.getSupertypeSet();
+        int generation = registry.getGeneration();
+        a.validate();
+        Assert.assertEquals(generation, registry.getGeneration());
+        Assert.assertSame(supertypes, a.getSupertypeSet());
+
+        // a new subtype is a change of the hierarchy
+        parse(registry, "[nt:b] > nt:a\n", "module-b");
+        Assert.assertTrue(registry.getGeneration() > generation);
+        Assert.assertEquals(1, registry.getNodeType("nt:a").getSubtypesAsList().size());
+    }
+
+    @Test
+    public void testClosuresOfABatchAreNotShared() throws Exception {
+        final NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+        parse(registry, "[nt:a] > nt:base\n", "module-a");
+
+        registry.beginBatch("module-b");
+        parse(registry, "[nt:b] > nt:a\n", "module-b");
+        Assert.assertEquals(1, registry.getNodeType("nt:a").getSubtypesAsList().size());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            int subtypes = executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return registry.getNodeType("nt:a").getSubtypesAsList().size();
+                }
+            }).get();
+            Assert.assertEquals(0, subtypes);
+        } finally {
+            executor.shutdown();
+        }
+        registry.commitBatch();
+        Assert.assertEquals(1, registry.getNodeType("nt:a").getSubtypesAsList().size());
+    }
+
+    @Test
+    public void testSystemIdIndex() throws Exception {
+        NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+        parse(registry, "[jmix:a] mixin\n extends = nt:base\n - title (string) itemtype = content\n[nt:a] > nt:base\n", "module-a");
+        parse(registry, "[jmix:b] mixin\n extends = nt:base\n - title (string) itemtype = content\n[nt:b] > nt:a, jmix:a\n", "module-b");
+
+        Assert.assertEquals(2, registry.getNodeTypes("module-a").getSize());
+        Assert.assertEquals(0, registry.getNodeTypes("module-c").getSize());
+        Assert.assertEquals(2, registry.getMixinNodeTypes(Arrays.asList("module-a", "module-b", "module-a")).getSize());
+        Assert.assertEquals(1, registry.getPrimaryNodeTypes(Arrays.asList("module-b")).getSize());
+        Assert.assertEquals(6, registry.getAllNodeTypes(null).getSize());
+        Assert.assertEquals(2, registry.getMixinExtensions().get(registry.getNodeType("nt:base")).size());
+        Assert.assertEquals(2, registry.getTypedItems().get("content").size());
+
+        registry.unregisterNodeTypes("module-b");
+        Assert.assertEquals(0, registry.getNodeTypes("module-b").getSize());
+        Assert.assertFalse(registry.hasNodeType("nt:b"));
+        Assert.assertEquals(4, registry.getAllNodeTypes().getSize());
+        Assert.assertEquals(1, registry.getMixinExtensions().get(registry.getNodeType("nt:base")).size());
+        Assert.assertEquals(1, registry.getTypedItems().get("content").size());
+
+        registry.unregisterNodeTypes("module-a");
+        Assert.assertNull(registry.getMixinExtensions().get(registry.getNodeType("nt:base")));
+        Assert.assertNull(registry.getTypedItems().get("content"));
+        Assert.assertEquals(2, registry.getNodeTypes("system-base").getSize());
+    }
+
+    @Test
+    public void testPublishedStateIsNotModifiedByLaterBatches() throws Exception {
+        NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+        parse(registry, "[jmix:a] mixin\n extends = nt:base\n - title (string) itemtype = content\n[nt:a] > nt:base\n", "module-a");
+        Map<ExtendedNodeType, Set<ExtendedNodeType>> mixinExtensions = registry.getMixinExtensions();
+        Set<ExtendedNodeType> baseExtensions = mixinExtensions.get(registry.getNodeType("nt:base"));
+        Set<ExtendedItemDefinition> contentItems = registry.getTypedItems().get("content");
+
+        registry.beginBatch("module-b");
+        parse(registry, "[jmix:b] mixin\n extends = nt:base\n - title (string) itemtype = content\n[nt:b] > nt:a\n", "module-b");
+        parse(registry, "[jmix:c] mixin\n extends = nt:base\n[nt:a] > nt:base\n", "module-b");
+        Assert.assertEquals(3, registry.getMixinExtensions().get(registry.getNodeType("nt:base")).size());
+        registry.commitBatch();
+
+        Assert.assertEquals(1, baseExtensions.size());
+        Assert.assertEquals(1, contentItems.size());
+        Assert.assertEquals(1, mixinExtensions.get(registry.getNodeType("nt:base")).size());
+        Assert.assertEquals(2, registry.getTypedItems().get("content").size());
+        Assert.assertEquals(1, registry.getNodeTypes("module-a").getSize());
+        Assert.assertEquals(4, registry.getNodeTypes("module-b").getSize());
+
+        // a type registered again moves to the end of the registration order
+        NodeTypeIterator types = registry.getAllNodeTypes();
+        ExtendedNodeType last = null;
+        while (types.hasNext()) {
+            last = (ExtendedNodeType) types.nextNodeType();
+        }
+        Assert.assertEquals("nt:a", last.getName());
+    }
+
+    @Test
+    public void testRolledBackBatchLeavesNoSubtype() throws Exception {
+        final NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+        parse(registry, "[nt:a] > nt:base\n", "module-a");
+
+        registry.beginBatch("module-b");
+        parse(registry, "[nt:b] > nt:a\n", "module-b");
+        Assert.assertEquals(1, registry.getNodeType("nt:a").getDeclaredSubtypes().getSize());
+        Assert.assertEquals(1, registry.getNodeType("nt:a").getSubtypesAsList().size());
+        Assert.assertEquals(0, getDeclaredSubtypesCountInOtherThread(registry, "nt:a"));
+        registry.rollbackBatch();
+        Assert.assertEquals(0, registry.getNodeType("nt:a").getDeclaredSubtypes().getSize());
+        Assert.assertEquals(0, registry.getNodeType("nt:a").getSubtypesAsList().size());
+
+        registry.beginBatch("module-c");
+        parse(registry, "[nt:c] > nt:a\n", "module-c");
+        registry.commitBatch();
+        Assert.assertEquals(1, getDeclaredSubtypesCountInOtherThread(registry, "nt:a"));
+    }
+
+    @Test
+    public void testNestedRollbackDiscardsTheWholeBatch() throws Exception {
+        NodeTypeRegistry registry = new NodeTypeRegistry();
+        parse(registry, BASE_CND, "system-base");
+
+        registry.beginBatch("module-a");
+        parse(registry, "[nt:a] > nt:base\n", "module-a");
+        try {
+            registry.registerNodeTypes("module-a", parseDefinitions(registry, "[nt:b] > nt:unknown\n", "module-a"));
+            Assert.fail("nt:unknown should not be found");
+        } catch (NoSuchNodeTypeException e) {
+            // expected
+        }
+        Assert.assertTrue(registry.hasNodeType("nt:a"));
+        try {
+            registry.commitBatch();
+            Assert.fail("A batch rolled back by a nested call should not be published");
+        } catch (IllegalStateException e) {
+            Assert.assertFalse(e.getMessage().startsWith("No batch"));
+        }
+        Assert.assertFalse(registry.hasNodeType("nt:a"));
+        Assert.assertFalse(registry.hasNodeType("nt:b"));
+        Assert.assertEquals(0, registry.getNodeType("nt:base").getDeclaredSubtypes().getSize());
+
+        // the thread can start a new batch afterwards
+        registry.beginBatch("module-a");
+        parse(registry, "[nt:a] > nt:base\n", "module-a");
+        registry.commitBatch();
+        Assert.assertTrue(hasNodeTypeInOtherThread(registry, "nt:a"));
+    }
+
+    private static void parse(NodeTypeRegistry registry, String cnd, String systemId) throws Exception {
+        JahiaCndReader reader = new JahiaCndReader(new StringReader(cnd), systemId + ".cnd", systemId, registry);
+        reader.parse();
+        for (ExtendedNodeType nodeType : reader.getNodeTypesList()) {
+            nodeType.validate();
+        }
+    }
+
+    private static List<ExtendedNodeType> parseDefinitions(NodeTypeRegistry registry, String cnd, String systemId) throws Exception {
+        JahiaCndReader reader = new JahiaCndReader(new StringReader(cnd), systemId + ".cnd", systemId, registry);
+        reader.setDoRegister(false);
+        reader.parse();
+        return reader.getNodeTypesList();
+    }
+
+    private static long getDeclaredSubtypesCountInOtherThread(final NodeTypeRegistry registry, final String name) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return registry.getNodeType(name).getDeclaredSubtypes().getSize();
+                }
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static boolean hasNodeTypeInOtherThread(final NodeTypeRegistry registry, final String name) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return registry.hasNodeType(name);
+                }
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}